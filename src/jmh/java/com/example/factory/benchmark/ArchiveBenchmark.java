@@ -0,0 +1,92 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.service.EventArchiveService;
+import com.example.factory.service.EventService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The StatsBenchmark queries over a week of 100k events, all in the events table (archived=false)
+// or all moved to cold segments (archived=true). Setup prints the storage of both tiers; H2 runs on a
+// file here in both cases, since an in-memory database reports no table size. The stats cache is off.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(7 * 24 * 3600);
+    private static final Instant DAY_START = FROM.plusSeconds(3 * 24 * 3600);
+    private static final Instant DAY_END = DAY_START.plusSeconds(24 * 3600);
+    private static final long EDGE_SHIFT_SECONDS = 17 * 60;
+
+    @Param({"100000"})
+    public int events;
+
+    @Param({"true", "false"})
+    public boolean archived;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path dir = Files.createTempDirectory("jmh-archive");
+        context = BenchmarkContext.start(
+                "spring.datasource.url=jdbc:h2:file:" + dir.resolve("db") + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE",
+                "events.archive.dir=" + dir.resolve("segments"),
+                "events.stats-cache.enabled=false");
+        eventService = context.getBean(EventService.class);
+
+        EventGenerator generator = new EventGenerator(5, FROM, TO);
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            eventService.processBatch(generator.batch("ARC-" + loaded + "-", Math.min(1000, events - loaded)));
+        }
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.execute("CHECKPOINT SYNC");
+        Long tableBytes = jdbcTemplate.queryForObject("SELECT DISK_SPACE_USED('events')", Long.class);
+        System.out.printf("%nevents table: %,d bytes (%d per row), database file: %,d bytes%n",
+                tableBytes, tableBytes / events, Files.size(dir.resolve("db.mv.db")));
+
+        if (archived) {
+            context.getBean(EventArchiveService.class).archiveBefore(TO.plusSeconds(24 * 3600));
+            ColdSegmentStore coldStore = context.getBean(ColdSegmentStore.class);
+            System.out.printf("%d segments: %,d bytes (%d per row)%n",
+                    coldStore.segmentCount(), coldStore.totalBytes(), coldStore.totalBytes() / events);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MachineStatsResponse machineStatsUnaligned() {
+        return eventService.getStats(
+                EventGenerator.machineId(next++ % EventGenerator.MACHINES),
+                DAY_START.plusSeconds(EDGE_SHIFT_SECONDS),
+                DAY_END.plusSeconds(EDGE_SHIFT_SECONDS));
+    }
+
+    @Benchmark
+    public List<TopDefectLineResponse> topDefectLines() {
+        return eventService.getTopDefectLines(
+                EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.FactoryEventsApplication;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Arrays;
+
+// Starts the application without the web layer. The test classpath supplies the H2
+// datasource from src/test/resources; every JMH fork is a new JVM and gets an empty database.
+// Properties are passed as command-line arguments, so they override application.properties.
+final class BenchmarkContext {
+
+    private BenchmarkContext() {}
+
+    static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(FactoryEventsApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .properties("logging.level.root=WARN")
+                .run(Arrays.stream(properties).map(p -> "--" + p).toArray(String[]::new));
+    }
+}
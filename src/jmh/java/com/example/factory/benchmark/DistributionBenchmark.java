@@ -0,0 +1,107 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.repository.DistributionRepository;
+import com.example.factory.service.DistributionService;
+import com.example.factory.service.DistributionSketch;
+import com.example.factory.service.EventService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// Percentiles of an unaligned week, with and without the hourly distribution buckets:
+//   ingestNew    - a batch of 1000 new events, which also maintains the buckets when enabled
+//   machineWeek  - p50/p95/p99 of one machine (buckets: 166 whole hours plus two raw edges;
+//                  without: a sketch of every raw row, as the endpoint would have to read them)
+//   lineWeek     - the same for one line of 10 machines
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistributionBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(7 * 24 * 3600);
+    private static final Instant WEEK_START = FROM.plusSeconds(17 * 60);
+    private static final Instant WEEK_END = TO.minusSeconds(23 * 60);
+
+    @Param({"200000"})
+    public int events;
+
+    @Param({"true", "false"})
+    public boolean buckets;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private DistributionService distributionService;
+    private DistributionRepository repository;
+    private final EventGenerator generator = new EventGenerator(25, FROM, TO);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        context = BenchmarkContext.start(
+                "events.distribution.enabled=" + buckets,
+                "events.timeseries.enabled=false",
+                "events.stats-cache.enabled=false");
+        eventService = context.getBean(EventService.class);
+        distributionService = context.getBean(DistributionService.class);
+        repository = context.getBean(DistributionRepository.class);
+
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            eventService.processBatch(generator.batch("LOAD-" + loaded + "-", Math.min(1000, events - loaded)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public BatchResponse ingestNew() {
+        return eventService.processBatch(generator.batch("NEW-" + next++ + "-", 1000));
+    }
+
+    @Benchmark
+    public Object machineWeek() {
+        String machineId = EventGenerator.machineId(next++ % EventGenerator.MACHINES);
+        if (buckets) {
+            return distributionService.getMachineDistribution(machineId, WEEK_START, WEEK_END);
+        }
+        DistributionSketch[] sketches = {new DistributionSketch(), new DistributionSketch()};
+        repository.forEachMachineEvent(machineId, WEEK_START, WEEK_END,
+                (durationMs, defectCount) -> add(sketches, durationMs, defectCount));
+        return percentiles(sketches);
+    }
+
+    @Benchmark
+    public Object lineWeek() {
+        int line = next++ % (EventGenerator.FACTORIES * EventGenerator.LINES_PER_FACTORY);
+        String factoryId = EventGenerator.factoryId(line / EventGenerator.LINES_PER_FACTORY);
+        String lineId = EventGenerator.lineId(line);
+        if (buckets) {
+            return distributionService.getLineDistribution(factoryId, lineId, WEEK_START, WEEK_END);
+        }
+        DistributionSketch[] sketches = {new DistributionSketch(), new DistributionSketch()};
+        repository.forEachLineEvent(factoryId, lineId, WEEK_START, WEEK_END,
+                (durationMs, defectCount) -> add(sketches, durationMs, defectCount));
+        return percentiles(sketches);
+    }
+
+    private static void add(DistributionSketch[] sketches, long durationMs, int defectCount) {
+        sketches[0].add(durationMs);
+        if (defectCount >= 0) {
+            sketches[1].add(defectCount);
+        }
+    }
+
+    private static long[] percentiles(DistributionSketch[] sketches) {
+        return new long[] {sketches[0].percentile(50), sketches[0].percentile(95), sketches[0].percentile(99),
+                sketches[1].percentile(50), sketches[1].percentile(95), sketches[1].percentile(99)};
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.EventRequest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Seeded synthetic events with plant-like cardinalities: 4 factories x 10 lines x 10 machines.
+// Defects are mostly 0 with a tail (and ~1% unknown = -1), durations spread from 0.2 s to ~30 s.
+final class EventGenerator {
+
+    static final int FACTORIES = 4;
+    static final int LINES_PER_FACTORY = 10;
+    static final int MACHINES_PER_LINE = 10;
+    static final int MACHINES = FACTORIES * LINES_PER_FACTORY * MACHINES_PER_LINE;
+
+    private static final String[] FACTORY_IDS = new String[FACTORIES];
+    private static final String[] LINE_IDS = new String[FACTORIES * LINES_PER_FACTORY];
+    private static final String[] MACHINE_IDS = new String[MACHINES];
+
+    static {
+        for (int f = 0; f < FACTORIES; f++) {
+            FACTORY_IDS[f] = String.format("F%02d", f + 1);
+        }
+        for (int l = 0; l < LINE_IDS.length; l++) {
+            LINE_IDS[l] = String.format("L%02d-%02d", l / LINES_PER_FACTORY + 1, l % LINES_PER_FACTORY + 1);
+        }
+        for (int m = 0; m < MACHINES; m++) {
+            MACHINE_IDS[m] = String.format("M-%03d", m + 1);
+        }
+    }
+
+    private final Random random;
+    private final Instant from;
+    private final long windowSeconds;
+
+    EventGenerator(long seed, Instant from, Instant to) {
+        this.random = new Random(seed);
+        this.from = from;
+        this.windowSeconds = to.getEpochSecond() - from.getEpochSecond();
+    }
+
+    static String factoryId(int index) { return FACTORY_IDS[index]; }
+    static String machineId(int index) { return MACHINE_IDS[index]; }
+    static String lineId(int index) { return LINE_IDS[index]; }
+
+    EventRequest next(String eventId) {
+        int machine = random.nextInt(MACHINES);
+        int line = machine / MACHINES_PER_LINE;
+
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.eventTime = from.plusSeconds((long) (random.nextDouble() * windowSeconds));
+        e.factoryId = FACTORY_IDS[line / LINES_PER_FACTORY];
+        e.lineId = LINE_IDS[line];
+        e.machineId = MACHINE_IDS[machine];
+        e.durationMs = (long) (200 * Math.pow(150, random.nextDouble()));
+        e.defectCount = defects();
+        return e;
+    }
+
+    List<EventRequest> batch(String idPrefix, int size) {
+        List<EventRequest> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            events.add(next(idPrefix + i));
+        }
+        return events;
+    }
+
+    private int defects() {
+        int roll = random.nextInt(100);
+        if (roll < 80) return 0;
+        if (roll < 95) return 1 + random.nextInt(3);
+        if (roll < 99) return 4 + random.nextInt(10);
+        return -1;
+    }
+}
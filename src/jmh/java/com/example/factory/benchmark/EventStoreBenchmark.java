@@ -0,0 +1,79 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.service.EventService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The same EventService calls on both events.store.engine values, over a week of synthetic events:
+//   ingestNew              - a batch of 1000 new events
+//   machineStatsUnaligned  - 24 h window of one machine, every row read raw (rollup, time series and cache off)
+//   topDefectLines         - per-line totals of one factory over the whole week
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventStoreBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(7 * 24 * 3600);
+    private static final Instant DAY_START = FROM.plusSeconds(3 * 24 * 3600 + 17 * 60);
+    private static final Instant DAY_END = DAY_START.plusSeconds(24 * 3600);
+
+    @Param({"100000"})
+    public int events;
+
+    @Param({"jpa", "mmap"})
+    public String engine;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private final EventGenerator generator = new EventGenerator(7, FROM, TO);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        context = BenchmarkContext.start(
+                "events.store.engine=" + engine,
+                "events.store.dir=" + Files.createTempDirectory("event-store-benchmark"),
+                "events.timeseries.enabled=false",
+                "events.stats.rollup-enabled=false",
+                "events.stats-cache.enabled=false");
+        eventService = context.getBean(EventService.class);
+
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            eventService.processBatch(generator.batch("LOAD-" + loaded + "-", Math.min(1000, events - loaded)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public BatchResponse ingestNew() {
+        return eventService.processBatch(generator.batch("NEW-" + next++ + "-", 1000));
+    }
+
+    @Benchmark
+    public MachineStatsResponse machineStatsUnaligned() {
+        return eventService.getStats(EventGenerator.machineId(next++ % EventGenerator.MACHINES), DAY_START, DAY_END);
+    }
+
+    @Benchmark
+    public List<TopDefectLineResponse> topDefectLines() {
+        return eventService.getTopDefectLines(
+                EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.dto.TopDefectMachinesResponse;
+import com.example.factory.service.EventService;
+import com.example.factory.service.TopDefectMachinesService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Storage and the database query paths of the events table over a week of 100k events, with the generator's
+// short identifiers (idPadding=0, "F01", "L01-01", "M-001") or with every identifier prefixed by idPadding
+// characters, like site-qualified names. H2 runs on a file, which setup compacts after loading and prints
+// the size of; teardown drops the two window indexes of events and compacts again, the difference being
+// their size. Rollup, time series and stats cache are off, so every query reads raw rows.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdentifierKeyBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(7 * 24 * 3600);
+    private static final Instant DAY_START = FROM.plusSeconds(3 * 24 * 3600);
+    private static final Instant DAY_END = DAY_START.plusSeconds(24 * 3600);
+
+    @Param({"100000"})
+    public int events;
+
+    @Param({"0", "24"})
+    public int idPadding;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private TopDefectMachinesService topDefectMachinesService;
+    private String url;
+    private String user;
+    private String password;
+    private Path file;
+    private String prefix;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        Path dir = Files.createTempDirectory("jmh-keys");
+        url = "jdbc:h2:file:" + dir.resolve("db") + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        file = dir.resolve("db.mv.db");
+        prefix = "x".repeat(idPadding);
+
+        start();
+        EventGenerator generator = new EventGenerator(5, FROM, TO);
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            List<EventRequest> batch = generator.batch("KEY-" + loaded + "-", Math.min(1000, events - loaded));
+            for (EventRequest e : batch) {
+                e.factoryId = prefix + e.factoryId;
+                e.lineId = prefix + e.lineId;
+                e.machineId = prefix + e.machineId;
+            }
+            eventService.processBatch(batch);
+        }
+        context.close();
+
+        long size = compactedSize(null);
+        System.out.printf("%ndatabase with indexes: %,d bytes (%d per event)%n", size, size / events);
+        start();
+    }
+
+    private void start() {
+        context = BenchmarkContext.start(
+                "spring.datasource.url=" + url,
+                "events.stats.rollup-enabled=false",
+                "events.timeseries.enabled=false",
+                "events.stats-cache.enabled=false");
+        user = context.getEnvironment().getProperty("spring.datasource.username");
+        password = context.getEnvironment().getProperty("spring.datasource.password");
+        eventService = context.getBean(EventService.class);
+        topDefectMachinesService = context.getBean(TopDefectMachinesService.class);
+    }
+
+    // Size of the database file once H2 has rewritten it without free space, after running the statements
+    private long compactedSize(String statements) throws Exception {
+        try (Connection connection = DriverManager.getConnection(url, user, password);
+             Statement statement = connection.createStatement()) {
+            if (statements != null) {
+                statement.execute(statements);
+            }
+            statement.execute("SHUTDOWN COMPACT");
+        }
+        return Files.size(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        context.close();
+        long withIndexes = compactedSize(null);
+        long withoutIndexes = compactedSize("DROP INDEX idx_events_machine_time; DROP INDEX idx_events_factory_time_line");
+        System.out.printf("%ndatabase without window indexes: %,d bytes (%d per event), window indexes: %,d bytes (%d per event)%n",
+                withoutIndexes, withoutIndexes / events, withIndexes - withoutIndexes, (withIndexes - withoutIndexes) / events);
+    }
+
+    @Benchmark
+    public MachineStatsResponse machineStatsDay() {
+        return eventService.getStats(
+                prefix + EventGenerator.machineId(next++ % EventGenerator.MACHINES), DAY_START, DAY_END);
+    }
+
+    @Benchmark
+    public List<TopDefectLineResponse> topDefectLines() {
+        return eventService.getTopDefectLines(
+                prefix + EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10);
+    }
+
+    @Benchmark
+    public TopDefectMachinesResponse topDefectMachinesExact() {
+        return topDefectMachinesService.getTopDefectMachines(
+                prefix + EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10,
+                TopDefectMachinesService.Mode.EXACT);
+    }
+}
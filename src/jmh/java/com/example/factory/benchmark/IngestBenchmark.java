@@ -0,0 +1,114 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.service.EventService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// EventService.processBatch for one batch, end to end against H2:
+//   allNew        - every event is inserted
+//   allDuplicate  - the same stored batch is re-sent (dedup cache or DB lookup, depending on dedupCache)
+//   mixedUpdate   - half of a stored batch changes payload, the other half is re-sent unchanged
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(24 * 3600);
+
+    @State(Scope.Benchmark)
+    public static class App {
+
+        @Param({"1000"})
+        public int batchSize;
+
+        @Param({"BULK"})
+        public EventService.IngestMode mode;
+
+        @Param({"true", "false"})
+        public boolean dedupCache;
+
+        ConfigurableApplicationContext context;
+        EventService eventService;
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = BenchmarkContext.start("events.dedup-cache.enabled=" + dedupCache);
+            eventService = context.getBean(EventService.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NewEvents {
+
+        private final EventGenerator generator = new EventGenerator(1, FROM, TO);
+        private int round;
+        List<EventRequest> batch;
+
+        @Setup(Level.Invocation)
+        public void nextBatch(App app) {
+            batch = generator.batch("NEW-" + round++ + "-", app.batchSize);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DuplicateEvents {
+
+        List<EventRequest> batch;
+
+        @Setup(Level.Trial)
+        public void store(App app) {
+            batch = new EventGenerator(2, FROM, TO).batch("DUP-", app.batchSize);
+            app.eventService.processBatch(batch, app.mode);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MixedEvents {
+
+        List<EventRequest> batch;
+
+        @Setup(Level.Trial)
+        public void store(App app) {
+            batch = new EventGenerator(3, FROM, TO).batch("MIX-", app.batchSize);
+            app.eventService.processBatch(batch, app.mode);
+        }
+
+        // Every even event flips between two payloads, so each invocation updates it again
+        @Setup(Level.Invocation)
+        public void changeHalf() {
+            for (int i = 0; i < batch.size(); i += 2) {
+                EventRequest e = batch.get(i);
+                e.durationMs ^= 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public BatchResponse allNew(App app, NewEvents events) {
+        return app.eventService.processBatch(events.batch, app.mode);
+    }
+
+    @Benchmark
+    public BatchResponse allDuplicate(App app, DuplicateEvents events) {
+        return app.eventService.processBatch(events.batch, app.mode);
+    }
+
+    @Benchmark
+    public BatchResponse mixedUpdate(App app, MixedEvents events) {
+        return app.eventService.processBatch(events.batch, app.mode);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.service.BinaryEventFormat;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Decoding one 1000-event batch body as JSON (the ObjectMapper Spring Boot configures) and as
+// application/x-factory-events, per event. Setup prints the size of both bodies.
+// Run with -prof gc to compare allocation rates (gc.alloc.rate.norm is bytes/op).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(IngestFormatBenchmark.EVENTS)
+public class IngestFormatBenchmark {
+
+    static final int EVENTS = 1000;
+
+    private static final TypeReference<List<EventRequest>> BATCH = new TypeReference<>() {};
+
+    private ObjectMapper objectMapper;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        Instant from = Instant.parse("2025-01-01T00:00:00Z");
+        List<EventRequest> events = new EventGenerator(7, from, from.plusSeconds(24 * 3600)).batch("E-", EVENTS);
+
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        json = objectMapper.writeValueAsBytes(events);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEventFormat.write(events, out);
+        binary = out.toByteArray();
+
+        System.out.printf("%njson: %,d bytes (%d per event), binary: %,d bytes (%d per event)%n",
+                json.length, json.length / EVENTS, binary.length, binary.length / EVENTS);
+    }
+
+    @Benchmark
+    public List<EventRequest> json() throws IOException {
+        return objectMapper.readValue(new ByteArrayInputStream(json), BATCH);
+    }
+
+    @Benchmark
+    public List<EventRequest> binary() throws IOException {
+        return BinaryEventFormat.read(new ByteArrayInputStream(binary));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.service.PayloadFingerprint;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// Old String-concatenation hash vs the streaming 64-bit fingerprint, per event.
+// Run with -prof gc to compare allocation rates (gc.alloc.rate.norm is bytes/op).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadFingerprintBenchmark {
+
+    private static final int EVENTS = 1024;
+
+    private final EventRequest[] events = new EventRequest[EVENTS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Instant from = Instant.parse("2025-01-01T00:00:00Z");
+        new EventGenerator(6, from, from.plusSeconds(24 * 3600)).batch("E-", EVENTS).toArray(events);
+    }
+
+    private EventRequest nextEvent() {
+        return events[next++ & (EVENTS - 1)];
+    }
+
+    @Benchmark
+    public String legacyStringHash() {
+        EventRequest req = nextEvent();
+        String payload =
+                req.eventId + "|" +
+                        req.factoryId + "|" +
+                        req.lineId + "|" +
+                        req.machineId + "|" +
+                        req.durationMs + "|" +
+                        req.defectCount;
+
+        return Integer.toHexString(payload.hashCode());
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        return PayloadFingerprint.of(nextEvent());
+    }
+}
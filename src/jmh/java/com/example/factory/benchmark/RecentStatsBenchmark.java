@@ -0,0 +1,64 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.service.EventService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// Dashboard-style /stats windows ending now, over the last 24 h of synthetic events (100k rows by default):
+//   lastHour  - [now - 1 h, now)
+//   lastDay   - [now - 24 h, now)
+// With timeSeries=true whole minutes come from MachineTimeSeries, otherwise from the rollup and raw rows.
+// The stats cache is off.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecentStatsBenchmark {
+
+    @Param({"100000"})
+    public int events;
+
+    @Param({"true", "false"})
+    public boolean timeSeries;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        context = BenchmarkContext.start("events.timeseries.enabled=" + timeSeries, "events.stats-cache.enabled=false");
+        eventService = context.getBean(EventService.class);
+
+        Instant now = Instant.now();
+        EventGenerator generator = new EventGenerator(8, now.minusSeconds(24 * 3600), now);
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            eventService.processBatch(generator.batch("RECENT-" + loaded + "-", Math.min(1000, events - loaded)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MachineStatsResponse lastHour() {
+        Instant now = Instant.now();
+        return eventService.getStats(
+                EventGenerator.machineId(next++ % EventGenerator.MACHINES), now.minusSeconds(3600), now);
+    }
+
+    @Benchmark
+    public MachineStatsResponse lastDay() {
+        Instant now = Instant.now();
+        return eventService.getStats(
+                EventGenerator.machineId(next++ % EventGenerator.MACHINES), now.minusSeconds(24 * 3600), now);
+    }
+}
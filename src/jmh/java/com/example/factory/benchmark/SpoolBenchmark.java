@@ -0,0 +1,67 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.service.EventSpool;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Latency of EventSpool.append for a 1000-event batch, until it is on disk, from one thread and from eight
+// appending at once, which share fsyncs. The spool is a temporary directory on the build's disk; each
+// iteration ends by reading back and confirming everything, so its segments are deleted. Teardown prints
+// the batches appended per fsync.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpoolBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+
+    private EventSpool spool;
+    private List<EventRequest> batch;
+    private final AtomicLong appended = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        spool = new EventSpool(Files.createTempDirectory("jmh-spool"), 64L << 20);
+        batch = new EventGenerator(8, FROM, FROM.plusSeconds(24 * 3600)).batch("SPOOL-", 1000);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws IOException {
+        EventSpool.Record record;
+        while ((record = spool.next()) != null) {
+            spool.markReplayed(record.sequence());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        System.out.printf("%n%,d batches appended with %,d fsyncs (%.1f per fsync)%n",
+                appended.get(), spool.syncs(), (double) appended.get() / spool.syncs());
+        spool.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long append() throws IOException {
+        appended.incrementAndGet();
+        return spool.append(batch, Instant.now());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long appendConcurrently() throws IOException {
+        appended.incrementAndGet();
+        return spool.append(batch, Instant.now());
+    }
+}
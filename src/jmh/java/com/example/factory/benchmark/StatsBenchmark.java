@@ -0,0 +1,96 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.dto.TopDefectMachinesResponse;
+import com.example.factory.service.EventService;
+import com.example.factory.service.TopDefectMachinesService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Query paths over a week of synthetic events (100k rows by default):
+//   machineStatsAligned    - 24 h window on hour boundaries, answered from the hourly rollup when enabled
+//   machineStatsUnaligned  - same window shifted by 17 min, so both partial edge hours read raw rows
+//   topDefectLines         - GROUP BY line over the whole week for one factory
+//   topDefectMachines*     - top 10 machines of one factory over the whole week, exact (GROUP BY machine streamed
+//                            through a bounded heap) and approximate (defective rows through Space-Saving)
+// The stats cache is off, so every call computes its result (see StatsCacheBenchmark).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatsBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(7 * 24 * 3600);
+    private static final Instant DAY_START = FROM.plusSeconds(3 * 24 * 3600);
+    private static final Instant DAY_END = DAY_START.plusSeconds(24 * 3600);
+    private static final long EDGE_SHIFT_SECONDS = 17 * 60;
+
+    @Param({"100000"})
+    public int events;
+
+    @Param({"true", "false"})
+    public boolean rollup;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private TopDefectMachinesService topDefectMachinesService;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        context = BenchmarkContext.start("events.stats.rollup-enabled=" + rollup, "events.stats-cache.enabled=false");
+        eventService = context.getBean(EventService.class);
+        topDefectMachinesService = context.getBean(TopDefectMachinesService.class);
+
+        EventGenerator generator = new EventGenerator(5, FROM, TO);
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            eventService.processBatch(generator.batch("STAT-" + loaded + "-", Math.min(1000, events - loaded)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MachineStatsResponse machineStatsAligned() {
+        return eventService.getStats(EventGenerator.machineId(next++ % EventGenerator.MACHINES), DAY_START, DAY_END);
+    }
+
+    @Benchmark
+    public MachineStatsResponse machineStatsUnaligned() {
+        return eventService.getStats(
+                EventGenerator.machineId(next++ % EventGenerator.MACHINES),
+                DAY_START.plusSeconds(EDGE_SHIFT_SECONDS),
+                DAY_END.plusSeconds(EDGE_SHIFT_SECONDS));
+    }
+
+    @Benchmark
+    public List<TopDefectLineResponse> topDefectLines() {
+        return eventService.getTopDefectLines(
+                EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10);
+    }
+
+    @Benchmark
+    public TopDefectMachinesResponse topDefectMachinesExact() {
+        return topDefectMachinesService.getTopDefectMachines(
+                EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10,
+                TopDefectMachinesService.Mode.EXACT);
+    }
+
+    @Benchmark
+    public TopDefectMachinesResponse topDefectMachinesApproximate() {
+        return topDefectMachinesService.getTopDefectMachines(
+                EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10,
+                TopDefectMachinesService.Mode.APPROXIMATE);
+    }
+}
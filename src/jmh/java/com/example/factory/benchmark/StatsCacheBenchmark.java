@@ -0,0 +1,79 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.service.EventService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// StatsBenchmark's historical windows repeated by dashboards, with and without the stats cache.
+// Setup queries every machine's window once, and each factory's window is cached after its first call,
+// so with cache=true the measurement is the hit path. ingestOutsideWindows writes 100 events per call into the day after
+// the cached windows: each one looks at its machine's cached entries, and none is evicted.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatsCacheBenchmark {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = FROM.plusSeconds(7 * 24 * 3600);
+    private static final Instant DAY_START = FROM.plusSeconds(3 * 24 * 3600);
+    private static final Instant DAY_END = DAY_START.plusSeconds(24 * 3600);
+
+    @Param({"100000"})
+    public int events;
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private EventGenerator laterEvents;
+    private int next;
+    private int written;
+
+    @Setup(Level.Trial)
+    public void load() {
+        context = BenchmarkContext.start("events.stats-cache.enabled=" + cache);
+        eventService = context.getBean(EventService.class);
+
+        EventGenerator generator = new EventGenerator(5, FROM, TO);
+        for (int loaded = 0; loaded < events; loaded += 1000) {
+            eventService.processBatch(generator.batch("CACHE-" + loaded + "-", Math.min(1000, events - loaded)));
+        }
+        laterEvents = new EventGenerator(6, TO, TO.plusSeconds(24 * 3600));
+
+        for (int m = 0; m < EventGenerator.MACHINES; m++) {
+            eventService.getStats(EventGenerator.machineId(m), DAY_START, DAY_END);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MachineStatsResponse machineStatsAligned() {
+        return eventService.getStats(EventGenerator.machineId(next++ % EventGenerator.MACHINES), DAY_START, DAY_END);
+    }
+
+    @Benchmark
+    public List<TopDefectLineResponse> topDefectLines() {
+        return eventService.getTopDefectLines(
+                EventGenerator.factoryId(next++ % EventGenerator.FACTORIES), FROM, TO, 10);
+    }
+
+    @Benchmark
+    public BatchResponse ingestOutsideWindows() {
+        return eventService.processBatch(laterEvents.batch("LATER-" + written++ + "-", 100));
+    }
+}
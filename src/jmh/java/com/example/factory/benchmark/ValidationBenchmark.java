@@ -0,0 +1,56 @@
+package com.example.factory.benchmark;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.repository.JpaEventStore;
+import com.example.factory.service.EventMetrics;
+import com.example.factory.service.EventService;
+import com.example.factory.service.StatsCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// EventService.validateBatch over one batch with ~2% invalid events (bad duration or future eventTime)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private EventService eventService;
+    private List<EventRequest> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        // validateBatch only touches the metrics (for rejections)
+        eventService = new EventService(new JpaEventStore(null, null), null, null, null, null, null, null, null,
+                new ColdSegmentStore(new SimpleMeterRegistry(), "target/no-archive"),
+                new StatsCache(new SimpleMeterRegistry(), false, 0, 0, false),
+                new EventMetrics(new SimpleMeterRegistry(), 200), null, null, EventService.IngestMode.BULK, true);
+
+        Instant now = Instant.now();
+        batch = new EventGenerator(4, now.minusSeconds(24 * 3600), now).batch("VAL-", batchSize);
+        for (int i = 0; i < batch.size(); i += 50) {
+            if (i % 100 == 0) {
+                batch.get(i).durationMs = -1;
+            } else {
+                batch.get(i).eventTime = now.plusSeconds(3600);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<EventRequest> validateBatch() {
+        return eventService.validateBatch(batch, new BatchResponse());
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// Cost of the ingestion metrics for one 1000-event batch (package-private BatchWrite, hence this package):
+//   uninstrumented - the plain BatchResponse counter increments processBatch did before
+//   instrumented   - per-event outcome tally, per-stage timing and publishing to a Prometheus registry
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventMetricsBenchmark {
+
+    private static final int EVENTS = 1000;
+    private static final String[] FACTORIES = {"F01", "F02", "F03", "F04"};
+
+    private EventMetrics metrics;
+
+    @Setup
+    public void setUp() {
+        metrics = new EventMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), 200);
+    }
+
+    @Benchmark
+    public BatchResponse uninstrumented() {
+        BatchResponse response = new BatchResponse();
+        for (int i = 0; i < EVENTS; i++) {
+            if (i % 2 == 0) {
+                response.accepted++;
+            } else {
+                response.deduped++;
+            }
+        }
+        return response;
+    }
+
+    @Benchmark
+    public BatchResponse instrumented() {
+        long started = System.nanoTime();
+        BatchWrite write = new BatchWrite(Instant.now(), new BatchResponse());
+        for (EventMetrics.Stage stage : EventMetrics.Stage.values()) {
+            write.time(stage, System.nanoTime());
+        }
+        for (int i = 0; i < EVENTS; i++) {
+            write.count(i % 2 == 0 ? EventMetrics.Outcome.ACCEPTED : EventMetrics.Outcome.DEDUPED,
+                    FACTORIES[i & 3]);
+        }
+        metrics.record(write, EventService.IngestMode.BULK, EVENTS, System.nanoTime() - started);
+        return write.response;
+    }
+}
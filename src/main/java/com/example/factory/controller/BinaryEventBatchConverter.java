@@ -0,0 +1,73 @@
+package com.example.factory.controller;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.service.BinaryEventFormat;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
+// Reads and writes List<EventRequest> bodies in BinaryEventFormat, so @RequestBody List<EventRequest> accepts
+// them next to JSON, chosen by Content-Type. Spring Boot adds HttpMessageConverter beans to MVC and RestClient.
+@Component
+public class BinaryEventBatchConverter extends AbstractGenericHttpMessageConverter<List<EventRequest>> {
+
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(BinaryEventFormat.MEDIA_TYPE);
+
+    public BinaryEventBatchConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Type type, @Nullable Class<?> contextClass, @Nullable MediaType mediaType) {
+        return isEventList(type) && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(@Nullable Type type, Class<?> clazz, @Nullable MediaType mediaType) {
+        return type != null && isEventList(type) && canWrite(mediaType);
+    }
+
+    private static boolean isEventList(Type type) {
+        ResolvableType resolved = ResolvableType.forType(type);
+        return List.class.isAssignableFrom(resolved.toClass())
+                && resolved.getGeneric(0).toClass() == EventRequest.class;
+    }
+
+    @Override
+    public List<EventRequest> read(Type type, @Nullable Class<?> contextClass, HttpInputMessage inputMessage)
+            throws IOException {
+        return readInternal(null, inputMessage);
+    }
+
+    @Override
+    protected List<EventRequest> readInternal(
+            @Nullable Class<? extends List<EventRequest>> clazz,
+            HttpInputMessage inputMessage
+    ) throws IOException {
+        try {
+            return BinaryEventFormat.read(inputMessage.getBody());
+        } catch (BinaryEventFormat.MalformedException e) {
+            throw new HttpMessageNotReadableException("Malformed event batch: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(List<EventRequest> events, @Nullable Type type, HttpOutputMessage outputMessage)
+            throws IOException {
+        BinaryEventFormat.write(events, outputMessage.getBody());
+    }
+}
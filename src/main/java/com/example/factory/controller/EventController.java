@@ -1,38 +1,253 @@
 package com.example.factory.controller;
 import com.example.factory.dto.MachineStatsResponse;
 import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.BatchStatusResponse;
 import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.EventExportRepository;
+import com.example.factory.service.AsyncIngestService;
+import com.example.factory.service.BinaryEventFormat;
+import com.example.factory.service.ClusterRouter;
+import com.example.factory.service.EventExportService;
 import com.example.factory.service.EventService;
+import com.example.factory.service.SpoolIngestService;
+import com.example.factory.service.StreamingIngestService;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/events")
 public class EventController {
 
     private final EventService service;
+    private final ClusterRouter router;
+    private final StreamingIngestService streamingIngestService;
+    private final AsyncIngestService asyncIngestService;
+    private final SpoolIngestService spoolIngestService;
+    private final EventExportService exportService;
+    private final long retryAfterSeconds;
+    private final long persistedAckTimeoutMs;
 
-    public EventController(EventService service) {
+    public EventController(
+            EventService service,
+            ClusterRouter router,
+            StreamingIngestService streamingIngestService,
+            AsyncIngestService asyncIngestService,
+            SpoolIngestService spoolIngestService,
+            EventExportService exportService,
+            @Value("${events.async.retry-after-seconds:1}") long retryAfterSeconds,
+            @Value("${events.async.persisted-ack-timeout-ms:10000}") long persistedAckTimeoutMs
+    ) {
         this.service = service;
+        this.router = router;
+        this.streamingIngestService = streamingIngestService;
+        this.asyncIngestService = asyncIngestService;
+        this.spoolIngestService = spoolIngestService;
+        this.exportService = exportService;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.persistedAckTimeoutMs = persistedAckTimeoutMs;
     }
 
+    // Without ack the batch is processed synchronously as before.
+    // ack=received queues it and returns 202 with a batch token,
+    // ack=persisted queues it and waits for the writer's result,
+    // ack=spooled appends it to the local spool and returns 202 once it is on disk.
+    // In cluster mode events are routed to their machine's node; a batch forwarded by another node is
+    // processed here as it is, with the time a spooled batch was received when it is one.
+    // The body is JSON or, with Content-Type application/x-factory-events, BinaryEventFormat.
     @PostMapping("/batch")
-    public ResponseEntity<BatchResponse> ingestBatch(
-            @RequestBody List<EventRequest> events
+    public ResponseEntity<?> ingestBatch(
+            @RequestBody List<EventRequest> events,
+            @RequestParam(required = false) String ack,
+            @RequestHeader(name = ClusterRouter.FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(name = ClusterRouter.RECEIVED_AT_HEADER, required = false) Instant receivedAt
     ) {
-        BatchResponse response = service.processBatch(events);
-        return ResponseEntity.ok(response);
+        if (forwardedBy != null) {
+            return ResponseEntity.ok(receivedAt == null
+                    ? service.processBatch(events)
+                    : service.processBatch(events, receivedAt));
+        }
+        if (ack == null) {
+            BatchResponse response = router.processBatch(events);
+            return ResponseEntity.ok(response);
+        }
+        if (ack.equals("spooled")) {
+            return spool(events);
+        }
+        if (!ack.equals("received") && !ack.equals("persisted")) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "ack must be 'received', 'persisted' or 'spooled'");
+        }
+        if (!asyncIngestService.fitsQueue(events.size())) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+
+        Optional<AsyncIngestService.Ticket> queued = asyncIngestService.submit(events);
+        if (queued.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
+        }
+
+        AsyncIngestService.Ticket ticket = queued.get();
+        if (ack.equals("persisted")) {
+            try {
+                return ResponseEntity.ok(
+                        ticket.result.get(persistedAckTimeoutMs, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                // still queued, the client can poll the token like with ack=received
+            } catch (ExecutionException e) {
+                throw new ResponseStatusException(
+                        HttpStatus.INTERNAL_SERVER_ERROR, "Batch could not be persisted", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.LOCATION, "/events/batch/" + ticket.token)
+                .body(asyncIngestService.status(ticket.token).orElseThrow());
+    }
+
+    // The parts of several batches that another node's ClusterRouter.processBatches forwarded together,
+    // written in one transaction with one response per part
+    @PostMapping("/batches")
+    public List<BatchResponse> ingestForwardedBatches(
+            @RequestBody List<EventRequest> events,
+            @RequestHeader(ClusterRouter.BATCH_SIZES_HEADER) List<Integer> sizes
+    ) {
+        if (sizes.stream().anyMatch(size -> size < 0)
+                || sizes.stream().mapToInt(Integer::intValue).sum() != events.size()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch sizes do not add up to the events");
+        }
+        List<List<EventRequest>> batches = new ArrayList<>(sizes.size());
+        int from = 0;
+        for (int size : sizes) {
+            batches.add(events.subList(from, from + size));
+            from += size;
+        }
+        return service.processBatches(batches);
+    }
+
+    // Old payloads of events that another node moved off machines this node owns (see ClusterRouter)
+    @PostMapping("/moved")
+    public ResponseEntity<Void> removeMoved(@RequestBody List<EventRequest> previous) {
+        service.removeMoved(previous);
+        return ResponseEntity.noContent().build();
+    }
+
+    private ResponseEntity<?> spool(List<EventRequest> events) {
+        if (!spoolIngestService.enabled()) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "ack=spooled needs events.spool.enabled=true");
+        }
+        Optional<BatchStatusResponse> spooled = spoolIngestService.submit(events);
+        if (spooled.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
+        }
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.LOCATION, "/events/batch/" + spooled.get().token)
+                .body(spooled.get());
     }
+
+    @GetMapping("/batch/{token}")
+    public ResponseEntity<BatchStatusResponse> getBatchStatus(@PathVariable String token) {
+        return ResponseEntity.of(spoolIngestService.status(token).or(() -> asyncIngestService.status(token)));
+    }
+
+    // Newline-delimited JSON, one EventRequest per line, processed in chunks while reading
+    @PostMapping(value = "/stream", consumes = {"application/x-ndjson", "application/jsonl"})
+    public ResponseEntity<BatchResponse> ingestStream(InputStream body) throws IOException {
+        try {
+            return ResponseEntity.ok(streamingIngestService.ingest(body));
+        } catch (JsonProcessingException e) {
+            // chunks before the malformed line are already committed
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "Malformed event: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    // The same for a BinaryEventFormat body
+    @PostMapping(value = "/stream", consumes = BinaryEventFormat.MEDIA_TYPE)
+    public ResponseEntity<BatchResponse> ingestBinaryStream(InputStream body) throws IOException {
+        try {
+            return ResponseEntity.ok(streamingIngestService.ingestBinary(body));
+        } catch (BinaryEventFormat.MalformedException e) {
+            // chunks before the malformed record are already committed
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed event: " + e.getMessage(), e);
+        }
+    }
+
+    // Raw events of one machine or factory in [from, to), ordered by (eventTime, eventId), written while they
+    // are read: format=ndjson (default) or csv. A broken-off export continues with afterTime and afterEventId
+    // set to the last row received; limit caps the rows of one response.
+    @GetMapping("/export")
+    public void export(
+            @RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String factoryId,
+            @RequestParam Instant from,
+            @RequestParam Instant to,
+            @RequestParam(required = false) Instant afterTime,
+            @RequestParam(required = false) String afterEventId,
+            @RequestParam(defaultValue = "0") long limit,
+            @RequestParam(defaultValue = "ndjson") String format,
+            HttpServletResponse response
+    ) throws IOException {
+        if ((machineId == null) == (factoryId == null)) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "exactly one of machineId and factoryId is required");
+        }
+        if ((afterTime == null) != (afterEventId == null)) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "afterTime and afterEventId go together");
+        }
+        if (!format.equals("ndjson") && !format.equals("csv")) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "format must be 'ndjson' or 'csv'");
+        }
+        if (limit < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must not be negative");
+        }
+
+        boolean csv = format.equals("csv");
+        response.setContentType(csv ? "text/csv;charset=UTF-8" : "application/x-ndjson");
+        exportService.export(
+                machineId != null ? EventExportRepository.Scope.MACHINE : EventExportRepository.Scope.FACTORY,
+                machineId != null ? machineId : factoryId,
+                from, to, afterTime, afterEventId, limit,
+                csv ? EventExportService.Format.CSV : EventExportService.Format.NDJSON,
+                response.getOutputStream());
+    }
+
+    // Same as GET /stats: in cluster mode answered by the machine's node
     @GetMapping("/stats")
     public MachineStatsResponse getMachineStats(
             @RequestParam String machineId,
             @RequestParam Instant start,
-            @RequestParam Instant end
+            @RequestParam Instant end,
+            @RequestHeader(name = ClusterRouter.FORWARDED_HEADER, required = false) String forwardedBy
     ) {
-        return service.getStats(machineId, start, end);
+        if (forwardedBy != null) {
+            return service.getStats(machineId, start, end);
+        }
+        return router.getStats(machineId, start, end);
     }
 }
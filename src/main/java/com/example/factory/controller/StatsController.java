@@ -1,13 +1,33 @@
 package com.example.factory.controller;
 
+import com.example.factory.dto.DistributionStatsResponse;
+import com.example.factory.dto.MachineStatsBulkRequest;
+import com.example.factory.dto.MachineStatsBulkResponse;
 import com.example.factory.dto.MachineStatsResponse;
 import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.dto.TopDefectMachinesResponse;
+import com.example.factory.service.ClusterMembership;
+import com.example.factory.service.ClusterRouter;
+import com.example.factory.service.DistributionService;
 import com.example.factory.service.EventService;
+import com.example.factory.service.LiveStatsService;
+import com.example.factory.service.MachineStatsBulkService;
+import com.example.factory.service.TopDefectMachinesService;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.Instant;
 import java.util.List;
@@ -17,18 +37,67 @@ import java.util.List;
 public class StatsController {
 
     private final EventService eventService;
+    private final LiveStatsService liveStatsService;
+    private final TopDefectMachinesService topDefectMachinesService;
+    private final MachineStatsBulkService machineStatsBulkService;
+    private final DistributionService distributionService;
+    private final ClusterRouter router;
+    private final ClusterMembership membership;
 
-    public StatsController(EventService eventService) {
+    public StatsController(
+            EventService eventService,
+            ClusterRouter router,
+            ClusterMembership membership,
+            LiveStatsService liveStatsService,
+            TopDefectMachinesService topDefectMachinesService,
+            MachineStatsBulkService machineStatsBulkService,
+            DistributionService distributionService
+    ) {
         this.eventService = eventService;
+        this.router = router;
+        this.membership = membership;
+        this.liveStatsService = liveStatsService;
+        this.topDefectMachinesService = topDefectMachinesService;
+        this.machineStatsBulkService = machineStatsBulkService;
+        this.distributionService = distributionService;
     }
 
+    // In cluster mode answered by the machine's node, which holds its recent stats in memory
     @GetMapping
     public MachineStatsResponse getMachineStats(
             @RequestParam String machineId,
             @RequestParam Instant start,
-            @RequestParam Instant end
+            @RequestParam Instant end,
+            @RequestHeader(name = ClusterRouter.FORWARDED_HEADER, required = false) String forwardedBy
     ) {
-        return eventService.getMachineStats(machineId, start, end);
+        if (forwardedBy != null) {
+            return eventService.getMachineStats(machineId, start, end);
+        }
+        return router.getStats(machineId, start, end);
+    }
+
+    // Stats of many machines over one window. Answers with the machines that finished within the timeout;
+    // the others are listed in timedOut or failed and the response has complete=false.
+    @PostMapping("/machines")
+    public MachineStatsBulkResponse getMachinesStats(@RequestBody MachineStatsBulkRequest request) {
+        if (request.machineIds == null || request.machineIds.isEmpty()
+                || request.machineIds.stream().anyMatch(id -> id == null || id.isBlank())) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "machineIds must be a non-empty list of machine ids");
+        }
+        if (request.machineIds.size() > machineStatsBulkService.maxMachines()) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "at most " + machineStatsBulkService.maxMachines() + " machineIds");
+        }
+        if (request.start == null || request.end == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "start and end are required");
+        }
+        if (request.timeoutMs != null
+                && (request.timeoutMs <= 0 || request.timeoutMs > machineStatsBulkService.maxTimeoutMs())) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "timeoutMs must be between 1 and " + machineStatsBulkService.maxTimeoutMs());
+        }
+        return machineStatsBulkService.getStats(request.machineIds, request.start, request.end, request.timeoutMs);
     }
 
     @GetMapping("/top-defect-lines")
@@ -40,4 +109,88 @@ public class StatsController {
     ) {
         return eventService.getTopDefectLines(factoryId, from, to, limit);
     }
+
+    // Without factoryId across all factories. mode=approximate bounds memory and skips the per-machine
+    // GROUP BY for very many machines; the response says whether the result is exact.
+    @GetMapping("/top-defect-machines")
+    public TopDefectMachinesResponse getTopDefectMachines(
+            @RequestParam(required = false) String factoryId,
+            @RequestParam Instant from,
+            @RequestParam Instant to,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "exact") String mode
+    ) {
+        if (!mode.equals("exact") && !mode.equals("approximate")) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "mode must be 'exact' or 'approximate'");
+        }
+        return topDefectMachinesService.getTopDefectMachines(factoryId, from, to, limit,
+                mode.equals("exact") ? TopDefectMachinesService.Mode.EXACT : TopDefectMachinesService.Mode.APPROXIMATE);
+    }
+
+    // p50/p95/p99 of durations and defect counts in [start, end), of a machineId or of a factoryId's lineId.
+    // Answered by any node: the buckets are in the shared database.
+    @GetMapping("/distribution")
+    public DistributionStatsResponse getDistribution(
+            @RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String factoryId,
+            @RequestParam(required = false) String lineId,
+            @RequestParam Instant start,
+            @RequestParam Instant end
+    ) {
+        if ((machineId == null) == (lineId == null)) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "exactly one of machineId and lineId is required");
+        }
+        if (lineId != null && factoryId == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "lineId requires factoryId");
+        }
+        if (!start.isBefore(end)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "start must be before end");
+        }
+        return machineId != null
+                ? distributionService.getMachineDistribution(machineId, start, end)
+                : distributionService.getLineDistribution(factoryId, lineId, start, end);
+    }
+
+    // Server-sent events with the stats of the last windowMinutes whole minutes, pushed after every
+    // batch that changes them: machine-stats for a machineId, top-defect-lines for a factoryId.
+    // In cluster mode a machine's subscription is redirected to its node, and factories are not offered,
+    // since no node sees the writes of all of a factory's machines.
+    @GetMapping(path = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> liveStats(
+            @RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String factoryId,
+            @RequestParam(defaultValue = "60") int windowMinutes,
+            @RequestParam(defaultValue = "10") int limit,
+            HttpServletRequest request
+    ) {
+        if ((machineId == null) == (factoryId == null)) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "exactly one of machineId and factoryId is required");
+        }
+        if (factoryId != null && membership.enabled()) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "live stats by factoryId are not available in cluster mode");
+        }
+        if (machineId != null && !membership.owns(machineId)) {
+            return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                    .header(HttpHeaders.LOCATION,
+                            membership.owner(machineId) + request.getRequestURI() + "?" + request.getQueryString())
+                    .build();
+        }
+        if (!liveStatsService.available()) {
+            throw new ResponseStatusException(
+                    HttpStatus.NOT_IMPLEMENTED, "live stats need events.timeseries.enabled=true");
+        }
+        if (!liveStatsService.supportsWindow(windowMinutes)) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "windowMinutes must lie within events.timeseries.retention-hours");
+        }
+
+        return ResponseEntity.ok((machineId != null
+                ? liveStatsService.subscribeMachine(machineId, windowMinutes)
+                : liveStatsService.subscribeFactory(factoryId, windowMinutes, limit))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE)));
+    }
 }
@@ -26,6 +26,18 @@ public class BatchResponse {
         }
 
     }
+
+    // Adds the counters and rejections of another (partial) response to this one
+    public BatchResponse merge(BatchResponse other) {
+        accepted += other.accepted;
+        updated += other.updated;
+        deduped += other.deduped;
+        rejected += other.rejected;
+        ignored += other.ignored;
+        rejections.addAll(other.rejections);
+        return this;
+    }
+
     public int getAccepted() {
         return accepted;
     }
@@ -0,0 +1,19 @@
+package com.example.factory.dto;
+
+public class BatchStatusResponse {
+
+    public String token;
+    public String status;
+    // null until the batch has been persisted; for a just spooled batch, the rejections found before spooling
+    public BatchResponse result;
+
+    public BatchStatusResponse(
+            String token,
+            String status,
+            BatchResponse result
+    ) {
+        this.token = token;
+        this.status = status;
+        this.result = result;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.factory.dto;
+
+import java.time.Instant;
+
+public class DistributionStatsResponse {
+
+    // machineId for a machine, factoryId and lineId for a line; the others are null
+    public String machineId;
+    public String factoryId;
+    public String lineId;
+    public Instant start;
+    public Instant end;
+    public long eventsCount;
+    // null when there were no events, or no known defect counts
+    public Percentiles durationMs;
+    public Percentiles defectCount;
+
+    public DistributionStatsResponse(
+            String machineId,
+            String factoryId,
+            String lineId,
+            Instant start,
+            Instant end,
+            long eventsCount,
+            Percentiles durationMs,
+            Percentiles defectCount
+    ) {
+        this.machineId = machineId;
+        this.factoryId = factoryId;
+        this.lineId = lineId;
+        this.start = start;
+        this.end = end;
+        this.eventsCount = eventsCount;
+        this.durationMs = durationMs;
+        this.defectCount = defectCount;
+    }
+
+    public static class Percentiles {
+
+        public long count;
+        public double mean;
+        public long p50;
+        public long p95;
+        public long p99;
+
+        public Percentiles(long count, double mean, long p50, long p95, long p99) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+        }
+    }
+}
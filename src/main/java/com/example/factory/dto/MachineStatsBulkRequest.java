@@ -0,0 +1,13 @@
+package com.example.factory.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public class MachineStatsBulkRequest {
+
+    public List<String> machineIds;
+    public Instant start;
+    public Instant end;
+    // null for events.stats.bulk.timeout-ms
+    public Long timeoutMs;
+}
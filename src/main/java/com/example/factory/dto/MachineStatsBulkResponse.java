@@ -0,0 +1,32 @@
+package com.example.factory.dto;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public class MachineStatsBulkResponse {
+
+    public Instant start;
+    public Instant end;
+    // false when any machine is in timedOut or failed
+    public boolean complete;
+    // machineId -> stats, in request order
+    public Map<String, MachineStatsResponse> machines;
+    public List<String> timedOut;
+    public List<String> failed;
+
+    public MachineStatsBulkResponse(
+            Instant start,
+            Instant end,
+            Map<String, MachineStatsResponse> machines,
+            List<String> timedOut,
+            List<String> failed
+    ) {
+        this.start = start;
+        this.end = end;
+        this.complete = timedOut.isEmpty() && failed.isEmpty();
+        this.machines = machines;
+        this.timedOut = timedOut;
+        this.failed = failed;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.factory.dto;
+
+public class TopDefectMachineResponse {
+
+    public String machineId;
+    // approximate mode: an upper bound, at most maxError above the true count
+    public long totalDefects;
+    public long maxError;
+    // null in approximate mode
+    public Long eventCount;
+    public Double defectsPercent;
+
+    public TopDefectMachineResponse(
+            String machineId,
+            long totalDefects,
+            long maxError,
+            Long eventCount,
+            Double defectsPercent
+    ) {
+        this.machineId = machineId;
+        this.totalDefects = totalDefects;
+        this.maxError = maxError;
+        this.eventCount = eventCount;
+        this.defectsPercent = defectsPercent;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.factory.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public class TopDefectMachinesResponse {
+
+    // null for all factories
+    public String factoryId;
+    public Instant from;
+    public Instant to;
+    public String mode;
+    public boolean exact;
+    public List<TopDefectMachineResponse> machines;
+
+    public TopDefectMachinesResponse(
+            String factoryId,
+            Instant from,
+            Instant to,
+            String mode,
+            boolean exact,
+            List<TopDefectMachineResponse> machines
+    ) {
+        this.factoryId = factoryId;
+        this.from = from;
+        this.to = to;
+        this.mode = mode;
+        this.exact = exact;
+        this.machines = machines;
+    }
+}
@@ -1,11 +1,13 @@
 package com.example.factory.entity;
 
 import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
 import java.time.Instant;
 
 @Entity
 @Table(name = "events")
-public class EventEntity {
+public class EventEntity implements Persistable<String> {
 
     @Id
     @Column(name = "event_id")
@@ -17,7 +19,8 @@ public class EventEntity {
     @Column(name = "received_time", nullable = false)
     private Instant receivedTime;
 
-    @Column(name = "machine_id", nullable = false)
+    @Convert(converter = IdentifierKeyConverter.Machine.class)
+    @Column(name = "machine_key", nullable = false)
     private String machineId;
 
     @Column(name = "duration_ms", nullable = false)
@@ -26,14 +29,25 @@ public class EventEntity {
     @Column(name = "defect_count", nullable = false)
     private int defectCount;
 
-    @Column(name = "payload_hash", nullable = false)
-    private String payloadHash;
-    @Column(nullable = false)
+    @Column(name = "payload_fingerprint", nullable = false)
+    private long payloadFingerprint;
+
+    @Convert(converter = IdentifierKeyConverter.Factory.class)
+    @Column(name = "factory_key", nullable = false)
     private String factoryId;
 
-    @Column(nullable = false)
+    @Convert(converter = IdentifierKeyConverter.Line.class)
+    @Column(name = "line_key", nullable = false)
     private String lineId;
 
+    @Version
+    @Column(nullable = false)
+    private long version;
+
+    // eventId is assigned by the client, so Spring Data cannot tell new rows apart by a null id.
+    // Without this flag every save() of a new event would merge() and issue an extra SELECT.
+    @Transient
+    private boolean isNew = true;
 
     protected EventEntity() {}
 
@@ -46,7 +60,7 @@ public class EventEntity {
             String machineId,
             long durationMs,
             int defectCount,
-            String payloadHash
+            long payloadFingerprint
     ) {
         this.eventId = eventId;
         this.eventTime = eventTime;
@@ -56,7 +70,7 @@ public class EventEntity {
         this.machineId = machineId;
         this.durationMs = durationMs;
         this.defectCount = defectCount;
-        this.payloadHash = payloadHash;
+        this.payloadFingerprint = payloadFingerprint;
     }
 
 
@@ -66,10 +80,21 @@ public class EventEntity {
     public String getMachineId() { return machineId; }
     public long getDurationMs() { return durationMs; }
     public int getDefectCount() { return defectCount; }
-    public String getPayloadHash() { return payloadHash; }
+    public long getPayloadFingerprint() { return payloadFingerprint; }
     public String getFactoryId() { return factoryId; }
 
     public String getLineId() { return lineId; }
+    public long getVersion() { return version; }
+
+    @Override
+    public String getId() { return eventId; }
+
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
 
     public void setEventTime(Instant eventTime) { this.eventTime = eventTime; }
     public void setReceivedTime(Instant receivedTime) { this.receivedTime = receivedTime; }
@@ -78,5 +103,6 @@ public class EventEntity {
     public void setMachineId(String machineId) { this.machineId = machineId; }
     public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
     public void setDefectCount(int defectCount) { this.defectCount = defectCount; }
-    public void setPayloadHash(String payloadHash) { this.payloadHash = payloadHash; }
+    public void setPayloadFingerprint(long payloadFingerprint) { this.payloadFingerprint = payloadFingerprint; }
+    public void setVersion(long version) { this.version = version; }
 }
\ No newline at end of file
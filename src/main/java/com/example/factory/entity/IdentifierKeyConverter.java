@@ -0,0 +1,50 @@
+package com.example.factory.entity;
+
+import com.example.factory.repository.IdentifierDictionary;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import jakarta.persistence.AttributeConverter;
+import org.springframework.beans.factory.ObjectProvider;
+
+// Maps the identifier attributes of EventEntity to the keys stored in events, so JPA queries keep
+// comparing, selecting and grouping by the strings. Created by Spring through Hibernate's bean
+// container; the dictionary is looked up on first use, since it is created after the EntityManagerFactory.
+public abstract class IdentifierKeyConverter implements AttributeConverter<String, Integer> {
+
+    private final Dimension dimension;
+    private final ObjectProvider<IdentifierDictionary> dictionary;
+
+    protected IdentifierKeyConverter(Dimension dimension, ObjectProvider<IdentifierDictionary> dictionary) {
+        this.dimension = dimension;
+        this.dictionary = dictionary;
+    }
+
+    // An id that was never stored becomes IdentifierDictionary.UNKNOWN, so a query for it finds nothing.
+    // Rows are only written after EventService has resolved their ids.
+    @Override
+    public Integer convertToDatabaseColumn(String id) {
+        return id == null ? null : dictionary.getObject().key(dimension, id);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer key) {
+        return key == null ? null : dictionary.getObject().id(dimension, key);
+    }
+
+    public static class Factory extends IdentifierKeyConverter {
+        public Factory(ObjectProvider<IdentifierDictionary> dictionary) {
+            super(Dimension.FACTORY, dictionary);
+        }
+    }
+
+    public static class Line extends IdentifierKeyConverter {
+        public Line(ObjectProvider<IdentifierDictionary> dictionary) {
+            super(Dimension.LINE, dictionary);
+        }
+    }
+
+    public static class Machine extends IdentifierKeyConverter {
+        public Machine(ObjectProvider<IdentifierDictionary> dictionary) {
+            super(Dimension.MACHINE, dictionary);
+        }
+    }
+}
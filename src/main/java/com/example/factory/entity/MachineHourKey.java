@@ -0,0 +1,32 @@
+package com.example.factory.entity;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class MachineHourKey implements Serializable {
+
+    private String machineId;
+    private long bucketHour;
+
+    protected MachineHourKey() {}
+
+    public MachineHourKey(String machineId, long bucketHour) {
+        this.machineId = machineId;
+        this.bucketHour = bucketHour;
+    }
+
+    public String getMachineId() { return machineId; }
+    public long getBucketHour() { return bucketHour; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MachineHourKey other)) return false;
+        return bucketHour == other.bucketHour && machineId.equals(other.machineId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(machineId, bucketHour);
+    }
+}
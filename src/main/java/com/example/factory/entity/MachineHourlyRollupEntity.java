@@ -0,0 +1,45 @@
+package com.example.factory.entity;
+
+import jakarta.persistence.*;
+
+// Pre-aggregated events per machine and hour. bucketHour is hours since the epoch (UTC),
+// so bucket boundaries never depend on the database session time zone.
+@Entity
+@Table(name = "machine_hourly_rollup")
+@IdClass(MachineHourKey.class)
+public class MachineHourlyRollupEntity {
+
+    @Id
+    @Column(name = "machine_id")
+    private String machineId;
+
+    @Id
+    @Column(name = "bucket_hour")
+    private long bucketHour;
+
+    @Column(name = "events_count", nullable = false)
+    private long eventsCount;
+
+    // Sum of known defect counts only (defectCount = -1 is excluded)
+    @Column(name = "defects_count", nullable = false)
+    private long defectsCount;
+
+    protected MachineHourlyRollupEntity() {}
+
+    public MachineHourlyRollupEntity(
+            String machineId,
+            long bucketHour,
+            long eventsCount,
+            long defectsCount
+    ) {
+        this.machineId = machineId;
+        this.bucketHour = bucketHour;
+        this.eventsCount = eventsCount;
+        this.defectsCount = defectsCount;
+    }
+
+    public String getMachineId() { return machineId; }
+    public long getBucketHour() { return bucketHour; }
+    public long getEventsCount() { return eventsCount; }
+    public long getDefectsCount() { return defectsCount; }
+}
@@ -0,0 +1,219 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Events moved out of the events table by EventArchiveService, kept as EventSegment files under
+// events.archive.dir: <dir>/<yyyy-MM-dd>/<URL-encoded factoryId>.seg, plus a "watermark" file.
+//
+// Every event before the watermark (a UTC day start) is in a segment, not in the table, and the watermark
+// only moves forward. An archive run moves the watermark past each day only once its rows are out of the
+// table; late events of days behind it are merged into their segment by EventService. Segment headers are
+// loaded at startup. Queries pick segments by day from the manifest, then skip files by the header's time range
+// and machine dictionary before reading any column.
+@Repository
+public class ColdSegmentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ColdSegmentStore.class);
+
+    private static final String SUFFIX = ".seg";
+    private static final String WATERMARK = "watermark";
+
+    private final Path dir;
+    // epoch day -> factoryId -> segment
+    private final NavigableMap<Long, Map<String, EventSegment>> segments = new ConcurrentSkipListMap<>();
+    // null until the first archive run
+    private volatile Instant archivedBefore;
+
+    public ColdSegmentStore(
+            MeterRegistry meterRegistry,
+            @Value("${events.archive.dir:data/archive}") String dir
+    ) throws IOException {
+        this.dir = Path.of(dir);
+        load();
+
+        Gauge.builder("events.archive.segments", segments, s -> s.values().stream().mapToInt(Map::size).sum())
+                .register(meterRegistry);
+        Gauge.builder("events.archive.bytes", this, ColdSegmentStore::totalBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private void load() throws IOException {
+        Path watermark = dir.resolve(WATERMARK);
+        if (Files.exists(watermark)) {
+            archivedBefore = Instant.parse(Files.readString(watermark).trim());
+        }
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).toList()) {
+                EventSegment segment = EventSegment.open(file);
+                segments.computeIfAbsent(segment.day(), d -> new ConcurrentHashMap<>())
+                        .put(segment.factoryId(), segment);
+            }
+        }
+        log.info("Loaded {} event segments from {}, archived before {}", segmentCount(), dir, archivedBefore);
+    }
+
+    // Events before this instant are only in segments; null when nothing was archived yet
+    public Instant archivedBefore() {
+        return archivedBefore;
+    }
+
+    public synchronized void advanceWatermark(Instant before) throws IOException {
+        if (archivedBefore != null && !before.isAfter(archivedBefore)) {
+            return;
+        }
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(WATERMARK + ".tmp");
+        Files.writeString(tmp, before.toString());
+        Files.move(tmp, dir.resolve(WATERMARK), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        archivedBefore = before;
+    }
+
+    // totals[0] += events, totals[1] += known defects of the machine in [from, to)
+    public void sum(String machineId, Instant from, Instant to, long[] totals) {
+        long fromMicros = EventSegment.micros(from);
+        long toMicros = EventSegment.micros(to);
+        for (Map<String, EventSegment> day : days(from, to)) {
+            for (EventSegment segment : day.values()) {
+                if (segment.hasMachine(machineId)) {
+                    try {
+                        segment.sum(machineId, fromMicros, toMicros, totals);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    // lineId -> {events, known defects} of the factory in [from, to), added to totals
+    public void sumLines(String factoryId, Instant from, Instant to, Map<String, long[]> totals) {
+        long fromMicros = EventSegment.micros(from);
+        long toMicros = EventSegment.micros(to);
+        for (Map<String, EventSegment> day : days(from, to)) {
+            EventSegment segment = day.get(factoryId);
+            if (segment != null) {
+                try {
+                    segment.sumLines(fromMicros, toMicros, totals);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    // Rows in [from, to) of the factory (any when null) and the machine (any when null)
+    public void forEach(String factoryId, String machineId, Instant from, Instant to, Consumer<EventEntity> consumer) {
+        for (Map<String, EventSegment> day : days(from, to)) {
+            Collection<EventSegment> candidates = factoryId == null ? day.values()
+                    : day.containsKey(factoryId) ? List.of(day.get(factoryId)) : List.of();
+            for (EventSegment segment : candidates) {
+                if (machineId != null && !segment.hasMachine(machineId)) {
+                    continue;
+                }
+                try {
+                    segment.forEach(e -> {
+                        if ((machineId == null || machineId.equals(e.getMachineId()))
+                                && !e.getEventTime().isBefore(from) && e.getEventTime().isBefore(to)) {
+                            consumer.accept(e);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private Collection<Map<String, EventSegment>> days(Instant from, Instant to) {
+        if (!from.isBefore(to)) {
+            return List.of();
+        }
+        long firstDay = Math.floorDiv(from.getEpochSecond(), 86_400);
+        long lastDay = Math.floorDiv(EventSegment.micros(to) - 1, 86_400_000_000L);
+        return lastDay < firstDay ? List.of() : segments.subMap(firstDay, true, lastDay, true).values();
+    }
+
+    // Rows already archived for the factory and day, empty when there are none
+    public List<EventEntity> read(String factoryId, long day) throws IOException {
+        List<EventEntity> rows = new ArrayList<>();
+        EventSegment segment = segments.getOrDefault(day, Map.of()).get(factoryId);
+        if (segment != null) {
+            segment.forEach(rows::add);
+        }
+        return rows;
+    }
+
+    // Replaces the factory's segment of that day. The file is written aside and moved into place,
+    // so readers see either the old or the new segment, never a partial one.
+    public synchronized EventSegment write(String factoryId, long day, List<EventEntity> rows) throws IOException {
+        Path dayDir = dir.resolve(LocalDate.ofEpochDay(day).toString());
+        Files.createDirectories(dayDir);
+        Path file = dayDir.resolve(URLEncoder.encode(factoryId, StandardCharsets.UTF_8) + SUFFIX);
+        Path tmp = dayDir.resolve(file.getFileName() + ".tmp");
+
+        EventSegment.write(tmp, factoryId, day, rows);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        EventSegment segment = EventSegment.open(file);
+        segments.computeIfAbsent(day, d -> new ConcurrentHashMap<>()).put(factoryId, segment);
+        return segment;
+    }
+
+    // Rewrites the factory's segment of that day with the rows change leaves in the map (eventId -> row, the
+    // archived ones first), unless it returns false. Merges of one segment run one at a time, so neither the
+    // archive nor a late batch overwrites rows the other just wrote. change must not touch the database.
+    public synchronized void merge(String factoryId, long day, Predicate<Map<String, EventEntity>> change)
+            throws IOException {
+        Map<String, EventEntity> rows = new LinkedHashMap<>();
+        read(factoryId, day).forEach(row -> rows.put(row.getEventId(), row));
+        if (change.test(rows)) {
+            write(factoryId, day, List.copyOf(rows.values()));
+        }
+    }
+
+    // Every segment, oldest day first
+    public List<EventSegment> segments() {
+        return segments.values().stream().flatMap(day -> day.values().stream()).toList();
+    }
+
+    public int segmentCount() {
+        return segments.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public long totalBytes() {
+        return segments.values().stream()
+                .flatMap(day -> day.values().stream())
+                .mapToLong(EventSegment::fileSize)
+                .sum();
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.factory.repository;
+
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+// Rows of machine_hourly_distribution, and the raw durations and defect counts of events for the partial
+// hours of a window. The sketches are opaque bytes here; the caller merges them.
+//
+// The buckets of a chunk that exist are read FOR UPDATE, merged and written back; the others are inserted with
+// their delta as is. That is two or three statements per chunk instead of one per bucket, and no conflicting
+// inserts once an hour's buckets exist (H2 builds an exception for each one it skips). Buckets are locked
+// and written in key order, so concurrent batches lock shared rows in the same sequence.
+@Repository
+public class DistributionRepository {
+
+    private static final String INSERT_IF_ABSENT = """
+            INSERT INTO machine_hourly_distribution (machine_key, bucket_hour, factory_key, line_key, durations, defects)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    // A join rather than a row-value IN list, which H2 does not look up by key. PostgreSQL locks only
+    // the table rows, not the VALUES list.
+    private static final String SELECT_FOR_UPDATE = """
+            SELECT d.machine_key, d.bucket_hour, d.factory_key, d.line_key, d.durations, d.defects
+            FROM (VALUES %s) k (machine_key, bucket_hour, factory_key, line_key)
+            JOIN machine_hourly_distribution d
+              ON d.machine_key = k.machine_key AND d.bucket_hour = k.bucket_hour
+             AND d.factory_key = k.factory_key AND d.line_key = k.line_key
+            ORDER BY d.machine_key, d.bucket_hour, d.factory_key, d.line_key
+            FOR UPDATE
+            """;
+
+    private static final String UPDATE_BUCKET = """
+            UPDATE machine_hourly_distribution
+            SET durations = ?, defects = ?
+            WHERE machine_key = ? AND bucket_hour = ? AND factory_key = ? AND line_key = ?
+            """;
+
+    private static final String MACHINE_BUCKETS = """
+            SELECT durations, defects
+            FROM machine_hourly_distribution
+            WHERE machine_key = ? AND bucket_hour >= ? AND bucket_hour < ?
+            """;
+
+    private static final String LINE_BUCKETS = """
+            SELECT durations, defects
+            FROM machine_hourly_distribution
+            WHERE factory_key = ? AND line_key = ? AND bucket_hour >= ? AND bucket_hour < ?
+            """;
+
+    private static final String MACHINE_EVENTS = """
+            SELECT duration_ms, defect_count
+            FROM events
+            WHERE machine_key = ? AND event_time >= ? AND event_time < ?
+            """;
+
+    private static final String LINE_EVENTS = """
+            SELECT duration_ms, defect_count
+            FROM events
+            WHERE factory_key = ? AND event_time >= ? AND event_time < ? AND line_key = ?
+            """;
+
+    private static final String ALL_EVENTS = """
+            SELECT machine_key, factory_key, line_key, event_time, duration_ms, defect_count
+            FROM events
+            """;
+
+    // 4 bind parameters per bucket in the SELECT
+    private static final int CHUNK_SIZE = 500;
+
+    private static final int FETCH_SIZE = 10_000;
+
+    public record BucketDelta(
+            String machineId,
+            long bucketHour,
+            String factoryId,
+            String lineId,
+            byte[] durations,
+            byte[] defects
+    ) {}
+
+    @FunctionalInterface
+    public interface BucketHandler {
+        void accept(byte[] durations, byte[] defects);
+    }
+
+    @FunctionalInterface
+    public interface EventHandler {
+        void accept(long durationMs, int defectCount);
+    }
+
+    @FunctionalInterface
+    public interface StoredEventHandler {
+        void accept(String machineId, String factoryId, String lineId, Instant eventTime,
+                    long durationMs, int defectCount);
+    }
+
+    private record Key(int machineKey, long bucketHour, int factoryKey, int lineKey) {}
+
+    private record Row(Key key, byte[] durations, byte[] defects) {}
+
+    private static final Comparator<Row> KEY_ORDER = Comparator.comparing(Row::key, Comparator
+            .comparingInt(Key::machineKey)
+            .thenComparingLong(Key::bucketHour)
+            .thenComparingInt(Key::factoryKey)
+            .thenComparingInt(Key::lineKey));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentifierDictionary dictionary;
+
+    public DistributionRepository(JdbcTemplate jdbcTemplate, IdentifierDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    // merge(stored, delta) returns the new bytes of a bucket that already exists
+    public void addToBuckets(List<BucketDelta> deltas, BinaryOperator<byte[]> merge) {
+        List<Row> rows = new ArrayList<>(deltas.size());
+        for (BucketDelta d : deltas) {
+            Key key = new Key(dictionary.requireKey(Dimension.MACHINE, d.machineId()), d.bucketHour(),
+                    dictionary.requireKey(Dimension.FACTORY, d.factoryId()), dictionary.requireKey(Dimension.LINE, d.lineId()));
+            rows.add(new Row(key, d.durations(), d.defects()));
+        }
+        rows.sort(KEY_ORDER);
+        for (int from = 0; from < rows.size(); from += CHUNK_SIZE) {
+            addToChunk(rows.subList(from, Math.min(from + CHUNK_SIZE, rows.size())), merge);
+        }
+    }
+
+    private void addToChunk(List<Row> deltas, BinaryOperator<byte[]> merge) {
+        Map<Key, Row> stored = lockExisting(deltas);
+
+        List<Row> missing = deltas.stream().filter(d -> !stored.containsKey(d.key())).toList();
+        if (!missing.isEmpty()) {
+            int[] inserted = jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    setKey(ps, 1, missing.get(i).key());
+                    ps.setBytes(5, missing.get(i).durations());
+                    ps.setBytes(6, missing.get(i).defects());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return missing.size();
+                }
+            });
+
+            // buckets a concurrent batch inserted after the first read are merged like the others
+            List<Row> raced = new ArrayList<>();
+            for (int i = 0; i < missing.size(); i++) {
+                if (inserted[i] == Statement.SUCCESS_NO_INFO) {
+                    throw new IllegalStateException(
+                            "JDBC driver must report per-row update counts for conflict detection");
+                }
+                if (inserted[i] == 0) {
+                    raced.add(missing.get(i));
+                }
+            }
+            Map<Key, Row> racedRows = lockExisting(raced);
+            if (racedRows.size() < raced.size()) {
+                // buckets are only deleted by a rebuild
+                throw new IllegalStateException("Distribution buckets vanished while they were written");
+            }
+            stored.putAll(racedRows);
+        }
+
+        List<Row> merged = new ArrayList<>(stored.size());
+        for (Row delta : deltas) {
+            Row row = stored.get(delta.key());
+            if (row != null) {
+                merged.add(new Row(delta.key(),
+                        merge.apply(row.durations(), delta.durations()), merge.apply(row.defects(), delta.defects())));
+            }
+        }
+        if (merged.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(UPDATE_BUCKET, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setBytes(1, merged.get(i).durations());
+                ps.setBytes(2, merged.get(i).defects());
+                setKey(ps, 3, merged.get(i).key());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return merged.size();
+            }
+        });
+    }
+
+    // The stored rows of the keys that exist, locked
+    private Map<Key, Row> lockExisting(List<Row> rows) {
+        Map<Key, Row> stored = new HashMap<>();
+        if (rows.isEmpty()) {
+            return stored;
+        }
+        String sql = SELECT_FOR_UPDATE.formatted(String.join(", ", Collections.nCopies(rows.size(), "(?, ?, ?, ?)")));
+        jdbcTemplate.query(
+                con -> {
+                    PreparedStatement ps = con.prepareStatement(sql);
+                    for (int i = 0; i < rows.size(); i++) {
+                        setKey(ps, 4 * i + 1, rows.get(i).key());
+                    }
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> {
+                    Key key = new Key(rs.getInt("machine_key"), rs.getLong("bucket_hour"),
+                            rs.getInt("factory_key"), rs.getInt("line_key"));
+                    stored.put(key, new Row(key, rs.getBytes("durations"), rs.getBytes("defects")));
+                });
+        return stored;
+    }
+
+    private static void setKey(PreparedStatement ps, int index, Key key) throws SQLException {
+        ps.setInt(index, key.machineKey());
+        ps.setLong(index + 1, key.bucketHour());
+        ps.setInt(index + 2, key.factoryKey());
+        ps.setInt(index + 3, key.lineKey());
+    }
+
+    public void forEachMachineBucket(String machineId, long fromHour, long toHour, BucketHandler handler) {
+        jdbcTemplate.query(MACHINE_BUCKETS,
+                (RowCallbackHandler) rs -> handler.accept(rs.getBytes("durations"), rs.getBytes("defects")),
+                dictionary.key(Dimension.MACHINE, machineId), fromHour, toHour);
+    }
+
+    public void forEachLineBucket(String factoryId, String lineId, long fromHour, long toHour, BucketHandler handler) {
+        jdbcTemplate.query(LINE_BUCKETS,
+                (RowCallbackHandler) rs -> handler.accept(rs.getBytes("durations"), rs.getBytes("defects")),
+                dictionary.key(Dimension.FACTORY, factoryId), dictionary.key(Dimension.LINE, lineId),
+                fromHour, toHour);
+    }
+
+    // Events of the machine in [from, to)
+    public void forEachMachineEvent(String machineId, Instant from, Instant to, EventHandler handler) {
+        jdbcTemplate.query(MACHINE_EVENTS,
+                (RowCallbackHandler) rs -> handler.accept(rs.getLong("duration_ms"), rs.getInt("defect_count")),
+                dictionary.key(Dimension.MACHINE, machineId),
+                from.atOffset(ZoneOffset.UTC), to.atOffset(ZoneOffset.UTC));
+    }
+
+    // Events of the factory's line in [from, to)
+    public void forEachLineEvent(String factoryId, String lineId, Instant from, Instant to, EventHandler handler) {
+        jdbcTemplate.query(LINE_EVENTS,
+                (RowCallbackHandler) rs -> handler.accept(rs.getLong("duration_ms"), rs.getInt("defect_count")),
+                dictionary.key(Dimension.FACTORY, factoryId),
+                from.atOffset(ZoneOffset.UTC), to.atOffset(ZoneOffset.UTC),
+                dictionary.key(Dimension.LINE, lineId));
+    }
+
+    // Every row of the events table, streamed with a fetch size (a cursor on PostgreSQL, inside the
+    // caller's transaction)
+    @Transactional(readOnly = true)
+    public void forEachStoredEvent(StoredEventHandler handler) {
+        jdbcTemplate.query(
+                con -> {
+                    PreparedStatement ps = con.prepareStatement(ALL_EVENTS);
+                    ps.setFetchSize(FETCH_SIZE);
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> handler.accept(
+                        dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                        dictionary.id(Dimension.FACTORY, rs.getInt("factory_key")),
+                        dictionary.id(Dimension.LINE, rs.getInt("line_key")),
+                        rs.getObject("event_time", OffsetDateTime.class).toInstant(),
+                        rs.getLong("duration_ms"),
+                        rs.getInt("defect_count")));
+    }
+
+    public void deleteAllBuckets() {
+        jdbcTemplate.update("DELETE FROM machine_hourly_distribution");
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads and removes the rows that EventArchiveService moves into segment files
+@Repository
+public class EventArchiveRepository {
+
+    public record FactoryDay(String factoryId, long day) {}
+
+    private static final String DAYS_BEFORE = """
+            SELECT DISTINCT factory_key, FLOOR(EXTRACT(EPOCH FROM event_time) / 86400) AS epoch_day
+            FROM events
+            WHERE event_time < ?
+            ORDER BY epoch_day, factory_key
+            """;
+
+    private static final String SELECT_DAY = """
+            SELECT event_id, event_time, received_time, factory_key, line_key, machine_key,
+                   duration_ms, defect_count, payload_fingerprint, version
+            FROM events
+            WHERE factory_key = ? AND event_time >= ? AND event_time < ?
+            """;
+
+    private static final String DELETE_IF_VERSION = "DELETE FROM events WHERE event_id = ? AND version = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentifierDictionary dictionary;
+
+    public EventArchiveRepository(JdbcTemplate jdbcTemplate, IdentifierDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    // (factory, UTC epoch day) pairs that still have rows before the given instant, oldest first
+    @Transactional(readOnly = true)
+    public List<FactoryDay> findDaysBefore(Instant before) {
+        return jdbcTemplate.query(DAYS_BEFORE,
+                (rs, i) -> new FactoryDay(
+                        dictionary.id(Dimension.FACTORY, rs.getInt("factory_key")), rs.getLong("epoch_day")),
+                before.atOffset(ZoneOffset.UTC));
+    }
+
+    @Transactional(readOnly = true)
+    public List<EventEntity> readDay(String factoryId, long day) {
+        List<EventEntity> rows = new ArrayList<>();
+        jdbcTemplate.query(SELECT_DAY,
+                rs -> {
+                    EventEntity row = new EventEntity(
+                            rs.getString("event_id"),
+                            rs.getObject("event_time", OffsetDateTime.class).toInstant(),
+                            rs.getObject("received_time", OffsetDateTime.class).toInstant(),
+                            dictionary.id(Dimension.FACTORY, rs.getInt("factory_key")),
+                            dictionary.id(Dimension.LINE, rs.getInt("line_key")),
+                            dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                            rs.getLong("duration_ms"),
+                            rs.getInt("defect_count"),
+                            rs.getLong("payload_fingerprint"));
+                    row.setVersion(rs.getLong("version"));
+                    rows.add(row);
+                },
+                dictionary.key(Dimension.FACTORY, factoryId),
+                Instant.ofEpochSecond(day * 86_400).atOffset(ZoneOffset.UTC),
+                Instant.ofEpochSecond((day + 1) * 86_400).atOffset(ZoneOffset.UTC));
+        return rows;
+    }
+
+    // Deletes each row only if its version is unchanged; rows updated meanwhile stay for the next run.
+    // Returns the number of rows deleted.
+    @Transactional
+    public int deleteIfVersion(List<EventEntity> rows) {
+        int deleted = 0;
+        for (int[] counts : jdbcTemplate.batchUpdate(DELETE_IF_VERSION, rows, 1000,
+                (PreparedStatement ps, EventEntity row) -> {
+                    ps.setString(1, row.getEventId());
+                    ps.setLong(2, row.getVersion());
+                })) {
+            for (int count : counts) {
+                deleted += Math.max(0, count);
+            }
+        }
+        return deleted;
+    }
+}
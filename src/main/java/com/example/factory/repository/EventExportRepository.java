@@ -0,0 +1,103 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+
+// Keyset pages of raw events for GET /events/export, ordered by (event_time, event_id).
+// A page starts strictly after the last row of the previous one, so the database seeks into the
+// (machine_key | factory_key, event_time) index at that row instead of skipping rows like OFFSET.
+// Rows are streamed with a fetch size; PostgreSQL only uses a cursor inside a transaction.
+@Repository
+public class EventExportRepository {
+
+    public enum Scope {
+        MACHINE(Dimension.MACHINE, "machine_key"), FACTORY(Dimension.FACTORY, "factory_key");
+
+        private final Dimension dimension;
+        private final String column;
+
+        Scope(Dimension dimension, String column) {
+            this.dimension = dimension;
+            this.column = column;
+        }
+    }
+
+    private static final String PAGE = """
+            SELECT event_id, event_time, received_time, factory_key, line_key, machine_key,
+                   duration_ms, defect_count, payload_fingerprint
+            FROM events
+            WHERE %s = ? AND event_time >= ? AND event_time < ?%s
+            ORDER BY event_time, event_id
+            LIMIT ?
+            """;
+
+    // only the ties at the page's start time need the event_id comparison
+    private static final String AFTER = "\n  AND (event_time > ? OR event_id > ?)";
+
+    private static final int MAX_FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentifierDictionary dictionary;
+
+    public EventExportRepository(JdbcTemplate jdbcTemplate, IdentifierDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    // Rows of [from, to) after (afterTime, afterEventId), or from the start when afterTime is null.
+    // Returns the number of rows handed to the consumer.
+    @Transactional(readOnly = true)
+    public int readPage(
+            Scope scope,
+            String id,
+            Instant from,
+            Instant to,
+            Instant afterTime,
+            String afterEventId,
+            int pageSize,
+            Consumer<EventEntity> rows
+    ) {
+        boolean after = afterTime != null;
+        String sql = PAGE.formatted(scope.column, after ? AFTER : "");
+        int key = dictionary.key(scope.dimension, id);
+        int[] count = new int[1];
+
+        jdbcTemplate.query(
+                con -> {
+                    var ps = con.prepareStatement(sql);
+                    ps.setFetchSize(Math.min(pageSize, MAX_FETCH_SIZE));
+                    int i = 1;
+                    ps.setInt(i++, key);
+                    ps.setObject(i++, (after && afterTime.isAfter(from) ? afterTime : from).atOffset(ZoneOffset.UTC));
+                    ps.setObject(i++, to.atOffset(ZoneOffset.UTC));
+                    if (after) {
+                        ps.setObject(i++, afterTime.atOffset(ZoneOffset.UTC));
+                        ps.setString(i++, afterEventId);
+                    }
+                    ps.setInt(i, pageSize);
+                    return ps;
+                },
+                rs -> {
+                    rows.accept(new EventEntity(
+                            rs.getString("event_id"),
+                            rs.getObject("event_time", OffsetDateTime.class).toInstant(),
+                            rs.getObject("received_time", OffsetDateTime.class).toInstant(),
+                            dictionary.id(Dimension.FACTORY, rs.getInt("factory_key")),
+                            dictionary.id(Dimension.LINE, rs.getInt("line_key")),
+                            dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                            rs.getLong("duration_ms"),
+                            rs.getInt("defect_count"),
+                            rs.getLong("payload_fingerprint")));
+                    count[0]++;
+                });
+        return count[0];
+    }
+}
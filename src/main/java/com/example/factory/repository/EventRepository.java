@@ -1,38 +1,66 @@
 package com.example.factory.repository;
 import com.example.factory.entity.EventEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.util.List;
 @Repository
 public interface EventRepository
         extends JpaRepository<EventEntity, String> {
-    List<EventEntity> findByMachineIdAndEventTimeGreaterThanEqualAndEventTimeLessThan(
-            String machineId,
-            Instant start,
-            Instant end
-    );
-    List<EventEntity> findByFactoryIdAndEventTimeGreaterThanEqualAndEventTimeLessThan(
-            String factoryId,
-            Instant from,
-            Instant to
-    );
-    List<EventEntity> findByFactoryIdAndEventTimeBetween(
-            String factoryId,
-            Instant from,
-            Instant to
+
+    // Lines ranked by known defects in [from, to], aggregated in the database.
+    // The page size of the Pageable becomes the LIMIT of the query. Lines are stored as keys,
+    // so ties come out in key order rather than by lineId.
+    @Query("""
+            SELECT e.lineId AS lineId,
+                   SUM(CASE WHEN e.defectCount >= 0 THEN e.defectCount ELSE 0 END) AS totalDefects,
+                   COUNT(e) AS eventCount
+            FROM EventEntity e
+            WHERE e.factoryId = :factoryId
+              AND e.eventTime BETWEEN :from AND :to
+            GROUP BY e.lineId
+            ORDER BY SUM(CASE WHEN e.defectCount >= 0 THEN e.defectCount ELSE 0 END) DESC, e.lineId
+            """)
+    List<LineDefectTotals> findTopDefectLines(
+            @Param("factoryId") String factoryId,
+            @Param("from") Instant from,
+            @Param("to") Instant to,
+            Pageable pageable
     );
 
-    List<EventEntity> findByFactoryIdAndLineIdAndEventTimeBetween(
-            String factoryId,
-            String lineId,
-            Instant from,
-            Instant to
+    // Totals of [start, end), aggregated in the database
+    @Query("""
+            SELECT COUNT(e) AS eventsCount,
+                   COALESCE(SUM(CASE WHEN e.defectCount >= 0 THEN e.defectCount ELSE 0 END), 0) AS defectsCount
+            FROM EventEntity e
+            WHERE e.machineId = :machineId
+              AND e.eventTime >= :start AND e.eventTime < :end
+            """)
+    WindowTotals sumMachineWindow(
+            @Param("machineId") String machineId,
+            @Param("start") Instant start,
+            @Param("end") Instant end
     );
-    List<EventEntity> findByMachineIdAndEventTimeBetween(
-            String machineId,
-            Instant start,
-            Instant end
+
+    // Totals of [start1, end1) and [start2, end2) in one round trip; an empty range matches nothing.
+    // Used for the partial minutes at the edges of windows otherwise served from memory.
+    @Query("""
+            SELECT COUNT(e) AS eventsCount,
+                   COALESCE(SUM(CASE WHEN e.defectCount >= 0 THEN e.defectCount ELSE 0 END), 0) AS defectsCount
+            FROM EventEntity e
+            WHERE e.machineId = :machineId
+              AND ((e.eventTime >= :start1 AND e.eventTime < :end1)
+                OR (e.eventTime >= :start2 AND e.eventTime < :end2))
+            """)
+    WindowTotals sumTwoRanges(
+            @Param("machineId") String machineId,
+            @Param("start1") Instant start1,
+            @Param("end1") Instant end1,
+            @Param("start2") Instant start2,
+            @Param("end2") Instant end2
     );
 
 }
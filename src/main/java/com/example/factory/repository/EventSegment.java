@@ -0,0 +1,484 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// One factory's events of one UTC day in a columnar file that is written once and then only read.
+//
+//   "FEVSEG1\n"
+//   int headerLength, header: factoryId, day, rows, min and max event time (epoch micros),
+//                             line and machine dictionaries, offset and sizes of every column block
+//   one Deflate-compressed block per column
+//
+// Rows are sorted by event time, stored as varint deltas. Line and machine ids are dictionary indexes,
+// received times are deltas to the event time, the rest are varints. A query decompresses only the
+// columns it reads, and the header's time range and machine dictionary let it skip a file without
+// decompressing anything.
+public final class EventSegment {
+
+    private static final byte[] MAGIC = "FEVSEG1\n".getBytes(StandardCharsets.US_ASCII);
+
+    private enum Column { EVENT_TIME, RECEIVED_TIME, LINE, MACHINE, DURATION, DEFECTS, EVENT_ID, FINGERPRINT }
+
+    private final Path path;
+    private final String factoryId;
+    private final long day;
+    private final int rows;
+    private final long minMicros;
+    private final long maxMicros;
+    private final String[] lines;
+    private final String[] machines;
+    private final Map<String, Integer> machineIndex;
+    private final long[] offsets;
+    private final int[] sizes;
+    private final int[] rawSizes;
+    private final long fileSize;
+
+    private EventSegment(
+            Path path, String factoryId, long day, int rows, long minMicros, long maxMicros,
+            String[] lines, String[] machines, long[] offsets, int[] sizes, int[] rawSizes, long fileSize
+    ) {
+        this.path = path;
+        this.factoryId = factoryId;
+        this.day = day;
+        this.rows = rows;
+        this.minMicros = minMicros;
+        this.maxMicros = maxMicros;
+        this.lines = lines;
+        this.machines = machines;
+        this.machineIndex = new HashMap<>();
+        for (int i = 0; i < machines.length; i++) {
+            machineIndex.put(machines[i], i);
+        }
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.rawSizes = rawSizes;
+        this.fileSize = fileSize;
+    }
+
+    public String factoryId() {
+        return factoryId;
+    }
+
+    // UTC epoch day
+    public long day() {
+        return day;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public long fileSize() {
+        return fileSize;
+    }
+
+    static long micros(Instant time) {
+        return Math.addExact(Math.multiplyExact(time.getEpochSecond(), 1_000_000L), time.getNano() / 1000);
+    }
+
+    static Instant instant(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000);
+    }
+
+    // Whether any row can fall into [fromMicros, toMicros)
+    boolean overlaps(long fromMicros, long toMicros) {
+        return rows > 0 && minMicros < toMicros && fromMicros <= maxMicros;
+    }
+
+    boolean hasMachine(String machineId) {
+        return machineIndex.containsKey(machineId);
+    }
+
+    // ---- writing
+
+    static EventSegment write(Path path, String factoryId, long day, List<EventEntity> events) throws IOException {
+        EventEntity[] sorted = events.toArray(EventEntity[]::new);
+        Arrays.sort(sorted, Comparator.comparing(EventEntity::getEventTime).thenComparing(EventEntity::getEventId));
+
+        Map<String, Integer> lineIndex = new HashMap<>();
+        Map<String, Integer> machineIndex = new HashMap<>();
+        Column[] columns = Column.values();
+        Sink[] sinks = new Sink[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            sinks[c] = new Sink();
+        }
+
+        long minMicros = sorted.length == 0 ? 0 : micros(sorted[0].getEventTime());
+        long maxMicros = sorted.length == 0 ? 0 : micros(sorted[sorted.length - 1].getEventTime());
+        long previous = minMicros;
+        for (EventEntity e : sorted) {
+            long time = micros(e.getEventTime());
+            sinks[Column.EVENT_TIME.ordinal()].varint(time - previous);
+            previous = time;
+            sinks[Column.RECEIVED_TIME.ordinal()].zigzag(micros(e.getReceivedTime()) - time);
+            sinks[Column.LINE.ordinal()].varint(lineIndex.computeIfAbsent(e.getLineId(), k -> lineIndex.size()));
+            sinks[Column.MACHINE.ordinal()]
+                    .varint(machineIndex.computeIfAbsent(e.getMachineId(), k -> machineIndex.size()));
+            sinks[Column.DURATION.ordinal()].varint(e.getDurationMs());
+            sinks[Column.DEFECTS.ordinal()].zigzag(e.getDefectCount());
+            sinks[Column.EVENT_ID.ordinal()].string(e.getEventId());
+            sinks[Column.FINGERPRINT.ordinal()].fixed64(e.getPayloadFingerprint());
+        }
+
+        byte[][] blocks = new byte[columns.length][];
+        int[] rawSizes = new int[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            rawSizes[c] = sinks[c].size();
+            blocks[c] = deflate(sinks[c].bytes(), rawSizes[c]);
+        }
+        String[] lines = dictionary(lineIndex);
+        String[] machines = dictionary(machineIndex);
+
+        // the header holds the block offsets, which depend on the header's own length
+        long[] offsets = new long[columns.length];
+        int[] sizes = new int[columns.length];
+        byte[] header = header(factoryId, day, sorted.length, minMicros, maxMicros, lines, machines, offsets, sizes, rawSizes);
+        long offset = MAGIC.length + 4 + header.length;
+        for (int c = 0; c < columns.length; c++) {
+            offsets[c] = offset;
+            sizes[c] = blocks[c].length;
+            offset += blocks[c].length;
+        }
+        header = header(factoryId, day, sorted.length, minMicros, maxMicros, lines, machines, offsets, sizes, rawSizes);
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer prefix = ByteBuffer.allocate(MAGIC.length + 4).put(MAGIC).putInt(header.length).flip();
+            writeFully(channel, prefix);
+            writeFully(channel, ByteBuffer.wrap(header));
+            for (byte[] block : blocks) {
+                writeFully(channel, ByteBuffer.wrap(block));
+            }
+            channel.force(true);
+        }
+
+        return new EventSegment(path, factoryId, day, sorted.length, minMicros, maxMicros,
+                lines, machines, offsets, sizes, rawSizes, offset);
+    }
+
+    private static byte[] header(
+            String factoryId, long day, int rows, long minMicros, long maxMicros,
+            String[] lines, String[] machines, long[] offsets, int[] sizes, int[] rawSizes
+    ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(factoryId);
+        out.writeLong(day);
+        out.writeInt(rows);
+        out.writeLong(minMicros);
+        out.writeLong(maxMicros);
+        for (String[] dictionary : new String[][]{lines, machines}) {
+            out.writeInt(dictionary.length);
+            for (String value : dictionary) {
+                out.writeUTF(value);
+            }
+        }
+        out.writeInt(offsets.length);
+        for (int c = 0; c < offsets.length; c++) {
+            out.writeLong(offsets[c]);
+            out.writeInt(sizes[c]);
+            out.writeInt(rawSizes[c]);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String[] dictionary(Map<String, Integer> index) {
+        String[] values = new String[index.size()];
+        index.forEach((value, i) -> values[i] = value);
+        return values;
+    }
+
+    private static byte[] deflate(byte[] raw, int length) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // ---- reading
+
+    // Reads the header only; column blocks are read per query
+    static EventSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer prefix = readFully(channel, 0, MAGIC.length + 4);
+            byte[] magic = new byte[MAGIC.length];
+            prefix.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an event segment: " + path);
+            }
+            int headerLength = prefix.getInt();
+            ByteBuffer header = readFully(channel, MAGIC.length + 4, headerLength);
+
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(header.array(), 0, headerLength));
+            String factoryId = in.readUTF();
+            long day = in.readLong();
+            int rows = in.readInt();
+            long minMicros = in.readLong();
+            long maxMicros = in.readLong();
+            String[][] dictionaries = new String[2][];
+            for (int d = 0; d < 2; d++) {
+                dictionaries[d] = new String[in.readInt()];
+                for (int i = 0; i < dictionaries[d].length; i++) {
+                    dictionaries[d][i] = in.readUTF();
+                }
+            }
+            int columns = in.readInt();
+            if (columns != Column.values().length) {
+                throw new IOException("Unexpected column count " + columns + " in " + path);
+            }
+            long[] offsets = new long[columns];
+            int[] sizes = new int[columns];
+            int[] rawSizes = new int[columns];
+            for (int c = 0; c < columns; c++) {
+                offsets[c] = in.readLong();
+                sizes[c] = in.readInt();
+                rawSizes[c] = in.readInt();
+            }
+            return new EventSegment(path, factoryId, day, rows, minMicros, maxMicros,
+                    dictionaries[0], dictionaries[1], offsets, sizes, rawSizes, channel.size());
+        }
+    }
+
+    // totals[0] += events, totals[1] += known defects of the machine in [fromMicros, toMicros)
+    void sum(String machineId, long fromMicros, long toMicros, long[] totals) throws IOException {
+        Integer machine = machineIndex.get(machineId);
+        if (machine == null || !overlaps(fromMicros, toMicros)) {
+            return;
+        }
+        Source[] columns = read(Column.EVENT_TIME, Column.MACHINE, Column.DEFECTS);
+        Source times = columns[0], machines = columns[1], defects = columns[2];
+
+        long time = minMicros;
+        for (int i = 0; i < rows; i++) {
+            time += times.varint();
+            if (time >= toMicros) {
+                break;
+            }
+            int m = (int) machines.varint();
+            long d = defects.zigzag();
+            if (time >= fromMicros && m == machine) {
+                totals[0]++;
+                totals[1] += Math.max(0, d);
+            }
+        }
+    }
+
+    // lineId -> {events, known defects} in [fromMicros, toMicros), added to totals
+    void sumLines(long fromMicros, long toMicros, Map<String, long[]> totals) throws IOException {
+        if (!overlaps(fromMicros, toMicros)) {
+            return;
+        }
+        Source[] columns = read(Column.EVENT_TIME, Column.LINE, Column.DEFECTS);
+        Source times = columns[0], lineIds = columns[1], defects = columns[2];
+
+        long[][] byLine = new long[lines.length][2];
+        long time = minMicros;
+        for (int i = 0; i < rows; i++) {
+            time += times.varint();
+            if (time >= toMicros) {
+                break;
+            }
+            int line = (int) lineIds.varint();
+            long d = defects.zigzag();
+            if (time >= fromMicros) {
+                byLine[line][0]++;
+                byLine[line][1] += Math.max(0, d);
+            }
+        }
+        for (int l = 0; l < lines.length; l++) {
+            if (byLine[l][0] > 0) {
+                long[] line = totals.computeIfAbsent(lines[l], k -> new long[2]);
+                line[0] += byLine[l][0];
+                line[1] += byLine[l][1];
+            }
+        }
+    }
+
+    // Every row, in event time order, with version 0
+    public void forEach(Consumer<EventEntity> consumer) throws IOException {
+        Source[] columns = read(Column.values());
+        long time = minMicros;
+        for (int i = 0; i < rows; i++) {
+            time += columns[Column.EVENT_TIME.ordinal()].varint();
+            long received = time + columns[Column.RECEIVED_TIME.ordinal()].zigzag();
+            String lineId = lines[(int) columns[Column.LINE.ordinal()].varint()];
+            String machineId = machines[(int) columns[Column.MACHINE.ordinal()].varint()];
+            long duration = columns[Column.DURATION.ordinal()].varint();
+            int defects = (int) columns[Column.DEFECTS.ordinal()].zigzag();
+            String eventId = columns[Column.EVENT_ID.ordinal()].string();
+            long fingerprint = columns[Column.FINGERPRINT.ordinal()].fixed64();
+            consumer.accept(new EventEntity(eventId, instant(time), instant(received), factoryId, lineId, machineId,
+                    duration, defects, fingerprint));
+        }
+    }
+
+    private Source[] read(Column... columns) throws IOException {
+        Source[] sources = new Source[columns.length];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i < columns.length; i++) {
+                int c = columns[i].ordinal();
+                sources[i] = new Source(inflate(readFully(channel, offsets[c], sizes[c]).array(), rawSizes[c]));
+            }
+        }
+        return sources;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated event segment");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private byte[] inflate(byte[] compressed, int rawSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawSize];
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                n += inflater.inflate(raw, n, rawSize - n);
+            }
+            if (n != rawSize) {
+                throw new IOException("Corrupt column block in " + path);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt column block in " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Growable byte buffer for one column while writing
+    private static final class Sink {
+
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void zigzag(long value) {
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void fixed64(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void string(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    // Sequential reader over one decompressed column
+    private static final class Source {
+
+        private final byte[] bytes;
+        private int position;
+
+        Source(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        long zigzag() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long fixed64() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        String string() {
+            int length = (int) varint();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
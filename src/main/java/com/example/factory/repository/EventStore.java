@@ -0,0 +1,75 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Where EventService keeps events: the writes of both ingest modes and the raw window scans of the stats
+// queries. events.store.engine selects the implementation, "jpa" (the events table, default) or "mmap"
+// (MappedEventStore, an embedded log for edge deployments without a database server).
+//
+// Rows passed in and returned are plain values carrying the version they were read with. Writes take part
+// in the caller's transaction.
+public interface EventStore {
+
+    // Stored rows of these eventIds, absent ones left out
+    Map<String, EventEntity> findByIds(Collection<String> eventIds);
+
+    // 1 per inserted row, 0 where the eventId was already stored
+    int[] insertIfAbsent(List<EventEntity> rows);
+
+    // 1 per updated row, 0 where the stored version no longer equals rows[i].getVersion()
+    int[] updateIfVersion(List<EventEntity> rows);
+
+    // The PER_EVENT mode's single-row round trips. insert fails if the eventId is stored, update if the
+    // row changed since it was read.
+    Optional<EventEntity> findById(String eventId);
+
+    void insert(EventEntity row);
+
+    void update(EventEntity row);
+
+    // Events of a machine in [start, end) and their known defects
+    WindowTotals sumMachineWindow(String machineId, Instant start, Instant end);
+
+    // Totals of [start1, end1) and [start2, end2) together; an empty range matches nothing
+    default WindowTotals sumTwoRanges(String machineId, Instant start1, Instant end1, Instant start2, Instant end2) {
+        long events = 0;
+        long defects = 0;
+        for (WindowTotals range : List.of(
+                sumMachineWindow(machineId, start1, end1), sumMachineWindow(machineId, start2, end2))) {
+            events += range.getEventsCount();
+            defects += range.getDefectsCount();
+        }
+        return totals(events, defects);
+    }
+
+    // Per line of a factory: events in [from, to] (inclusive) and their known defects, in no particular order
+    List<LineDefectTotals> sumLines(String factoryId, Instant from, Instant to);
+
+    long count();
+
+    void deleteAll();
+
+    // True when the events are rows of the events table, which the rollup, the time series reload, the
+    // archive, the export and the top defect machines query directly
+    boolean inDatabase();
+
+    static WindowTotals totals(long eventsCount, long defectsCount) {
+        return new WindowTotals() {
+            @Override
+            public long getEventsCount() {
+                return eventsCount;
+            }
+
+            @Override
+            public long getDefectsCount() {
+                return defectsCount;
+            }
+        };
+    }
+}
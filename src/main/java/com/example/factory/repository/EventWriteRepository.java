@@ -0,0 +1,169 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Conflict-aware batch writes for the ingestion path.
+// Inserts skip rows that already exist and updates only apply when the version is unchanged,
+// so a concurrent writer shows up as an update count of 0 instead of an exception that
+// would mark the whole transaction rollback-only. Rows are plain values here, never managed
+// by the persistence context, so reads always see the latest committed state.
+// findByIds locks the rows it finds in eventId order, and EventService sends its writes in that order too.
+// Batches sharing events then wait for each other at the lookup instead of locking rows in opposite
+// orders, which PostgreSQL would resolve by rolling one of them back as a deadlock.
+// Identifiers are written as their keys, which EventService has resolved before the batch.
+@Repository
+public class EventWriteRepository {
+
+    private static final String SELECT_BY_IDS = """
+            SELECT event_id, event_time, received_time, factory_key, line_key, machine_key,
+                   duration_ms, defect_count, payload_fingerprint, version
+            FROM events
+            WHERE event_id IN (:ids)
+            ORDER BY event_id
+            FOR UPDATE
+            """;
+
+    private static final String INSERT_IF_ABSENT = """
+            INSERT INTO events (event_id, event_time, received_time, factory_key, line_key, machine_key,
+                                duration_ms, defect_count, payload_fingerprint, version)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private static final String UPDATE_IF_VERSION = """
+            UPDATE events
+            SET event_time = ?, received_time = ?, factory_key = ?, line_key = ?, machine_key = ?,
+                duration_ms = ?, defect_count = ?, payload_fingerprint = ?, version = version + 1
+            WHERE event_id = ? AND version = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final IdentifierDictionary dictionary;
+
+    public EventWriteRepository(
+            JdbcTemplate jdbcTemplate,
+            NamedParameterJdbcTemplate namedJdbcTemplate,
+            IdentifierDictionary dictionary
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = namedJdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    // Locks the rows found until the transaction ends
+    public Map<String, EventEntity> findByIds(Collection<String> eventIds) {
+        Map<String, EventEntity> rows = new HashMap<>();
+        if (eventIds.isEmpty()) {
+            return rows;
+        }
+        namedJdbcTemplate.query(SELECT_BY_IDS, Map.of("ids", eventIds), rs -> {
+            EventEntity row = mapRow(rs);
+            rows.put(row.getEventId(), row);
+        });
+        return rows;
+    }
+
+    // 1 per inserted row, 0 where the event_id already existed
+    public int[] insertIfAbsent(List<EventEntity> rows) {
+        return checked(jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                EventEntity e = rows.get(i);
+                ps.setString(1, e.getEventId());
+                ps.setObject(2, toTimestamp(e.getEventTime()));
+                ps.setObject(3, toTimestamp(e.getReceivedTime()));
+                setKey(ps, 4, Dimension.FACTORY, e.getFactoryId());
+                setKey(ps, 5, Dimension.LINE, e.getLineId());
+                setKey(ps, 6, Dimension.MACHINE, e.getMachineId());
+                ps.setLong(7, e.getDurationMs());
+                ps.setInt(8, e.getDefectCount());
+                ps.setLong(9, e.getPayloadFingerprint());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        }));
+    }
+
+    // 1 per updated row, 0 where the row's version no longer equals rows[i].getVersion()
+    public int[] updateIfVersion(List<EventEntity> rows) {
+        return checked(jdbcTemplate.batchUpdate(UPDATE_IF_VERSION, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                EventEntity e = rows.get(i);
+                ps.setObject(1, toTimestamp(e.getEventTime()));
+                ps.setObject(2, toTimestamp(e.getReceivedTime()));
+                setKey(ps, 3, Dimension.FACTORY, e.getFactoryId());
+                setKey(ps, 4, Dimension.LINE, e.getLineId());
+                setKey(ps, 5, Dimension.MACHINE, e.getMachineId());
+                ps.setLong(6, e.getDurationMs());
+                ps.setInt(7, e.getDefectCount());
+                ps.setLong(8, e.getPayloadFingerprint());
+                ps.setString(9, e.getEventId());
+                ps.setLong(10, e.getVersion());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        }));
+    }
+
+    // A null id stays NULL, so the NOT NULL constraint rejects the row as it did before the keys
+    private void setKey(PreparedStatement ps, int index, Dimension dimension, String id) throws SQLException {
+        ps.setObject(index, id == null ? null : dictionary.requireKey(dimension, id), Types.INTEGER);
+    }
+
+    private static int[] checked(int[] counts) {
+        for (int count : counts) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                // e.g. PgJDBC with reWriteBatchedInserts=true
+                throw new IllegalStateException(
+                        "JDBC driver must report per-row update counts for conflict detection");
+            }
+        }
+        return counts;
+    }
+
+    private static OffsetDateTime toTimestamp(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+
+    private EventEntity mapRow(ResultSet rs) throws SQLException {
+        EventEntity row = new EventEntity(
+                rs.getString("event_id"),
+                rs.getObject("event_time", OffsetDateTime.class).toInstant(),
+                rs.getObject("received_time", OffsetDateTime.class).toInstant(),
+                dictionary.id(Dimension.FACTORY, rs.getInt("factory_key")),
+                dictionary.id(Dimension.LINE, rs.getInt("line_key")),
+                dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                rs.getLong("duration_ms"),
+                rs.getInt("defect_count"),
+                rs.getLong("payload_fingerprint")
+        );
+        row.setVersion(rs.getLong("version"));
+        return row;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.factory.repository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Integer surrogate keys of factory, line and machine ids (tables factory_dim, line_dim, machine_dim).
+// events stores only the keys; everything above the repositories still speaks the strings.
+//
+// Both directions are cached in memory, loaded at startup. Only committed keys are ever cached, and a key
+// never changes once committed, so lookups need no locking. resolve() registers new ids in a short
+// transaction of its own that commits before it returns; EventService calls it before opening the batch's
+// transaction, so batches only ever read the dimension tables. Ids missing from the cache, such as those
+// another instance added, are looked up in the database.
+@Repository
+public class IdentifierDictionary {
+
+    // Key of an id that was never stored; matches no row
+    public static final int UNKNOWN = -1;
+
+    public enum Dimension {
+        FACTORY("factory_dim", "factory_key", "factory_id"),
+        LINE("line_dim", "line_key", "line_id"),
+        MACHINE("machine_dim", "machine_key", "machine_id");
+
+        private final String table;
+        private final String keyColumn;
+        private final String idColumn;
+
+        Dimension(String table, String keyColumn, String idColumn) {
+            this.table = table;
+            this.keyColumn = keyColumn;
+            this.idColumn = idColumn;
+        }
+    }
+
+    // Keeps each IN (...) lookup well below the bind-parameter limit of the JDBC drivers
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+
+    // Rounds of resolve() while another instance is inserting the same ids
+    private static final int MAX_RESOLVE_ATTEMPTS = 5;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate newTransaction;
+
+    private final Map<Dimension, Map<String, Integer>> keys = new EnumMap<>(Dimension.class);
+    private final Map<Dimension, Map<Integer, String>> ids = new EnumMap<>(Dimension.class);
+
+    public IdentifierDictionary(
+            JdbcTemplate jdbcTemplate,
+            NamedParameterJdbcTemplate namedJdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = namedJdbcTemplate;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        for (Dimension dimension : Dimension.values()) {
+            Map<String, Integer> dimensionKeys = new ConcurrentHashMap<>();
+            keys.put(dimension, dimensionKeys);
+            ids.put(dimension, new ConcurrentHashMap<>());
+            jdbcTemplate.query("SELECT " + dimension.keyColumn + ", " + dimension.idColumn + " FROM " + dimension.table,
+                    rs -> {
+                        cache(dimension, rs.getInt(1), rs.getString(2));
+                    });
+
+            Gauge.builder("events.dictionary.entries", dimensionKeys, Map::size)
+                    .tag("dimension", dimension.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+    }
+
+    private void cache(Dimension dimension, int key, String id) {
+        keys.get(dimension).put(id, key);
+        ids.get(dimension).put(key, id);
+    }
+
+    public boolean isCached(Dimension dimension, String id) {
+        return keys.get(dimension).containsKey(id);
+    }
+
+    // UNKNOWN when the id was never stored, so a query for it matches nothing
+    public int key(Dimension dimension, String id) {
+        if (id == null) {
+            return UNKNOWN;
+        }
+        Integer key = keys.get(dimension).get(id);
+        if (key != null) {
+            return key;
+        }
+        List<Integer> stored = jdbcTemplate.queryForList(
+                "SELECT " + dimension.keyColumn + " FROM " + dimension.table + " WHERE " + dimension.idColumn + " = ?",
+                Integer.class, id);
+        if (stored.isEmpty()) {
+            return UNKNOWN;
+        }
+        cache(dimension, stored.get(0), id);
+        return stored.get(0);
+    }
+
+    // For rows about to be written, whose ids were resolved before
+    public int requireKey(Dimension dimension, String id) {
+        int key = key(dimension, id);
+        if (key == UNKNOWN) {
+            throw new IllegalStateException(dimension + " id " + id + " was not resolved before writing");
+        }
+        return key;
+    }
+
+    public String id(Dimension dimension, int key) {
+        String id = ids.get(dimension).get(key);
+        if (id != null) {
+            return id;
+        }
+        List<String> stored = jdbcTemplate.queryForList(
+                "SELECT " + dimension.idColumn + " FROM " + dimension.table + " WHERE " + dimension.keyColumn + " = ?",
+                String.class, key);
+        if (stored.isEmpty()) {
+            throw new IllegalStateException("No " + dimension + " id with key " + key);
+        }
+        cache(dimension, key, stored.get(0));
+        return stored.get(0);
+    }
+
+    // Stores the ids that have no key yet, in a transaction that commits before this returns.
+    // Resolves of this instance take turns, so only other instances can insert the same id concurrently:
+    // their insert waits for ours and skips the id, or fails and is retried, and either way finds our key.
+    // Ids are inserted in sorted order, so concurrent resolves wait for each other instead of deadlocking.
+    public synchronized void resolve(Map<Dimension, ? extends Collection<String>> idsByDimension) {
+        Map<Dimension, TreeSet<String>> missing = new EnumMap<>(Dimension.class);
+        idsByDimension.forEach((dimension, candidates) -> {
+            for (String id : candidates) {
+                if (id != null && !isCached(dimension, id)) {
+                    missing.computeIfAbsent(dimension, d -> new TreeSet<>()).add(id);
+                }
+            }
+        });
+
+        for (int attempt = 1; !missing.isEmpty(); attempt++) {
+            try {
+                Map<Dimension, Map<String, Integer>> stored = newTransaction.execute(status -> insertMissing(missing));
+                // cached only now that the keys are committed
+                stored.forEach((dimension, found) -> {
+                    found.forEach((id, key) -> cache(dimension, key, id));
+                    missing.get(dimension).removeAll(found.keySet());
+                });
+                missing.values().removeIf(TreeSet::isEmpty);
+            } catch (DuplicateKeyException e) {
+                if (attempt == MAX_RESOLVE_ATTEMPTS) {
+                    throw e;
+                }
+                continue;
+            }
+
+            if (!missing.isEmpty() && attempt == MAX_RESOLVE_ATTEMPTS) {
+                throw new IllegalStateException("Could not resolve identifiers " + missing);
+            }
+        }
+    }
+
+    private Map<Dimension, Map<String, Integer>> insertMissing(Map<Dimension, TreeSet<String>> missing) {
+        Map<Dimension, Map<String, Integer>> stored = new EnumMap<>(Dimension.class);
+        missing.forEach((dimension, newIds) -> {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO " + dimension.table + " (" + dimension.idColumn + ") VALUES (?) ON CONFLICT DO NOTHING",
+                    newIds, LOOKUP_CHUNK_SIZE, (ps, id) -> ps.setString(1, id));
+
+            Map<String, Integer> found = new HashMap<>();
+            List<String> all = new ArrayList<>(newIds);
+            for (int from = 0; from < all.size(); from += LOOKUP_CHUNK_SIZE) {
+                namedJdbcTemplate.query(
+                        "SELECT " + dimension.keyColumn + ", " + dimension.idColumn + " FROM " + dimension.table
+                                + " WHERE " + dimension.idColumn + " IN (:ids)",
+                        Map.of("ids", all.subList(from, Math.min(all.size(), from + LOOKUP_CHUNK_SIZE))),
+                        rs -> {
+                            found.put(rs.getString(2), rs.getInt(1));
+                        });
+            }
+            stored.put(dimension, found);
+        });
+        return stored;
+    }
+
+    public int size(Dimension dimension) {
+        return keys.get(dimension).size();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// The events table: the PER_EVENT mode through JPA, conflict-aware batch writes through EventWriteRepository,
+// and the window aggregates in the database
+@Repository
+@ConditionalOnProperty(name = "events.store.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaEventStore implements EventStore {
+
+    private final EventRepository repository;
+    private final EventWriteRepository writeRepository;
+
+    public JpaEventStore(EventRepository repository, EventWriteRepository writeRepository) {
+        this.repository = repository;
+        this.writeRepository = writeRepository;
+    }
+
+    @Override
+    public Map<String, EventEntity> findByIds(Collection<String> eventIds) {
+        return writeRepository.findByIds(eventIds);
+    }
+
+    @Override
+    public int[] insertIfAbsent(List<EventEntity> rows) {
+        return writeRepository.insertIfAbsent(rows);
+    }
+
+    @Override
+    public int[] updateIfVersion(List<EventEntity> rows) {
+        return writeRepository.updateIfVersion(rows);
+    }
+
+    // Managed entities: an update is flushed at commit, and @Version fails it if another writer got there first
+    @Override
+    public Optional<EventEntity> findById(String eventId) {
+        return repository.findById(eventId);
+    }
+
+    @Override
+    public void insert(EventEntity row) {
+        repository.save(row);
+    }
+
+    @Override
+    public void update(EventEntity row) {
+        repository.save(row);
+    }
+
+    @Override
+    public WindowTotals sumMachineWindow(String machineId, Instant start, Instant end) {
+        return repository.sumMachineWindow(machineId, start, end);
+    }
+
+    @Override
+    public WindowTotals sumTwoRanges(String machineId, Instant start1, Instant end1, Instant start2, Instant end2) {
+        return repository.sumTwoRanges(machineId, start1, end1, start2, end2);
+    }
+
+    @Override
+    public List<LineDefectTotals> sumLines(String factoryId, Instant from, Instant to) {
+        return repository.findTopDefectLines(factoryId, from, to, Pageable.unpaged());
+    }
+
+    @Override
+    public long count() {
+        return repository.count();
+    }
+
+    @Override
+    public void deleteAll() {
+        repository.deleteAll();
+    }
+
+    @Override
+    public boolean inDatabase() {
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.factory.repository;
+
+// Interface projection for the per-line aggregate of a factory window
+public interface LineDefectTotals {
+
+    String getLineId();
+
+    long getTotalDefects();
+
+    long getEventCount();
+}
@@ -0,0 +1,87 @@
+package com.example.factory.repository;
+
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+// Streams per-machine input for the top defect machines ranking without sorting or buffering it:
+// exact totals per machine (GROUP BY, no ORDER BY), or the raw defective events for approximate counting.
+// factoryId may be null for all factories. Rows are streamed with a fetch size; PostgreSQL only uses a
+// cursor inside a transaction.
+@Repository
+public class MachineDefectsRepository {
+
+    private static final String SUM_BY_MACHINE = """
+            SELECT machine_key,
+                   SUM(CASE WHEN defect_count >= 0 THEN defect_count ELSE 0 END) AS defects_count,
+                   COUNT(*) AS events_count
+            FROM events
+            WHERE event_time BETWEEN ? AND ?
+            """;
+
+    private static final String DEFECTIVE_EVENTS = """
+            SELECT machine_key, defect_count
+            FROM events
+            WHERE event_time BETWEEN ? AND ? AND defect_count > 0
+            """;
+
+    private static final String FACTORY_FILTER = " AND factory_key = ?";
+
+    private static final int FETCH_SIZE = 10_000;
+
+    @FunctionalInterface
+    public interface MachineTotalsHandler {
+        void accept(String machineId, long defectsCount, long eventsCount);
+    }
+
+    @FunctionalInterface
+    public interface DefectsHandler {
+        void accept(String machineId, long defectCount);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentifierDictionary dictionary;
+
+    public MachineDefectsRepository(JdbcTemplate jdbcTemplate, IdentifierDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    @Transactional(readOnly = true)
+    public void forEachMachineTotals(String factoryId, Instant from, Instant to, MachineTotalsHandler handler) {
+        String sql = SUM_BY_MACHINE + (factoryId == null ? "" : FACTORY_FILTER) + " GROUP BY machine_key";
+        stream(sql, factoryId, from, to, rs -> handler.accept(
+                dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                rs.getLong("defects_count"),
+                rs.getLong("events_count")));
+    }
+
+    @Transactional(readOnly = true)
+    public void forEachDefectiveEvent(String factoryId, Instant from, Instant to, DefectsHandler handler) {
+        String sql = DEFECTIVE_EVENTS + (factoryId == null ? "" : FACTORY_FILTER);
+        stream(sql, factoryId, from, to, rs -> handler.accept(
+                dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                rs.getLong("defect_count")));
+    }
+
+    private void stream(String sql, String factoryId, Instant from, Instant to,
+                        RowCallbackHandler rows) {
+        jdbcTemplate.query(
+                con -> {
+                    var ps = con.prepareStatement(sql);
+                    ps.setFetchSize(FETCH_SIZE);
+                    ps.setObject(1, from.atOffset(ZoneOffset.UTC));
+                    ps.setObject(2, to.atOffset(ZoneOffset.UTC));
+                    if (factoryId != null) {
+                        ps.setInt(3, dictionary.key(Dimension.FACTORY, factoryId));
+                    }
+                    return ps;
+                },
+                rows);
+    }
+}
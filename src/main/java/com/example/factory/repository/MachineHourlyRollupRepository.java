@@ -0,0 +1,44 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.MachineHourKey;
+import com.example.factory.entity.MachineHourlyRollupEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MachineHourlyRollupRepository
+        extends JpaRepository<MachineHourlyRollupEntity, MachineHourKey> {
+
+    @Query("""
+            SELECT COALESCE(SUM(r.eventsCount), 0) AS eventsCount,
+                   COALESCE(SUM(r.defectsCount), 0) AS defectsCount
+            FROM MachineHourlyRollupEntity r
+            WHERE r.machineId = :machineId
+              AND r.bucketHour >= :fromHour AND r.bucketHour < :toHour
+            """)
+    WindowTotals sumBuckets(
+            @Param("machineId") String machineId,
+            @Param("fromHour") long fromHour,
+            @Param("toHour") long toHour
+    );
+
+    @Modifying
+    @Query(value = "DELETE FROM machine_hourly_rollup", nativeQuery = true)
+    int deleteAllBuckets();
+
+    @Modifying
+    @Query(value = """
+            INSERT INTO machine_hourly_rollup (machine_id, bucket_hour, events_count, defects_count)
+            SELECT m.machine_id,
+                   FLOOR(EXTRACT(EPOCH FROM e.event_time) / 3600),
+                   COUNT(*),
+                   SUM(CASE WHEN e.defect_count >= 0 THEN e.defect_count ELSE 0 END)
+            FROM events e
+            JOIN machine_dim m ON m.machine_key = e.machine_key
+            GROUP BY m.machine_id, FLOOR(EXTRACT(EPOCH FROM e.event_time) / 3600)
+            """, nativeQuery = true)
+    int rebuildFromEvents();
+}
@@ -0,0 +1,963 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32C;
+
+// Embedded event store (events.store.engine=mmap) for edge deployments: one append-only log file,
+// <dir>/events.log, memory-mapped in regions of regionBytes. Every write appends a record; a record never
+// spans two regions, the rest of a region that cannot hold the next one is skipped. Big-endian records:
+//
+//   length      i32, of the whole record
+//   crc         i32 CRC32C of the bytes after it
+//   type        u8 PUT, DELETE or CLEAR
+//   PUT:    version i64, eventTime i64 and receivedTime i64 (epoch micros), durationMs i64, defectCount i32,
+//           payloadFingerprint i64, then eventId, factoryId, lineId, machineId as u16 length + UTF-8
+//   DELETE: eventId, only in logs whose rollbacks appended undo records; CLEAR: nothing
+//
+// Two indexes point into the log, both rebuilt by reading it at startup: an open-addressing hash table of
+// eventId -> offset of its latest PUT, held off-heap in a direct buffer of 16 bytes per slot, and per
+// machine and per factory a set of (eventTime, offset) sorted by time, which the window sums walk.
+// Recovery stops at the first record whose CRC does not match, the torn tail of a crash, and zeroes what
+// follows. Superseded records stay in the log until a startup finds that less than half of it is live and
+// rewrites it with only the latest records.
+//
+// Writes take part in the caller's transaction. Each transaction keeps the records it writes to itself,
+// visible only to its own reads, and appends and indexes them once it commits, then forces the log; a
+// rollback just drops them. Like row locks, a transaction holds the eventIds it writes until it completes,
+// and another transaction writing one of them waits for that, up to lockTimeoutMs. Its version check and
+// insert then see the outcome. deleteAll drops what the caller's transaction wrote, commits at once and is not
+// undone by a rollback, and it does not wait for other transactions in progress.
+@Repository
+@ConditionalOnProperty(name = "events.store.engine", havingValue = "mmap")
+public class MappedEventStore implements EventStore, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedEventStore.class);
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLEAR = 3;
+
+    // Fills the rest of a region; a region end with fewer than HEADER bytes left is skipped as well
+    private static final int PADDING = -1;
+    private static final int HEADER = 8;
+
+    private static final int TYPE = 8;
+    private static final int VERSION = 9;
+    private static final int EVENT_TIME = 17;
+    private static final int RECEIVED_TIME = 25;
+    private static final int DURATION = 33;
+    private static final int DEFECTS = 41;
+    private static final int FINGERPRINT = 45;
+    private static final int STRINGS = 53;
+
+    private static final int EVENT_ID = 0;
+    private static final int FACTORY_ID = 1;
+    private static final int LINE_ID = 2;
+    private static final int MACHINE_ID = 3;
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private final Path file;
+    private final int regionBytes;
+    private final long lockTimeoutMs;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object syncMonitor = new Object();
+
+    private FileChannel channel;
+    private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+    private final OffHeapIndex index = new OffHeapIndex();
+    private final Map<String, TreeSet<Entry>> byMachine = new HashMap<>();
+    private final Map<String, TreeSet<Entry>> byFactory = new HashMap<>();
+    // eventId -> the transaction writing it, until that transaction completes
+    private final Map<String, Pending> writers = new ConcurrentHashMap<>();
+
+    // Next write offset, and the offset up to which the log is forced
+    private volatile long end;
+    private long syncedTo;
+
+    private record Entry(long time, long offset) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(offset, other.offset);
+        }
+    }
+
+    public MappedEventStore(
+            MeterRegistry meterRegistry,
+            @Value("${events.store.dir:data/events}") String dir,
+            @Value("${events.store.region-bytes:67108864}") int regionBytes,
+            @Value("${events.store.lock-timeout-ms:10000}") long lockTimeoutMs,
+            @Value("${events.timeseries.enabled:false}") boolean timeSeriesEnabled,
+            @Value("${events.archive.enabled:false}") boolean archiveEnabled
+    ) throws IOException {
+        // both read the events table
+        if (timeSeriesEnabled || archiveEnabled) {
+            throw new IllegalStateException(
+                    "events.store.engine=mmap needs events.timeseries.enabled=false and events.archive.enabled=false");
+        }
+        this.regionBytes = regionBytes;
+        this.lockTimeoutMs = lockTimeoutMs;
+        Files.createDirectories(Path.of(dir));
+        this.file = Path.of(dir).resolve("events.log");
+
+        open();
+        long live = liveBytes();
+        if (end > regionBytes && live * 2 < end) {
+            log.info("Compacting {}: {} of {} bytes are live", file, live, end);
+            compact();
+        }
+        log.info("Opened {} with {} events in {} bytes", file, index.size(), end);
+
+        Gauge.builder("events.store.log.bytes", this, s -> s.end)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("events.store.events", this, MappedEventStore::count)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Map<String, EventEntity> findByIds(Collection<String> eventIds) {
+        Map<String, EventEntity> found = new HashMap<>();
+        Pending own = transactionPending(false);
+        lock.readLock().lock();
+        try {
+            for (String eventId : eventIds) {
+                byte[] written = own == null ? null : own.records.get(eventId);
+                if (written != null) {
+                    found.put(eventId, row(ByteBuffer.wrap(written), 0));
+                    continue;
+                }
+                long offset = find(eventId);
+                if (offset >= 0) {
+                    found.put(eventId, row(region(offset), position(offset)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public Optional<EventEntity> findById(String eventId) {
+        return Optional.ofNullable(findByIds(List.of(eventId)).get(eventId));
+    }
+
+    @Override
+    public int[] insertIfAbsent(List<EventEntity> rows) {
+        int[] inserted = new int[rows.size()];
+        write(rows, pending -> {
+            for (int i = 0; i < rows.size(); i++) {
+                EventEntity row = rows.get(i);
+                if (version(pending, row.getEventId()) < 0) {
+                    pending.records.put(row.getEventId(), encodePut(row, 0));
+                    inserted[i] = 1;
+                }
+            }
+        });
+        return inserted;
+    }
+
+    @Override
+    public int[] updateIfVersion(List<EventEntity> rows) {
+        int[] updated = new int[rows.size()];
+        write(rows, pending -> {
+            for (int i = 0; i < rows.size(); i++) {
+                EventEntity row = rows.get(i);
+                long current = version(pending, row.getEventId());
+                if (current >= 0 && current == row.getVersion()) {
+                    pending.records.put(row.getEventId(), encodePut(row, row.getVersion() + 1));
+                    updated[i] = 1;
+                }
+            }
+        });
+        return updated;
+    }
+
+    // Version of the row as the transaction sees it, -1 if it is not stored
+    private long version(Pending pending, String eventId) {
+        byte[] written = pending.records.get(eventId);
+        if (written != null) {
+            return ByteBuffer.wrap(written).getLong(VERSION);
+        }
+        long offset = find(eventId);
+        return offset < 0 ? -1 : version(offset);
+    }
+
+    @Override
+    public void insert(EventEntity row) {
+        if (insertIfAbsent(List.of(row))[0] == 0) {
+            throw new DuplicateKeyException("Event " + row.getEventId() + " is already stored");
+        }
+    }
+
+    @Override
+    public void update(EventEntity row) {
+        if (updateIfVersion(List.of(row))[0] == 0) {
+            throw new OptimisticLockingFailureException(
+                    "Event " + row.getEventId() + " changed since version " + row.getVersion());
+        }
+    }
+
+    @Override
+    public WindowTotals sumMachineWindow(String machineId, Instant start, Instant end) {
+        long[] totals = new long[2];
+        lock.readLock().lock();
+        try {
+            forEachVisible(byMachine, MACHINE_ID, machineId, ceilMicros(start), ceilMicros(end), (buffer, position) -> {
+                totals[0]++;
+                totals[1] += Math.max(buffer.getInt(position + DEFECTS), 0);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return EventStore.totals(totals[0], totals[1]);
+    }
+
+    @Override
+    public List<LineDefectTotals> sumLines(String factoryId, Instant from, Instant to) {
+        // lineId -> {events, known defects}
+        Map<String, long[]> lines = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            // `to` is inclusive; stored times have microsecond precision
+            forEachVisible(byFactory, FACTORY_ID, factoryId, ceilMicros(from), floorMicros(to) + 1, (buffer, position) -> {
+                long[] totals = lines.computeIfAbsent(string(buffer, position, LINE_ID), l -> new long[2]);
+                totals[0]++;
+                totals[1] += Math.max(buffer.getInt(position + DEFECTS), 0);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<LineDefectTotals> result = new ArrayList<>(lines.size());
+        lines.forEach((lineId, totals) -> result.add(new LineDefectTotals() {
+            @Override
+            public String getLineId() {
+                return lineId;
+            }
+
+            @Override
+            public long getTotalDefects() {
+                return totals[1];
+            }
+
+            @Override
+            public long getEventCount() {
+                return totals[0];
+            }
+        }));
+        return result;
+    }
+
+    private interface RecordVisitor {
+        void accept(ByteBuffer buffer, int position);
+    }
+
+    // The rows of key in [fromMicros, toMicros) as the caller's transaction sees them: the committed ones it
+    // has not overwritten, then its own. Callers hold the read lock.
+    private void forEachVisible(Map<String, TreeSet<Entry>> byKey, int keyString, String key,
+                                long fromMicros, long toMicros, RecordVisitor visitor) {
+        Pending own = transactionPending(false);
+        Map<String, byte[]> written = own == null ? Map.of() : own.records;
+        for (Entry entry : window(byKey.get(key), fromMicros, toMicros)) {
+            if (written.isEmpty() || !written.containsKey(string(entry.offset, EVENT_ID))) {
+                visitor.accept(region(entry.offset), position(entry.offset));
+            }
+        }
+        for (byte[] record : written.values()) {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long time = buffer.getLong(EVENT_TIME);
+            if (time >= fromMicros && time < toMicros && string(buffer, 0, keyString).equals(key)) {
+                visitor.accept(buffer, 0);
+            }
+        }
+    }
+
+    private static NavigableSet<Entry> window(TreeSet<Entry> entries, long fromMicros, long toMicros) {
+        if (entries == null || fromMicros >= toMicros) {
+            return new TreeSet<>();
+        }
+        return entries.subSet(new Entry(fromMicros, Long.MIN_VALUE), true, new Entry(toMicros, Long.MIN_VALUE), false);
+    }
+
+    @Override
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        Pending own = transactionPending(false);
+        lock.writeLock().lock();
+        try {
+            if (own != null) {
+                own.records.clear();
+            }
+            byte[] record = new byte[TYPE + 1];
+            ByteBuffer.wrap(record).putInt(0, record.length).put(TYPE, CLEAR);
+            seal(record);
+            append(record);
+            clearIndexes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sync();
+    }
+
+    @Override
+    public boolean inDatabase() {
+        return false;
+    }
+
+    // Log
+
+    private interface Write {
+        void apply(Pending pending);
+    }
+
+    // Takes the rows' eventIds for the transaction, then runs the writes against its records. Without a
+    // transaction they are committed right away.
+    private void write(List<EventEntity> rows, Write write) {
+        boolean inTransaction = TransactionSynchronizationManager.isSynchronizationActive();
+        Pending pending = inTransaction ? transactionPending(true) : new Pending();
+        try {
+            // in one order, so two batches of the same events cannot wait for each other
+            for (String eventId : new TreeSet<>(rows.stream().map(EventEntity::getEventId).toList())) {
+                acquire(pending, eventId);
+            }
+            lock.readLock().lock();
+            try {
+                write.apply(pending);
+            } finally {
+                lock.readLock().unlock();
+            }
+        } catch (RuntimeException e) {
+            if (!inTransaction) {
+                release(pending);
+            }
+            throw e;
+        }
+        if (!inTransaction) {
+            commit(pending);
+            release(pending);
+        }
+    }
+
+    // The transaction's Pending, registered on first use if create is set
+    private Pending transactionPending(boolean create) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        // looked up among the synchronizations rather than bound as a resource, so a nested transaction
+        // that suspends the outer one gets a Pending of its own
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof Pending pending && pending.store() == this) {
+                return pending;
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        Pending pending = new Pending();
+        TransactionSynchronizationManager.registerSynchronization(pending);
+        return pending;
+    }
+
+    // What a transaction has written and the eventIds it holds
+    private final class Pending implements TransactionSynchronization {
+
+        // eventId -> its latest PUT record, in the order first written
+        private final Map<String, byte[]> records = new LinkedHashMap<>();
+        private final Set<String> held = new HashSet<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        MappedEventStore store() {
+            return MappedEventStore.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            commit(this);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            release(this);
+        }
+    }
+
+    private void acquire(Pending pending, String eventId) {
+        if (pending.held.contains(eventId)) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lockTimeoutMs);
+        while (true) {
+            Pending holder = writers.putIfAbsent(eventId, pending);
+            if (holder == null) {
+                pending.held.add(eventId);
+                return;
+            }
+            try {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || !holder.completed.await(left, TimeUnit.NANOSECONDS)) {
+                    throw new CannotAcquireLockException(
+                            "Event " + eventId + " is being written by another transaction");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CannotAcquireLockException("Interrupted while waiting for event " + eventId);
+            }
+        }
+    }
+
+    // Appends and indexes the transaction's records, then forces them
+    private void commit(Pending pending) {
+        if (pending.records.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (byte[] record : pending.records.values()) {
+                put(record);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sync();
+    }
+
+    private void release(Pending pending) {
+        for (String eventId : pending.held) {
+            writers.remove(eventId, pending);
+        }
+        pending.completed.countDown();
+    }
+
+    // Appends a PUT record and points the indexes at it
+    private void put(byte[] record) {
+        long offset = append(record);
+        apply(offset);
+    }
+
+    // Updates the indexes for the record at offset, as written or as read at startup
+    private void apply(long offset) {
+        MappedByteBuffer region = region(offset);
+        int position = position(offset);
+        switch (region.get(position + TYPE)) {
+            case PUT -> {
+                String eventId = string(offset, EVENT_ID);
+                long previous = find(eventId);
+                if (previous >= 0) {
+                    unlink(previous);
+                }
+                index.put(hash(eventId), offset, o -> idEquals(o, eventId));
+                link(offset);
+            }
+            case DELETE -> {
+                int length = region.getShort(position + TYPE + 1) & 0xFFFF;
+                byte[] id = new byte[length];
+                region.get(position + TYPE + 3, id);
+                String eventId = new String(id, StandardCharsets.UTF_8);
+                long previous = find(eventId);
+                if (previous >= 0) {
+                    unlink(previous);
+                    index.remove(hash(eventId), o -> idEquals(o, eventId));
+                }
+            }
+            case CLEAR -> clearIndexes();
+            default -> throw new IllegalStateException("Unknown record type at offset " + offset + " of " + file);
+        }
+    }
+
+    private void link(long offset) {
+        Entry entry = new Entry(region(offset).getLong(position(offset) + EVENT_TIME), offset);
+        byMachine.computeIfAbsent(string(offset, MACHINE_ID), m -> new TreeSet<>()).add(entry);
+        byFactory.computeIfAbsent(string(offset, FACTORY_ID), f -> new TreeSet<>()).add(entry);
+    }
+
+    private void unlink(long offset) {
+        Entry entry = new Entry(region(offset).getLong(position(offset) + EVENT_TIME), offset);
+        unlink(byMachine, string(offset, MACHINE_ID), entry);
+        unlink(byFactory, string(offset, FACTORY_ID), entry);
+    }
+
+    private static void unlink(Map<String, TreeSet<Entry>> entries, String id, Entry entry) {
+        TreeSet<Entry> set = entries.get(id);
+        set.remove(entry);
+        if (set.isEmpty()) {
+            entries.remove(id);
+        }
+    }
+
+    private void clearIndexes() {
+        index.clear();
+        byMachine.clear();
+        byFactory.clear();
+    }
+
+    private long find(String eventId) {
+        return index.find(hash(eventId), o -> idEquals(o, eventId));
+    }
+
+    // Returns the record's offset. Callers hold the write lock.
+    private long append(byte[] record) {
+        if (record.length > regionBytes) {
+            throw new IllegalArgumentException("Record of " + record.length + " bytes does not fit a region");
+        }
+        int position = position(end);
+        if (regionBytes - position < record.length) {
+            if (regionBytes - position >= HEADER) {
+                region(end).putInt(position, PADDING);
+            }
+            end = (end / regionBytes + 1) * regionBytes;
+        }
+        long offset = end;
+        region(offset).put(position(offset), record);
+        end = offset + record.length;
+        return offset;
+    }
+
+    // Forces what was appended since the last call; a commit that finds its records forced by another
+    // commit returns without an fsync of its own
+    private void sync() {
+        synchronized (syncMonitor) {
+            long to = end;
+            for (long from = syncedTo; from < to; from = (from / regionBytes + 1) * regionBytes) {
+                int position = position(from);
+                int length = (int) Math.min(regionBytes - position, to - from);
+                region(from).force(position, length);
+            }
+            syncedTo = Math.max(syncedTo, to);
+        }
+    }
+
+    private MappedByteBuffer region(long offset) {
+        int number = Math.toIntExact(offset / regionBytes);
+        while (regions.size() <= number) {
+            synchronized (regions) {
+                if (regions.size() <= number) {
+                    try {
+                        regions.add(channel.map(
+                                FileChannel.MapMode.READ_WRITE, (long) regions.size() * regionBytes, regionBytes));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+        return regions.get(number);
+    }
+
+    private int position(long offset) {
+        return (int) (offset % regionBytes);
+    }
+
+    // Records
+
+    private byte[] encodePut(EventEntity row, long version) {
+        byte[][] strings = new byte[4][];
+        strings[EVENT_ID] = utf8(row.getEventId(), "event_id");
+        strings[FACTORY_ID] = utf8(row.getFactoryId(), "factory_id");
+        strings[LINE_ID] = utf8(row.getLineId(), "line_id");
+        strings[MACHINE_ID] = utf8(row.getMachineId(), "machine_id");
+        int length = STRINGS;
+        for (byte[] string : strings) {
+            length += 2 + string.length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putInt(0).put(PUT)
+                .putLong(version)
+                .putLong(floorMicros(row.getEventTime()))
+                .putLong(floorMicros(row.getReceivedTime()))
+                .putLong(row.getDurationMs())
+                .putInt(row.getDefectCount())
+                .putLong(row.getPayloadFingerprint());
+        for (byte[] string : strings) {
+            record.putShort((short) string.length).put(string);
+        }
+        seal(record.array());
+        return record.array();
+    }
+
+    // A null id fails like the NOT NULL columns of the events table
+    private static byte[] utf8(String value, String column) {
+        if (value == null) {
+            throw new DataIntegrityViolationException("NULL not allowed for column " + column);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new DataIntegrityViolationException("Value too long for column " + column);
+        }
+        return bytes;
+    }
+
+    private static void seal(byte[] record) {
+        ByteBuffer.wrap(record).putInt(4, crc(ByteBuffer.wrap(record), 0, record.length));
+    }
+
+    private static int crc(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + HEADER, length - HEADER));
+        return (int) crc.getValue();
+    }
+
+    private byte[] copy(long offset) {
+        MappedByteBuffer region = region(offset);
+        byte[] record = new byte[region.getInt(position(offset))];
+        region.get(position(offset), record);
+        return record;
+    }
+
+    // The PUT record at position, in the log or not yet appended
+    private static EventEntity row(ByteBuffer buffer, int position) {
+        String[] strings = strings(buffer, position);
+        EventEntity row = new EventEntity(
+                strings[EVENT_ID],
+                instant(buffer.getLong(position + EVENT_TIME)),
+                instant(buffer.getLong(position + RECEIVED_TIME)),
+                strings[FACTORY_ID],
+                strings[LINE_ID],
+                strings[MACHINE_ID],
+                buffer.getLong(position + DURATION),
+                buffer.getInt(position + DEFECTS),
+                buffer.getLong(position + FINGERPRINT));
+        row.setVersion(buffer.getLong(position + VERSION));
+        return row;
+    }
+
+    private long version(long offset) {
+        return region(offset).getLong(position(offset) + VERSION);
+    }
+
+    private static String[] strings(ByteBuffer buffer, int recordPosition) {
+        int position = recordPosition + STRINGS;
+        String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+            buffer.get(position + 2, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 2 + bytes.length;
+        }
+        return strings;
+    }
+
+    private String string(long offset, int number) {
+        return string(region(offset), position(offset), number);
+    }
+
+    private static String string(ByteBuffer buffer, int recordPosition, int number) {
+        int position = recordPosition + STRINGS;
+        for (int i = 0; i < number; i++) {
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+        }
+        byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+        buffer.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean idEquals(long offset, String eventId) {
+        return string(offset, EVENT_ID).equals(eventId);
+    }
+
+    private static long hash(String eventId) {
+        // FNV-1a over the chars, then the MurmurHash3 finalizer so that the low bits, which pick the slot,
+        // depend on every char
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < eventId.length(); i++) {
+            h = (h ^ eventId.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    static long floorMicros(Instant time) {
+        return Math.addExact(Math.multiplyExact(time.getEpochSecond(), 1_000_000L), time.getNano() / 1000);
+    }
+
+    // The first stored time at or after `time`
+    static long ceilMicros(Instant time) {
+        return floorMicros(time) + (time.getNano() % 1000 == 0 ? 0 : 1);
+    }
+
+    private static Instant instant(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1000L);
+    }
+
+    // Startup
+
+    // Maps the log and applies its records up to the first one that is torn or was never written
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long offset = 0;
+        while (offset < size) {
+            MappedByteBuffer region = region(offset);
+            int position = position(offset);
+            int length = regionBytes - position < HEADER ? PADDING : region.getInt(position);
+            if (length == PADDING) {
+                offset = (offset / regionBytes + 1) * regionBytes;
+                continue;
+            }
+            if (length <= TYPE || length > regionBytes - position
+                    || region.getInt(position + 4) != crc(region, position, length)) {
+                break;
+            }
+            apply(offset);
+            offset += length;
+        }
+        end = offset;
+        zeroFrom(offset, size);
+        syncedTo = end;
+    }
+
+    // A crash can leave records after the torn one that reached the disk before it did; they were never
+    // committed and must not come back once new records end next to them
+    private void zeroFrom(long offset, long size) {
+        boolean zeroed = false;
+        for (long at = offset; at < size; at++) {
+            MappedByteBuffer region = region(at);
+            int position = position(at);
+            if (position % 8 == 0 && regionBytes - position >= 8) {
+                if (region.getLong(position) != 0) {
+                    region.putLong(position, 0);
+                    zeroed = true;
+                }
+                at += 7;
+            } else if (region.get(position) != 0) {
+                region.put(position, (byte) 0);
+                zeroed = true;
+            }
+        }
+        if (zeroed) {
+            log.warn("Discarded a torn tail of {} after offset {}", file, offset);
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+        }
+    }
+
+    private long liveBytes() {
+        long[] live = {0};
+        index.forEach(offset -> live[0] += region(offset).getInt(position(offset)));
+        return live[0];
+    }
+
+    // Writes the live records to a new log, replaces the old one with it and opens it
+    private void compact() throws IOException {
+        long[] offsets = new long[index.size()];
+        int[] count = {0};
+        index.forEach(offset -> offsets[count[0]++] = offset);
+        Arrays.sort(offsets);
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long at = 0;
+            for (long offset : offsets) {
+                byte[] record = copy(offset);
+                int position = (int) (at % regionBytes);
+                if (regionBytes - position < record.length) {
+                    if (regionBytes - position >= HEADER) {
+                        out.write(ByteBuffer.allocate(4).putInt(0, PADDING), at);
+                    }
+                    at = (at / regionBytes + 1) * regionBytes;
+                }
+                out.write(ByteBuffer.wrap(record), at);
+                at += record.length;
+            }
+            out.force(true);
+        }
+
+        close();
+        regions.clear();
+        clearIndexes();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    // eventId -> log offset, open addressing with linear probing in a direct buffer. A slot is the eventId's
+    // hash and offset + 1; 0 marks a slot never used, -1 one whose entry was removed. Keys are compared by
+    // reading the eventId of the record at the offset, so the table holds no strings.
+    private static final class OffHeapIndex {
+
+        private static final int SLOT = 16;
+        private static final long EMPTY = 0;
+        private static final long REMOVED = -1;
+        private static final int INITIAL_SLOTS = 1 << 16;
+        // slot positions are int offsets into the buffer
+        private static final int MAX_SLOTS = 1 << 26;
+
+        private ByteBuffer slots;
+        private int mask;
+        private int size;
+        // Slots ever used since the last resize, removed ones included; kept below 3/4 of the table
+        private int used;
+
+        OffHeapIndex() {
+            allocate(INITIAL_SLOTS);
+        }
+
+        private void allocate(int capacity) {
+            slots = ByteBuffer.allocateDirect(capacity * SLOT);
+            mask = capacity - 1;
+            size = 0;
+            used = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Offset of the key, -1 if absent
+        long find(long hash, LongPredicate isKey) {
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long value = slots.getLong(slot * SLOT + 8);
+                if (value == EMPTY) {
+                    return -1;
+                }
+                if (value != REMOVED && slots.getLong(slot * SLOT) == hash && isKey.test(value - 1)) {
+                    return value - 1;
+                }
+            }
+        }
+
+        void put(long hash, long offset, LongPredicate isKey) {
+            int free = -1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long value = slots.getLong(slot * SLOT + 8);
+                if (value == EMPTY) {
+                    if (free < 0) {
+                        free = slot;
+                        used++;
+                    }
+                    break;
+                }
+                if (value == REMOVED) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                } else if (slots.getLong(slot * SLOT) == hash && isKey.test(value - 1)) {
+                    slots.putLong(slot * SLOT + 8, offset + 1);
+                    return;
+                }
+            }
+            slots.putLong(free * SLOT, hash).putLong(free * SLOT + 8, offset + 1);
+            size++;
+            if (used > (mask + 1) / 4 * 3) {
+                // doubles when mostly live, otherwise only sheds the removed slots
+                resize(size > (mask + 1) / 2 ? (mask + 1) * 2 : mask + 1);
+            }
+        }
+
+        void remove(long hash, LongPredicate isKey) {
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long value = slots.getLong(slot * SLOT + 8);
+                if (value == EMPTY) {
+                    return;
+                }
+                if (value != REMOVED && slots.getLong(slot * SLOT) == hash && isKey.test(value - 1)) {
+                    slots.putLong(slot * SLOT + 8, REMOVED);
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        void forEach(LongConsumer offsets) {
+            for (int slot = 0; slot <= mask; slot++) {
+                long value = slots.getLong(slot * SLOT + 8);
+                if (value != EMPTY && value != REMOVED) {
+                    offsets.accept(value - 1);
+                }
+            }
+        }
+
+        void clear() {
+            allocate(INITIAL_SLOTS);
+        }
+
+        private void resize(int capacity) {
+            if (capacity > MAX_SLOTS) {
+                throw new IllegalStateException("Event index is full at " + size + " events");
+            }
+            ByteBuffer old = slots;
+            int oldCapacity = mask + 1;
+            allocate(capacity);
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long value = old.getLong(slot * SLOT + 8);
+                if (value != EMPTY && value != REMOVED) {
+                    long hash = old.getLong(slot * SLOT);
+                    int free = (int) hash & mask;
+                    while (slots.getLong(free * SLOT + 8) != EMPTY) {
+                        free = (free + 1) & mask;
+                    }
+                    slots.putLong(free * SLOT, hash).putLong(free * SLOT + 8, value);
+                    size++;
+                    used++;
+                }
+            }
+        }
+    }
+}
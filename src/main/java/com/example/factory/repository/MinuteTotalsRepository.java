@@ -0,0 +1,60 @@
+package com.example.factory.repository;
+
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+// Per (machine, factory, line, minute) totals of recent events, used to warm MachineTimeSeries at startup.
+// Rows are streamed with a fetch size; PostgreSQL only uses a cursor inside a transaction.
+@Repository
+public class MinuteTotalsRepository {
+
+    private static final String SUM_BY_MINUTE_SINCE = """
+            SELECT machine_key, factory_key, line_key,
+                   FLOOR(EXTRACT(EPOCH FROM event_time) / 60) AS bucket_minute,
+                   COUNT(*) AS events_count,
+                   SUM(CASE WHEN defect_count >= 0 THEN defect_count ELSE 0 END) AS defects_count
+            FROM events
+            WHERE event_time >= ?
+            GROUP BY machine_key, factory_key, line_key, FLOOR(EXTRACT(EPOCH FROM event_time) / 60)
+            """;
+
+    private static final int FETCH_SIZE = 10_000;
+
+    @FunctionalInterface
+    public interface MinuteTotalsHandler {
+        void accept(String machineId, String factoryId, String lineId, long minute, long eventsCount, long defectsCount);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentifierDictionary dictionary;
+
+    public MinuteTotalsRepository(JdbcTemplate jdbcTemplate, IdentifierDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    @Transactional(readOnly = true)
+    public void forEachMinuteSince(Instant from, MinuteTotalsHandler handler) {
+        jdbcTemplate.query(
+                con -> {
+                    var ps = con.prepareStatement(SUM_BY_MINUTE_SINCE);
+                    ps.setFetchSize(FETCH_SIZE);
+                    ps.setObject(1, from.atOffset(ZoneOffset.UTC));
+                    return ps;
+                },
+                rs -> {
+                    handler.accept(
+                            dictionary.id(Dimension.MACHINE, rs.getInt("machine_key")),
+                            dictionary.id(Dimension.FACTORY, rs.getInt("factory_key")),
+                            dictionary.id(Dimension.LINE, rs.getInt("line_key")),
+                            rs.getLong("bucket_minute"),
+                            rs.getLong("events_count"),
+                            rs.getLong("defects_count"));
+                });
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.factory.repository;
+
+// Interface projection for aggregate queries: count of events and sum of known defects
+public interface WindowTotals {
+
+    long getEventsCount();
+
+    long getDefectsCount();
+}
@@ -0,0 +1,224 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.BatchStatusResponse;
+import com.example.factory.dto.EventRequest;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Write-behind ingestion: validated batches wait in a bounded in-process queue and a pool
+// of writers persists them, coalescing several queued batches into one DB transaction.
+// The queue is bounded by the number of queued events, not batches. In cluster mode the writers hand
+// each batch to ClusterRouter instead, which forwards other nodes' events synchronously.
+@Service
+public class AsyncIngestService {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncIngestService.class);
+
+    public enum Status { QUEUED, PERSISTING, PERSISTED, FAILED }
+
+    public static class Ticket {
+        public final String token = UUID.randomUUID().toString();
+        public final CompletableFuture<BatchResponse> result = new CompletableFuture<>();
+
+        private final List<EventRequest> events;
+        // rejections found while validating, before the batch was queued
+        private final BatchResponse validation;
+        private volatile Status status = Status.QUEUED;
+        private volatile Instant completedAt;
+
+        private Ticket(List<EventRequest> events, BatchResponse validation) {
+            this.events = events;
+            this.validation = validation;
+        }
+    }
+
+    private final EventService eventService;
+    private final ClusterRouter router;
+    private final BlockingQueue<Ticket> queue = new LinkedBlockingQueue<>();
+    private final Semaphore capacity;
+    private final int capacityEvents;
+    private final int coalesceMaxEvents;
+    private final long statusRetentionSeconds;
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightEvents = new AtomicInteger();
+    private final ExecutorService writers;
+
+    private volatile boolean shuttingDown;
+
+    public AsyncIngestService(
+            EventService eventService,
+            ClusterRouter router,
+            MeterRegistry meterRegistry,
+            @Value("${events.async.capacity-events:100000}") int capacityEvents,
+            @Value("${events.async.writers:2}") int writerCount,
+            @Value("${events.async.coalesce-max-events:5000}") int coalesceMaxEvents,
+            @Value("${events.async.status-retention-seconds:600}") long statusRetentionSeconds
+    ) {
+        this.eventService = eventService;
+        this.router = router;
+        this.capacity = new Semaphore(capacityEvents);
+        this.capacityEvents = capacityEvents;
+        this.coalesceMaxEvents = coalesceMaxEvents;
+        this.statusRetentionSeconds = statusRetentionSeconds;
+
+        Gauge.builder("events.async.queue.batches", queue, BlockingQueue::size)
+                .description("Batches waiting for a writer")
+                .register(meterRegistry);
+        Gauge.builder("events.async.queue.events", this, s -> s.queuedEvents())
+                .description("Events waiting for a writer")
+                .register(meterRegistry);
+        Gauge.builder("events.async.inflight.events", inFlightEvents, AtomicInteger::get)
+                .description("Events being written by a writer")
+                .register(meterRegistry);
+        Gauge.builder("events.async.queue.capacity.events", () -> capacityEvents)
+                .register(meterRegistry);
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writerCount, r -> {
+            Thread t = new Thread(r, "ingest-writer-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < writerCount; i++) {
+            writers.submit(this::writeLoop);
+        }
+    }
+
+    // Validates and enqueues. Empty when the queue has no room for the batch.
+    public Optional<Ticket> submit(List<EventRequest> requests) {
+        BatchResponse validation = new BatchResponse();
+        List<EventRequest> valid = eventService.validateBatch(requests, validation);
+
+        if (shuttingDown || !capacity.tryAcquire(valid.size())) {
+            return Optional.empty();
+        }
+
+        Ticket ticket = new Ticket(valid, validation);
+        tickets.put(ticket.token, ticket);
+        queue.add(ticket);
+        return Optional.of(ticket);
+    }
+
+    public boolean fitsQueue(int events) {
+        return events <= capacityEvents;
+    }
+
+    public Optional<BatchStatusResponse> status(String token) {
+        Ticket ticket = tickets.get(token);
+        if (ticket == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new BatchStatusResponse(
+                token,
+                ticket.status.name(),
+                ticket.result.isDone() && !ticket.result.isCompletedExceptionally()
+                        ? ticket.result.join() : null
+        ));
+    }
+
+    public int queuedEvents() {
+        return capacityEvents - capacity.availablePermits() - inFlightEvents.get();
+    }
+
+    private void writeLoop() {
+        while (!(shuttingDown && queue.isEmpty())) {
+            try {
+                Ticket first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<Ticket> group = new ArrayList<>();
+                group.add(first);
+                int events = first.events.size();
+                Ticket next;
+                while (events < coalesceMaxEvents && (next = queue.poll()) != null) {
+                    group.add(next);
+                    events += next.events.size();
+                }
+
+                write(group, events);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void write(List<Ticket> group, int events) {
+        inFlightEvents.addAndGet(events);
+        group.forEach(t -> t.status = Status.PERSISTING);
+        try {
+            List<BatchResponse> responses =
+                    router.processBatches(group.stream().map(t -> t.events).toList());
+            for (int i = 0; i < group.size(); i++) {
+                complete(group.get(i), responses.get(i));
+            }
+        } catch (RuntimeException e) {
+            // one bad batch must not fail the others it was coalesced with
+            log.warn("Coalesced write of {} batches failed, retrying one by one", group.size(), e);
+            for (Ticket ticket : group) {
+                try {
+                    complete(ticket, router.processBatch(ticket.events));
+                } catch (RuntimeException single) {
+                    fail(ticket, single);
+                }
+            }
+        } finally {
+            inFlightEvents.addAndGet(-events);
+            group.forEach(t -> capacity.release(t.events.size()));
+        }
+    }
+
+    private void complete(Ticket ticket, BatchResponse response) {
+        ticket.status = Status.PERSISTED;
+        ticket.completedAt = Instant.now();
+        ticket.result.complete(ticket.validation.merge(response));
+    }
+
+    private void fail(Ticket ticket, RuntimeException e) {
+        log.error("Batch {} could not be persisted", ticket.token, e);
+        ticket.status = Status.FAILED;
+        ticket.completedAt = Instant.now();
+        ticket.result.completeExceptionally(e);
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void expireStatuses() {
+        Instant cutoff = Instant.now().minusSeconds(statusRetentionSeconds);
+        tickets.values().removeIf(t -> t.completedAt != null && t.completedAt.isBefore(cutoff));
+    }
+
+    // Stops accepting batches and lets the writers drain what is already queued
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        shuttingDown = true;
+        writers.shutdown();
+        if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Ingest writers did not drain in time, {} events left in queue", queuedEvents());
+        }
+    }
+}
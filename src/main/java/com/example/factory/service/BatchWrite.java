@@ -0,0 +1,50 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// What one batch changes while it is written: outcome counters, the rollup, distribution and time-series deltas,
+// the event times for the stats cache, the rows whose stored payload fingerprint is known once
+// the transaction commits, and the old payloads of events moved off machines another cluster node owns.
+// Also collects what EventMetrics publishes for the batch: time per stage and outcomes per factory.
+class BatchWrite {
+
+    final Instant now;
+    final BatchResponse response;
+    final HourlyRollupDelta rollup = new HourlyRollupDelta();
+    final DistributionDelta distribution = new DistributionDelta();
+    final TimeSeriesDelta minutes = new TimeSeriesDelta();
+    final WrittenTimes written = new WrittenTimes();
+    final List<DedupCache.Stored> stored = new ArrayList<>();
+    final List<EventRequest> movedAway = new ArrayList<>();
+
+    final long[] stageNanos = new long[EventMetrics.Stage.values().length];
+    final Map<String, int[]> outcomesByFactory = new HashMap<>();
+
+    BatchWrite(Instant now, BatchResponse response) {
+        this.now = now;
+        this.response = response;
+    }
+
+    // Rejections are counted by validateBatch, before a batch has a BatchWrite
+    void count(EventMetrics.Outcome outcome, String factoryId) {
+        switch (outcome) {
+            case ACCEPTED -> response.accepted++;
+            case UPDATED -> response.updated++;
+            case DEDUPED -> response.deduped++;
+            case IGNORED -> response.ignored++;
+        }
+        outcomesByFactory.computeIfAbsent(factoryId, f -> new int[EventMetrics.Outcome.values().length])
+                [outcome.ordinal()]++;
+    }
+
+    void time(EventMetrics.Stage stage, long startNanos) {
+        stageNanos[stage.ordinal()] += System.nanoTime() - startNanos;
+    }
+}
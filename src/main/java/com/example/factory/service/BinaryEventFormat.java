@@ -0,0 +1,219 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary encoding of a stream of events (Content-Type application/x-factory-events), an alternative to
+// JSON for gateways. Big-endian, the 4-byte header "FEV2" followed by records until the end of the body:
+//
+//   eventId     u16 length + UTF-8 bytes
+//   eventTime   i64 epoch microseconds
+//   durationMs  i64
+//   defectCount i32
+//   factoryId, lineId, machineId
+//               u16 length + UTF-8 bytes, or u16 0x8000 | n for the n-th such string of the body
+//
+// A length of 0xFFFF stands for null, and a null eventTime is Long.MIN_VALUE. Times keep the microsecond
+// precision the events table stores, so a batch a cluster node forwards in this format is stored unchanged.
+// Factory, line and machine ids repeat across a batch, so after their first use each costs 2 bytes, and the
+// reader hands out the String it already decoded instead of a new one. Any long a client sent as durationMs
+// is carried as it is, so validation rejects it on the node that stores the event, as it would from JSON.
+// Bodies and spool records of the earlier "FEV1" format, with an i32 durationMs, are still read.
+public final class BinaryEventFormat {
+
+    public static final String MEDIA_TYPE = "application/x-factory-events";
+
+    private static final int MAGIC = 0x46455632;
+    private static final int MAGIC_V1 = 0x46455631;
+    private static final int NULL = 0xFFFF;
+    private static final int REFERENCE = 0x8000;
+    // Literal lengths and reference numbers both have 15 bits; 0x8000 | 0x7FFF is taken by NULL
+    private static final int MAX_LENGTH = 0x7FFF;
+    private static final int MAX_REFERENCES = 0x7FFF;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+
+    // Holds the longest field, so no field is ever decoded across two reads
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryEventFormat() {}
+
+    // The body could not be decoded; the events before the bad record were already returned
+    public static class MalformedException extends IOException {
+        MalformedException(String message) {
+            super(message);
+        }
+    }
+
+    public static void write(List<EventRequest> events, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        Map<String, Integer> references = new HashMap<>();
+
+        data.writeInt(MAGIC);
+        for (EventRequest e : events) {
+            writeLiteral(data, e.eventId);
+            data.writeLong(e.eventTime == null ? NULL_TIME : epochMicros(e.eventTime));
+            data.writeLong(e.durationMs);
+            data.writeInt(e.defectCount);
+            writeReferenced(data, e.factoryId, references);
+            writeReferenced(data, e.lineId, references);
+            writeReferenced(data, e.machineId, references);
+        }
+        data.flush();
+    }
+
+    private static long epochMicros(Instant time) {
+        return Math.addExact(Math.multiplyExact(time.getEpochSecond(), 1_000_000L), time.getNano() / 1000);
+    }
+
+    private static void writeReferenced(DataOutputStream data, String value, Map<String, Integer> references)
+            throws IOException {
+        Integer reference = value == null ? null : references.get(value);
+        if (reference != null) {
+            data.writeShort(REFERENCE | reference);
+            return;
+        }
+        writeLiteral(data, value);
+        if (value != null && references.size() < MAX_REFERENCES) {
+            references.put(value, references.size());
+        }
+    }
+
+    private static void writeLiteral(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeShort(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // far beyond the ids validation lets through
+        if (bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Identifier longer than " + MAX_LENGTH + " bytes");
+        }
+        data.writeShort(bytes.length);
+        data.write(bytes);
+    }
+
+    public static List<EventRequest> read(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        List<EventRequest> events = new ArrayList<>();
+        while (reader.hasNext()) {
+            events.add(reader.next());
+        }
+        return events;
+    }
+
+    // Decodes one record at a time out of a reused buffer, for callers that process events while reading
+    public static final class Reader {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final ByteBuffer view = ByteBuffer.wrap(buffer);
+        private final List<String> references = new ArrayList<>();
+        private int position;
+        private int limit;
+        private boolean started;
+        private int durationBytes = 8;
+
+        public Reader(InputStream in) {
+            this.in = in;
+        }
+
+        public boolean hasNext() throws IOException {
+            if (!started) {
+                int magic = fill(4) ? view.getInt(position) : 0;
+                if (magic != MAGIC && magic != MAGIC_V1) {
+                    throw new MalformedException("Body does not start with the " + MEDIA_TYPE + " header");
+                }
+                durationBytes = magic == MAGIC ? 8 : 4;
+                position += 4;
+                started = true;
+            }
+            return fill(1);
+        }
+
+        public EventRequest next() throws IOException {
+            EventRequest e = new EventRequest();
+            e.eventId = readLiteral();
+            require(12 + durationBytes);
+            long time = view.getLong(position);
+            e.eventTime = time == NULL_TIME ? null
+                    : Instant.ofEpochSecond(Math.floorDiv(time, 1_000_000), Math.floorMod(time, 1_000_000) * 1000L);
+            e.durationMs = durationBytes == 8 ? view.getLong(position + 8) : view.getInt(position + 8);
+            e.defectCount = view.getInt(position + 8 + durationBytes);
+            position += 12 + durationBytes;
+            e.factoryId = readReferenced();
+            e.lineId = readReferenced();
+            e.machineId = readReferenced();
+            return e;
+        }
+
+        private String readReferenced() throws IOException {
+            require(2);
+            int header = view.getShort(position) & 0xFFFF;
+            if (header != NULL && (header & REFERENCE) != 0) {
+                position += 2;
+                int reference = header & ~REFERENCE;
+                if (reference >= references.size()) {
+                    throw new MalformedException("Reference to identifier " + reference + " before its first use");
+                }
+                return references.get(reference);
+            }
+            String value = readLiteral();
+            if (value != null && references.size() < MAX_REFERENCES) {
+                references.add(value);
+            }
+            return value;
+        }
+
+        private String readLiteral() throws IOException {
+            require(2);
+            int length = view.getShort(position) & 0xFFFF;
+            position += 2;
+            if (length == NULL) {
+                return null;
+            }
+            if (length > MAX_LENGTH) {
+                throw new MalformedException("Identifier length " + length + " out of range");
+            }
+            require(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (!fill(bytes)) {
+                throw new MalformedException("Body ends inside a record");
+            }
+        }
+
+        // Makes at least `bytes` unread bytes available; false if the body ends before that
+        private boolean fill(int bytes) throws IOException {
+            if (limit - position >= bytes) {
+                return true;
+            }
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < bytes) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    return false;
+                }
+                limit += read;
+            }
+            return true;
+        }
+    }
+}
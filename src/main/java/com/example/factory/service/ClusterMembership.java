@@ -0,0 +1,99 @@
+package com.example.factory.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+// The nodes of the cluster and which of them owns a machine (events.cluster.*).
+//
+// Members are base URLs such as http://10.0.0.1:8080, listed in events.cluster.members (comma-separated)
+// or in events.cluster.members-file (one per line, # starts a comment). events.cluster.self names this
+// node and must be one of them. The list is read once at startup; every node has to be given the same
+// list, and a changed list takes effect when all nodes have been restarted with it.
+// Without cluster mode this node owns every machine.
+@Component
+public class ClusterMembership {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterMembership.class);
+
+    private final boolean enabled;
+    private final String self;
+    private final List<String> members;
+    private final HashRing ring;
+
+    public ClusterMembership(
+            MeterRegistry meterRegistry,
+            @Value("${events.cluster.enabled:false}") boolean enabled,
+            @Value("${events.cluster.self:}") String self,
+            @Value("${events.cluster.members:}") String members,
+            @Value("${events.cluster.members-file:}") String membersFile,
+            @Value("${events.cluster.virtual-nodes:128}") int virtualNodes
+    ) throws IOException {
+        this.enabled = enabled;
+        this.self = normalize(self);
+        this.members = enabled ? readMembers(members, membersFile) : List.of(this.self);
+
+        if (enabled) {
+            if (this.members.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "events.cluster.members or events.cluster.members-file must list the cluster's nodes");
+            }
+            if (!this.members.contains(this.self)) {
+                throw new IllegalArgumentException(
+                        "events.cluster.self (" + self + ") must be one of the cluster members " + this.members);
+            }
+            this.ring = new HashRing(this.members, virtualNodes);
+            log.info("Cluster node {} of {}", this.self, this.members);
+        } else {
+            this.ring = null;
+        }
+
+        Gauge.builder("events.cluster.members", this.members, List::size).register(meterRegistry);
+    }
+
+    private static List<String> readMembers(String members, String membersFile) throws IOException {
+        Stream<String> lines = membersFile.isBlank()
+                ? Arrays.stream(members.split(","))
+                : Files.readAllLines(Path.of(membersFile)).stream().map(line -> line.replaceFirst("#.*", ""));
+        return lines.map(ClusterMembership::normalize).filter(m -> !m.isEmpty()).distinct().sorted().toList();
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public List<String> members() {
+        return members;
+    }
+
+    // Base URL of the node that owns the machine; this node when not clustered or without a machineId
+    public String owner(String machineId) {
+        if (!enabled || machineId == null) {
+            return self;
+        }
+        return ring.owner(machineId);
+    }
+
+    public boolean owns(String machineId) {
+        return owner(machineId).equals(self);
+    }
+}
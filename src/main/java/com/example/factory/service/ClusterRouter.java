@@ -0,0 +1,310 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Sends every event to the node that owns its machine (ClusterMembership) and every machine's stats
+// query to that node, so the node-local dedup cache, time series and stats cache of a machine see
+// all of its writes, and batches of one machine never race on two nodes.
+//
+// A batch is validated, then split by owner. The parts of other nodes are posted to their /events/batch in parallel,
+// marked with FORWARDED_HEADER so the receiver processes them itself, while this node processes its own
+// part. The responses are merged into one. When a node cannot be reached the request fails with 503
+// after the other parts were processed; resending the whole batch is safe, since events already
+// stored are deduplicated. Without cluster mode every call goes straight to EventService.
+//
+// An update that moves an event to a machine of another node is written by the new machine's owner, which
+// then tells the old machine's owner to drop the old payload from its time series and caches.
+@Service
+public class ClusterRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterRouter.class);
+
+    // Set on forwarded requests to the sending node's URL
+    public static final String FORWARDED_HEADER = "X-Events-Forwarded-By";
+    // Set on forwarded parts of a spooled batch to the time the batch was received
+    public static final String RECEIVED_AT_HEADER = "X-Events-Received-At";
+    // Set on the parts of several batches forwarded together to the event count of each, in order
+    public static final String BATCH_SIZES_HEADER = "X-Events-Batch-Sizes";
+
+    private final EventService eventService;
+    private final ClusterMembership membership;
+    private final MeterRegistry meterRegistry;
+    private final RestClient http;
+    private final ExecutorService forwarders;
+    // other node -> its meters
+    private final Map<String, NodeMeters> nodeMeters = new HashMap<>();
+
+    private record NodeMeters(Counter forwardedEvents, Timer success, Timer error) {}
+
+    public ClusterRouter(
+            EventService eventService,
+            ClusterMembership membership,
+            MeterRegistry meterRegistry,
+            RestClient.Builder restClientBuilder,
+            @Value("${events.cluster.forward-threads:16}") int forwardThreads,
+            @Value("${events.cluster.forward-timeout-ms:10000}") long forwardTimeoutMs
+    ) {
+        this.eventService = eventService;
+        this.membership = membership;
+        this.meterRegistry = meterRegistry;
+        for (String node : membership.members()) {
+            if (!node.equals(membership.self())) {
+                nodeMeters.put(node, new NodeMeters(
+                        Counter.builder("events.cluster.forwarded.events").tag("node", node).register(meterRegistry),
+                        forwardTimer(node, "success"),
+                        forwardTimer(node, "error")));
+            }
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(forwardTimeoutMs))
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(client);
+        requestFactory.setReadTimeout(Duration.ofMillis(forwardTimeoutMs));
+        this.http = restClientBuilder.requestFactory(requestFactory).build();
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.forwarders = Executors.newFixedThreadPool(forwardThreads, r -> {
+            Thread t = new Thread(r, "cluster-forward-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private Timer forwardTimer(String node, String outcome) {
+        return Timer.builder("events.cluster.forward")
+                .tag("node", node)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    public boolean enabled() {
+        return membership.enabled();
+    }
+
+    public BatchResponse processBatch(List<EventRequest> events) {
+        return processBatch(events, null);
+    }
+
+    // receivedTime is when a spooled batch arrived (see EventService), null for a batch received now.
+    // Forwarded parts carry it in RECEIVED_AT_HEADER.
+    public BatchResponse processBatch(List<EventRequest> events, Instant receivedTime) {
+        if (!membership.enabled()) {
+            return write(events, receivedTime);
+        }
+
+        // invalid events are rejected here, so no node is sent an event it would reject or could not decode
+        BatchResponse response = new BatchResponse();
+        Map<String, List<EventRequest>> byOwner = byOwner(eventService.validateBatch(events, response));
+        List<EventRequest> local = byOwner.remove(membership.self());
+
+        Map<String, Future<BatchResponse>> forwards = new TreeMap<>();
+        byOwner.forEach((node, part) ->
+                forwards.put(node, forwarders.submit(() -> forward(node, part, receivedTime))));
+
+        if (local != null) {
+            response.merge(write(local, receivedTime));
+        }
+        await(forwards).forEach(response::merge);
+        return response;
+    }
+
+    private Map<String, List<EventRequest>> byOwner(List<EventRequest> events) {
+        Map<String, List<EventRequest>> byOwner = new TreeMap<>();
+        for (EventRequest event : events) {
+            byOwner.computeIfAbsent(membership.owner(event.machineId), owner -> new ArrayList<>()).add(event);
+        }
+        return byOwner;
+    }
+
+    // The result of every forward, in node order. Fails with 503 once all are done if any node did not answer.
+    private <T> List<T> await(Map<String, Future<T>> forwards) {
+        List<T> results = new ArrayList<>(forwards.size());
+        List<String> unavailable = new ArrayList<>();
+        for (Map.Entry<String, Future<T>> forward : forwards.entrySet()) {
+            try {
+                results.add(forward.getValue().get());
+            } catch (ExecutionException e) {
+                log.warn("Forwarding events to {} failed", forward.getKey(), e.getCause());
+                unavailable.add(forward.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unavailable.add(forward.getKey());
+            }
+        }
+        if (!unavailable.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Cluster nodes " + unavailable + " did not take their events; resend the batch");
+        }
+        return results;
+    }
+
+    private BatchResponse write(List<EventRequest> events, Instant receivedTime) {
+        return receivedTime == null
+                ? eventService.processBatch(events)
+                : eventService.processBatch(events, receivedTime);
+    }
+
+    // One response per batch, like EventService.processBatches. Clustered, every batch is split by owner as
+    // in processBatch, then this node's parts of all batches are written in one transaction and each other
+    // node is sent its parts in one request, which it writes in one transaction too.
+    public List<BatchResponse> processBatches(List<List<EventRequest>> batches) {
+        if (!membership.enabled()) {
+            return eventService.processBatches(batches);
+        }
+
+        List<BatchResponse> responses = new ArrayList<>(batches.size());
+        // node -> its part of every batch, empty where a batch has none of its events
+        Map<String, List<List<EventRequest>>> parts = new TreeMap<>();
+        for (int i = 0; i < batches.size(); i++) {
+            BatchResponse response = new BatchResponse();
+            responses.add(response);
+            for (Map.Entry<String, List<EventRequest>> part
+                    : byOwner(eventService.validateBatch(batches.get(i), response)).entrySet()) {
+                parts.computeIfAbsent(part.getKey(),
+                                node -> new ArrayList<>(Collections.nCopies(batches.size(), List.of())))
+                        .set(i, part.getValue());
+            }
+        }
+        List<List<EventRequest>> local = parts.remove(membership.self());
+
+        Map<String, Future<List<BatchResponse>>> forwards = new TreeMap<>();
+        parts.forEach((node, nodeParts) ->
+                forwards.put(node, forwarders.submit(() -> forwardBatches(node, nodeParts))));
+
+        if (local != null) {
+            merge(responses, eventService.processBatches(local));
+        }
+        for (List<BatchResponse> nodeResponses : await(forwards)) {
+            merge(responses, nodeResponses);
+        }
+        return responses;
+    }
+
+    private static void merge(List<BatchResponse> responses, List<BatchResponse> parts) {
+        for (int i = 0; i < responses.size(); i++) {
+            responses.get(i).merge(parts.get(i));
+        }
+    }
+
+    public MachineStatsResponse getStats(String machineId, Instant start, Instant end) {
+        String owner = membership.owner(machineId);
+        if (owner.equals(membership.self())) {
+            return eventService.getStats(machineId, start, end);
+        }
+        try {
+            return timed(owner, () -> http.get()
+                    .uri(owner + "/stats?machineId={machineId}&start={start}&end={end}", machineId, start, end)
+                    .header(FORWARDED_HEADER, membership.self())
+                    .retrieve()
+                    .body(MachineStatsResponse.class));
+        } catch (RestClientException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Stats of " + machineId + " are not available from " + owner, e);
+        }
+    }
+
+    private BatchResponse forward(String node, List<EventRequest> events, Instant receivedTime) {
+        nodeMeters.get(node).forwardedEvents().increment(events.size());
+        return timed(node, () -> http.post()
+                .uri(node + "/events/batch")
+                .header(FORWARDED_HEADER, membership.self())
+                .headers(headers -> {
+                    if (receivedTime != null) {
+                        headers.set(RECEIVED_AT_HEADER, receivedTime.toString());
+                    }
+                })
+                .contentType(MediaType.parseMediaType(BinaryEventFormat.MEDIA_TYPE))
+                .body(out -> BinaryEventFormat.write(events, out))
+                .retrieve()
+                .body(BatchResponse.class));
+    }
+
+    private List<BatchResponse> forwardBatches(String node, List<List<EventRequest>> parts) {
+        List<EventRequest> events = parts.stream().flatMap(List::stream).toList();
+        String sizes = parts.stream().map(part -> String.valueOf(part.size())).collect(Collectors.joining(","));
+        nodeMeters.get(node).forwardedEvents().increment(events.size());
+        return timed(node, () -> http.post()
+                .uri(node + "/events/batches")
+                .header(FORWARDED_HEADER, membership.self())
+                .header(BATCH_SIZES_HEADER, sizes)
+                .contentType(MediaType.parseMediaType(BinaryEventFormat.MEDIA_TYPE))
+                .body(out -> BinaryEventFormat.write(events, out))
+                .retrieve()
+                .body(new ParameterizedTypeReference<List<BatchResponse>>() {}));
+    }
+
+    // A committed batch moved events off machines of other nodes: their owners drop the old payloads from
+    // their time series and caches. The batch is already committed, so a node that cannot be reached is only
+    // logged, and its entries for those machines stay stale until they expire or it restarts.
+    @TransactionalEventListener
+    public void onEventsMoved(EventsMovedEvent moved) {
+        byOwner(moved.previous()).forEach((node, previous) -> {
+            try {
+                timed(node, () -> http.post()
+                        .uri(node + "/events/moved")
+                        .header(FORWARDED_HEADER, membership.self())
+                        .contentType(MediaType.parseMediaType(BinaryEventFormat.MEDIA_TYPE))
+                        .body(out -> BinaryEventFormat.write(previous, out))
+                        .retrieve()
+                        .toBodilessEntity());
+            } catch (RestClientException e) {
+                log.warn("Old payloads of {} moved events did not reach {}", previous.size(), node, e);
+            }
+        });
+    }
+
+    private <T> T timed(String node, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        NodeMeters meters = nodeMeters.get(node);
+        Timer timer = meters.error();
+        try {
+            T result = call.get();
+            timer = meters.success();
+            return result;
+        } finally {
+            sample.stop(timer);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        forwarders.shutdownNow();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.factory.service;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Caps concurrent database work at the size of the connection pool.
+// With virtual threads there is no Tomcat thread limit any more, so thousands of
+// requests would otherwise queue inside Hikari and time out there instead.
+// Covers the EventService entry points, every bean of the repository layer (including the
+// Spring Data proxies) and @Transactional methods, so no path to the database bypasses it.
+// Ordered before the transaction interceptor, so a permit is taken before a connection.
+// A thread holds one permit at a time: the calls nested in a covered one, such as the
+// repositories of a batch, run under its permit.
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "events.db-limiter.enabled", havingValue = "true")
+public class DbConcurrencyLimiter {
+
+    private final Semaphore permits;
+    private final long acquireTimeoutMs;
+    private final ThreadLocal<Boolean> holding = new ThreadLocal<>();
+
+    public DbConcurrencyLimiter(
+            @Value("${events.db-limiter.permits:${spring.datasource.hikari.maximum-pool-size:10}}") int permits,
+            @Value("${events.db-limiter.acquire-timeout-ms:5000}") long acquireTimeoutMs
+    ) {
+        this.permits = new Semaphore(permits, true);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    @Around("execution(public * com.example.factory.service.EventService.processBatch*(..))"
+            + " || execution(public * com.example.factory.service.EventService.get*(..))"
+            + " || within(com.example.factory.repository..*)"
+            + " || this(org.springframework.data.repository.Repository)"
+            + " || @annotation(org.springframework.transaction.annotation.Transactional)")
+    public Object limit(ProceedingJoinPoint call) throws Throwable {
+        if (holding.get() != null) {
+            return call.proceed();
+        }
+        if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE, "Database concurrency limit reached");
+        }
+        holding.set(Boolean.TRUE);
+        try {
+            return call.proceed();
+        } finally {
+            holding.remove();
+            permits.release();
+        }
+    }
+
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+}
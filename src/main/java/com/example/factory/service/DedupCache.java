@@ -0,0 +1,177 @@
+package com.example.factory.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded, time-evicted map eventId -> (payloadFingerprint, receivedTime) of committed events.
+// Retransmissions whose fingerprint matches are classified as deduped without a DB lookup.
+//
+// The map is split into lock stripes (each an LRU LinkedHashMap behind its own lock),
+// so concurrent batches only contend when their ids hash to the same stripe.
+// Entries are written after commit only, so a rolled-back batch never becomes visible.
+@Component
+public class DedupCache {
+
+    public record Stored(String eventId, long payloadFingerprint, Instant receivedTime) {}
+
+    private record Entry(long payloadFingerprint, Instant receivedTime, long expiresAtNanos) {}
+
+    private static final int STRIPES = 16;
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DedupCache(
+            MeterRegistry meterRegistry,
+            @Value("${events.dedup-cache.enabled:true}") boolean enabled,
+            @Value("${events.dedup-cache.max-entries:200000}") int maxEntries,
+            @Value("${events.dedup-cache.ttl-seconds:600}") long ttlSeconds
+    ) {
+        this.enabled = enabled;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        int perStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+
+        FunctionCounter.builder("events.dedup.cache.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("events.dedup.cache.misses", misses, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("events.dedup.cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("events.dedup.cache.size", this, DedupCache::size).register(meterRegistry);
+    }
+
+    // True if the committed event is known and has the same payload fingerprint
+    public boolean matches(String eventId, long payloadFingerprint) {
+        if (!enabled) {
+            return false;
+        }
+        Stripe stripe = stripeFor(eventId);
+        stripe.lock.lock();
+        try {
+            Entry entry = stripe.map.get(eventId);
+            if (entry != null && entry.expiresAtNanos - System.nanoTime() < 0) {
+                stripe.map.remove(eventId);
+                evictions.increment();
+                entry = null;
+            }
+            // a changed payload still needs the DB lookup, so it counts as a miss
+            if (entry == null || entry.payloadFingerprint != payloadFingerprint) {
+                misses.increment();
+                return false;
+            }
+            hits.increment();
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Publishes the rows once the surrounding transaction commits (immediately without one)
+    public void putAfterCommit(List<Stored> rows) {
+        if (!enabled || rows.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            rows.forEach(this::put);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                rows.forEach(DedupCache.this::put);
+            }
+        });
+    }
+
+    // Commits can reach here out of order; the row with the newest receivedTime wins
+    void put(Stored row) {
+        Stripe stripe = stripeFor(row.eventId());
+        Entry fresh = new Entry(row.payloadFingerprint(), row.receivedTime(), System.nanoTime() + ttlNanos);
+        stripe.lock.lock();
+        try {
+            stripe.map.merge(row.eventId(), fresh,
+                    (old, neu) -> neu.receivedTime.isBefore(old.receivedTime) ? old : neu);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public void invalidate(String eventId) {
+        Stripe stripe = stripeFor(eventId);
+        stripe.lock.lock();
+        try {
+            stripe.map.remove(eventId);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Must be called whenever events are deleted outside processBatch
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.map.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.map.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+
+    private Stripe stripeFor(String eventId) {
+        int h = eventId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, Entry> map;
+
+        Stripe(int capacity) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
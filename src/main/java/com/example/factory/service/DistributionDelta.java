@@ -0,0 +1,56 @@
+package com.example.factory.service;
+
+import com.example.factory.repository.DistributionRepository.BucketDelta;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Net change of one batch to the (machineId, hour, factoryId, lineId) distribution buckets: a sketch of the
+// durations and one of the known defect counts added and taken away, coalesced like HourlyRollupDelta.
+class DistributionDelta {
+
+    private record Key(String machineId, long bucketHour, String factoryId, String lineId) {}
+
+    private final Map<Key, DistributionSketch[]> buckets = new HashMap<>();
+
+    void add(String machineId, String factoryId, String lineId, Instant eventTime, long durationMs, int defectCount) {
+        apply(machineId, factoryId, lineId, eventTime, durationMs, defectCount, 1);
+    }
+
+    void remove(String machineId, String factoryId, String lineId, Instant eventTime, long durationMs, int defectCount) {
+        apply(machineId, factoryId, lineId, eventTime, durationMs, defectCount, -1);
+    }
+
+    private void apply(String machineId, String factoryId, String lineId, Instant eventTime,
+                       long durationMs, int defectCount, int sign) {
+        DistributionSketch[] sketches = buckets.computeIfAbsent(
+                new Key(machineId, HourlyRollupDelta.bucketHour(eventTime), factoryId, lineId),
+                k -> new DistributionSketch[] {new DistributionSketch(), new DistributionSketch()}
+        );
+        sketches[0].add(durationMs, sign);
+        if (defectCount >= 0) {
+            sketches[1].add(defectCount, sign);
+        }
+    }
+
+    boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    int size() {
+        return buckets.size();
+    }
+
+    // Encoded changes; DistributionRepository orders them by key. An update that leaves a bucket
+    // as it was changes nothing.
+    List<BucketDelta> changes() {
+        return buckets.entrySet().stream()
+                .filter(e -> !e.getValue()[0].isEmpty() || !e.getValue()[1].isEmpty())
+                .map(e -> new BucketDelta(e.getKey().machineId(), e.getKey().bucketHour(),
+                        e.getKey().factoryId(), e.getKey().lineId(),
+                        e.getValue()[0].toBytes(), e.getValue()[1].toBytes()))
+                .toList();
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.DistributionStatsResponse;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.repository.DistributionRepository;
+import com.example.factory.repository.DistributionRepository.BucketHandler;
+import com.example.factory.repository.EventSegment;
+import com.example.factory.repository.EventStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+
+// Percentiles of cycle durations and defect counts per machine or per line over any window.
+//
+// Every (machine, hour, factory, line) bucket keeps a DistributionSketch of each, maintained by the ingestion
+// transaction like the hourly rollup. A window merges its whole hours' buckets, a few hundred bins each, so
+// a week of one machine reads 168 small rows however many events it had. The partial hours at the edges
+// are read raw from the events table, or from the segments before the archive watermark. Percentiles are
+// within 1.6% of the exact value (exact below 64).
+@Service
+public class DistributionService {
+
+    // Buckets held in memory by a rebuild before they are written
+    private static final int REBUILD_FLUSH_BUCKETS = 10_000;
+
+    private final DistributionRepository repository;
+    private final ColdSegmentStore coldStore;
+    private final EventMetrics metrics;
+    private final StatsCache statsCache;
+    private final boolean enabled;
+
+    public DistributionService(
+            DistributionRepository repository,
+            ColdSegmentStore coldStore,
+            EventStore store,
+            EventMetrics metrics,
+            StatsCache statsCache,
+            @Value("${events.distribution.enabled:true}") boolean enabled
+    ) {
+        this.repository = repository;
+        this.coldStore = coldStore;
+        this.metrics = metrics;
+        this.statsCache = statsCache;
+        // the buckets are maintained from the events table
+        this.enabled = enabled && store.inDatabase();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // Runs inside the ingestion transaction so events and buckets commit or roll back together
+    @Transactional(propagation = Propagation.MANDATORY)
+    void apply(DistributionDelta delta) {
+        if (!enabled || delta.isEmpty()) {
+            return;
+        }
+        repository.addToBuckets(delta.changes(), DistributionService::merge);
+    }
+
+    static byte[] merge(byte[] stored, byte[] delta) {
+        DistributionSketch sketch = DistributionSketch.fromBytes(stored);
+        sketch.merge(DistributionSketch.fromBytes(delta));
+        return sketch.toBytes();
+    }
+
+    // Events of the machine in [start, end)
+    public DistributionStatsResponse getMachineDistribution(String machineId, Instant start, Instant end) {
+        return distribution(machineId, null, null, start, end);
+    }
+
+    // Events of the factory's line in [start, end)
+    public DistributionStatsResponse getLineDistribution(String factoryId, String lineId, Instant start, Instant end) {
+        return distribution(null, factoryId, lineId, start, end);
+    }
+
+    private DistributionStatsResponse distribution(
+            String machineId,
+            String factoryId,
+            String lineId,
+            Instant start,
+            Instant end
+    ) {
+        if (!enabled) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
+                    "distributions need events.distribution.enabled=true and events.store.engine=jpa");
+        }
+        return metrics.timeQuery(EventMetrics.QUERY_DISTRIBUTION, () -> {
+            DistributionSketch durations = new DistributionSketch();
+            DistributionSketch defects = new DistributionSketch();
+
+            // Whole hours inside [start, end) come from the buckets, the partial hours at each edge from raw rows
+            long firstFullHour = Math.floorDiv(start.getEpochSecond() + 3599, 3600);
+            long endFullHour = HourlyRollupDelta.bucketHour(end);
+
+            if (firstFullHour < endFullHour) {
+                BucketHandler buckets = (d, f) -> {
+                    durations.merge(DistributionSketch.fromBytes(d));
+                    defects.merge(DistributionSketch.fromBytes(f));
+                };
+                if (machineId != null) {
+                    repository.forEachMachineBucket(machineId, firstFullHour, endFullHour, buckets);
+                } else {
+                    repository.forEachLineBucket(factoryId, lineId, firstFullHour, endFullHour, buckets);
+                }
+                addRaw(machineId, factoryId, lineId, start, Instant.ofEpochSecond(firstFullHour * 3600),
+                        durations, defects);
+                addRaw(machineId, factoryId, lineId, Instant.ofEpochSecond(endFullHour * 3600), end,
+                        durations, defects);
+            } else {
+                addRaw(machineId, factoryId, lineId, start, end, durations, defects);
+            }
+
+            return new DistributionStatsResponse(machineId, factoryId, lineId, start, end,
+                    durations.count(), percentiles(durations), percentiles(defects));
+        });
+    }
+
+    private void addRaw(
+            String machineId,
+            String factoryId,
+            String lineId,
+            Instant start,
+            Instant end,
+            DistributionSketch durations,
+            DistributionSketch defects
+    ) {
+        if (!start.isBefore(end)) {
+            return;
+        }
+
+        // the part before the archive watermark is only in segment files
+        Instant archivedBefore = coldStore.archivedBefore();
+        if (archivedBefore != null && start.isBefore(archivedBefore)) {
+            Instant coldEnd = end.isBefore(archivedBefore) ? end : archivedBefore;
+            coldStore.forEach(factoryId, machineId, start, coldEnd, e -> {
+                if (lineId == null || lineId.equals(e.getLineId())) {
+                    add(durations, defects, e.getDurationMs(), e.getDefectCount());
+                }
+            });
+            if (coldEnd.equals(end)) {
+                return;
+            }
+            start = coldEnd;
+        }
+
+        if (machineId != null) {
+            repository.forEachMachineEvent(machineId, start, end,
+                    (durationMs, defectCount) -> add(durations, defects, durationMs, defectCount));
+        } else {
+            repository.forEachLineEvent(factoryId, lineId, start, end,
+                    (durationMs, defectCount) -> add(durations, defects, durationMs, defectCount));
+        }
+    }
+
+    private static void add(DistributionSketch durations, DistributionSketch defects, long durationMs, int defectCount) {
+        durations.add(durationMs);
+        if (defectCount >= 0) {
+            defects.add(defectCount);
+        }
+    }
+
+    private static DistributionStatsResponse.Percentiles percentiles(DistributionSketch sketch) {
+        if (sketch.count() <= 0) {
+            return null;
+        }
+        return new DistributionStatsResponse.Percentiles(sketch.count(), sketch.mean(),
+                sketch.percentile(50), sketch.percentile(95), sketch.percentile(99));
+    }
+
+    // Recomputes every bucket from the events table and the archived segments, with the same caveat as
+    // RollupService.rebuild: run while ingestion and archiving are paused. Returns the events added.
+    @Transactional
+    public long rebuild() {
+        if (!enabled) {
+            return 0;
+        }
+        statsCache.invalidateAllAfterCommit();
+        repository.deleteAllBuckets();
+
+        long[] events = {0};
+        DistributionDelta[] delta = {new DistributionDelta()};
+        repository.forEachStoredEvent((machineId, factoryId, lineId, eventTime, durationMs, defectCount) -> {
+            delta[0].add(machineId, factoryId, lineId, eventTime, durationMs, defectCount);
+            events[0]++;
+            if (delta[0].size() >= REBUILD_FLUSH_BUCKETS) {
+                apply(delta[0]);
+                delta[0] = new DistributionDelta();
+            }
+        });
+
+        // buckets shared with the table or another segment are added up
+        for (EventSegment segment : coldStore.segments()) {
+            try {
+                segment.forEach(e -> {
+                    delta[0].add(e.getMachineId(), e.getFactoryId(), e.getLineId(), e.getEventTime(),
+                            e.getDurationMs(), e.getDefectCount());
+                    events[0]++;
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (delta[0].size() >= REBUILD_FLUSH_BUCKETS) {
+                apply(delta[0]);
+                delta[0] = new DistributionDelta();
+            }
+        }
+        apply(delta[0]);
+        return events[0];
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.factory.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Histogram of non-negative long values in logarithmic bins, as HdrHistogram lays them out: values below 64
+// have a bin each, and every power of two above is split into 32 bins, so a bin's midpoint is within 1/64
+// (1.6%) of any value in it. Durations up to the 6 h limit need 650 bins.
+//
+// Counts may be added and taken away, so a sketch of a bucket changes by deltas like the hourly rollup, and
+// sketches of several buckets merge by adding their counts. The sum is kept for the mean.
+//
+// Encoded (toBytes) as a version byte, the sum, then each non-empty bin as the gap to the previous one and
+// its count, all varints (zigzag for the signed ones): a bucket with a few dozen distinct bins takes
+// a few dozen bytes.
+public final class DistributionSketch {
+
+    private static final int SUB_BINS = 32;
+    private static final int EXACT_BINS = 2 * SUB_BINS;
+    private static final int SUB_BIN_BITS = Integer.numberOfTrailingZeros(SUB_BINS);
+    private static final byte VERSION = 1;
+
+    private long[] counts = new long[EXACT_BINS];
+    private long count;
+    private long sum;
+
+    static int bin(long value) {
+        if (value < EXACT_BINS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BIN_BITS;
+        return shift * SUB_BINS + (int) (value >>> shift);
+    }
+
+    static long lowest(int bin) {
+        if (bin < EXACT_BINS) {
+            return bin;
+        }
+        int shift = bin / SUB_BINS - 1;
+        return (long) (bin - shift * SUB_BINS) << shift;
+    }
+
+    static long highest(int bin) {
+        return bin < EXACT_BINS ? bin : lowest(bin + 1) - 1;
+    }
+
+    public void add(long value) {
+        add(value, 1);
+    }
+
+    // A negative count takes values away
+    public void add(long value, long times) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        int bin = bin(value);
+        grow(bin);
+        counts[bin] += times;
+        count += times;
+        sum += value * times;
+    }
+
+    public void merge(DistributionSketch other) {
+        grow(other.counts.length - 1);
+        for (int bin = 0; bin < other.counts.length; bin++) {
+            counts[bin] += other.counts[bin];
+        }
+        count += other.count;
+        sum += other.sum;
+    }
+
+    private void grow(int bin) {
+        if (bin >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(bin + 1, counts.length * 2));
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    // True when nothing is left after adding and taking away
+    public boolean isEmpty() {
+        if (sum != 0) {
+            return false;
+        }
+        for (long c : counts) {
+            if (c != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // The value at the given percentile (0 < percentile <= 100): the midpoint of the bin holding the value of
+    // rank ceil(percentile% of count), exact below 64. -1 when the sketch is empty.
+    public long percentile(double percentile) {
+        if (count <= 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bin = 0; bin < counts.length; bin++) {
+            seen += counts[bin];
+            if (seen >= rank) {
+                return lowest(bin) + (highest(bin) - lowest(bin)) / 2;
+            }
+        }
+        return -1;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        out.write(VERSION);
+        writeVarint(out, zigzag(sum));
+        int previous = -1;
+        for (int bin = 0; bin < counts.length; bin++) {
+            if (counts[bin] != 0) {
+                writeVarint(out, bin - previous);
+                writeVarint(out, zigzag(counts[bin]));
+                previous = bin;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // An empty array is an empty sketch
+    public static DistributionSketch fromBytes(byte[] bytes) {
+        DistributionSketch sketch = new DistributionSketch();
+        if (bytes.length == 0) {
+            return sketch;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("Unknown sketch version " + bytes[0]);
+        }
+        sketch.sum = unzigzag(readVarint(in));
+        int bin = -1;
+        while (in.hasRemaining()) {
+            bin += (int) readVarint(in);
+            long binCount = unzigzag(readVarint(in));
+            sketch.grow(bin);
+            sketch.counts[bin] = binCount;
+            sketch.count += binCount;
+        }
+        return sketch;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
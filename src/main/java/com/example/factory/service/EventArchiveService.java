@@ -0,0 +1,148 @@
+package com.example.factory.service;
+
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.repository.EventArchiveRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Moves whole UTC days older than events.archive.horizon-days out of the events table into
+// ColdSegmentStore, one segment per factory per day. Stats queries merge both tiers; hourly rollup
+// buckets are left as they are, since the events they count have only moved.
+//
+// Each day is written to its segment before its rows are deleted, and rows are deleted only with the
+// version that was archived. A row that a batch changed or added meanwhile stays in the table and is
+// merged on the next pass. The watermark, which tells stats queries to read segments instead of the
+// table, moves past a day only once the table holds none of its rows, and the stats cache is cleared
+// then. From then on EventService merges late events of the day into its segment. Rows left behind by
+// a run that stopped early stay visible in the table until the next run, and so does a row a batch
+// committed just as the watermark passed its day.
+@Service
+public class EventArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(EventArchiveService.class);
+    private static final int MAX_PASSES = 3;
+
+    private final EventArchiveRepository repository;
+    private final ColdSegmentStore coldStore;
+    private final StatsCache statsCache;
+    private final boolean enabled;
+    private final int horizonDays;
+
+    public EventArchiveService(
+            EventArchiveRepository repository,
+            ColdSegmentStore coldStore,
+            StatsCache statsCache,
+            @Value("${events.archive.enabled:false}") boolean enabled,
+            @Value("${events.archive.horizon-days:30}") int horizonDays
+    ) {
+        if (horizonDays < 1) {
+            throw new IllegalArgumentException("events.archive.horizon-days must be at least 1");
+        }
+        this.repository = repository;
+        this.coldStore = coldStore;
+        this.statsCache = statsCache;
+        this.enabled = enabled;
+        this.horizonDays = horizonDays;
+    }
+
+    @Scheduled(cron = "${events.archive.cron:0 30 2 * * *}")
+    public void scheduledArchive() {
+        if (enabled) {
+            archive();
+        }
+    }
+
+    // Returns the number of rows moved
+    public long archive() {
+        return archiveBefore(Instant.now().truncatedTo(ChronoUnit.DAYS).minus(horizonDays, ChronoUnit.DAYS));
+    }
+
+    // cutoff is rounded down to a UTC day start
+    public synchronized long archiveBefore(Instant cutoff) {
+        Instant dayStart = cutoff.truncatedTo(ChronoUnit.DAYS);
+        long moved = 0;
+        try {
+            // later passes pick up rows that batches committed during the earlier ones
+            for (int pass = 0; pass < MAX_PASSES; pass++) {
+                TreeMap<Long, List<String>> days = new TreeMap<>();
+                for (EventArchiveRepository.FactoryDay day : repository.findDaysBefore(dayStart)) {
+                    days.computeIfAbsent(day.day(), d -> new ArrayList<>()).add(day.factoryId());
+                }
+                if (days.isEmpty()) {
+                    break;
+                }
+                for (Map.Entry<Long, List<String>> day : days.entrySet()) {
+                    Long archived = archiveDay(day.getKey(), day.getValue());
+                    if (archived == null) {
+                        log.warn("Rows of {} are still changing, archive stopped at {}",
+                                LocalDate.ofEpochDay(day.getKey()), coldStore.archivedBefore());
+                        return moved;
+                    }
+                    moved += archived;
+                }
+            }
+            if (coldStore.archivedBefore() == null || coldStore.archivedBefore().isBefore(dayStart)) {
+                coldStore.advanceWatermark(dayStart);
+                statsCache.invalidateAll();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (moved > 0) {
+            // rows that were left behind a watermark already moved now count from their segments
+            statsCache.invalidateAll();
+            log.info("Archived {} events before {}", moved, coldStore.archivedBefore());
+        }
+        return moved;
+    }
+
+    // Returns the number of rows moved, or null if the day still has rows in the table after MAX_PASSES
+    private Long archiveDay(long day, List<String> factoryIds) throws IOException {
+        long moved = 0;
+        for (int pass = 0; pass < MAX_PASSES && !factoryIds.isEmpty(); pass++) {
+            List<String> left = new ArrayList<>();
+            for (String factoryId : factoryIds) {
+                List<EventEntity> hot = repository.readDay(factoryId, day);
+                if (hot.isEmpty()) {
+                    continue;
+                }
+
+                // a row left in the table replaces the archived copy of the same event
+                coldStore.merge(factoryId, day, rows -> {
+                    hot.forEach(row -> rows.put(row.getEventId(), row));
+                    return true;
+                });
+                int deleted = repository.deleteIfVersion(hot);
+                moved += deleted;
+                if (deleted < hot.size()) {
+                    left.add(factoryId);
+                }
+            }
+            factoryIds = left;
+        }
+        if (!factoryIds.isEmpty()) {
+            return null;
+        }
+
+        Instant next = Instant.EPOCH.plus(day + 1, ChronoUnit.DAYS);
+        if (coldStore.archivedBefore() == null || coldStore.archivedBefore().isBefore(next)) {
+            coldStore.advanceWatermark(next);
+            statsCache.invalidateAll();
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.factory.service;
+
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.EventExportRepository;
+import com.example.factory.repository.EventStore;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// Writes raw events of a machine or factory window to an output stream (GET /events/export),
+// ordered by (eventTime, eventId), as newline-delimited JSON or CSV.
+//
+// Rows are read in keyset pages of events.export.page-size and written as they arrive, so heap usage is
+// bounded by the page size however many rows are exported, and every page is its own short read-only
+// transaction. An interrupted export resumes after the (eventTime, eventId) of the last row received.
+@Service
+public class EventExportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final String[] COLUMNS = {
+            "eventId", "eventTime", "receivedTime", "factoryId", "lineId", "machineId", "durationMs", "defectCount"
+    };
+
+    private final EventExportRepository repository;
+    private final EventStore store;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+
+    public EventExportService(
+            EventExportRepository repository,
+            EventStore store,
+            ObjectMapper objectMapper,
+            @Value("${events.export.page-size:10000}") int pageSize
+    ) {
+        this.repository = repository;
+        this.store = store;
+        this.objectMapper = objectMapper;
+        this.pageSize = pageSize;
+    }
+
+    // limit 0 exports every row. Returns the number of rows written.
+    public long export(
+            EventExportRepository.Scope scope,
+            String id,
+            Instant from,
+            Instant to,
+            Instant afterTime,
+            String afterEventId,
+            long limit,
+            Format format,
+            OutputStream out
+    ) throws IOException {
+        if (!store.inDatabase()) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED, "export needs events.store.engine=jpa");
+        }
+
+        RowWriter writer = format == Format.NDJSON ? new NdjsonWriter(out) : new CsvWriter(out);
+        EventEntity[] last = new EventEntity[1];
+        long written = 0;
+
+        try {
+            while (limit == 0 || written < limit) {
+                int size = (int) (limit == 0 ? pageSize : Math.min(pageSize, limit - written));
+                int read = repository.readPage(scope, id, from, to, afterTime, afterEventId, size, row -> {
+                    try {
+                        writer.write(row);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    last[0] = row;
+                });
+                written += read;
+                // the client sees every finished page, not only the end of the export
+                writer.flush();
+                if (read < size) {
+                    break;
+                }
+                afterTime = last[0].getEventTime();
+                afterEventId = last[0].getEventId();
+            }
+        } catch (UncheckedIOException e) {
+            // usually the client went away
+            throw e.getCause();
+        }
+
+        writer.flush();
+        return written;
+    }
+
+    private interface RowWriter {
+        void write(EventEntity row) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    // One JSON object per line, with the EventRequest fields plus receivedTime
+    private final class NdjsonWriter implements RowWriter {
+
+        private final JsonGenerator json;
+
+        NdjsonWriter(OutputStream out) throws IOException {
+            json = objectMapper.getFactory().createGenerator(out);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void write(EventEntity row) throws IOException {
+            json.writeStartObject();
+            json.writeStringField(COLUMNS[0], row.getEventId());
+            json.writeStringField(COLUMNS[1], row.getEventTime().toString());
+            json.writeStringField(COLUMNS[2], row.getReceivedTime().toString());
+            json.writeStringField(COLUMNS[3], row.getFactoryId());
+            json.writeStringField(COLUMNS[4], row.getLineId());
+            json.writeStringField(COLUMNS[5], row.getMachineId());
+            json.writeNumberField(COLUMNS[6], row.getDurationMs());
+            json.writeNumberField(COLUMNS[7], row.getDefectCount());
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            json.flush();
+        }
+    }
+
+    // RFC 4180: a header line, then fields quoted only when they contain a comma, quote or line break
+    private static final class CsvWriter implements RowWriter {
+
+        private final Writer csv;
+
+        CsvWriter(OutputStream out) throws IOException {
+            csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            csv.write(String.join(",", COLUMNS));
+            csv.write("\r\n");
+        }
+
+        @Override
+        public void write(EventEntity row) throws IOException {
+            field(row.getEventId()).write(',');
+            csv.write(row.getEventTime().toString());
+            csv.write(',');
+            csv.write(row.getReceivedTime().toString());
+            csv.write(',');
+            field(row.getFactoryId()).write(',');
+            field(row.getLineId()).write(',');
+            field(row.getMachineId()).write(',');
+            csv.write(Long.toString(row.getDurationMs()));
+            csv.write(',');
+            csv.write(Integer.toString(row.getDefectCount()));
+            csv.write("\r\n");
+        }
+
+        private Writer field(String value) throws IOException {
+            if (value.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) {
+                csv.write(value);
+            } else {
+                csv.write('"');
+                csv.write(value.replace("\"", "\"\""));
+                csv.write('"');
+            }
+            return csv;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            csv.flush();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.factory.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Ingestion and query meters, exposed under /actuator/metrics and /actuator/prometheus.
+//
+//   events.ingest.batch           Timer per processBatch call, tagged by mode
+//   events.ingest.stage           Timer per stage: validate, dedup, lookup, write, rollup, distribution
+//   events.ingest.batch.size      events per processBatch call
+//   events.ingest.outcomes        events by outcome, factory and rejection reason
+//   events.query                  Timer per stats query
+//
+// Outcome counters are published after commit, so rolled-back batches are not counted.
+// Rejections are counted as soon as they are validated.
+@Component
+public class EventMetrics {
+
+    public enum Stage { VALIDATE, RESOLVE, DEDUP, LOOKUP, WRITE, ROLLUP, DISTRIBUTION }
+
+    public enum Outcome { ACCEPTED, UPDATED, DEDUPED, IGNORED, REJECTED }
+
+    static final String QUERY_MACHINE_STATS = "machine-stats";
+    static final String QUERY_TOP_DEFECT_LINES = "top-defect-lines";
+    static final String QUERY_TOP_DEFECT_MACHINES = "top-defect-machines";
+    static final String QUERY_MACHINE_STATS_BULK = "machine-stats-bulk";
+    static final String QUERY_DISTRIBUTION = "distribution";
+
+    private static final String NO_REASON = "none";
+    private static final String UNKNOWN_FACTORY = "unknown";
+    private static final String OTHER_FACTORY = "other";
+
+    private final MeterRegistry registry;
+    private final int maxFactoryTags;
+
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<String, Timer> batchTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> queryTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary batchSize;
+
+    private final Set<String> factoryTags = ConcurrentHashMap.newKeySet();
+    private final Map<OutcomeKey, Counter> outcomeCounters = new ConcurrentHashMap<>();
+
+    private record OutcomeKey(Outcome outcome, String factory, String reason) {}
+
+    public EventMetrics(
+            MeterRegistry registry,
+            @Value("${events.metrics.max-factory-tags:200}") int maxFactoryTags
+    ) {
+        this.registry = registry;
+        this.maxFactoryTags = maxFactoryTags;
+
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, histogram(Timer.builder("events.ingest.stage"))
+                    .tag("stage", stage.name().toLowerCase())
+                    .register(registry));
+        }
+        this.batchSize = DistributionSummary.builder("events.ingest.batch.size")
+                .baseUnit("events")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(100_000.0)
+                .register(registry);
+    }
+
+    public <T> T timeQuery(String query, Supplier<T> call) {
+        return queryTimers.computeIfAbsent(query, q ->
+                histogram(Timer.builder("events.query")).tag("query", q).register(registry)
+        ).record(call);
+    }
+
+    public void rejected(String factoryId, String reason) {
+        counter(Outcome.REJECTED, factoryId, reason).increment();
+    }
+
+    // Records the batch timings now and its outcome counts once the transaction commits
+    void record(BatchWrite write, EventService.IngestMode mode, int events, long totalNanos) {
+        batchTimers.computeIfAbsent(mode.name(), m ->
+                histogram(Timer.builder("events.ingest.batch")).tag("mode", m).register(registry)
+        ).record(totalNanos, TimeUnit.NANOSECONDS);
+        batchSize.record(events);
+        for (Stage stage : Stage.values()) {
+            stageTimers.get(stage).record(write.stageNanos[stage.ordinal()], TimeUnit.NANOSECONDS);
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publishOutcomes(write);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publishOutcomes(write);
+            }
+        });
+    }
+
+    private void publishOutcomes(BatchWrite write) {
+        write.outcomesByFactory.forEach((factoryId, counts) -> {
+            for (Outcome outcome : Outcome.values()) {
+                if (counts[outcome.ordinal()] > 0) {
+                    counter(outcome, factoryId, NO_REASON).increment(counts[outcome.ordinal()]);
+                }
+            }
+        });
+    }
+
+    private Counter counter(Outcome outcome, String factoryId, String reason) {
+        OutcomeKey key = new OutcomeKey(outcome, factoryTag(factoryId), reason);
+        return outcomeCounters.computeIfAbsent(key, k -> Counter.builder("events.ingest.outcomes")
+                .tag("outcome", k.outcome.name().toLowerCase())
+                .tag("factory", k.factory)
+                .tag("reason", k.reason)
+                .register(registry));
+    }
+
+    // factoryId comes from clients, so the number of distinct tag values is capped
+    private String factoryTag(String factoryId) {
+        if (factoryId == null) {
+            return UNKNOWN_FACTORY;
+        }
+        if (factoryTags.contains(factoryId)) {
+            return factoryId;
+        }
+        if (factoryTags.size() < maxFactoryTags && factoryTags.add(factoryId)) {
+            return factoryId;
+        }
+        return factoryTags.contains(factoryId) ? factoryId : OTHER_FACTORY;
+    }
+
+    private static Timer.Builder histogram(Timer.Builder builder) {
+        return builder
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(60));
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.factory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Keeps monthly partitions of events created ahead of time (profile "partitioned").
+// Rows for a month without its partition would otherwise land in events_default.
+@Component
+@ConditionalOnProperty(name = "events.partitioning.enabled", havingValue = "true")
+public class EventPartitionMaintainer {
+
+    private static final Logger log = LoggerFactory.getLogger(EventPartitionMaintainer.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int monthsAhead;
+
+    public EventPartitionMaintainer(
+            JdbcTemplate jdbcTemplate,
+            @Value("${events.partitioning.months-ahead:3}") int monthsAhead
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.monthsAhead = monthsAhead;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 0 3 * * *", zone = "UTC")
+    public void ensurePartitions() {
+        jdbcTemplate.execute("SELECT ensure_events_partitions(" + monthsAhead + ")");
+        log.info("Ensured events partitions for the next {} months", monthsAhead);
+    }
+}
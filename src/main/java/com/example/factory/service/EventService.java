@@ -2,38 +2,259 @@ package com.example.factory.service;
 
 import com.example.factory.dto.*;
 import com.example.factory.entity.EventEntity;
-import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.repository.EventStore;
+import com.example.factory.repository.IdentifierDictionary;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import com.example.factory.repository.LineDefectTotals;
+import com.example.factory.repository.WindowTotals;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class EventService {
 
-    private final EventRepository repository;
+    private final EventStore store;
+    private final IdentifierDictionary dictionary;
+    private final TransactionTemplate transaction;
+    private final EntityManager entityManager;
+    private final RollupService rollupService;
+    private final DistributionService distributionService;
+    private final DedupCache dedupCache;
+    private final MachineTimeSeries timeSeries;
+    private final ColdSegmentStore coldStore;
+    private final StatsCache statsCache;
+    private final EventMetrics metrics;
+    private final ClusterMembership membership;
+    private final ApplicationEventPublisher eventPublisher;
+    private final IngestMode ingestMode;
+    private final boolean statsFromRollup;
 
     private static final long MAX_DURATION_MS = 6L * 60 * 60 * 1000;
-    private static final long MAX_FUTURE_SECONDS = 15 * 60;
+    static final long MAX_FUTURE_SECONDS = 15 * 60;
+    // the width of the id columns
+    private static final int MAX_ID_LENGTH = 255;
+
+    // Keeps each IN (...) lookup well below the bind-parameter limit of the JDBC drivers
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+
+    // Top lines order, shared with the live feed
+    static final Comparator<TopDefectLineResponse> MOST_DEFECTS_FIRST =
+            Comparator.comparingLong(TopDefectLineResponse::getTotalDefects).reversed()
+                    .thenComparing(TopDefectLineResponse::getLineId);
+
+    // Rounds of re-reading and re-deciding events that lost a race to a concurrent batch
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+
+    public enum IngestMode {
+        // one findById + save round trip per resolved event
+        PER_EVENT,
+        // one multi-key lookup per chunk, conditional inserts/updates sent as JDBC batches
+        BULK
+    }
 
-    public EventService(EventRepository repository) {
-        this.repository = repository;
+    public EventService(
+            EventStore store,
+            IdentifierDictionary dictionary,
+            PlatformTransactionManager transactionManager,
+            EntityManager entityManager,
+            RollupService rollupService,
+            DistributionService distributionService,
+            DedupCache dedupCache,
+            MachineTimeSeries timeSeries,
+            ColdSegmentStore coldStore,
+            StatsCache statsCache,
+            EventMetrics metrics,
+            ClusterMembership membership,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${events.ingest.mode:BULK}") IngestMode ingestMode,
+            @Value("${events.stats.rollup-enabled:true}") boolean statsFromRollup
+    ) {
+        this.store = store;
+        this.dictionary = dictionary;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.entityManager = entityManager;
+        this.rollupService = rollupService;
+        this.distributionService = distributionService;
+        this.dedupCache = dedupCache;
+        this.timeSeries = timeSeries;
+        this.coldStore = coldStore;
+        this.statsCache = statsCache;
+        this.metrics = metrics;
+        this.membership = membership;
+        this.eventPublisher = eventPublisher;
+        this.ingestMode = ingestMode;
+        // the rollup is maintained from the events table
+        this.statsFromRollup = statsFromRollup && store.inDatabase();
     }
 
-    @Transactional
     public BatchResponse processBatch(List<EventRequest> requests) {
+        return processBatch(requests, ingestMode, Instant.now());
+    }
+
+    public BatchResponse processBatch(List<EventRequest> requests, IngestMode mode) {
+        return processBatch(requests, mode, Instant.now());
+    }
+
+    // For a batch received earlier than it is written, such as a spooled one: receivedTime is stored and
+    // decides against other payloads of the same events, as if the batch had been written when it arrived
+    public BatchResponse processBatch(List<EventRequest> requests, Instant receivedTime) {
+        return processBatch(requests, ingestMode, receivedTime);
+    }
+
+    // Validation and the keys of new identifiers come before the batch's transaction, which then
+    // only reads the dimension tables (see IdentifierDictionary.resolve)
+    private BatchResponse processBatch(List<EventRequest> requests, IngestMode mode, Instant receivedTime) {
 
+        long started = System.nanoTime();
         BatchResponse response = new BatchResponse();
+        BatchWrite write = new BatchWrite(receivedTime, response);
+
+        List<EventRequest> valid = validateBatch(requests, response);
+        write.time(EventMetrics.Stage.VALIDATE, started);
+
+        long resolveStarted = System.nanoTime();
+        resolveIdentifiers(valid);
+        write.time(EventMetrics.Stage.RESOLVE, resolveStarted);
+
+        return transaction.execute(status -> writeBatch(valid, write, mode, requests.size(), started));
+    }
+
+    private BatchResponse writeBatch(
+            List<EventRequest> valid,
+            BatchWrite write,
+            IngestMode mode,
+            int batchSize,
+            long started
+    ) {
+        long dedupStarted = System.nanoTime();
 
         // Implemented a map to process large number of events
-        Map<String, EventRequest> resolved = new HashMap<>();
+        Map<String, Resolved> resolved = new HashMap<>();
+
+        for (EventRequest req : valid) {
+
+            // hashed once per event, reused for in-batch collisions, the cache and the DB comparison
+            Resolved curr = new Resolved(req, PayloadFingerprint.of(req));
+            Resolved prev = resolved.get(req.eventId);
+
+            if (prev == null) {
+                resolved.put(req.eventId, curr);
+                continue;
+            }
+
+            if (prev.fingerprint == curr.fingerprint
+                    && prev.req.eventTime.equals(req.eventTime)) {
+                write.count(EventMetrics.Outcome.DEDUPED, req.factoryId);
+                continue;
+            }
+
+            write.count(EventMetrics.Outcome.UPDATED, req.factoryId);
+            resolved.put(req.eventId, curr);
+        }
+
+        // Retransmissions of recently committed events need no DB lookup
+        resolved.values().removeIf(r -> {
+            if (dedupCache.matches(r.req.eventId, r.fingerprint)) {
+                write.count(EventMetrics.Outcome.DEDUPED, r.req.factoryId);
+                return true;
+            }
+            return false;
+        });
+        write.time(EventMetrics.Stage.DEDUP, dedupStarted);
+
+        List<Resolved> archived = takeArchived(resolved, write);
+
+        if (mode == IngestMode.BULK) {
+            persistBulk(resolved, write);
+        } else {
+            persistPerEvent(resolved, write);
+        }
+        persistArchived(archived, write);
+
+        if (store.inDatabase()) {
+            long rollupStarted = System.nanoTime();
+            rollupService.apply(write.rollup);
+            write.time(EventMetrics.Stage.ROLLUP, rollupStarted);
+
+            long distributionStarted = System.nanoTime();
+            distributionService.apply(write.distribution);
+            write.time(EventMetrics.Stage.DISTRIBUTION, distributionStarted);
+        }
+
+        dedupCache.putAfterCommit(write.stored);
+        timeSeries.applyAfterCommit(write.minutes);
+        // after the time series, see StatsCache.invalidateAfterCommit
+        statsCache.invalidateAfterCommit(write.written);
+        if (!write.movedAway.isEmpty()) {
+            // ClusterRouter tells their owners once the batch commits
+            eventPublisher.publishEvent(new EventsMovedEvent(write.movedAway));
+        }
+        metrics.record(write, mode, batchSize, System.nanoTime() - started);
+
+        return write.response;
+    }
+
+    private record Resolved(EventRequest req, long fingerprint) {}
+
+    private static final Comparator<Resolved> BY_EVENT_ID = Comparator.comparing(r -> r.req.eventId);
+
+    // Runs several queued batches in one transaction. Each batch keeps its own
+    // in-batch dedup and its own counters, exactly as if it had been posted alone.
+    // The identifiers of all batches are resolved first, so none is registered inside the transaction.
+    public List<BatchResponse> processBatches(List<List<EventRequest>> batches) {
+        resolveIdentifiers(batches.stream().flatMap(List::stream).filter(req -> validate(req) == null).toList());
+        return transaction.execute(status -> {
+            List<BatchResponse> responses = new ArrayList<>(batches.size());
+            for (List<EventRequest> batch : batches) {
+                responses.add(processBatch(batch, ingestMode));
+            }
+            return responses;
+        });
+    }
+
+    // Gives the identifiers of events about to be written their keys; nothing to do once all are cached
+    private void resolveIdentifiers(List<EventRequest> events) {
+        Map<Dimension, Set<String>> missing = new EnumMap<>(Dimension.class);
+        for (EventRequest req : events) {
+            addMissing(missing, Dimension.FACTORY, req.factoryId);
+            addMissing(missing, Dimension.LINE, req.lineId);
+            addMissing(missing, Dimension.MACHINE, req.machineId);
+        }
+        if (!missing.isEmpty()) {
+            dictionary.resolve(missing);
+        }
+    }
+
+    private void addMissing(Map<Dimension, Set<String>> missing, Dimension dimension, String id) {
+        if (id != null && !dictionary.isCached(dimension, id)) {
+            missing.computeIfAbsent(dimension, d -> new HashSet<>()).add(id);
+        }
+    }
+
+    // Records rejections in the response and returns the events that pass validation
+    public List<EventRequest> validateBatch(
+            List<EventRequest> requests,
+            BatchResponse response
+    ) {
+        List<EventRequest> valid = new ArrayList<>(requests.size());
 
         for (EventRequest req : requests) {
 
             String error = validate(req);
             if (error != null) {
+                metrics.rejected(req.factoryId, error);
                 response.rejected++;
                 response.rejections.add(
                         new BatchResponse.Rejection(req.eventId, error)
@@ -41,83 +262,365 @@ public class EventService {
                 continue;
             }
 
-            EventRequest prev = resolved.get(req.eventId);
+            valid.add(req);
+        }
 
-            if (prev == null) {
-                resolved.put(req.eventId, req);
-                continue;
+        return valid;
+    }
+
+    private void persistPerEvent(
+            Map<String, Resolved> resolved,
+            BatchWrite write
+    ) {
+        // Hashmap has the reduced number of events , which we either directly want to add to DB
+        // or want to check for there presence in DB
+        for (Resolved r : resolved.values()) {
+
+            long lookupStarted = System.nanoTime();
+            EventEntity existing =
+                    store.findById(r.req.eventId).orElse(null);
+            write.time(EventMetrics.Stage.LOOKUP, lookupStarted);
+
+            // saved entities are flushed at commit, outside the write stage
+            long writeStarted = System.nanoTime();
+            switch (decide(r, existing, write.now)) {
+                case INSERT -> {
+                    store.insert(newRow(r, write.now));
+                    recordInsert(r, write);
+                }
+                case UPDATE -> {
+                    recordUpdate(r, existing, write);
+                    // fails the batch if another writer got there first
+                    store.update(updatedRow(r, existing, write.now, existing));
+                }
+                case DEDUPED -> recordDeduped(r, existing, write);
+                case IGNORED -> write.count(EventMetrics.Outcome.IGNORED, r.req.factoryId);
+            }
+            write.time(EventMetrics.Stage.WRITE, writeStarted);
+        }
+    }
+
+    // Set-based path with per-event conflict resolution. Existing rows are read in chunks,
+    // inserts and version-checked updates are sent as JDBC batches, and every event whose
+    // write lost a race against a concurrent batch is re-read and decided again.
+    private void persistBulk(
+            Map<String, Resolved> resolved,
+            BatchWrite write
+    ) {
+        // Earlier JPA changes in this transaction must reach the DB before the JDBC reads, and
+        // entities loaded before the JDBC writes would be stale afterwards
+        long flushStarted = System.nanoTime();
+        entityManager.flush();
+        entityManager.clear();
+        write.time(EventMetrics.Stage.WRITE, flushStarted);
+
+        Collection<Resolved> pending = resolved.values();
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            if (attempt > MAX_WRITE_ATTEMPTS) {
+                throw new ConcurrencyFailureException(
+                        pending.size() + " events still conflicting after "
+                                + MAX_WRITE_ATTEMPTS + " attempts");
             }
 
-            String prevHash = computePayloadHash(prev);
-            String currHash = computePayloadHash(req);
+            // In eventId order, the order in which the lookups lock rows and the writes insert them
+            // (see EventWriteRepository)
+            List<Resolved> pendingList = new ArrayList<>(pending);
+            pendingList.sort(BY_EVENT_ID);
+            List<Resolved> conflicts = new ArrayList<>();
 
-            if (prevHash.equals(currHash)
-                    && prev.eventTime.equals(req.eventTime)) {
-                response.deduped++;
-                continue;
+            for (int from = 0; from < pendingList.size(); from += LOOKUP_CHUNK_SIZE) {
+                List<Resolved> chunk =
+                        pendingList.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, pendingList.size()));
+                conflicts.addAll(writeChunk(chunk, write));
             }
 
-            response.updated++;
-            resolved.put(req.eventId, req);
+            pending = conflicts;
         }
+    }
 
-        Instant now = Instant.now();
-        // Hashmap has the reduced number of events , which we either directly want to add to DB
-        // or want to check for there presence in DB
-        for (EventRequest req : resolved.values()) {
+    // Returns the events whose write found a row changed by someone else
+    private List<Resolved> writeChunk(List<Resolved> chunk, BatchWrite write) {
+
+        long lookupStarted = System.nanoTime();
+        Map<String, EventEntity> existingById = store.findByIds(
+                chunk.stream().map(r -> r.req.eventId).toList());
+        write.time(EventMetrics.Stage.LOOKUP, lookupStarted);
+
+        List<Resolved> inserts = new ArrayList<>();
+        List<EventEntity> insertRows = new ArrayList<>();
+        List<Resolved> updates = new ArrayList<>();
+        List<EventEntity> updateRows = new ArrayList<>();
+
+        for (Resolved r : chunk) {
+            EventEntity existing = existingById.get(r.req.eventId);
+            switch (decide(r, existing, write.now)) {
+                case INSERT -> {
+                    inserts.add(r);
+                    insertRows.add(newRow(r, write.now));
+                }
+                case UPDATE -> {
+                    updates.add(r);
+                    updateRows.add(updatedRow(r, existing, write.now, null));
+                }
+                case DEDUPED -> recordDeduped(r, existing, write);
+                case IGNORED -> write.count(EventMetrics.Outcome.IGNORED, r.req.factoryId);
+            }
+        }
 
-            EventEntity existing =
-                    repository.findById(req.eventId).orElse(null);
-
-            String payloadHash = computePayloadHash(req);
-
-            if (existing == null) {
-                repository.save(new EventEntity(
-                        req.eventId,
-                        req.eventTime,
-                        now,
-                        req.factoryId,
-                        req.lineId,
-                        req.machineId,
-                        req.durationMs,
-                        req.defectCount,
-                        payloadHash
-                ));
-                response.accepted++;
-                continue;
+        List<Resolved> conflicts = new ArrayList<>();
+
+        long writeStarted = System.nanoTime();
+        int[] inserted = store.insertIfAbsent(insertRows);
+        int[] updated = store.updateIfVersion(updateRows);
+        write.time(EventMetrics.Stage.WRITE, writeStarted);
+
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] == 1) {
+                recordInsert(inserts.get(i), write);
+            } else {
+                conflicts.add(inserts.get(i));
             }
+        }
 
-            if (!existing.getPayloadHash().equals(payloadHash)) {
+        for (int i = 0; i < updated.length; i++) {
+            Resolved r = updates.get(i);
+            if (updated[i] == 1) {
+                recordUpdate(r, existingById.get(r.req.eventId), write);
+            } else {
+                conflicts.add(r);
+            }
+        }
 
-                if (now.isAfter(existing.getReceivedTime())) {
-                    existing.setEventTime(req.eventTime);
-                    existing.setFactoryId(req.factoryId);
-                    existing.setLineId(req.lineId);
-                    existing.setMachineId(req.machineId);
-                    existing.setDurationMs(req.durationMs);
-                    existing.setDefectCount(req.defectCount);
-                    existing.setPayloadHash(payloadHash);
-                    existing.setReceivedTime(now);
+        return conflicts;
+    }
 
-                    repository.save(existing);
-                    response.updated++;
-                } else {
-                    response.ignored++;
+    // Removes and returns the events of days behind the archive watermark. An event whose row is still in
+    // the table (left behind by an archive run) stays, and is written there for the next run to move.
+    private List<Resolved> takeArchived(Map<String, Resolved> resolved, BatchWrite write) {
+        Instant archivedBefore = coldStore.archivedBefore();
+        if (archivedBefore == null) {
+            return List.of();
+        }
+        List<String> late = new ArrayList<>();
+        for (Resolved r : resolved.values()) {
+            if (r.req.eventTime.isBefore(archivedBefore)) {
+                late.add(r.req.eventId);
+            }
+        }
+        if (late.isEmpty()) {
+            return List.of();
+        }
+        Collections.sort(late);
+
+        long lookupStarted = System.nanoTime();
+        Set<String> inTable = new HashSet<>();
+        for (int from = 0; from < late.size(); from += LOOKUP_CHUNK_SIZE) {
+            inTable.addAll(store.findByIds(late.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, late.size()))).keySet());
+        }
+        write.time(EventMetrics.Stage.LOOKUP, lookupStarted);
+
+        List<Resolved> archived = new ArrayList<>();
+        for (String eventId : late) {
+            if (!inTable.contains(eventId)) {
+                archived.add(resolved.remove(eventId));
+            }
+        }
+        return archived;
+    }
+
+    // Late events of archived days go into the segment of their factory and day, decided by the same rules
+    // against the copy stored there. Each segment is rewritten once per batch. The file is not part of the
+    // transaction: if the batch fails afterwards, the segment keeps the events (a retry dedupes them) and
+    // the rollup and distributions miss them until they are rebuilt.
+    private void persistArchived(List<Resolved> archived, BatchWrite write) {
+        if (archived.isEmpty()) {
+            return;
+        }
+        long writeStarted = System.nanoTime();
+
+        // factoryId -> epoch day -> events
+        Map<String, Map<Long, List<Resolved>>> segments = new TreeMap<>();
+        for (Resolved r : archived) {
+            segments.computeIfAbsent(r.req.factoryId, f -> new TreeMap<>())
+                    .computeIfAbsent(Math.floorDiv(r.req.eventTime.getEpochSecond(), 86_400), d -> new ArrayList<>())
+                    .add(r);
+        }
+
+        try {
+            for (Map.Entry<String, Map<Long, List<Resolved>>> factory : segments.entrySet()) {
+                for (Map.Entry<Long, List<Resolved>> day : factory.getValue().entrySet()) {
+                    coldStore.merge(factory.getKey(), day.getKey(), rows -> mergeArchived(day.getValue(), rows, write));
                 }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        write.time(EventMetrics.Stage.WRITE, writeStarted);
+    }
 
-            } else {
-                response.deduped++;
+    // Returns whether any row of the segment changed
+    private boolean mergeArchived(List<Resolved> events, Map<String, EventEntity> rows, BatchWrite write) {
+        boolean changed = false;
+        for (Resolved r : events) {
+            EventEntity existing = rows.get(r.req.eventId);
+            switch (decide(r, existing, write.now)) {
+                case INSERT -> {
+                    rows.put(r.req.eventId, newRow(r, write.now));
+                    recordInsert(r, write);
+                    changed = true;
+                }
+                case UPDATE -> {
+                    rows.put(r.req.eventId, updatedRow(r, existing, write.now, null));
+                    recordUpdate(r, existing, write);
+                    changed = true;
+                }
+                case DEDUPED -> recordDeduped(r, existing, write);
+                case IGNORED -> write.count(EventMetrics.Outcome.IGNORED, r.req.factoryId);
             }
         }
+        return changed;
+    }
+
+    private enum Outcome { INSERT, UPDATE, DEDUPED, IGNORED }
+
+    // The dedup/update rules of one resolved event against its stored row
+    private Outcome decide(Resolved resolved, EventEntity existing, Instant now) {
+
+        if (existing == null) {
+            return Outcome.INSERT;
+        }
+
+        if (existing.getPayloadFingerprint() == resolved.fingerprint) {
+            return Outcome.DEDUPED;
+        }
 
-        return response;
+        if (!now.isAfter(existing.getReceivedTime())) {
+            return Outcome.IGNORED;
+        }
+
+        return Outcome.UPDATE;
+    }
+
+    private EventEntity newRow(Resolved resolved, Instant now) {
+        EventRequest req = resolved.req;
+        return new EventEntity(
+                req.eventId,
+                req.eventTime,
+                now,
+                req.factoryId,
+                req.lineId,
+                req.machineId,
+                req.durationMs,
+                req.defectCount,
+                resolved.fingerprint
+        );
     }
+
+    // Copies the new payload onto target (a fresh row when null), keeping the version
+    // of the stored row so the write can be checked against it
+    private EventEntity updatedRow(
+            Resolved resolved,
+            EventEntity existing,
+            Instant now,
+            EventEntity target
+    ) {
+        EventEntity row = target != null ? target : newRow(resolved, now);
+        EventRequest req = resolved.req;
+
+        row.setEventTime(req.eventTime);
+        row.setFactoryId(req.factoryId);
+        row.setLineId(req.lineId);
+        row.setMachineId(req.machineId);
+        row.setDurationMs(req.durationMs);
+        row.setDefectCount(req.defectCount);
+        row.setPayloadFingerprint(resolved.fingerprint);
+        row.setReceivedTime(now);
+        row.setVersion(existing.getVersion());
+        return row;
+    }
+
+    // The record* methods run only for writes that actually happened
+
+    private void recordInsert(Resolved resolved, BatchWrite write) {
+        EventRequest req = resolved.req;
+        write.count(EventMetrics.Outcome.ACCEPTED, req.factoryId);
+        write.rollup.add(req.machineId, req.eventTime, req.defectCount);
+        write.distribution.add(req.machineId, req.factoryId, req.lineId, req.eventTime, req.durationMs, req.defectCount);
+        write.minutes.add(req.machineId, req.factoryId, req.lineId, req.eventTime, req.defectCount);
+        write.written.add(req.machineId, req.factoryId, req.eventTime);
+        write.stored.add(new DedupCache.Stored(req.eventId, resolved.fingerprint, write.now));
+    }
+
+    private void recordUpdate(Resolved resolved, EventEntity previous, BatchWrite write) {
+        EventRequest req = resolved.req;
+        write.count(EventMetrics.Outcome.UPDATED, req.factoryId);
+        // the old payload leaves its bucket, the new one enters (possibly the same) bucket
+        write.rollup.remove(previous.getMachineId(), previous.getEventTime(), previous.getDefectCount());
+        write.rollup.add(req.machineId, req.eventTime, req.defectCount);
+        write.distribution.remove(previous.getMachineId(), previous.getFactoryId(), previous.getLineId(),
+                previous.getEventTime(), previous.getDurationMs(), previous.getDefectCount());
+        write.distribution.add(req.machineId, req.factoryId, req.lineId, req.eventTime, req.durationMs, req.defectCount);
+        if (membership.owns(previous.getMachineId())) {
+            write.minutes.remove(previous.getMachineId(), previous.getFactoryId(), previous.getLineId(),
+                    previous.getEventTime(), previous.getDefectCount());
+        } else {
+            // the old payload is in the time series and caches of its machine's owner, see removeMoved
+            write.movedAway.add(previousPayload(previous));
+        }
+        write.minutes.add(req.machineId, req.factoryId, req.lineId, req.eventTime, req.defectCount);
+        // an update of the duration alone changes no stats
+        if (!req.eventTime.equals(previous.getEventTime()) || req.defectCount != previous.getDefectCount()
+                || !req.machineId.equals(previous.getMachineId()) || !req.factoryId.equals(previous.getFactoryId())
+                || !req.lineId.equals(previous.getLineId())) {
+            write.written.add(previous.getMachineId(), previous.getFactoryId(), previous.getEventTime());
+            write.written.add(req.machineId, req.factoryId, req.eventTime);
+        }
+        write.stored.add(new DedupCache.Stored(req.eventId, resolved.fingerprint, write.now));
+    }
+
+    private static EventRequest previousPayload(EventEntity previous) {
+        EventRequest e = new EventRequest();
+        e.eventId = previous.getEventId();
+        e.eventTime = previous.getEventTime();
+        e.factoryId = previous.getFactoryId();
+        e.lineId = previous.getLineId();
+        e.machineId = previous.getMachineId();
+        e.durationMs = previous.getDurationMs();
+        e.defectCount = previous.getDefectCount();
+        return e;
+    }
+
+    // Runs on the owner of machines that another node's batch moved events away from (see ClusterRouter):
+    // their old payloads leave this node's time series, dedup cache and stats cache
+    public void removeMoved(List<EventRequest> previous) {
+        TimeSeriesDelta minutes = new TimeSeriesDelta();
+        WrittenTimes written = new WrittenTimes();
+        for (EventRequest e : previous) {
+            minutes.remove(e.machineId, e.factoryId, e.lineId, e.eventTime, e.defectCount);
+            written.add(e.machineId, e.factoryId, e.eventTime);
+            dedupCache.invalidate(e.eventId);
+        }
+        timeSeries.applyAfterCommit(minutes);
+        statsCache.invalidateAfterCommit(written);
+    }
+
+    private void recordDeduped(Resolved resolved, EventEntity existing, BatchWrite write) {
+        write.count(EventMetrics.Outcome.DEDUPED, resolved.req.factoryId);
+        write.stored.add(new DedupCache.Stored(
+                resolved.req.eventId, resolved.fingerprint, existing.getReceivedTime()));
+    }
+
     private String validate(EventRequest req) {
 
         if (req.durationMs < 0 || req.durationMs > MAX_DURATION_MS) {
             return "INVALID_DURATION";
         }
 
+        if (tooLong(req.eventId) || tooLong(req.factoryId) || tooLong(req.lineId) || tooLong(req.machineId)) {
+            return "INVALID_IDENTIFIER";
+        }
+
         if (req.eventTime.isAfter(
                 Instant.now().plusSeconds(MAX_FUTURE_SECONDS))) {
             return "EVENT_TIME_IN_FUTURE";
@@ -125,35 +628,72 @@ public class EventService {
 
         return null;
     }
-    private String computePayloadHash(EventRequest req) {
-        String payload =
-                req.eventId + "|" +
-                        req.factoryId + "|" +
-                        req.lineId + "|" +
-                        req.machineId + "|" +
-                        req.durationMs + "|" +
-                        req.defectCount;
 
-        return Integer.toHexString(payload.hashCode());
+    private static boolean tooLong(String id) {
+        return id != null && id.length() > MAX_ID_LENGTH;
     }
+
     public MachineStatsResponse getStats(
             String machineId,
             Instant start,
             Instant end
     ) {
+        return metrics.timeQuery(EventMetrics.QUERY_MACHINE_STATS,
+                () -> statsCache.machineStats(machineId, start, end, () -> computeStats(machineId, start, end)));
+    }
 
-        List<EventEntity> events =
-                repository.findByMachineIdAndEventTimeGreaterThanEqualAndEventTimeLessThan(
-                        machineId, start, end
-                );
+    private MachineStatsResponse computeStats(
+            String machineId,
+            Instant start,
+            Instant end
+    ) {
+
+        // {events, known defects}
+        long[] totals = new long[2];
+        Instant storedEnd = end;
+
+        // Whole minutes the in-memory time series covers come from memory, anything older than
+        // the time series from the rollup and raw rows as before
+        long coveredFrom = timeSeries.coveredFromMinute();
+        long firstMinute = Math.max(Math.floorDiv(start.getEpochSecond() + 59, 60), coveredFrom);
+        long endMinute = MachineTimeSeries.minute(end);
+
+        if (firstMinute < endMinute) {
+            Instant memoryStart = Instant.ofEpochSecond(firstMinute * 60);
+            Instant memoryEnd = Instant.ofEpochSecond(endMinute * 60);
+            timeSeries.sum(machineId, firstMinute, endMinute, totals);
+
+            // The partial minutes at both edges are read with one aggregate query, unless
+            // the time series shows that their minute holds no events at all
+            boolean startsInMinuteBefore = start.isAfter(memoryStart.minusSeconds(60));
+            Instant edgeStart = startsInMinuteBefore
+                    && (firstMinute - 1 < coveredFrom || timeSeries.eventsInMinute(machineId, firstMinute - 1) > 0)
+                    ? start : memoryStart;
+            Instant edgeEnd = timeSeries.eventsInMinute(machineId, endMinute) > 0 ? end : memoryEnd;
+
+            if (edgeStart.isBefore(memoryStart) || memoryEnd.isBefore(edgeEnd)) {
+                WindowTotals edges = store.sumTwoRanges(machineId, edgeStart, memoryStart, memoryEnd, edgeEnd);
+                totals[0] += edges.getEventsCount();
+                totals[1] += edges.getDefectsCount();
+            }
+            storedEnd = startsInMinuteBefore ? start : memoryStart;
+        }
 
-        long eventsCount = events.size();
+        if (start.isBefore(storedEnd)) {
+            addStoredTotals(machineId, start, storedEnd, totals);
+        }
 
-        long defectsCount = events.stream()
-                .filter(e -> e.getDefectCount() >= 0)
-                .mapToLong(EventEntity::getDefectCount)
-                .sum();
+        return machineStats(machineId, start, end, totals[0], totals[1]);
+    }
 
+    // Shared with the live feed, which computes the totals from the time series
+    static MachineStatsResponse machineStats(
+            String machineId,
+            Instant start,
+            Instant end,
+            long eventsCount,
+            long defectsCount
+    ) {
         double windowHours =
                 (end.getEpochSecond() - start.getEpochSecond()) / 3600.0;
 
@@ -174,6 +714,58 @@ public class EventService {
         );
     }
 
+    private void addStoredTotals(
+            String machineId,
+            Instant start,
+            Instant end,
+            long[] totals
+    ) {
+        // Whole hours inside [start, end) come from the rollup, the partial hours at each edge from raw rows
+        long firstFullHour = Math.floorDiv(start.getEpochSecond() + 3599, 3600);
+        long endFullHour = HourlyRollupDelta.bucketHour(end);
+
+        if (statsFromRollup && firstFullHour < endFullHour) {
+            Instant fullStart = Instant.ofEpochSecond(firstFullHour * 3600);
+            Instant fullEnd = Instant.ofEpochSecond(endFullHour * 3600);
+
+            WindowTotals rollup =
+                    rollupService.sumBuckets(machineId, firstFullHour, endFullHour);
+            totals[0] += rollup.getEventsCount();
+            totals[1] += rollup.getDefectsCount();
+
+            addRawTotals(machineId, start, fullStart, totals);
+            addRawTotals(machineId, fullEnd, end, totals);
+        } else {
+            addRawTotals(machineId, start, end, totals);
+        }
+    }
+
+    private void addRawTotals(
+            String machineId,
+            Instant start,
+            Instant end,
+            long[] totals
+    ) {
+        if (!start.isBefore(end)) {
+            return;
+        }
+
+        // the part before the archive watermark is only in segment files
+        Instant archivedBefore = coldStore.archivedBefore();
+        if (archivedBefore != null && start.isBefore(archivedBefore)) {
+            Instant coldEnd = end.isBefore(archivedBefore) ? end : archivedBefore;
+            coldStore.sum(machineId, start, coldEnd, totals);
+            if (coldEnd.equals(end)) {
+                return;
+            }
+            start = coldEnd;
+        }
+
+        WindowTotals stored = store.sumMachineWindow(machineId, start, end);
+        totals[0] += stored.getEventsCount();
+        totals[1] += stored.getDefectsCount();
+    }
+
     public MachineStatsResponse getMachineStats(
             String machineId,
             Instant start,
@@ -187,41 +779,77 @@ public class EventService {
             Instant to,
             int limit
     ) {
+        return metrics.timeQuery(EventMetrics.QUERY_TOP_DEFECT_LINES,
+                () -> statsCache.topDefectLines(factoryId, from, to, limit,
+                        () -> computeTopDefectLines(factoryId, from, to, limit)));
+    }
 
-        List<EventEntity> events =
-                repository.findByFactoryIdAndEventTimeBetween(factoryId, from, to);
+    private List<TopDefectLineResponse> computeTopDefectLines(
+            String factoryId,
+            Instant from,
+            Instant to,
+            int limit
+    ) {
 
-        Map<String, List<EventEntity>> byLine =
-                events.stream()
-                        .collect(Collectors.groupingBy(EventEntity::getLineId));
+        if (limit <= 0) {
+            return List.of();
+        }
 
-        List<TopDefectLineResponse> result = new ArrayList<>();
+        Instant archivedBefore = coldStore.archivedBefore();
+        if (archivedBefore != null && from.isBefore(archivedBefore)) {
+            return mergeTopDefectLines(factoryId, from, to, limit, archivedBefore);
+        }
 
-        for (Map.Entry<String, List<EventEntity>> entry : byLine.entrySet()) {
+        // Grouping runs in the store, one row per line of the factory. The ranking is done here,
+        // since the database can only break ties by line key and the API breaks them by lineId
+        TopK<TopDefectLineResponse> top = new TopK<>(limit, MOST_DEFECTS_FIRST);
+        for (LineDefectTotals line : store.sumLines(factoryId, from, to)) {
+            top.offer(topDefectLine(line.getLineId(), line.getTotalDefects(), line.getEventCount()));
+        }
+        return top.result();
+    }
 
-            long totalDefects = entry.getValue().stream()
-                    .filter(e -> e.getDefectCount() >= 0)
-                    .mapToLong(EventEntity::getDefectCount)
-                    .sum();
+    // The window reaches into archived days: every line's totals from the segments and the table are
+    // added up before ranking, since a line's rank in one tier says nothing about its rank overall
+    private List<TopDefectLineResponse> mergeTopDefectLines(
+            String factoryId,
+            Instant from,
+            Instant to,
+            int limit,
+            Instant archivedBefore
+    ) {
+        // lineId -> {events, known defects}
+        Map<String, long[]> lines = new HashMap<>();
+
+        // `to` is inclusive here; stored times have microsecond precision
+        Instant afterTo = to.truncatedTo(ChronoUnit.MICROS).plusNanos(1000);
+        coldStore.sumLines(factoryId, from, afterTo.isBefore(archivedBefore) ? afterTo : archivedBefore, lines);
+
+        if (!to.isBefore(archivedBefore)) {
+            for (LineDefectTotals line : store.sumLines(factoryId, archivedBefore, to)) {
+                long[] totals = lines.computeIfAbsent(line.getLineId(), l -> new long[2]);
+                totals[0] += line.getEventCount();
+                totals[1] += line.getTotalDefects();
+            }
+        }
 
-            long eventCount = entry.getValue().size();
+        TopK<TopDefectLineResponse> top = new TopK<>(limit, MOST_DEFECTS_FIRST);
+        lines.forEach((lineId, totals) -> top.offer(topDefectLine(lineId, totals[1], totals[0])));
+        return top.result();
+    }
 
-            double defectPercent =
-                    eventCount == 0 ? 0.0 :
-                            Math.round((totalDefects * 10000.0 / eventCount)) / 100.0;
+    static TopDefectLineResponse topDefectLine(String lineId, long totalDefects, long eventCount) {
 
-            result.add(new TopDefectLineResponse(
-                    entry.getKey(),
-                    totalDefects,
-                    eventCount,
-                    defectPercent
-            ));
-        }
+        return new TopDefectLineResponse(
+                lineId,
+                totalDefects,
+                eventCount,
+                defectsPercent(totalDefects, eventCount)
+        );
+    }
 
-        return result.stream()
-                .sorted(Comparator.comparingLong(
-                        TopDefectLineResponse::getTotalDefects).reversed())
-                .limit(limit)
-                .toList();
+    static double defectsPercent(long totalDefects, long eventCount) {
+        return eventCount == 0 ? 0.0 :
+                Math.round((totalDefects * 10000.0 / eventCount)) / 100.0;
     }
 }
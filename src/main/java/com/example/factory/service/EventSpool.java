@@ -0,0 +1,436 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only local log of accepted batches, the durable queue behind SpoolIngestService.
+// Batches get consecutive sequence numbers and are stored in segment files under dir, each named after the
+// sequence of its first batch (<20 digits>.spool) and closed once it reaches segmentBytes. A record is
+//
+//   length      i32, bytes of the events
+//   crc         i32, CRC32C of receivedTime and the events
+//   sequence    i64
+//   receivedTime i64 epoch microseconds
+//   events      BinaryEventFormat
+//
+// append() returns once its record is on disk. Appenders write under one lock and then wait for an fsync
+// that covers their record: the first waiter forces the file for every record written so far, and the
+// others wait for it instead of forcing again, so concurrent appends share one fsync (group commit).
+//
+// The replayer reads records in order with next() and confirms them with markReplayed(), which records the
+// sequence in the "replayed" file and deletes segments that hold only replayed records. On open, the last
+// segment is cut back to its last complete record, which drops a record torn by a crash before its fsync,
+// and reading resumes after the replayed sequence.
+public class EventSpool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EventSpool.class);
+
+    // One spooled batch as the replayer reads it back
+    public record Record(long sequence, Instant receivedTime, List<EventRequest> events) {}
+
+    private static final String SUFFIX = ".spool";
+    private static final String CHECKPOINT = "replayed";
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    // Start of what the CRC covers
+    private static final int CHECKED_FROM = 16;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final NavigableSet<Long> segments = new ConcurrentSkipListSet<>();
+    private final AtomicLong sizeBytes = new AtomicLong();
+
+    private final Object writeLock = new Object();
+    private Segment current;
+    private long lastSequence;
+    // Last sequence whose record is completely written, and last one known to be on disk
+    private volatile long written;
+    private volatile long durable;
+
+    private final Object syncLock = new Object();
+    private boolean syncing;
+    private final AtomicLong syncs = new AtomicLong();
+
+    private volatile long replayed;
+
+    // Reading position of the replayer, used by its thread only
+    private FileChannel reader;
+    private long readerSegment;
+    private long readerPosition;
+    private long nextToRead;
+
+    private static final class Segment {
+        final long firstSequence;
+        final FileChannel channel;
+        long size;
+        // set before the channel is closed, after a last force
+        volatile boolean closed;
+
+        Segment(long firstSequence, FileChannel channel, long size) {
+            this.firstSequence = firstSequence;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    public EventSpool(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        Path checkpoint = dir.resolve(CHECKPOINT);
+        replayed = Files.exists(checkpoint) ? Long.parseLong(Files.readString(checkpoint).trim()) : 0;
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        for (long first : segments) {
+            sizeBytes.addAndGet(Files.size(segmentPath(first)));
+        }
+
+        if (segments.isEmpty()) {
+            lastSequence = replayed;
+            current = openSegment(replayed + 1);
+        } else {
+            long first = segments.last();
+            FileChannel channel = FileChannel.open(segmentPath(first), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = 0;
+            long sequence = first;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (true) {
+                byte[] events = readRecord(channel, end, sequence, header);
+                if (events == null) {
+                    break;
+                }
+                end += HEADER_BYTES + events.length;
+                sequence++;
+            }
+            long size = channel.size();
+            if (end < size) {
+                log.warn("Spool segment {} ends in an incomplete record, dropping its last {} bytes",
+                        segmentPath(first), size - end);
+                channel.truncate(end);
+                channel.force(true);
+                sizeBytes.addAndGet(end - size);
+            }
+            channel.position(end);
+            current = new Segment(first, channel, end);
+            lastSequence = sequence - 1;
+
+            // only if records the checkpoint confirms went missing; never hand out their sequences again
+            if (lastSequence < replayed) {
+                log.warn("Spool ends at {} before the replayed sequence {}", lastSequence, replayed);
+                closeSegment(current);
+                lastSequence = replayed;
+                current = openSegment(replayed + 1);
+            }
+        }
+        written = lastSequence;
+        durable = lastSequence;
+        nextToRead = replayed + 1;
+        deleteReplayedSegments(replayed);
+
+        log.info("Opened spool {}: {} batches to replay, {} segments", dir, pending(), segments.size());
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return dir.resolve(String.format("%020d%s", firstSequence, SUFFIX));
+    }
+
+    private Segment openSegment(long firstSequence) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        segments.add(firstSequence);
+        syncDirectory();
+        return new Segment(firstSequence, channel, channel.size());
+    }
+
+    // Makes a created or deleted segment file survive a crash; not every platform can open a directory
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            log.debug("Could not sync spool directory {}", dir, e);
+        }
+    }
+
+    private void closeSegment(Segment segment) throws IOException {
+        segment.channel.force(false);
+        segment.closed = true;
+        segment.channel.close();
+    }
+
+    public long append(List<EventRequest> events, Instant receivedTime) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_BYTES + 64 + events.size() * 48);
+        out.write(new byte[HEADER_BYTES]);
+        BinaryEventFormat.write(events, out);
+        byte[] record = out.toByteArray();
+
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, record.length - HEADER_BYTES);
+        buffer.putLong(16, epochMicros(receivedTime));
+        CRC32C crc = new CRC32C();
+        crc.update(record, CHECKED_FROM, record.length - CHECKED_FROM);
+        buffer.putInt(4, (int) crc.getValue());
+
+        long sequence;
+        synchronized (writeLock) {
+            if (!current.channel.isOpen()) {
+                throw new IOException("Spool is closed");
+            }
+            sequence = lastSequence + 1;
+            buffer.putLong(8, sequence);
+            if (current.size > 0 && current.size + record.length > segmentBytes) {
+                closeSegment(current);
+                current = openSegment(sequence);
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    current.channel.write(buffer);
+                }
+            } catch (IOException e) {
+                // a partial record would end the segment for recovery; later records must not follow it
+                current.channel.truncate(current.size);
+                current.channel.position(current.size);
+                throw e;
+            }
+            current.size += record.length;
+            sizeBytes.addAndGet(record.length);
+            lastSequence = sequence;
+            written = sequence;
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    private static long epochMicros(Instant time) {
+        return Math.addExact(Math.multiplyExact(time.getEpochSecond(), 1_000_000L), time.getNano() / 1000);
+    }
+
+    private void awaitDurable(long sequence) throws IOException {
+        while (true) {
+            synchronized (syncLock) {
+                while (syncing && durable < sequence) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the spool to sync", e);
+                    }
+                }
+                if (durable >= sequence) {
+                    return;
+                }
+                syncing = true;
+            }
+
+            long target = durable;
+            try {
+                target = force();
+            } finally {
+                synchronized (syncLock) {
+                    syncing = false;
+                    durable = Math.max(durable, target);
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Forces the records written so far and returns the last sequence among them. force(false) still
+    // writes the file length, which is what reading an appended record back needs.
+    private long force() throws IOException {
+        Segment segment;
+        long target;
+        synchronized (writeLock) {
+            segment = current;
+            target = written;
+        }
+        try {
+            segment.channel.force(false);
+        } catch (ClosedChannelException e) {
+            // rotated meanwhile: the segment was forced before it was closed
+            if (!segment.closed) {
+                throw e;
+            }
+        }
+        syncs.incrementAndGet();
+        return target;
+    }
+
+    // The next durable record after the last one returned, or null when there is none yet. Replayer only.
+    public Record next() throws IOException {
+        long sequence = nextToRead;
+        if (sequence > durable) {
+            return null;
+        }
+        if (reader == null || segments.contains(sequence)) {
+            openReader(sequence);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        byte[] events = readRecord(reader, readerPosition, sequence, header);
+        if (events == null) {
+            throw new IOException("Spool record " + sequence + " in " + segmentPath(readerSegment) + " is damaged");
+        }
+        readerPosition += HEADER_BYTES + events.length;
+        nextToRead = sequence + 1;
+
+        long micros = header.getLong(16);
+        Instant receivedTime = Instant.ofEpochSecond(
+                Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1000L);
+        return new Record(sequence, receivedTime, BinaryEventFormat.read(new ByteArrayInputStream(events)));
+    }
+
+    // Positions the reader on the record with this sequence
+    private void openReader(long sequence) throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+        Long first = segments.floor(sequence);
+        if (first == null) {
+            throw new IOException("No spool segment holds record " + sequence);
+        }
+        reader = FileChannel.open(segmentPath(first), StandardOpenOption.READ);
+        readerSegment = first;
+        readerPosition = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        for (long skipped = first; skipped < sequence; skipped++) {
+            byte[] events = readRecord(reader, readerPosition, skipped, header);
+            if (events == null) {
+                throw new IOException("Spool record " + skipped + " in " + segmentPath(first) + " is damaged");
+            }
+            readerPosition += HEADER_BYTES + events.length;
+        }
+    }
+
+    // The events of the record at position, or null if there is no complete, intact record with this
+    // sequence there. Leaves the record's header in header.
+    private static byte[] readRecord(FileChannel channel, long position, long sequence, ByteBuffer header)
+            throws IOException {
+        header.clear();
+        if (!readFully(channel, header, position)) {
+            return null;
+        }
+        int length = header.getInt(0);
+        if (length < 0 || header.getLong(8) != sequence || length > channel.size() - position - HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer events = ByteBuffer.allocate(length);
+        if (!readFully(channel, events, position + HEADER_BYTES)) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), CHECKED_FROM, HEADER_BYTES - CHECKED_FROM);
+        crc.update(events.array());
+        if ((int) crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+        return events.array();
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Waits up to timeoutMs for a record the replayer has not read yet
+    public void awaitRecords(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        synchronized (syncLock) {
+            long left;
+            while (durable < nextToRead && (left = deadline - System.nanoTime()) > 0) {
+                syncLock.wait(Math.max(1, left / 1_000_000));
+            }
+        }
+    }
+
+    // Every record up to sequence is in the database. A crash before the checkpoint file is written only
+    // means those batches are replayed again.
+    public void markReplayed(long sequence) throws IOException {
+        replayed = sequence;
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        Files.writeString(tmp, Long.toString(sequence));
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        deleteReplayedSegments(sequence);
+    }
+
+    // Segments before the one holding the next record to replay
+    private void deleteReplayedSegments(long sequence) throws IOException {
+        Long keep = segments.floor(sequence + 1);
+        if (keep == null) {
+            return;
+        }
+        for (long first : List.copyOf(segments.headSet(keep))) {
+            Path file = segmentPath(first);
+            long size = Files.size(file);
+            Files.delete(file);
+            segments.remove(first);
+            sizeBytes.addAndGet(-size);
+        }
+    }
+
+    public long replayed() {
+        return replayed;
+    }
+
+    public long lastSequence() {
+        return written;
+    }
+
+    public long pending() {
+        return written - replayed;
+    }
+
+    public long sizeBytes() {
+        return sizeBytes.get();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public long syncs() {
+        return syncs.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (current.channel.isOpen()) {
+                closeSegment(current);
+            }
+        }
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+
+import java.util.List;
+
+// Published by EventService for a batch that moved events off machines another cluster node owns,
+// with their old payloads
+public record EventsMovedEvent(List<EventRequest> previous) {}
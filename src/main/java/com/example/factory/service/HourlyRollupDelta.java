@@ -0,0 +1,53 @@
+package com.example.factory.service;
+
+import com.example.factory.entity.MachineHourKey;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Net change of one batch to the (machineId, hour) rollup buckets.
+// Many events of a batch fall into the same bucket, so they are coalesced before touching the DB.
+class HourlyRollupDelta {
+
+    private final Map<MachineHourKey, long[]> buckets = new HashMap<>();
+
+    static long bucketHour(Instant time) {
+        return Math.floorDiv(time.getEpochSecond(), 3600);
+    }
+
+    void add(String machineId, Instant eventTime, int defectCount) {
+        apply(machineId, eventTime, defectCount, 1);
+    }
+
+    void remove(String machineId, Instant eventTime, int defectCount) {
+        apply(machineId, eventTime, defectCount, -1);
+    }
+
+    private void apply(String machineId, Instant eventTime, int defectCount, int sign) {
+        long[] totals = buckets.computeIfAbsent(
+                new MachineHourKey(machineId, bucketHour(eventTime)),
+                k -> new long[2]
+        );
+        totals[0] += sign;
+        if (defectCount >= 0) {
+            totals[1] += (long) sign * defectCount;
+        }
+    }
+
+    boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    // Buckets in a fixed order, so concurrent batches lock rollup rows in the same sequence
+    List<Map.Entry<MachineHourKey, long[]>> sortedChanges() {
+        return buckets.entrySet().stream()
+                .filter(e -> e.getValue()[0] != 0 || e.getValue()[1] != 0)
+                .sorted(Map.Entry.comparingByKey(
+                        Comparator.comparing(MachineHourKey::getMachineId)
+                                .thenComparingLong(MachineHourKey::getBucketHour)))
+                .toList();
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.TopDefectLineResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Server-sent stats for control-room screens (GET /stats/live) instead of polling /stats.
+//
+// Subscribers with the same machine or factory, window and limit share one topic. When a committed batch
+// touches the topic's machine or factory (StatsChangedEvent), the topic recomputes its state once from
+// MachineTimeSeries, without the database, and hands it to every subscriber. Both steps are coalesced:
+// while a topic is recomputing or a subscriber's send is in flight, further changes only set a flag, and
+// the next round uses the newest state. A slow client therefore gets the latest state, never a backlog.
+// Windows are the last N whole minutes including the current one, and slide once a minute.
+@Service
+public class LiveStatsService {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveStatsService.class);
+
+    static final String MACHINE_STATS_EVENT = "machine-stats";
+    static final String TOP_DEFECT_LINES_EVENT = "top-defect-lines";
+
+    private enum Kind { MACHINE, FACTORY }
+
+    private record TopicKey(Kind kind, String id, int windowMinutes, int limit) {}
+
+    private final MachineTimeSeries timeSeries;
+    private final long timeoutMs;
+    private final int maxSubscribers;
+    private final ExecutorService senders;
+
+    private final Map<TopicKey, Topic> topics = new ConcurrentHashMap<>();
+    private final Map<String, Set<Topic>> topicsByMachine = new ConcurrentHashMap<>();
+    private final Map<String, Set<Topic>> topicsByFactory = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    public LiveStatsService(
+            MachineTimeSeries timeSeries,
+            MeterRegistry meterRegistry,
+            @Value("${events.live.timeout-ms:1800000}") long timeoutMs,
+            @Value("${events.live.max-subscribers:10000}") int maxSubscribers,
+            @Value("${events.live.sender-threads:4}") int senderThreads
+    ) {
+        this.timeSeries = timeSeries;
+        this.timeoutMs = timeoutMs;
+        this.maxSubscribers = maxSubscribers;
+
+        Gauge.builder("events.live.subscribers", subscribers, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("events.live.topics", topics, Map::size).register(meterRegistry);
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread t = new Thread(r, "live-stats-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public boolean available() {
+        return timeSeries.enabled();
+    }
+
+    // Whether a window of this many minutes, ending with the current one, is held by the time series
+    public boolean supportsWindow(int windowMinutes) {
+        return windowMinutes > 0
+                && MachineTimeSeries.minute(Instant.now()) + 1 - windowMinutes >= timeSeries.coveredFromMinute();
+    }
+
+    // Empty when max-subscribers is reached
+    public Optional<SseEmitter> subscribeMachine(String machineId, int windowMinutes) {
+        return subscribe(new TopicKey(Kind.MACHINE, machineId, windowMinutes, 0), new SseEmitter(timeoutMs));
+    }
+
+    public Optional<SseEmitter> subscribeFactory(String factoryId, int windowMinutes, int limit) {
+        return subscribe(new TopicKey(Kind.FACTORY, factoryId, windowMinutes, limit), new SseEmitter(timeoutMs));
+    }
+
+    Optional<SseEmitter> subscribeMachine(String machineId, int windowMinutes, SseEmitter emitter) {
+        return subscribe(new TopicKey(Kind.MACHINE, machineId, windowMinutes, 0), emitter);
+    }
+
+    Optional<SseEmitter> subscribeFactory(String factoryId, int windowMinutes, int limit, SseEmitter emitter) {
+        return subscribe(new TopicKey(Kind.FACTORY, factoryId, windowMinutes, limit), emitter);
+    }
+
+    private Optional<SseEmitter> subscribe(TopicKey key, SseEmitter emitter) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            return Optional.empty();
+        }
+
+        Subscription subscription;
+        synchronized (this) {
+            Topic topic = topics.computeIfAbsent(key, this::openTopic);
+            subscription = new Subscription(topic, emitter);
+            topic.subscriptions.add(subscription);
+        }
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+
+        // a new topic computes its first state, an existing one already has it
+        if (subscription.topic.latest == null) {
+            subscription.topic.changed();
+        } else {
+            subscription.offer();
+        }
+        return Optional.of(emitter);
+    }
+
+    private Topic openTopic(TopicKey key) {
+        Topic topic = new Topic(key);
+        (key.kind == Kind.MACHINE ? topicsByMachine : topicsByFactory)
+                .computeIfAbsent(key.id, id -> ConcurrentHashMap.newKeySet())
+                .add(topic);
+        return topic;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        Topic topic = subscription.topic;
+        topic.subscriptions.remove(subscription);
+        if (topic.subscriptions.isEmpty() && topics.remove(topic.key, topic)) {
+            Map<String, Set<Topic>> index = topic.key.kind == Kind.MACHINE ? topicsByMachine : topicsByFactory;
+            index.computeIfPresent(topic.key.id, (id, set) -> {
+                set.remove(topic);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    // Runs on the committing thread, so it only flags topics and leaves the work to the senders
+    @EventListener
+    public void onStatsChanged(StatsChangedEvent event) {
+        for (String machineId : event.machineIds()) {
+            topicsByMachine.getOrDefault(machineId, Set.of()).forEach(Topic::changed);
+        }
+        for (String factoryId : event.factoryIds()) {
+            topicsByFactory.getOrDefault(factoryId, Set.of()).forEach(Topic::changed);
+        }
+    }
+
+    // Every window slides at the minute boundary, whether or not anything was ingested
+    @Scheduled(cron = "0 * * * * *")
+    public void slideWindows() {
+        topics.values().forEach(Topic::changed);
+    }
+
+    public int subscriberCount() {
+        return subscribers.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        topics.values().forEach(topic -> topic.subscriptions.forEach(s -> s.emitter.complete()));
+        senders.shutdownNow();
+    }
+
+    private Object compute(TopicKey key) {
+        long endMinute = MachineTimeSeries.minute(Instant.now()) + 1;
+        long startMinute = endMinute - key.windowMinutes;
+        Instant start = Instant.ofEpochSecond(startMinute * 60);
+        Instant end = Instant.ofEpochSecond(endMinute * 60);
+
+        if (key.kind == Kind.MACHINE) {
+            long[] totals = new long[2];
+            timeSeries.sum(key.id, startMinute, endMinute, totals);
+            return EventService.machineStats(key.id, start, end, totals[0], totals[1]);
+        }
+
+        // bounded heap: only the top `limit` lines are kept and sorted
+        TopK<TopDefectLineResponse> top = new TopK<>(key.limit, EventService.MOST_DEFECTS_FIRST);
+        timeSeries.sumLines(key.id, startMinute, endMinute).forEach((lineId, totals) -> {
+            if (totals[0] > 0) {
+                top.offer(EventService.topDefectLine(lineId, totals[1], totals[0]));
+            }
+        });
+        return top.result();
+    }
+
+    // One recomputation in flight per topic; changes meanwhile set dirty and cause one more round
+    private final class Topic {
+
+        final TopicKey key;
+        final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean dirty = new AtomicBoolean();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile Object latest;
+
+        Topic(TopicKey key) {
+            this.key = key;
+        }
+
+        void changed() {
+            dirty.set(true);
+            if (refreshing.compareAndSet(false, true)) {
+                senders.execute(this::refresh);
+            }
+        }
+
+        private void refresh() {
+            do {
+                while (dirty.getAndSet(false)) {
+                    latest = compute(key);
+                    subscriptions.forEach(Subscription::offer);
+                }
+                refreshing.set(false);
+            } while (dirty.get() && refreshing.compareAndSet(false, true));
+        }
+    }
+
+    // One send in flight per subscriber; offers meanwhile set pending and the next send takes the newest state
+    private final class Subscription {
+
+        final Topic topic;
+        final SseEmitter emitter;
+        final AtomicBoolean pending = new AtomicBoolean();
+        final AtomicBoolean sending = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        Object lastSent;
+
+        Subscription(Topic topic, SseEmitter emitter) {
+            this.topic = topic;
+            this.emitter = emitter;
+        }
+
+        void offer() {
+            pending.set(true);
+            if (sending.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                while (pending.getAndSet(false) && !closed.get()) {
+                    Object state = topic.latest;
+                    if (state != null && state != lastSent) {
+                        send(state);
+                        lastSent = state;
+                    }
+                }
+                sending.set(false);
+            } while (pending.get() && sending.compareAndSet(false, true));
+        }
+
+        private void send(Object state) {
+            try {
+                emitter.send(SseEmitter.event()
+                        .name(topic.key.kind == Kind.MACHINE ? MACHINE_STATS_EVENT : TOP_DEFECT_LINES_EVENT)
+                        .data(state, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Live stats subscriber of {} went away", topic.key.id, e);
+                emitter.completeWithError(e);
+                close();
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                subscribers.decrementAndGet();
+                unsubscribe(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.MachineStatsBulkResponse;
+import com.example.factory.dto.MachineStatsResponse;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stats of many machines over one window (POST /stats/machines), so a dashboard makes one call
+// instead of one /stats call per machine.
+//
+// Every machine is answered by EventService.getStats, on the machine's node in cluster mode, so the time
+// series, rollup and archive apply as for a single machine. The calls run on a pool of
+// events.stats.bulk.threads shared by all requests, which bounds the connections bulk requests take,
+// and each request waits at most its timeout.
+// The response then holds the machines that finished. Machines still running are listed in timedOut
+// (those not started yet are cancelled), machines whose query threw in failed.
+@Service
+public class MachineStatsBulkService {
+
+    private static final Logger log = LoggerFactory.getLogger(MachineStatsBulkService.class);
+
+    interface StatsQuery {
+        MachineStatsResponse get(String machineId, Instant start, Instant end);
+    }
+
+    private final ClusterRouter router;
+    private final EventMetrics metrics;
+    private final int maxMachines;
+    private final long defaultTimeoutMs;
+    private final long maxTimeoutMs;
+    private final ExecutorService workers;
+
+    public MachineStatsBulkService(
+            ClusterRouter router,
+            EventMetrics metrics,
+            @Value("${events.stats.bulk.threads:8}") int threads,
+            @Value("${events.stats.bulk.max-machines:1000}") int maxMachines,
+            @Value("${events.stats.bulk.timeout-ms:5000}") long defaultTimeoutMs,
+            @Value("${events.stats.bulk.max-timeout-ms:30000}") long maxTimeoutMs
+    ) {
+        this.router = router;
+        this.metrics = metrics;
+        this.maxMachines = maxMachines;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.maxTimeoutMs = maxTimeoutMs;
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-stats-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int maxMachines() {
+        return maxMachines;
+    }
+
+    public long maxTimeoutMs() {
+        return maxTimeoutMs;
+    }
+
+    // timeoutMs null for the configured default; duplicate machineIds are answered once
+    public MachineStatsBulkResponse getStats(List<String> machineIds, Instant start, Instant end, Long timeoutMs) {
+        return getStats(machineIds, start, end, timeoutMs == null ? defaultTimeoutMs : timeoutMs, router::getStats);
+    }
+
+    MachineStatsBulkResponse getStats(
+            List<String> machineIds,
+            Instant start,
+            Instant end,
+            long timeoutMs,
+            StatsQuery query
+    ) {
+        return metrics.timeQuery(EventMetrics.QUERY_MACHINE_STATS_BULK, () -> {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+            Map<String, Future<MachineStatsResponse>> tasks = new LinkedHashMap<>();
+            for (String machineId : new LinkedHashSet<>(machineIds)) {
+                tasks.put(machineId, workers.submit(() -> query.get(machineId, start, end)));
+            }
+
+            Map<String, MachineStatsResponse> machines = new LinkedHashMap<>();
+            List<String> timedOut = new ArrayList<>();
+            List<String> failed = new ArrayList<>();
+            tasks.forEach((machineId, task) -> {
+                try {
+                    // past the deadline this still collects the tasks that are done
+                    machines.put(machineId, task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    task.cancel(false);
+                    timedOut.add(machineId);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    task.cancel(false);
+                    timedOut.add(machineId);
+                } catch (ExecutionException e) {
+                    log.warn("Stats of machine {} failed", machineId, e.getCause());
+                    failed.add(machineId);
+                }
+            });
+
+            return new MachineStatsBulkResponse(start, end, machines, timedOut, failed);
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
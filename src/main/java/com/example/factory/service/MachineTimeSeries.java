@@ -0,0 +1,264 @@
+package com.example.factory.service;
+
+import com.example.factory.repository.MinuteTotalsRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+// Event and known-defect totals per minute for the most recent retention window, per machine and
+// per (factory, line), so recent /stats windows and the live feed are answered from memory.
+//
+// Each machine and each line has a ring of (retention + future slack) minute slots held in two primitive arrays.
+// Writing a minute newer than the ring's head clears and reuses the slots of minutes that fell out.
+// The rings are warmed from the events table before the application serves requests, then fed with
+// each batch's net changes after commit, so rolled-back batches are never counted.
+// Every applied batch publishes a StatsChangedEvent naming the machines and factories it touched.
+@Component
+public class MachineTimeSeries implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(MachineTimeSeries.class);
+
+    // accepted events can be up to MAX_FUTURE_SECONDS ahead of the clock
+    private static final int FUTURE_MINUTES = (int) (EventService.MAX_FUTURE_SECONDS / 60) + 1;
+
+    record LineKey(String factoryId, String lineId) {}
+
+    private final MinuteTotalsRepository repository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final int retentionMinutes;
+    private final int capacity;
+    private final Map<String, Series> machines = new ConcurrentHashMap<>();
+    // factoryId -> lineId -> ring
+    private final Map<String, Map<String, Series>> lines = new ConcurrentHashMap<>();
+
+    // Minutes before this were not loaded; nothing is served until the first warm-up ends
+    private volatile long warmedFromMinute = Long.MAX_VALUE;
+
+    public MachineTimeSeries(
+            MinuteTotalsRepository repository,
+            ApplicationEventPublisher eventPublisher,
+            MeterRegistry meterRegistry,
+            @Value("${events.timeseries.enabled:false}") boolean enabled,
+            @Value("${events.timeseries.retention-hours:24}") int retentionHours
+    ) {
+        this.repository = repository;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        // one minute beyond the retention, so a window of the full retention that starts
+        // mid-minute still has its partial first minute covered
+        this.retentionMinutes = retentionHours * 60 + 1;
+        this.capacity = retentionMinutes + FUTURE_MINUTES + 1;
+
+        Gauge.builder("events.timeseries.machines", machines, Map::size).register(meterRegistry);
+        Gauge.builder("events.timeseries.lines", lines, l -> l.values().stream().mapToInt(Map::size).sum())
+                .register(meterRegistry);
+    }
+
+    static long minute(Instant time) {
+        return Math.floorDiv(time.getEpochSecond(), 60);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) {
+            reload();
+        }
+    }
+
+    // Rebuilds every ring from the events table. Must be called whenever events are deleted outside
+    // processBatch, while ingestion is paused, otherwise batches committed meanwhile can be counted twice.
+    public void reload() {
+        long from = minute(Instant.now()) - retentionMinutes;
+        warmedFromMinute = Long.MAX_VALUE;
+        machines.clear();
+        lines.clear();
+
+        repository.forEachMinuteSince(Instant.ofEpochSecond(from * 60),
+                (machineId, factoryId, lineId, minute, events, defects) -> {
+                    add(machineSeries(machineId, minute), minute, events, defects);
+                    add(lineSeries(new LineKey(factoryId, lineId), minute), minute, events, defects);
+                });
+
+        warmedFromMinute = from;
+        log.info("Loaded recent stats of {} machines from {}", machines.size(), Instant.ofEpochSecond(from * 60));
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // First minute that every ring holds completely, Long.MAX_VALUE when disabled or not warmed yet
+    public long coveredFromMinute() {
+        if (!enabled) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(warmedFromMinute, minute(Instant.now()) - retentionMinutes);
+    }
+
+    // Adds totals[0] += events and totals[1] += known defects in minutes [fromMinute, toMinute).
+    // Only meaningful for fromMinute >= coveredFromMinute().
+    public void sum(String machineId, long fromMinute, long toMinute, long[] totals) {
+        Series series = machines.get(machineId);
+        if (series == null) {
+            return;
+        }
+        synchronized (series) {
+            series.sum(fromMinute, toMinute, totals);
+        }
+    }
+
+    // lineId -> {events, known defects} in minutes [fromMinute, toMinute) for every line of the factory
+    public Map<String, long[]> sumLines(String factoryId, long fromMinute, long toMinute) {
+        Map<String, long[]> totals = new HashMap<>();
+        lines.getOrDefault(factoryId, Map.of()).forEach((lineId, series) -> {
+            long[] line = new long[2];
+            synchronized (series) {
+                series.sum(fromMinute, toMinute, line);
+            }
+            totals.put(lineId, line);
+        });
+        return totals;
+    }
+
+    // Events in one minute >= coveredFromMinute()
+    public long eventsInMinute(String machineId, long minute) {
+        long[] totals = new long[2];
+        sum(machineId, minute, minute + 1, totals);
+        return totals[0];
+    }
+
+    // Applies the batch's changes once the surrounding transaction commits (immediately without one)
+    void applyAfterCommit(TimeSeriesDelta delta) {
+        if (!enabled || delta.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(delta);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(delta);
+            }
+        });
+    }
+
+    private void apply(TimeSeriesDelta delta) {
+        long from = warmedFromMinute;
+        Set<String> machineIds = new HashSet<>();
+        Set<String> factoryIds = new HashSet<>();
+
+        delta.machineChanges().forEach((machineId, minutes) -> {
+            if (applyTo(minutes, from, minute -> machineSeries(machineId, minute))) {
+                machineIds.add(machineId);
+            }
+        });
+        delta.lineChanges().forEach((line, minutes) -> {
+            if (applyTo(minutes, from, minute -> lineSeries(line, minute))) {
+                factoryIds.add(line.factoryId());
+            }
+        });
+
+        if (!machineIds.isEmpty()) {
+            eventPublisher.publishEvent(new StatsChangedEvent(machineIds, factoryIds));
+        }
+    }
+
+    // Returns whether any minute was recent enough to be kept
+    private static boolean applyTo(Map<Long, long[]> minutes, long from, LongFunction<Series> ring) {
+        Series series = null;
+        for (Map.Entry<Long, long[]> change : minutes.entrySet()) {
+            long minute = change.getKey();
+            if (minute < from) {
+                continue;
+            }
+            if (series == null) {
+                series = ring.apply(minute);
+            }
+            add(series, minute, change.getValue()[0], change.getValue()[1]);
+        }
+        return series != null;
+    }
+
+    private static void add(Series series, long minute, long events, long defects) {
+        synchronized (series) {
+            series.add(minute, events, defects);
+        }
+    }
+
+    private Series machineSeries(String machineId, long minute) {
+        return machines.computeIfAbsent(machineId, m -> new Series(capacity, minute));
+    }
+
+    private Series lineSeries(LineKey line, long minute) {
+        return lines.computeIfAbsent(line.factoryId(), f -> new ConcurrentHashMap<>())
+                .computeIfAbsent(line.lineId(), l -> new Series(capacity, minute));
+    }
+
+    public int machineCount() {
+        return machines.size();
+    }
+
+    // Guarded by its own monitor. Slot i holds minute m with m % capacity == i, for m in (head - capacity, head].
+    private static final class Series {
+
+        final int[] events;
+        final long[] defects;
+        long headMinute;
+
+        Series(int capacity, long headMinute) {
+            this.events = new int[capacity];
+            this.defects = new long[capacity];
+            this.headMinute = headMinute;
+        }
+
+        void add(long minute, long eventsDelta, long defectsDelta) {
+            if (minute > headMinute) {
+                long advance = Math.min(minute - headMinute, events.length);
+                for (long m = minute - advance + 1; m <= minute; m++) {
+                    int slot = slot(m);
+                    events[slot] = 0;
+                    defects[slot] = 0;
+                }
+                headMinute = minute;
+            } else if (minute <= headMinute - events.length) {
+                // older than the ring; such windows are served from the database
+                return;
+            }
+            int slot = slot(minute);
+            events[slot] += (int) eventsDelta;
+            defects[slot] += defectsDelta;
+        }
+
+        void sum(long fromMinute, long toMinute, long[] totals) {
+            long from = Math.max(fromMinute, headMinute - events.length + 1);
+            long to = Math.min(toMinute, headMinute + 1);
+            for (long m = from; m < to; m++) {
+                int slot = slot(m);
+                totals[0] += events[slot];
+                totals[1] += defects[slot];
+            }
+        }
+
+        private int slot(long minute) {
+            return (int) Math.floorMod(minute, (long) events.length);
+        }
+    }
+}
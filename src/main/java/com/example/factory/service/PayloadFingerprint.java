@@ -0,0 +1,180 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+
+// 64-bit xxHash64 fingerprint of the fields that make up an event's payload.
+// Fields are fed to the hash one by one (length-prefixed strings as UTF-16 chars,
+// then the numbers), so no intermediate String is built per event.
+// The old 32-bit String.hashCode() could make a changed payload look like a duplicate;
+// at 64 bits a false "deduped" for the same eventId is practically impossible.
+public final class PayloadFingerprint {
+
+    private PayloadFingerprint() {}
+
+    public static long of(EventRequest req) {
+        return of(req.eventId, req.factoryId, req.lineId, req.machineId, req.durationMs, req.defectCount);
+    }
+
+    // Also used by the V5 migration to backfill stored rows, so both sides must stay identical
+    public static long of(
+            String eventId,
+            String factoryId,
+            String lineId,
+            String machineId,
+            long durationMs,
+            int defectCount
+    ) {
+        XxHash64 hash = new XxHash64();
+        hash.putString(eventId);
+        hash.putString(factoryId);
+        hash.putString(lineId);
+        hash.putString(machineId);
+        hash.putLong(durationMs);
+        hash.putInt(defectCount);
+        return hash.finish();
+    }
+
+    // Streaming xxHash64 (seed 0) over little-endian input. Full 8-byte lanes are kept in
+    // fields instead of a byte[] buffer, and a stripe is mixed in as soon as it has 4 lanes.
+    static final class XxHash64 {
+
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        private long v1 = P1 + P2;
+        private long v2 = P2;
+        private long v3 = 0;
+        private long v4 = -P1;
+
+        private long lane0;
+        private long lane1;
+        private long lane2;
+        private int lanes;
+
+        private long pending;
+        private int pendingBytes;
+        private long length;
+
+        void putString(String s) {
+            if (s == null) {
+                putInt(-1);
+                return;
+            }
+            int n = s.length();
+            putInt(n);
+            int i = 0;
+            // four UTF-16 chars per 8-byte lane
+            for (; i + 4 <= n; i += 4) {
+                put(s.charAt(i)
+                        | (long) s.charAt(i + 1) << 16
+                        | (long) s.charAt(i + 2) << 32
+                        | (long) s.charAt(i + 3) << 48, 8);
+            }
+            for (; i < n; i++) {
+                put(s.charAt(i), 2);
+            }
+        }
+
+        void putLong(long value) {
+            put(value, 8);
+        }
+
+        void putInt(int value) {
+            put(value & 0xFFFFFFFFL, 4);
+        }
+
+        void putByte(int value) {
+            put(value & 0xFFL, 1);
+        }
+
+        // Appends the low `bytes` bytes of value; value must have no higher bits set
+        private void put(long value, int bytes) {
+            length += bytes;
+            int shift = 8 * pendingBytes;
+            pending |= value << shift;
+            pendingBytes += bytes;
+            if (pendingBytes >= 8) {
+                pushLane(pending);
+                pendingBytes -= 8;
+                // the bytes of value that did not fit into the completed lane
+                pending = shift == 0 ? 0 : value >>> (64 - shift);
+            }
+        }
+
+        long finish() {
+            long h;
+            if (length >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                        + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = P5;
+            }
+            h += length;
+
+            if (lanes > 0) h = tailLane(h, lane0);
+            if (lanes > 1) h = tailLane(h, lane1);
+            if (lanes > 2) h = tailLane(h, lane2);
+
+            long rest = pending;
+            int restBytes = pendingBytes;
+            if (restBytes >= 4) {
+                h ^= (rest & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+                rest >>>= 32;
+                restBytes -= 4;
+            }
+            for (; restBytes > 0; restBytes--) {
+                h ^= (rest & 0xFF) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+                rest >>>= 8;
+            }
+
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return h;
+        }
+
+        private void pushLane(long lane) {
+            switch (lanes) {
+                case 0 -> lane0 = lane;
+                case 1 -> lane1 = lane;
+                case 2 -> lane2 = lane;
+                default -> {
+                    v1 = round(v1, lane0);
+                    v2 = round(v2, lane1);
+                    v3 = round(v3, lane2);
+                    v4 = round(v4, lane);
+                    lanes = 0;
+                    return;
+                }
+            }
+            lanes++;
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * P2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * P1;
+        }
+
+        private static long mergeRound(long acc, long value) {
+            acc ^= round(0, value);
+            return acc * P1 + P4;
+        }
+
+        private static long tailLane(long h, long lane) {
+            h ^= round(0, lane);
+            return Long.rotateLeft(h, 27) * P1 + P4;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.factory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+// Backfills the hourly rollup and distribution buckets from existing events:
+//   java -jar factory-events.jar --rebuild-rollups
+@Component
+public class RollupRebuildRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(RollupRebuildRunner.class);
+
+    private final RollupService rollupService;
+    private final DistributionService distributionService;
+
+    public RollupRebuildRunner(RollupService rollupService, DistributionService distributionService) {
+        this.rollupService = rollupService;
+        this.distributionService = distributionService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption("rebuild-rollups")) {
+            return;
+        }
+        int buckets = rollupService.rebuild();
+        log.info("Rebuilt {} machine hourly rollup buckets", buckets);
+        if (distributionService.enabled()) {
+            long events = distributionService.rebuild();
+            log.info("Rebuilt the hourly distributions from {} events", events);
+        }
+    }
+}
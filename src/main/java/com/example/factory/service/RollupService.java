@@ -0,0 +1,73 @@
+package com.example.factory.service;
+
+import com.example.factory.entity.MachineHourKey;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.repository.EventSegment;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+import com.example.factory.repository.MachineHourlyRollupWriteRepository;
+import com.example.factory.repository.WindowTotals;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class RollupService {
+
+    private final MachineHourlyRollupRepository repository;
+    private final MachineHourlyRollupWriteRepository writeRepository;
+    private final ColdSegmentStore coldStore;
+    private final StatsCache statsCache;
+
+    public RollupService(
+            MachineHourlyRollupRepository repository,
+            MachineHourlyRollupWriteRepository writeRepository,
+            ColdSegmentStore coldStore,
+            StatsCache statsCache
+    ) {
+        this.repository = repository;
+        this.writeRepository = writeRepository;
+        this.coldStore = coldStore;
+        this.statsCache = statsCache;
+    }
+
+    // Runs inside the ingestion transaction so events and rollups commit or roll back together
+    @Transactional(propagation = Propagation.MANDATORY)
+    void apply(HourlyRollupDelta delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        writeRepository.addToBuckets(delta.sortedChanges());
+    }
+
+    public WindowTotals sumBuckets(String machineId, long fromHour, long toHour) {
+        return repository.sumBuckets(machineId, fromHour, toHour);
+    }
+
+    // Recomputes every bucket from the events table and the archived segments. Run while ingestion and
+    // archiving are paused, otherwise events moved or committed during the rebuild can be counted twice or missed.
+    @Transactional
+    public int rebuild() {
+        statsCache.invalidateAllAfterCommit();
+        repository.deleteAllBuckets();
+        int buckets = repository.rebuildFromEvents();
+
+        // one segment at a time; buckets shared with the table or another segment are added up
+        for (EventSegment segment : coldStore.segments()) {
+            HourlyRollupDelta delta = new HourlyRollupDelta();
+            try {
+                segment.forEach(e -> delta.add(e.getMachineId(), e.getEventTime(), e.getDefectCount()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            List<Map.Entry<MachineHourKey, long[]>> changes = delta.sortedChanges();
+            writeRepository.addToBuckets(changes);
+            buckets += changes.size();
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.factory.service;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Space-Saving heavy hitters over weighted keys with a fixed number of counters (Metwally et al., 2005).
+// Once every counter is taken, a new key takes over the smallest counter and inherits its count as error.
+// A reported count overestimates the key's true weight by at most its error, every error is at most
+// totalWeight / counters, and any key heavier than that is guaranteed to hold a counter.
+final class SpaceSaving {
+
+    static final class Counter {
+        final String key;
+        long count;
+        long error;
+
+        private Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    // smallest count first; the key keeps counters with equal counts apart
+    private static final Comparator<Counter> BY_COUNT =
+            Comparator.<Counter>comparingLong(c -> c.count).thenComparing(c -> c.key);
+
+    private static final Comparator<Counter> LARGEST_FIRST =
+            Comparator.<Counter>comparingLong(c -> c.count).reversed().thenComparing(c -> c.key);
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> byCount = new TreeSet<>(BY_COUNT);
+    private long totalWeight;
+    private boolean evicted;
+
+    SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    void offer(String key, long weight) {
+        totalWeight += weight;
+
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            byCount.remove(counter);
+            counter.count += weight;
+        } else if (counters.size() < capacity) {
+            counter = new Counter(key, weight, 0);
+            counters.put(key, counter);
+        } else {
+            Counter smallest = byCount.pollFirst();
+            evicted = true;
+            counters.remove(smallest.key);
+            counter = new Counter(key, smallest.count + weight, smallest.count);
+            counters.put(key, counter);
+        }
+        byCount.add(counter);
+    }
+
+    // The k largest counters, largest first, ties by key
+    List<Counter> top(int k) {
+        TopK<Counter> largest = new TopK<>(k, LARGEST_FIRST);
+        counters.values().forEach(largest::offer);
+        return largest.result();
+    }
+
+    long totalWeight() {
+        return totalWeight;
+    }
+
+    // No key ever lost its counter, so every count is exact
+    boolean exact() {
+        return !evicted;
+    }
+}
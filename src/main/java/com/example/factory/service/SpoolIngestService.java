@@ -0,0 +1,303 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.BatchStatusResponse;
+import com.example.factory.dto.EventRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+// Ingestion through the local spool (POST /events/batch?ack=spooled): a validated batch is appended to the
+// EventSpool, and the client gets 202 once it is on local disk, however slow the database is meanwhile.
+//
+// One replayer thread writes the spooled batches in spool order through ClusterRouter, each with the time
+// it was received, so the update rules see it as if it had been written then. It starts with the other
+// lifecycle beans, after MachineTimeSeries has loaded the stored events, so none of them is counted twice.
+// A write that fails because the database or a node is unreachable is retried until it succeeds; the spool
+// keeps accepting batches meanwhile, up to maxBytes. Any other failure is retried maxAttempts times, then the
+// batch goes to a dead-letter file and the replayer moves on. Replays are idempotent: a batch replayed a
+// second time, after a crash between its commit and the spool's checkpoint, finds its events stored and is
+// deduplicated.
+@Service
+public class SpoolIngestService implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolIngestService.class);
+
+    private static final String TOKEN_PREFIX = "spool-";
+    private static final String DEAD_LETTER_DIR = "dead-letter";
+
+    private final ClusterRouter router;
+    private final EventService eventService;
+    private final long maxBytes;
+    private final long retryBackoffMs;
+    private final int maxAttempts;
+    private final EventSpool spool;
+    private final Path deadLetterDir;
+    private final Timer appendTimer;
+    private final Counter replayFailures;
+    private final Counter deadLetters;
+    private Thread replayer;
+
+    // Received time of the batch being replayed, null when the replayer has caught up
+    private volatile Instant replaying;
+    private volatile boolean running;
+
+    public SpoolIngestService(
+            EventService eventService,
+            ClusterRouter router,
+            MeterRegistry meterRegistry,
+            @Value("${events.spool.enabled:false}") boolean enabled,
+            @Value("${events.spool.dir:data/spool}") String dir,
+            @Value("${events.spool.segment-bytes:67108864}") long segmentBytes,
+            @Value("${events.spool.max-bytes:1073741824}") long maxBytes,
+            @Value("${events.spool.retry-backoff-ms:1000}") long retryBackoffMs,
+            @Value("${events.spool.max-attempts:10}") int maxAttempts
+    ) throws IOException {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("events.spool.max-attempts must be at least 1");
+        }
+        this.eventService = eventService;
+        this.router = router;
+        this.maxBytes = maxBytes;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxAttempts = maxAttempts;
+        this.deadLetterDir = Path.of(dir).resolve(DEAD_LETTER_DIR);
+        this.appendTimer = Timer.builder("events.spool.append")
+                .description("Appending a batch to the spool, until it is on disk")
+                .register(meterRegistry);
+        this.replayFailures = Counter.builder("events.spool.replay.failures")
+                .description("Failed attempts to write a spooled batch")
+                .register(meterRegistry);
+        this.deadLetters = Counter.builder("events.spool.dead.letter.batches")
+                .description("Spooled batches given up on and moved to the dead-letter directory")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            this.spool = null;
+            return;
+        }
+        this.spool = new EventSpool(Path.of(dir), segmentBytes);
+
+        Gauge.builder("events.spool.pending.batches", spool, EventSpool::pending)
+                .description("Spooled batches not yet written to the database")
+                .register(meterRegistry);
+        Gauge.builder("events.spool.lag.seconds", this, s -> s.lag().toMillis() / 1000.0)
+                .description("Time since the oldest batch not yet written to the database was received")
+                .register(meterRegistry);
+        Gauge.builder("events.spool.size.bytes", spool, EventSpool::sizeBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("events.spool.replayed.batches", spool, EventSpool::replayed)
+                .register(meterRegistry);
+        FunctionCounter.builder("events.spool.syncs", spool, EventSpool::syncs)
+                .description("fsyncs of the spool; fewer than appended batches when appends share one")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        if (spool == null) {
+            return;
+        }
+        running = true;
+        replayer = new Thread(this::replayLoop, "spool-replayer");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    // Stops the replayer after its current batch; what is left stays in the spool
+    @Override
+    public void stop() {
+        if (replayer == null) {
+            return;
+        }
+        running = false;
+        try {
+            replayer.join(30_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (replayer.isAlive()) {
+            log.warn("Spool replayer did not stop in time");
+        }
+        replayer = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return replayer != null;
+    }
+
+    public boolean enabled() {
+        return spool != null;
+    }
+
+    // Validates and appends the valid events. Empty when the spool is full.
+    public Optional<BatchStatusResponse> submit(List<EventRequest> requests) {
+        BatchResponse validation = new BatchResponse();
+        List<EventRequest> valid = eventService.validateBatch(requests, validation);
+
+        if (spool.sizeBytes() >= maxBytes) {
+            return Optional.empty();
+        }
+        long sequence;
+        try {
+            sequence = appendTimer.recordCallable(() -> spool.append(valid, Instant.now()));
+        } catch (Exception e) {
+            log.error("Batch of {} events could not be spooled", valid.size(), e);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Batch could not be spooled", e);
+        }
+        return Optional.of(new BatchStatusResponse(TOKEN_PREFIX + sequence, "SPOOLED", validation));
+    }
+
+    // SPOOLED until the replayer has written the batch, then PERSISTED. Tokens survive restarts.
+    public Optional<BatchStatusResponse> status(String token) {
+        if (spool == null || !token.startsWith(TOKEN_PREFIX)) {
+            return Optional.empty();
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(token.substring(TOKEN_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+        if (sequence < 1 || sequence > spool.lastSequence()) {
+            return Optional.empty();
+        }
+        if (sequence > spool.replayed()) {
+            return Optional.of(new BatchStatusResponse(token, "SPOOLED", null));
+        }
+        return Optional.of(new BatchStatusResponse(
+                token, Files.exists(deadLetterFile(sequence)) ? "FAILED" : "PERSISTED", null));
+    }
+
+    public long pendingBatches() {
+        return spool == null ? 0 : spool.pending();
+    }
+
+    public Duration lag() {
+        Instant oldest = replaying;
+        return oldest == null ? Duration.ZERO : Duration.between(oldest, Instant.now());
+    }
+
+    private void replayLoop() {
+        while (running) {
+            try {
+                EventSpool.Record record = spool.next();
+                if (record == null) {
+                    replaying = null;
+                    spool.awaitRecords(250);
+                    continue;
+                }
+                replaying = record.receivedTime();
+                if (replay(record)) {
+                    spool.markReplayed(record.sequence());
+                }
+            } catch (IOException e) {
+                log.error("Spool could not be read, retrying", e);
+                pause();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // False when stopped before the batch was written or given up on; it is replayed after the restart
+    private boolean replay(EventSpool.Record record) {
+        int attempts = 0;
+        while (running) {
+            try {
+                router.processBatch(record.events(), record.receivedTime());
+                return true;
+            } catch (RuntimeException e) {
+                replayFailures.increment();
+                if (!unavailable(e) && ++attempts >= maxAttempts) {
+                    log.error("Writing spooled batch {} failed {} times, moving it to {}",
+                            record.sequence(), attempts, deadLetterFile(record.sequence()), e);
+                    if (deadLetter(record)) {
+                        return true;
+                    }
+                }
+                log.warn("Writing spooled batch {} failed, retrying in {} ms",
+                        record.sequence(), retryBackoffMs, e);
+                pause();
+            }
+        }
+        return false;
+    }
+
+    // The database or the owning node could not be reached; the batch itself may well be fine
+    private static boolean unavailable(RuntimeException e) {
+        if (e instanceof ResponseStatusException status) {
+            return status.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return e instanceof TransientDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException;
+    }
+
+    // The events as a BinaryEventFormat body, which can be posted to /events/batch once the cause is fixed
+    // False if the file could not be written; the batch is then tried again
+    private boolean deadLetter(EventSpool.Record record) {
+        Path file = deadLetterFile(record.sequence());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(deadLetterDir);
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                BinaryEventFormat.write(record.events(), out);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Spooled batch {} could not be written to {}", record.sequence(), file, e);
+            return false;
+        }
+        deadLetters.increment();
+        return true;
+    }
+
+    private Path deadLetterFile(long sequence) {
+        return deadLetterDir.resolve(String.format("%020d.events", sequence));
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(retryBackoffMs);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    // After stop(), which the context calls first
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (spool == null) {
+            return;
+        }
+        stop();
+        log.info("Spool closed with {} batches to replay", spool.pending());
+        spool.close();
+    }
+}
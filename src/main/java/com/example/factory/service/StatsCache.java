@@ -0,0 +1,385 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Bounded, time-evicted results of getStats and getTopDefectLines, keyed by machine or factory and the
+// exact window (and limit), so dashboards repeating the same historical query skip the database.
+//
+// processBatch passes the event times it wrote (old and new times of updates) after commit, and only the
+// entries of those machines and factories whose window contains one of the times are evicted. While a
+// result is computed, its machine or factory has an invalidation counter. The result is cached only if the
+// counter has not moved meanwhile, so a query that raced a commit never caches the older numbers. Counters
+// are dropped with the last computation of their id, so they are bounded by the queries in flight.
+// Like DedupCache, entries live in LRU lock stripes, here by machine or factory id.
+@Component
+public class StatsCache {
+
+    enum Kind { MACHINE_STATS, TOP_DEFECT_LINES }
+
+    // to is exclusive for MACHINE_STATS and inclusive for TOP_DEFECT_LINES, as in the queries
+    private record Key(Kind kind, String id, Instant from, Instant to, int limit) {}
+
+    private record Entry(Object value, long expiresAtNanos) {}
+
+    private static final int STRIPES = 16;
+
+    private static final int MICRO = 1000;
+
+    private final boolean enabled;
+    // a factory's lines are written by every node of a cluster, and only this node's writes evict here
+    private final boolean cachesLines;
+    private final long ttlNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final Map<Kind, LongAdder> hits = new HashMap<>();
+    private final Map<Kind, LongAdder> misses = new HashMap<>();
+    private final LongAdder invalidations = new LongAdder();
+
+    public StatsCache(
+            MeterRegistry meterRegistry,
+            @Value("${events.stats-cache.enabled:false}") boolean enabled,
+            @Value("${events.stats-cache.max-entries:10000}") int maxEntries,
+            @Value("${events.stats-cache.ttl-seconds:3600}") long ttlSeconds,
+            @Value("${events.cluster.enabled:false}") boolean clustered
+    ) {
+        this.enabled = enabled;
+        this.cachesLines = !clustered;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        int perStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+
+        for (Kind kind : Kind.values()) {
+            String query = kind == Kind.MACHINE_STATS
+                    ? EventMetrics.QUERY_MACHINE_STATS : EventMetrics.QUERY_TOP_DEFECT_LINES;
+            LongAdder kindHits = new LongAdder();
+            LongAdder kindMisses = new LongAdder();
+            hits.put(kind, kindHits);
+            misses.put(kind, kindMisses);
+
+            FunctionCounter.builder("events.stats.cache.hits", kindHits, LongAdder::sum)
+                    .tag("query", query).register(meterRegistry);
+            FunctionCounter.builder("events.stats.cache.misses", kindMisses, LongAdder::sum)
+                    .tag("query", query).register(meterRegistry);
+            Gauge.builder("events.stats.cache.hit.ratio", () -> hitRatio(kind))
+                    .tag("query", query).register(meterRegistry);
+        }
+        FunctionCounter.builder("events.stats.cache.invalidations", invalidations, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("events.stats.cache.size", this, StatsCache::size).register(meterRegistry);
+    }
+
+    MachineStatsResponse machineStats(String machineId, Instant start, Instant end,
+                                      Supplier<MachineStatsResponse> compute) {
+        return get(new Key(Kind.MACHINE_STATS, machineId, start, end, 0), compute);
+    }
+
+    List<TopDefectLineResponse> topDefectLines(String factoryId, Instant from, Instant to, int limit,
+                                               Supplier<List<TopDefectLineResponse>> compute) {
+        if (!cachesLines) {
+            return compute.get();
+        }
+        return get(new Key(Kind.TOP_DEFECT_LINES, factoryId, from, to, limit), () -> List.copyOf(compute.get()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(Key key, Supplier<T> compute) {
+        // a write transaction would see, and cache, its own uncommitted rows
+        if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return compute.get();
+        }
+
+        Stripe stripe = stripeFor(key.id);
+        Watch watch;
+        long version;
+        stripe.lock.lock();
+        try {
+            Entry entry = stripe.map.get(key);
+            if (entry != null && entry.expiresAtNanos - System.nanoTime() >= 0) {
+                hits.get(key.kind).increment();
+                return (T) entry.value;
+            }
+            if (entry != null) {
+                stripe.remove(key);
+            }
+            watch = stripe.watch(key.id);
+            version = stripe.version(watch);
+        } finally {
+            stripe.lock.unlock();
+        }
+
+        misses.get(key.kind).increment();
+        T value = null;
+        try {
+            value = compute.get();
+            return value;
+        } finally {
+            stripe.lock.lock();
+            try {
+                // value is still null if the computation threw
+                if (stripe.release(key.id, watch) == version && value != null) {
+                    stripe.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    // Evicts once the surrounding transaction commits (immediately without one). processBatch registers
+    // this after the time series update, so a query started after the eviction reads the new minutes.
+    void invalidateAfterCommit(WrittenTimes written) {
+        if (!enabled || written.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(written);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(written);
+            }
+        });
+    }
+
+    void invalidate(WrittenTimes written) {
+        written.machines().forEach((machineId, times) -> invalidate(Kind.MACHINE_STATS, machineId, times));
+        written.factories().forEach((factoryId, times) -> invalidate(Kind.TOP_DEFECT_LINES, factoryId, times));
+    }
+
+    private void invalidate(Kind kind, String id, List<Instant> times) {
+        List<Instant> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+
+        Stripe stripe = stripeFor(id);
+        stripe.lock.lock();
+        try {
+            stripe.bumpVersion(id);
+            for (Key key : stripe.keysOf(id)) {
+                if (key.kind == kind && containsAny(key, sorted)) {
+                    stripe.remove(key);
+                    invalidations.increment();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Whether the window holds a time of the sorted list, as the database compares them
+    private static boolean containsAny(Key key, List<Instant> sorted) {
+        Instant from = lower(key.from);
+        Instant to = upper(key.to);
+        int i = Collections.binarySearch(sorted, from.minusNanos(MICRO));
+        for (int t = i >= 0 ? i : -i - 1; t < sorted.size(); t++) {
+            Instant time = sorted.get(t);
+            boolean beforeEnd = key.kind == Kind.MACHINE_STATS ? lower(time).isBefore(to) : !lower(time).isAfter(to);
+            if (!beforeEnd) {
+                return false;
+            }
+            if (!upper(time).isBefore(from)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The database keeps microseconds, so a time with a sub-microsecond part may be stored or compared
+    // as the microsecond on either side of it
+    private static Instant lower(Instant time) {
+        return time.getNano() % MICRO == 0 ? time : time.truncatedTo(ChronoUnit.MICROS);
+    }
+
+    private static Instant upper(Instant time) {
+        return time.getNano() % MICRO == 0 ? time : time.truncatedTo(ChronoUnit.MICROS).plusNanos(MICRO);
+    }
+
+    // Must be called whenever events are deleted or changed outside processBatch
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    // invalidateAll once the surrounding transaction commits (immediately without one), for rewrites
+    // of the rollup or distribution buckets that cached results were computed from
+    public void invalidateAllAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateAll();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateAll();
+            }
+        });
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.map.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    // Ids with an invalidation counter, i.e. with a computation in flight
+    int watchedIds() {
+        int ids = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                ids += stripe.watches.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return ids;
+    }
+
+    public long hits() {
+        return hits.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long misses() {
+        return misses.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    private double hitRatio(Kind kind) {
+        long kindHits = hits.get(kind).sum();
+        long total = kindHits + misses.get(kind).sum();
+        return total == 0 ? 0.0 : (double) kindHits / total;
+    }
+
+    private Stripe stripeFor(String id) {
+        int h = id.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    // An id's invalidation counter, shared by its computations in flight
+    private static final class Watch {
+        long version;
+        int computations;
+    }
+
+    // The LRU map, its keys by id and the counters of ids being computed, all guarded by lock
+    private static final class Stripe {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<Key, Entry> map;
+        final Map<String, Set<Key>> keysById = new HashMap<>();
+        final Map<String, Watch> watches = new HashMap<>();
+        long clears;
+
+        Stripe(int capacity) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    if (size() > capacity) {
+                        unindex(eldest.getKey());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        Watch watch(String id) {
+            Watch watch = watches.computeIfAbsent(id, i -> new Watch());
+            watch.computations++;
+            return watch;
+        }
+
+        // Ends a computation and returns the counter as it is at its end
+        long release(String id, Watch watch) {
+            if (--watch.computations == 0) {
+                watches.remove(id);
+            }
+            return version(watch);
+        }
+
+        long version(Watch watch) {
+            return clears + watch.version;
+        }
+
+        // Nothing to count for an id no one is computing
+        void bumpVersion(String id) {
+            Watch watch = watches.get(id);
+            if (watch != null) {
+                watch.version++;
+            }
+        }
+
+        void put(Key key, Entry entry) {
+            map.put(key, entry);
+            keysById.computeIfAbsent(key.id, i -> new HashSet<>()).add(key);
+        }
+
+        void remove(Key key) {
+            map.remove(key);
+            unindex(key);
+        }
+
+        List<Key> keysOf(String id) {
+            return List.copyOf(keysById.getOrDefault(id, Set.of()));
+        }
+
+        void clear() {
+            map.clear();
+            keysById.clear();
+            // moves every id's counter, so queries running across the clear are not cached
+            clears++;
+        }
+
+        private void unindex(Key key) {
+            Set<Key> keys = keysById.get(key.id);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysById.remove(key.id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.factory.service;
+
+import java.util.Set;
+
+// Published by MachineTimeSeries after a committed batch has been applied to its rings
+public record StatsChangedEvent(Set<String> machineIds, Set<String> factoryIds) {}
@@ -0,0 +1,85 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Ingests newline-delimited JSON or BinaryEventFormat without materializing the upload.
+// Events are parsed one at a time and handed to processBatch in fixed-size chunks,
+// so heap usage is bounded by the chunk size, not by the size of the upload.
+@Service
+public class StreamingIngestService {
+
+    private final ClusterRouter router;
+    private final ObjectReader eventReader;
+    private final int chunkSize;
+    private final int maxRejections;
+
+    public StreamingIngestService(
+            ClusterRouter router,
+            ObjectMapper objectMapper,
+            @Value("${events.stream.chunk-size:1000}") int chunkSize,
+            @Value("${events.stream.max-rejections:1000}") int maxRejections
+    ) {
+        this.router = router;
+        this.eventReader = objectMapper.readerFor(EventRequest.class);
+        this.chunkSize = chunkSize;
+        this.maxRejections = maxRejections;
+    }
+
+    // Each chunk commits in its own transaction. A duplicate eventId in a later chunk
+    // is therefore resolved against the stored row, exactly as in a follow-up batch.
+    public BatchResponse ingest(InputStream body) throws IOException {
+        try (MappingIterator<EventRequest> events = eventReader.readValues(body)) {
+            return ingest(() -> events.hasNextValue() ? events.nextValue() : null);
+        }
+    }
+
+    public BatchResponse ingestBinary(InputStream body) throws IOException {
+        BinaryEventFormat.Reader events = new BinaryEventFormat.Reader(body);
+        return ingest(() -> events.hasNext() ? events.next() : null);
+    }
+
+    // The next event of the upload, null at its end
+    private interface EventSource {
+        EventRequest next() throws IOException;
+    }
+
+    private BatchResponse ingest(EventSource events) throws IOException {
+
+        BatchResponse total = new BatchResponse();
+        List<EventRequest> chunk = new ArrayList<>(chunkSize);
+
+        for (EventRequest event = events.next(); event != null; event = events.next()) {
+            chunk.add(event);
+            if (chunk.size() == chunkSize) {
+                merge(total, router.processBatch(chunk));
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            merge(total, router.processBatch(chunk));
+        }
+
+        return total;
+    }
+
+    // Counters always add up; only the first maxRejections rejection details are kept
+    private void merge(BatchResponse total, BatchResponse chunk) {
+        int room = Math.max(0, maxRejections - total.rejections.size());
+        if (chunk.rejections.size() > room) {
+            chunk.rejections = new ArrayList<>(chunk.rejections.subList(0, room));
+        }
+        total.merge(chunk);
+    }
+}
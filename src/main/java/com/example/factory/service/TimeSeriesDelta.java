@@ -0,0 +1,49 @@
+package com.example.factory.service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+// Net change of one batch to the minute buckets of MachineTimeSeries, per machine and per
+// (factory, line), grouped so each ring is locked once per batch.
+class TimeSeriesDelta {
+
+    // machineId -> minute -> {events delta, defects delta}
+    private final Map<String, Map<Long, long[]>> machines = new HashMap<>();
+    // (factoryId, lineId) -> minute -> {events delta, defects delta}
+    private final Map<MachineTimeSeries.LineKey, Map<Long, long[]>> lines = new HashMap<>();
+
+    void add(String machineId, String factoryId, String lineId, Instant eventTime, int defectCount) {
+        apply(machineId, factoryId, lineId, eventTime, defectCount, 1);
+    }
+
+    void remove(String machineId, String factoryId, String lineId, Instant eventTime, int defectCount) {
+        apply(machineId, factoryId, lineId, eventTime, defectCount, -1);
+    }
+
+    private void apply(String machineId, String factoryId, String lineId, Instant eventTime, int defectCount, int sign) {
+        long minute = MachineTimeSeries.minute(eventTime);
+        long defects = defectCount >= 0 ? (long) sign * defectCount : 0;
+        add(machines.computeIfAbsent(machineId, m -> new HashMap<>()), minute, sign, defects);
+        add(lines.computeIfAbsent(new MachineTimeSeries.LineKey(factoryId, lineId), l -> new HashMap<>()),
+                minute, sign, defects);
+    }
+
+    private static void add(Map<Long, long[]> minutes, long minute, int events, long defects) {
+        long[] totals = minutes.computeIfAbsent(minute, m -> new long[2]);
+        totals[0] += events;
+        totals[1] += defects;
+    }
+
+    boolean isEmpty() {
+        return machines.isEmpty();
+    }
+
+    Map<String, Map<Long, long[]>> machineChanges() {
+        return machines;
+    }
+
+    Map<MachineTimeSeries.LineKey, Map<Long, long[]>> lineChanges() {
+        return lines;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.TopDefectMachineResponse;
+import com.example.factory.dto.TopDefectMachinesResponse;
+import com.example.factory.repository.EventStore;
+import com.example.factory.repository.MachineDefectsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+// Machines with the most known defects in [from, to], per factory or across all factories.
+//
+// EXACT streams one total per machine from the database (grouped, not sorted) through a min-heap bounded
+// to the limit, so memory is O(limit) however many machines there are, and ties are broken by machineId.
+// APPROXIMATE streams the defective events themselves through Space-Saving with a fixed number of
+// counters, which avoids the GROUP BY over every machine. Counts are upper bounds, each at most
+// maxError too high, and event counts are not available. With no more machines than counters nothing
+// is evicted and the result is reported as exact.
+@Service
+public class TopDefectMachinesService {
+
+    public enum Mode { EXACT, APPROXIMATE }
+
+    private static final Comparator<TopDefectMachineResponse> MOST_DEFECTS_FIRST =
+            Comparator.<TopDefectMachineResponse>comparingLong(m -> m.totalDefects).reversed()
+                    .thenComparing(m -> m.machineId);
+
+    private final MachineDefectsRepository repository;
+    private final EventStore store;
+    private final EventMetrics metrics;
+    private final int approximateCounters;
+
+    public TopDefectMachinesService(
+            MachineDefectsRepository repository,
+            EventStore store,
+            EventMetrics metrics,
+            @Value("${events.topk.approximate-counters:1000}") int approximateCounters
+    ) {
+        this.repository = repository;
+        this.store = store;
+        this.metrics = metrics;
+        this.approximateCounters = approximateCounters;
+    }
+
+    public TopDefectMachinesResponse getTopDefectMachines(
+            String factoryId,
+            Instant from,
+            Instant to,
+            int limit,
+            Mode mode
+    ) {
+        if (!store.inDatabase()) {
+            throw new ResponseStatusException(
+                    HttpStatus.NOT_IMPLEMENTED, "top defect machines need events.store.engine=jpa");
+        }
+        return metrics.timeQuery(EventMetrics.QUERY_TOP_DEFECT_MACHINES, () -> mode == Mode.EXACT
+                ? exact(factoryId, from, to, limit)
+                : approximate(factoryId, from, to, limit));
+    }
+
+    private TopDefectMachinesResponse exact(String factoryId, Instant from, Instant to, int limit) {
+        TopK<TopDefectMachineResponse> top = new TopK<>(limit, MOST_DEFECTS_FIRST);
+        if (limit > 0) {
+            repository.forEachMachineTotals(factoryId, from, to, (machineId, defects, events) ->
+                    top.offer(new TopDefectMachineResponse(
+                            machineId, defects, 0, events, EventService.defectsPercent(defects, events))));
+        }
+        return new TopDefectMachinesResponse(factoryId, from, to, Mode.EXACT.name(), true, top.result());
+    }
+
+    private TopDefectMachinesResponse approximate(String factoryId, Instant from, Instant to, int limit) {
+        // fewer counters than results could not even hold the answer
+        SpaceSaving counters = new SpaceSaving(Math.max(approximateCounters, limit));
+        if (limit > 0) {
+            repository.forEachDefectiveEvent(factoryId, from, to, counters::offer);
+        }
+
+        List<TopDefectMachineResponse> machines = counters.top(limit).stream()
+                .map(c -> new TopDefectMachineResponse(c.key, c.count, c.error, null, null))
+                .toList();
+        return new TopDefectMachinesResponse(
+                factoryId, from, to, Mode.APPROXIMATE.name(), counters.exact(), machines);
+    }
+}
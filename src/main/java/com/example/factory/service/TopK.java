@@ -0,0 +1,38 @@
+package com.example.factory.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Keeps the k best of a stream of candidates. A min-heap bounded to k holds the best items seen so far
+// with the weakest on top, so n candidates cost O(n log k) time and O(k) memory instead of sorting all n.
+final class TopK<T> {
+
+    private final int k;
+    private final Comparator<? super T> order;
+    private final PriorityQueue<T> heap;
+
+    // order ranks the best item first and must be total, so ties come out the same every time
+    TopK(int k, Comparator<? super T> order) {
+        this.k = Math.max(0, k);
+        this.order = order;
+        this.heap = new PriorityQueue<>(this.k + 1, order.reversed());
+    }
+
+    void offer(T candidate) {
+        if (heap.size() < k) {
+            heap.add(candidate);
+        } else if (k > 0 && order.compare(candidate, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(candidate);
+        }
+    }
+
+    // Best first
+    List<T> result() {
+        List<T> best = new ArrayList<>(heap);
+        best.sort(order);
+        return best;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.factory.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Event times one batch wrote or moved away from, per machine and per factory. StatsCache evicts
+// only the cached windows that contain one of them.
+class WrittenTimes {
+
+    private final Map<String, List<Instant>> machines = new HashMap<>();
+    private final Map<String, List<Instant>> factories = new HashMap<>();
+
+    void add(String machineId, String factoryId, Instant eventTime) {
+        machines.computeIfAbsent(machineId, m -> new ArrayList<>()).add(eventTime);
+        factories.computeIfAbsent(factoryId, f -> new ArrayList<>()).add(eventTime);
+    }
+
+    boolean isEmpty() {
+        return machines.isEmpty();
+    }
+
+    Map<String, List<Instant>> machines() {
+        return machines;
+    }
+
+    Map<String, List<Instant>> factories() {
+        return factories;
+    }
+}
@@ -0,0 +1,67 @@
+package db.migration.common;
+
+import com.example.factory.service.PayloadFingerprint;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+// Replaces the 32-bit hex payload_hash with a 64-bit payload_fingerprint.
+// The fingerprint is computed in Java, so this is a Java migration: every stored row is
+// re-hashed from its own columns, which hold exactly the fields the fingerprint covers.
+public class V5__replace_payload_hash_with_fingerprint extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("ALTER TABLE events ADD COLUMN IF NOT EXISTS payload_fingerprint BIGINT");
+        }
+
+        try (PreparedStatement select = connection.prepareStatement("""
+                     SELECT event_id, factory_id, line_id, machine_id, duration_ms, defect_count
+                     FROM events
+                     """);
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE events SET payload_fingerprint = ? WHERE event_id = ?")) {
+
+            // Flyway runs this inside a transaction, so PgJDBC streams with a cursor
+            select.setFetchSize(BATCH_SIZE);
+
+            int batched = 0;
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    String eventId = rs.getString("event_id");
+                    update.setLong(1, PayloadFingerprint.of(
+                            eventId,
+                            rs.getString("factory_id"),
+                            rs.getString("line_id"),
+                            rs.getString("machine_id"),
+                            rs.getLong("duration_ms"),
+                            rs.getInt("defect_count")
+                    ));
+                    update.setString(2, eventId);
+                    update.addBatch();
+                    if (++batched == BATCH_SIZE) {
+                        update.executeBatch();
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                update.executeBatch();
+            }
+        }
+
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("ALTER TABLE events ALTER COLUMN payload_fingerprint SET NOT NULL");
+            ddl.execute("ALTER TABLE events DROP COLUMN IF EXISTS payload_hash");
+        }
+    }
+}
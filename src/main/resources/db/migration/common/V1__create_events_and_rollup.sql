@@ -0,0 +1,23 @@
+-- Baseline schema. IF NOT EXISTS keeps this a no-op on databases that were
+-- created earlier by spring.jpa.hibernate.ddl-auto=update.
+
+CREATE TABLE IF NOT EXISTS events (
+    event_id      VARCHAR(255)                NOT NULL,
+    event_time    TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    received_time TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    factory_id    VARCHAR(255)                NOT NULL,
+    line_id       VARCHAR(255)                NOT NULL,
+    machine_id    VARCHAR(255)                NOT NULL,
+    duration_ms   BIGINT                      NOT NULL,
+    defect_count  INTEGER                     NOT NULL,
+    payload_hash  VARCHAR(255)                NOT NULL,
+    CONSTRAINT events_pkey PRIMARY KEY (event_id)
+);
+
+CREATE TABLE IF NOT EXISTS machine_hourly_rollup (
+    machine_id    VARCHAR(255) NOT NULL,
+    bucket_hour   BIGINT       NOT NULL,
+    events_count  BIGINT       NOT NULL,
+    defects_count BIGINT       NOT NULL,
+    CONSTRAINT machine_hourly_rollup_pkey PRIMARY KEY (machine_id, bucket_hour)
+);
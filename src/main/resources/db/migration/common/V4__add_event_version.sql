@@ -0,0 +1,4 @@
+-- Optimistic concurrency: every successful update of an event increments its version.
+-- (V3 is reserved for the optional partitioning migration in db/partitioning.)
+
+ALTER TABLE events ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
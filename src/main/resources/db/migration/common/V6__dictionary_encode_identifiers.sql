@@ -0,0 +1,53 @@
+-- Factory, line and machine ids move into dimension tables, and events keeps an INTEGER key
+-- of each instead of the string. The keys are assigned here for the ids already stored and
+-- by the application (IdentifierDictionary) for new ones. Every row of events is rewritten,
+-- so on a large table this runs as long as a full copy of it.
+-- The window indexes over the old columns are dropped here and rebuilt over the keys by V7.
+-- There are no foreign keys from events to the dimension tables: each insert would lock its three
+-- dimension rows, and concurrent batches mostly share the same few factories. Only the dictionary
+-- writes keys, and only keys it has committed.
+
+CREATE TABLE factory_dim (
+    factory_key INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    factory_id  VARCHAR(255) NOT NULL,
+    CONSTRAINT factory_dim_pkey PRIMARY KEY (factory_key),
+    CONSTRAINT factory_dim_factory_id_key UNIQUE (factory_id)
+);
+
+CREATE TABLE line_dim (
+    line_key INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    line_id  VARCHAR(255) NOT NULL,
+    CONSTRAINT line_dim_pkey PRIMARY KEY (line_key),
+    CONSTRAINT line_dim_line_id_key UNIQUE (line_id)
+);
+
+CREATE TABLE machine_dim (
+    machine_key INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    machine_id  VARCHAR(255) NOT NULL,
+    CONSTRAINT machine_dim_pkey PRIMARY KEY (machine_key),
+    CONSTRAINT machine_dim_machine_id_key UNIQUE (machine_id)
+);
+
+INSERT INTO factory_dim (factory_id) SELECT DISTINCT factory_id FROM events ORDER BY factory_id;
+INSERT INTO line_dim (line_id) SELECT DISTINCT line_id FROM events ORDER BY line_id;
+INSERT INTO machine_dim (machine_id) SELECT DISTINCT machine_id FROM events ORDER BY machine_id;
+
+ALTER TABLE events ADD COLUMN factory_key INTEGER;
+ALTER TABLE events ADD COLUMN line_key INTEGER;
+ALTER TABLE events ADD COLUMN machine_key INTEGER;
+
+UPDATE events SET
+    factory_key = (SELECT d.factory_key FROM factory_dim d WHERE d.factory_id = events.factory_id),
+    line_key = (SELECT d.line_key FROM line_dim d WHERE d.line_id = events.line_id),
+    machine_key = (SELECT d.machine_key FROM machine_dim d WHERE d.machine_id = events.machine_id);
+
+ALTER TABLE events ALTER COLUMN factory_key SET NOT NULL;
+ALTER TABLE events ALTER COLUMN line_key SET NOT NULL;
+ALTER TABLE events ALTER COLUMN machine_key SET NOT NULL;
+
+DROP INDEX IF EXISTS idx_events_machine_time;
+DROP INDEX IF EXISTS idx_events_factory_time_line;
+
+ALTER TABLE events DROP COLUMN factory_id;
+ALTER TABLE events DROP COLUMN line_id;
+ALTER TABLE events DROP COLUMN machine_id;
@@ -0,0 +1,17 @@
+-- Duration and defect count distributions per machine, hour, factory and line, as encoded
+-- DistributionSketch bytes maintained by the ingestion transaction. A machine that changes
+-- lines within an hour has a row per line, so line percentiles stay exact to the bucket.
+-- Existing events are added by a rollup rebuild (--rebuild-rollups).
+
+CREATE TABLE machine_hourly_distribution (
+    machine_key INTEGER NOT NULL,
+    bucket_hour BIGINT NOT NULL,
+    factory_key INTEGER NOT NULL,
+    line_key    INTEGER NOT NULL,
+    durations   BYTEA NOT NULL,
+    defects     BYTEA NOT NULL,
+    CONSTRAINT machine_hourly_distribution_pkey PRIMARY KEY (machine_key, bucket_hour, factory_key, line_key)
+);
+
+CREATE INDEX idx_machine_hourly_distribution_line
+    ON machine_hourly_distribution (factory_key, line_key, bucket_hour);
@@ -0,0 +1,7 @@
+-- Machine-window (/stats) and factory-window (/stats/top-defect-lines) lookups.
+
+CREATE INDEX IF NOT EXISTS idx_events_machine_time
+    ON events (machine_id, event_time);
+
+CREATE INDEX IF NOT EXISTS idx_events_factory_time_line
+    ON events (factory_id, event_time, line_id);
@@ -0,0 +1,7 @@
+-- The window indexes of V2, over the keys that replaced the identifier columns in V6.
+
+CREATE INDEX idx_events_machine_time
+    ON events (machine_key, event_time);
+
+CREATE INDEX idx_events_factory_time_line
+    ON events (factory_key, event_time, line_key);
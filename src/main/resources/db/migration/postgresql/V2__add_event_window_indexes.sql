@@ -0,0 +1,8 @@
+-- Machine-window (/stats) and factory-window (/stats/top-defect-lines) lookups.
+-- defect_count is included so the aggregate queries can be answered from the index.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_events_machine_time
+    ON events (machine_id, event_time) INCLUDE (defect_count);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_events_factory_time_line
+    ON events (factory_id, event_time, line_id) INCLUDE (defect_count);
@@ -0,0 +1,8 @@
+-- The window indexes of V2, over the keys that replaced the identifier columns in V6.
+-- Not CONCURRENTLY: events may be partitioned (V3), and V6 held it locked anyway.
+
+CREATE INDEX idx_events_machine_time
+    ON events (machine_key, event_time) INCLUDE (defect_count);
+
+CREATE INDEX idx_events_factory_time_line
+    ON events (factory_key, event_time, line_key) INCLUDE (defect_count);
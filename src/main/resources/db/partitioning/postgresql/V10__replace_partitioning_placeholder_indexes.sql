@@ -0,0 +1,13 @@
+-- Optional (profile "partitioned"): drops the placeholder columns of V2.1, and with them the indexes V3 built
+-- over them, then builds the window indexes of V7 over the keys where they are missing. On a database that
+-- was partitioned before V6, there are no placeholders and V7's indexes exist, so nothing changes.
+
+ALTER TABLE events DROP COLUMN IF EXISTS factory_id;
+ALTER TABLE events DROP COLUMN IF EXISTS line_id;
+ALTER TABLE events DROP COLUMN IF EXISTS machine_id;
+
+CREATE INDEX IF NOT EXISTS idx_events_machine_time
+    ON events (machine_key, event_time) INCLUDE (defect_count);
+
+CREATE INDEX IF NOT EXISTS idx_events_factory_time_line
+    ON events (factory_key, event_time, line_key) INCLUDE (defect_count);
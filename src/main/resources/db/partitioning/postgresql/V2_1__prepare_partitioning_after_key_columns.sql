@@ -0,0 +1,17 @@
+-- Optional (profile "partitioned"). With out-of-order migrations, V3 can run on a database that has already
+-- applied V6, which replaced factory_id, line_id and machine_id with keys. V3 still indexes the old columns, so
+-- on such a database (events not partitioned yet, machine_key present) this adds them back as empty
+-- placeholders, and V10 drops them again. Elsewhere it does nothing.
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class c
+               WHERE c.oid = to_regclass('events') AND c.relkind = 'r')
+       AND EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_schema = current_schema() AND table_name = 'events' AND column_name = 'machine_key') THEN
+        ALTER TABLE events ADD COLUMN factory_id VARCHAR(255);
+        ALTER TABLE events ADD COLUMN line_id VARCHAR(255);
+        ALTER TABLE events ADD COLUMN machine_id VARCHAR(255);
+    END IF;
+END;
+$$;
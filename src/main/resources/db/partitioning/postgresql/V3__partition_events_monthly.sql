@@ -0,0 +1,71 @@
+-- Optional (profile "partitioned"): converts events into a table range-partitioned
+-- by month on event_time, so old months can be detached instead of deleted:
+--   ALTER TABLE events DETACH PARTITION events_2025_01 CONCURRENTLY;
+--
+-- A partitioned table can only enforce keys that contain the partition column,
+-- so the primary key becomes (event_id, event_time).
+
+ALTER TABLE events RENAME TO events_unpartitioned;
+ALTER TABLE events_unpartitioned RENAME CONSTRAINT events_pkey TO events_unpartitioned_pkey;
+ALTER INDEX IF EXISTS idx_events_machine_time RENAME TO idx_events_unpartitioned_machine_time;
+ALTER INDEX IF EXISTS idx_events_factory_time_line RENAME TO idx_events_unpartitioned_factory_time_line;
+
+CREATE TABLE events (LIKE events_unpartitioned INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+    PARTITION BY RANGE (event_time);
+
+ALTER TABLE events ADD CONSTRAINT events_pkey PRIMARY KEY (event_id, event_time);
+
+CREATE INDEX idx_events_machine_time
+    ON events (machine_id, event_time) INCLUDE (defect_count);
+
+CREATE INDEX idx_events_factory_time_line
+    ON events (factory_id, event_time, line_id) INCLUDE (defect_count);
+
+-- Catches rows outside every monthly partition (e.g. far-future or very old event times)
+CREATE TABLE events_default PARTITION OF events DEFAULT;
+
+-- Partition bounds are UTC month starts, independent of the session time zone
+CREATE OR REPLACE FUNCTION create_events_partition(month_start DATE) RETURNS VOID
+LANGUAGE plpgsql AS $$
+DECLARE
+    first_day DATE := date_trunc('month', month_start::TIMESTAMP)::DATE;
+    next_day  DATE := (first_day + INTERVAL '1 month')::DATE;
+BEGIN
+    EXECUTE format(
+            'CREATE TABLE IF NOT EXISTS %I PARTITION OF events FOR VALUES FROM (%L) TO (%L)',
+            'events_' || to_char(first_day, 'YYYY_MM'),
+            make_timestamptz(extract(YEAR FROM first_day)::INT, extract(MONTH FROM first_day)::INT, 1, 0, 0, 0, 'UTC'),
+            make_timestamptz(extract(YEAR FROM next_day)::INT, extract(MONTH FROM next_day)::INT, 1, 0, 0, 0, 'UTC')
+    );
+END;
+$$;
+
+-- Creates the current month and the next months_ahead months if missing
+CREATE OR REPLACE FUNCTION ensure_events_partitions(months_ahead INT) RETURNS VOID
+LANGUAGE plpgsql AS $$
+DECLARE
+    current_month DATE := date_trunc('month', now() AT TIME ZONE 'UTC')::DATE;
+BEGIN
+    FOR i IN 0..months_ahead LOOP
+        PERFORM create_events_partition((current_month + make_interval(months => i))::DATE);
+    END LOOP;
+END;
+$$;
+
+DO $$
+DECLARE
+    m DATE;
+BEGIN
+    FOR m IN
+        SELECT DISTINCT date_trunc('month', event_time AT TIME ZONE 'UTC')::DATE
+        FROM events_unpartitioned
+    LOOP
+        PERFORM create_events_partition(m);
+    END LOOP;
+    PERFORM ensure_events_partitions(3);
+END;
+$$;
+
+INSERT INTO events SELECT * FROM events_unpartitioned;
+
+DROP TABLE events_unpartitioned;
@@ -0,0 +1,42 @@
+-- Optional (profile "partitioned"), PostgreSQL 13 or later: V3 could only keep (event_id, event_time)
+-- as the key of partitioned events, so INSERT ... ON CONFLICT DO NOTHING would let two batches store
+-- the same event_id with different event times. event_ids is a plain table keyed by event_id alone.
+-- The BEFORE INSERT trigger claims the id there and skips the row, as ON CONFLICT DO NOTHING does,
+-- when the id is taken. A claim racing an uncommitted one waits for it, as a unique index would.
+-- An update that moves a row to another month runs as a delete and an insert, which release and
+-- claim the id again within the same transaction.
+
+CREATE TABLE event_ids (
+    event_id VARCHAR(255) NOT NULL,
+    CONSTRAINT event_ids_pkey PRIMARY KEY (event_id)
+);
+
+INSERT INTO event_ids (event_id) SELECT event_id FROM events ON CONFLICT DO NOTHING;
+
+CREATE FUNCTION claim_event_id() RETURNS TRIGGER
+LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO event_ids (event_id) VALUES (NEW.event_id) ON CONFLICT DO NOTHING;
+    IF NOT FOUND THEN
+        RETURN NULL;
+    END IF;
+    RETURN NEW;
+END;
+$$;
+
+-- BEFORE, so a row moving between partitions has released its id when the insert half claims it
+CREATE FUNCTION release_event_id() RETURNS TRIGGER
+LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM event_ids WHERE event_id = OLD.event_id;
+    RETURN OLD;
+END;
+$$;
+
+CREATE TRIGGER events_claim_event_id
+    BEFORE INSERT ON events
+    FOR EACH ROW EXECUTE FUNCTION claim_event_id();
+
+CREATE TRIGGER events_release_event_id
+    BEFORE DELETE ON events
+    FOR EACH ROW EXECUTE FUNCTION release_event_id();
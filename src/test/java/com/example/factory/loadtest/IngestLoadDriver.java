@@ -0,0 +1,122 @@
+package com.example.factory.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop load generator for a running instance, JDK only (no Spring context).
+// Keeps `concurrency` requests in flight: 80% batch ingestion, 20% /stats reads.
+//
+//   mvn test-compile
+//   java -cp target/test-classes com.example.factory.loadtest.IngestLoadDriver \
+//        http://localhost:8080 2000 60 100
+//
+// Arguments: base URL, concurrent gateways, duration in seconds, events per batch.
+public class IngestLoadDriver {
+
+    private static final AtomicLong EVENT_SEQ = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int durationSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        ConcurrentLinkedQueue<Long> latenciesMicros = new ConcurrentLinkedQueue<>();
+        Map<Integer, AtomicInteger> statusCounts = new ConcurrentHashMap<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        long started = System.nanoTime();
+        long deadline = started + Duration.ofSeconds(durationSeconds).toNanos();
+        long requestNo = 0;
+
+        while (System.nanoTime() < deadline) {
+            inFlight.acquire();
+            HttpRequest request = requestNo++ % 5 == 4
+                    ? statsRequest(baseUrl, requestNo)
+                    : batchRequest(baseUrl, batchSize);
+
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error != null) {
+                            failures.incrementAndGet();
+                        } else {
+                            latenciesMicros.add((System.nanoTime() - sent) / 1_000);
+                            statusCounts.computeIfAbsent(response.statusCode(), s -> new AtomicInteger())
+                                    .incrementAndGet();
+                        }
+                        inFlight.release();
+                    });
+        }
+        inFlight.acquire(concurrency);
+
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+        long[] sorted = latenciesMicros.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+
+        System.out.printf("requests      : %d in %.1f s (%.1f req/s)%n",
+                sorted.length, elapsedSeconds, sorted.length / elapsedSeconds);
+        System.out.printf("latency p50   : %.1f ms%n", percentile(sorted, 0.50) / 1000.0);
+        System.out.printf("latency p99   : %.1f ms%n", percentile(sorted, 0.99) / 1000.0);
+        System.out.printf("status codes  : %s%n", statusCounts);
+        System.out.printf("I/O failures  : %d%n", failures.get());
+    }
+
+    private static HttpRequest batchRequest(String baseUrl, int batchSize) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < batchSize; i++) {
+            long seq = EVENT_SEQ.incrementAndGet();
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"eventId\":\"LT-").append(seq)
+                    .append("\",\"eventTime\":\"").append(Instant.now().minusSeconds(seq % 3600))
+                    .append("\",\"machineId\":\"M-").append(seq % 500)
+                    .append("\",\"durationMs\":").append(500 + seq % 5000)
+                    .append(",\"defectCount\":").append(seq % 4)
+                    .append(",\"factoryId\":\"F0").append(seq % 4)
+                    .append("\",\"lineId\":\"L").append(seq % 40)
+                    .append("\"}");
+        }
+        body.append(']');
+
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/events/batch"))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+    }
+
+    private static HttpRequest statsRequest(String baseUrl, long requestNo) {
+        Instant end = Instant.now();
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/stats?machineId=M-" + (requestNo % 500)
+                        + "&start=" + end.minusSeconds(24 * 3600) + "&end=" + end))
+                .timeout(Duration.ofSeconds(60))
+                .GET()
+                .build();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
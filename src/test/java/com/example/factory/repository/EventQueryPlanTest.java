@@ -0,0 +1,86 @@
+package com.example.factory.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Guards the Flyway indexes: the window queries behind /stats and
+// /stats/top-defect-lines, /stats/top-defect-machines and /events/export pages must not fall back to a full scan of events.
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class EventQueryPlanTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String explain(String sql) {
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class);
+    }
+
+    @Test
+    void machineWindowQuery_usesMachineTimeIndex() {
+        String plan = explain("""
+                SELECT COUNT(*),
+                       COALESCE(SUM(CASE WHEN defect_count >= 0 THEN defect_count ELSE 0 END), 0)
+                FROM events
+                WHERE machine_key = 1
+                  AND event_time >= TIMESTAMP WITH TIME ZONE '2026-01-15 00:00:00Z'
+                  AND event_time < TIMESTAMP WITH TIME ZONE '2026-01-16 00:00:00Z'
+                """);
+
+        assertThat(plan).containsIgnoringCase("idx_events_machine_time");
+    }
+
+    @Test
+    void factoryWindowAggregate_usesFactoryTimeLineIndex() {
+        String plan = explain("""
+                SELECT line_key,
+                       SUM(CASE WHEN defect_count >= 0 THEN defect_count ELSE 0 END),
+                       COUNT(*)
+                FROM events
+                WHERE factory_key = 1
+                  AND event_time BETWEEN TIMESTAMP WITH TIME ZONE '2026-01-15 00:00:00Z'
+                                     AND TIMESTAMP WITH TIME ZONE '2026-01-22 00:00:00Z'
+                GROUP BY line_key
+                """);
+
+        assertThat(plan).containsIgnoringCase("idx_events_factory_time_line");
+    }
+
+    @Test
+    void factoryMachineTotals_useFactoryTimeLineIndex() {
+        String plan = explain("""
+                SELECT machine_key,
+                       SUM(CASE WHEN defect_count >= 0 THEN defect_count ELSE 0 END),
+                       COUNT(*)
+                FROM events
+                WHERE event_time BETWEEN TIMESTAMP WITH TIME ZONE '2026-01-15 00:00:00Z'
+                                     AND TIMESTAMP WITH TIME ZONE '2026-01-22 00:00:00Z'
+                  AND factory_key = 1
+                GROUP BY machine_key
+                """);
+
+        assertThat(plan).containsIgnoringCase("idx_events_factory_time_line");
+    }
+
+    @Test
+    void exportKeysetPage_seeksIntoMachineTimeIndex() {
+        String plan = explain("""
+                SELECT event_id, event_time, received_time, factory_key, line_key, machine_key,
+                       duration_ms, defect_count, payload_fingerprint
+                FROM events
+                WHERE machine_key = 1
+                  AND event_time >= TIMESTAMP WITH TIME ZONE '2026-01-15 10:00:00Z'
+                  AND event_time < TIMESTAMP WITH TIME ZONE '2026-01-22 00:00:00Z'
+                  AND (event_time > TIMESTAMP WITH TIME ZONE '2026-01-15 10:00:00Z' OR event_id > 'E-42')
+                ORDER BY event_time, event_id
+                LIMIT 10000
+                """);
+
+        assertThat(plan).containsIgnoringCase("idx_events_machine_time");
+    }
+}
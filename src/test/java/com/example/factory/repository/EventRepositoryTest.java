@@ -1,24 +1,45 @@
 package com.example.factory.repository;
 
 import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.context.annotation.Import;
+
+import org.springframework.data.domain.PageRequest;
 
 import java.time.Instant;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 @DataJpaTest
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({IdentifierDictionary.class, SimpleMeterRegistry.class})
 class EventRepositoryTest {
 
     @Autowired
     private EventRepository repository;
 
+    @Autowired
+    private IdentifierDictionary dictionary;
+
+    // As EventService does, identifiers get their keys before a row with them is written
+    private void save(EventEntity event) {
+        dictionary.resolve(Map.of(
+                Dimension.FACTORY, List.of(event.getFactoryId()),
+                Dimension.LINE, List.of(event.getLineId()),
+                Dimension.MACHINE, List.of(event.getMachineId())));
+        repository.save(event);
+    }
+
     @Test
     void saveAndFetchEvent_byId() {
         EventEntity event = new EventEntity(
@@ -30,10 +51,10 @@ class EventRepositoryTest {
                 "M-001",
                 1000L,
                 0,
-                "hash123"
+                123L
         );
 
-        repository.save(event);
+        save(event);
 
         Optional<EventEntity> saved = repository.findById("E-1");
 
@@ -58,7 +79,7 @@ class EventRepositoryTest {
                 "M-001",
                 1000L,
                 1,
-                "hashA"
+                1L
         );
 
         EventEntity atEnd = new EventEntity(
@@ -70,20 +91,69 @@ class EventRepositoryTest {
                 "M-001",
                 1000L,
                 1,
-                "hashB"
+                2L
         );
 
-        repository.save(atStart);
-        repository.save(atEnd);
+        save(atStart);
+        save(atEnd);
+
+        WindowTotals totals = repository.sumMachineWindow("M-001", start, end);
+
+        assertThat(totals.getEventsCount()).isEqualTo(1);
+        assertThat(totals.getDefectsCount()).isEqualTo(1);
+    }
+
+    @Test
+    void topDefectLinesAggregate_matchesInMemoryGrouping() {
+        Instant from = Instant.parse("2026-01-15T00:00:00Z");
+        Instant to = from.plusSeconds(7 * 24 * 3600);
+
+        for (int i = 0; i < 400; i++) {
+            save(new EventEntity(
+                    "E-" + i,
+                    from.plusSeconds(i * 1500L),
+                    Instant.now(),
+                    i % 5 == 0 ? "F02" : "F01",
+                    "L" + (i % 13),
+                    "M-" + (i % 37),
+                    1000L,
+                    i % 11 == 0 ? -1 : (i * 7) % 9,
+                    i
+            ));
+        }
+
+        // Reference: the previous implementation, grouping every entity in memory
+        Map<String, List<EventEntity>> byLine =
+                repository.findAll().stream()
+                        .filter(e -> e.getFactoryId().equals("F01"))
+                        .filter(e -> !e.getEventTime().isBefore(from) && !e.getEventTime().isAfter(to))
+                        .collect(Collectors.groupingBy(EventEntity::getLineId));
+
+        List<long[]> expected = byLine.values().stream()
+                .map(events -> new long[]{
+                        events.stream()
+                                .filter(e -> e.getDefectCount() >= 0)
+                                .mapToLong(EventEntity::getDefectCount)
+                                .sum(),
+                        events.size()
+                })
+                .sorted(Comparator.comparingLong((long[] t) -> t[0]).reversed())
+                .toList();
+
+        List<LineDefectTotals> actual =
+                repository.findTopDefectLines("F01", from, to, PageRequest.of(0, 5));
 
-        List<EventEntity> results =
-                repository.findByMachineIdAndEventTimeGreaterThanEqualAndEventTimeLessThan(
-                        "M-001",
-                        start,
-                        end
-                );
+        assertThat(actual).hasSize(5);
+        for (int i = 0; i < actual.size(); i++) {
+            LineDefectTotals line = actual.get(i);
+            List<EventEntity> lineEvents = byLine.get(line.getLineId());
 
-        assertThat(results).hasSize(1);
-        assertThat(results.get(0).getEventId()).isEqualTo("E-START");
+            assertThat(line.getTotalDefects()).isEqualTo(expected.get(i)[0]);
+            assertThat(line.getEventCount()).isEqualTo(lineEvents.size());
+            assertThat(line.getTotalDefects()).isEqualTo(lineEvents.stream()
+                    .filter(e -> e.getDefectCount() >= 0)
+                    .mapToLong(EventEntity::getDefectCount)
+                    .sum());
+        }
     }
 }
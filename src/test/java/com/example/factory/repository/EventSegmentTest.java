@@ -0,0 +1,119 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventSegmentTest {
+
+    private static final Instant DAY = Instant.parse("2025-02-03T00:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    // 5000 events of one day in random order: equal times, sub-second times, unknown defects, non-ASCII ids
+    private static List<EventEntity> events() {
+        Random random = new Random(21);
+        List<EventEntity> events = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            Instant time = DAY.plusSeconds(random.nextInt(86_400)).plusNanos(random.nextInt(1_000_000) * 1000L);
+            if (i % 10 == 0 && !events.isEmpty()) {
+                time = events.get(random.nextInt(events.size())).getEventTime();
+            }
+            events.add(new EventEntity(
+                    "E-" + i + (i % 7 == 0 ? "-ä,\"" : ""),
+                    time,
+                    time.plusMillis(random.nextInt(600_000) - 1000),
+                    "F-SEG",
+                    "L-" + random.nextInt(12),
+                    "M-" + random.nextInt(90) + (i % 11 == 0 ? "-ü" : ""),
+                    random.nextInt(6 * 3600 * 1000),
+                    random.nextInt(10) == 0 ? -1 : random.nextInt(20),
+                    random.nextLong()));
+        }
+        Collections.shuffle(events, random);
+        return events;
+    }
+
+    private static String row(EventEntity e) {
+        return String.join("|", e.getEventId(), e.getEventTime().toString(), e.getReceivedTime().toString(),
+                e.getFactoryId(), e.getLineId(), e.getMachineId(), Long.toString(e.getDurationMs()),
+                Integer.toString(e.getDefectCount()), Long.toString(e.getPayloadFingerprint()));
+    }
+
+    @Test
+    void rowsRoundTripInTimeOrder() throws Exception {
+        List<EventEntity> events = events();
+        Path file = dir.resolve("segment.seg");
+        EventSegment.write(file, "F-SEG", 20_122, events);
+
+        EventSegment segment = EventSegment.open(file);
+        assertThat(segment.factoryId()).isEqualTo("F-SEG");
+        assertThat(segment.day()).isEqualTo(20_122);
+        assertThat(segment.rows()).isEqualTo(events.size());
+
+        List<EventEntity> read = new ArrayList<>();
+        segment.forEach(read::add);
+        assertThat(read).extracting(EventSegmentTest::row).containsExactlyElementsOf(events.stream()
+                .sorted(Comparator.comparing(EventEntity::getEventTime).thenComparing(EventEntity::getEventId))
+                .map(EventSegmentTest::row)
+                .toList());
+
+        // well below the ~60 bytes of raw column data per row
+        assertThat(segment.fileSize()).isLessThan(events.size() * 40L);
+    }
+
+    @Test
+    void sumsMatchTheRowsInTheWindow() throws Exception {
+        List<EventEntity> events = events();
+        Path file = dir.resolve("segment.seg");
+        EventSegment.write(file, "F-SEG", 20_122, events);
+        EventSegment segment = EventSegment.open(file);
+
+        Random random = new Random(5);
+        for (int w = 0; w < 50; w++) {
+            // windows that start on an existing event time, so the inclusive/exclusive edges matter
+            Instant from = events.get(random.nextInt(events.size())).getEventTime();
+            Instant to = w % 5 == 0 ? DAY.plusSeconds(86_400) : from.plusSeconds(random.nextInt(6 * 3600));
+            String machineId = events.get(random.nextInt(events.size())).getMachineId();
+
+            long[] expected = new long[2];
+            Map<String, long[]> expectedLines = new HashMap<>();
+            for (EventEntity e : events) {
+                if (!e.getEventTime().isBefore(from) && e.getEventTime().isBefore(to)) {
+                    long[] line = expectedLines.computeIfAbsent(e.getLineId(), k -> new long[2]);
+                    line[0]++;
+                    line[1] += Math.max(0, e.getDefectCount());
+                    if (e.getMachineId().equals(machineId)) {
+                        expected[0]++;
+                        expected[1] += Math.max(0, e.getDefectCount());
+                    }
+                }
+            }
+
+            long[] totals = new long[2];
+            segment.sum(machineId, EventSegment.micros(from), EventSegment.micros(to), totals);
+            assertThat(totals).as("%s %s..%s", machineId, from, to).containsExactly(expected);
+
+            Map<String, long[]> lines = new HashMap<>();
+            segment.sumLines(EventSegment.micros(from), EventSegment.micros(to), lines);
+            assertThat(lines.keySet()).isEqualTo(expectedLines.keySet());
+            expectedLines.forEach((lineId, line) -> assertThat(lines.get(lineId)).containsExactly(line));
+        }
+
+        assertThat(segment.hasMachine("M-UNKNOWN")).isFalse();
+        assertThat(segment.overlaps(EventSegment.micros(DAY.plusSeconds(86_400)), Long.MAX_VALUE)).isFalse();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.factory.repository;
+
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Keys are committed by resolve() itself, so these tests run outside the usual rolled-back test transaction
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({IdentifierDictionary.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdentifierDictionaryTest {
+
+    @Autowired
+    private IdentifierDictionary dictionary;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void concurrentResolvesGiveEveryIdOneKey() throws Exception {
+        List<String> machines = IntStream.range(0, 300).mapToObj(i -> "M-DICT-" + i).toList();
+
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<?>> resolves = new ArrayList<>();
+            for (int t = 0; t < 6; t++) {
+                List<String> shuffled = new ArrayList<>(machines);
+                Collections.shuffle(shuffled);
+                resolves.add(pool.submit(() -> dictionary.resolve(Map.of(Dimension.MACHINE, shuffled))));
+            }
+            for (Future<?> resolve : resolves) {
+                resolve.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // a dictionary loaded from the tables afterwards, like another instance, agrees on every key
+        IdentifierDictionary loaded = new IdentifierDictionary(
+                jdbcTemplate, namedJdbcTemplate, transactionManager, new SimpleMeterRegistry());
+        HashSet<Integer> keys = new HashSet<>();
+        for (String machineId : machines) {
+            int key = dictionary.key(Dimension.MACHINE, machineId);
+            assertThat(loaded.key(Dimension.MACHINE, machineId)).isEqualTo(key);
+            assertThat(loaded.id(Dimension.MACHINE, key)).isEqualTo(machineId);
+            keys.add(key);
+        }
+        assertThat(keys).hasSize(machines.size()).doesNotContain(IdentifierDictionary.UNKNOWN);
+    }
+
+    @Test
+    void idsAddedElsewhereAreFoundAndUnknownIdsMatchNothing() {
+        assertThat(dictionary.key(Dimension.FACTORY, "F-DICT-NEVER")).isEqualTo(IdentifierDictionary.UNKNOWN);
+
+        // stored by another instance after this one loaded its cache
+        jdbcTemplate.update("INSERT INTO line_dim (line_id) VALUES ('L-DICT-OTHER')");
+        assertThat(dictionary.isCached(Dimension.LINE, "L-DICT-OTHER")).isFalse();
+
+        int key = dictionary.key(Dimension.LINE, "L-DICT-OTHER");
+        assertThat(key).isNotEqualTo(IdentifierDictionary.UNKNOWN);
+        assertThat(dictionary.id(Dimension.LINE, key)).isEqualTo("L-DICT-OTHER");
+        assertThat(dictionary.isCached(Dimension.LINE, "L-DICT-OTHER")).isTrue();
+
+        // resolving it again keeps the key it already has
+        dictionary.resolve(Map.of(Dimension.LINE, List.of("L-DICT-OTHER")));
+        assertThat(dictionary.key(Dimension.LINE, "L-DICT-OTHER")).isEqualTo(key);
+    }
+}
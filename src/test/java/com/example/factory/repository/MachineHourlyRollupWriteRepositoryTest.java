@@ -0,0 +1,100 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.MachineHourKey;
+import com.example.factory.entity.MachineHourlyRollupEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(MachineHourlyRollupWriteRepository.class)
+class MachineHourlyRollupWriteRepositoryTest {
+
+    @Autowired
+    private MachineHourlyRollupWriteRepository writeRepository;
+
+    @Autowired
+    private MachineHourlyRollupRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // the concurrent test commits
+    @AfterEach
+    void cleanDatabase() {
+        jdbcTemplate.update("DELETE FROM machine_hourly_rollup WHERE machine_id LIKE 'M-RW-%'");
+    }
+
+    private static Map.Entry<MachineHourKey, long[]> change(String machineId, long hour, long events, long defects) {
+        return Map.entry(new MachineHourKey(machineId, hour), new long[] {events, defects});
+    }
+
+    private long[] bucket(String machineId, long hour) {
+        MachineHourlyRollupEntity row = repository.findById(new MachineHourKey(machineId, hour)).orElseThrow();
+        return new long[] {row.getEventsCount(), row.getDefectsCount()};
+    }
+
+    @Test
+    void createsMissingBucketsAndAddsToExistingOnes() {
+        writeRepository.addToBuckets(List.of(change("M-RW-1", 10, 3, 5), change("M-RW-1", 11, 1, 0)));
+        // an update moving an event from hour 10 to hour 12
+        writeRepository.addToBuckets(List.of(
+                change("M-RW-1", 10, -1, -2), change("M-RW-1", 12, 1, 2), change("M-RW-2", 10, 4, 4)));
+
+        assertThat(bucket("M-RW-1", 10)).containsExactly(2, 3);
+        assertThat(bucket("M-RW-1", 11)).containsExactly(1, 0);
+        assertThat(bucket("M-RW-1", 12)).containsExactly(1, 2);
+        assertThat(bucket("M-RW-2", 10)).containsExactly(4, 4);
+        assertThat(repository.sumBuckets("M-RW-1", 10, 12).getEventsCount()).isEqualTo(3);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void concurrentBatchesOnTheSameNewBucketsLoseNoDelta() throws Exception {
+        // sorted by key, as HourlyRollupDelta.sortedChanges hands them over
+        List<Map.Entry<MachineHourKey, long[]>> changes = IntStream.range(0, 50)
+                .mapToObj(hour -> change("M-RW-C", hour, 1, hour % 3))
+                .toList();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int round = 0; round < 10; round++) {
+                    transaction.executeWithoutResult(status -> writeRepository.addToBuckets(changes));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (int hour = 0; hour < 50; hour++) {
+            assertThat(bucket("M-RW-C", hour)).containsExactly(80, 80L * (hour % 3));
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.factory.repository;
+
+import com.example.factory.entity.EventEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedEventStoreTest {
+
+    private static final Instant HOUR = Instant.parse("2025-02-03T10:00:00Z");
+    // Small regions, so that records skip region ends
+    private static final int REGION_BYTES = 4096;
+
+    @TempDir
+    Path dir;
+
+    private MappedEventStore open() throws IOException {
+        return new MappedEventStore(new SimpleMeterRegistry(), dir.toString(), REGION_BYTES, 10_000, false, false);
+    }
+
+    // Runs work with transaction synchronization, as a transaction would, and completes it
+    private static <T> T inTransaction(boolean commit, Callable<T> work) throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            T result = work.call();
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            if (commit) {
+                synchronizations.forEach(TransactionSynchronization::afterCommit);
+            }
+            for (TransactionSynchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(commit
+                        ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+            return result;
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static EventEntity version(EventEntity row, long version) {
+        row.setVersion(version);
+        return row;
+    }
+
+    private static EventEntity event(String eventId, String machineId, Instant time, int defects) {
+        return new EventEntity(eventId, time, time.plusSeconds(5), "F-MM", "L-" + machineId.hashCode() % 3,
+                machineId, 1000, defects, eventId.hashCode());
+    }
+
+    // 2000 events of 20 machines, with sub-microsecond times and unknown defects, a quarter of them updated
+    private static List<EventEntity> write(MappedEventStore store) {
+        Random random = new Random(24);
+        List<EventEntity> events = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            events.add(event("E-" + i + (i % 9 == 0 ? "-ä" : ""), "M-" + random.nextInt(20),
+                    HOUR.plusNanos(random.nextLong(3_600_000_000_000L)), random.nextInt(8) - 1));
+        }
+        assertThat(store.insertIfAbsent(events)).containsOnly(1);
+
+        List<EventEntity> updates = new ArrayList<>();
+        for (int i = 0; i < events.size(); i += 4) {
+            EventEntity moved = event(events.get(i).getEventId(), "M-" + random.nextInt(20),
+                    HOUR.plusSeconds(random.nextInt(3600)), random.nextInt(5));
+            moved.setVersion(0);
+            updates.add(moved);
+            events.set(i, moved);
+        }
+        assertThat(store.updateIfVersion(updates)).containsOnly(1);
+        return events;
+    }
+
+    private static long[] expectedTotals(List<EventEntity> events, String machineId, Instant start, Instant end) {
+        long[] totals = new long[2];
+        for (EventEntity e : events) {
+            if (e.getMachineId().equals(machineId) && !e.getEventTime().isBefore(start) && e.getEventTime().isBefore(end)) {
+                totals[0]++;
+                totals[1] += Math.max(e.getDefectCount(), 0);
+            }
+        }
+        return totals;
+    }
+
+    private static void assertMatches(MappedEventStore store, List<EventEntity> events) {
+        assertThat(store.count()).isEqualTo(events.size());
+        Instant start = HOUR.plusSeconds(600).plusNanos(1);
+        Instant end = HOUR.plusSeconds(3000);
+        for (int m = 0; m < 20; m++) {
+            // times are stored with microsecond precision
+            List<EventEntity> stored = events.stream().map(MappedEventStoreTest::withMicros).toList();
+            WindowTotals totals = store.sumMachineWindow("M-" + m, start, end);
+            long[] expected = expectedTotals(stored, "M-" + m, start, end);
+            assertThat(totals.getEventsCount()).isEqualTo(expected[0]);
+            assertThat(totals.getDefectsCount()).isEqualTo(expected[1]);
+        }
+
+        Map<String, EventEntity> found = store.findByIds(events.stream().map(EventEntity::getEventId).toList());
+        for (EventEntity e : events) {
+            EventEntity row = found.get(e.getEventId());
+            assertThat(row.getMachineId()).isEqualTo(e.getMachineId());
+            assertThat(row.getEventTime()).isEqualTo(withMicros(e).getEventTime());
+            assertThat(row.getDefectCount()).isEqualTo(e.getDefectCount());
+            assertThat(row.getPayloadFingerprint()).isEqualTo(e.getPayloadFingerprint());
+        }
+
+        long lineEvents = store.sumLines("F-MM", HOUR, HOUR.plusSeconds(3600)).stream()
+                .mapToLong(LineDefectTotals::getEventCount).sum();
+        assertThat(lineEvents).isEqualTo(events.size());
+    }
+
+    private static EventEntity withMicros(EventEntity e) {
+        Instant time = Instant.ofEpochSecond(e.getEventTime().getEpochSecond(), e.getEventTime().getNano() / 1000 * 1000);
+        return event(e.getEventId(), e.getMachineId(), time, e.getDefectCount());
+    }
+
+    @Test
+    void indexesAreRebuiltFromTheLogOnReopen() throws Exception {
+        List<EventEntity> events;
+        try (MappedEventStore store = open()) {
+            events = write(store);
+            assertMatches(store, events);
+        }
+        try (MappedEventStore store = open()) {
+            assertMatches(store, events);
+            assertThat(store.findById(events.get(0).getEventId()).orElseThrow().getVersion()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void singleRowWritesFailOnConflicts() throws Exception {
+        try (MappedEventStore store = open()) {
+            EventEntity event = event("E-1", "M-1", HOUR, 2);
+            store.insert(event);
+            assertThatThrownBy(() -> store.insert(event)).isInstanceOf(DuplicateKeyException.class);
+
+            EventEntity read = store.findById("E-1").orElseThrow();
+            read.setDefectCount(3);
+            store.update(read);
+            assertThatThrownBy(() -> store.update(read)).isInstanceOf(OptimisticLockingFailureException.class);
+            assertThat(store.findById("E-1").orElseThrow().getDefectCount()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void tornTailIsDiscardedOnReopen() throws Exception {
+        try (MappedEventStore store = open()) {
+            store.insertIfAbsent(List.of(event("E-1", "M-1", HOUR, 1), event("E-2", "M-1", HOUR, 2)));
+            store.insertIfAbsent(List.of(event("E-3", "M-1", HOUR, 3)));
+        }
+        // corrupts the last byte of E-3, the last record of the first region
+        try (FileChannel channel = FileChannel.open(dir.resolve("events.log"), StandardOpenOption.WRITE,
+                StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(REGION_BYTES);
+            channel.read(buffer, 0);
+            int last = 0;
+            for (int i = 0; i < REGION_BYTES; i++) {
+                if (buffer.get(i) != 0) {
+                    last = i;
+                }
+            }
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) (buffer.get(last) ^ 1)}), last);
+        }
+
+        try (MappedEventStore store = open()) {
+            assertThat(store.findById("E-3")).isEmpty();
+            assertThat(store.sumMachineWindow("M-1", HOUR, HOUR.plusSeconds(1)).getDefectsCount()).isEqualTo(3);
+            store.insertIfAbsent(List.of(event("E-4", "M-1", HOUR, 4)));
+        }
+        try (MappedEventStore store = open()) {
+            assertThat(store.findByIds(List.of("E-1", "E-2", "E-3", "E-4")).keySet())
+                    .containsExactlyInAnyOrder("E-1", "E-2", "E-4");
+        }
+    }
+
+    @Test
+    void rollbackDiscardsTheTransactionsWrites() throws Exception {
+        try (MappedEventStore store = open()) {
+            store.insertIfAbsent(List.of(event("E-1", "M-1", HOUR, 1)));
+
+            inTransaction(false, () -> {
+                store.insertIfAbsent(List.of(event("E-2", "M-1", HOUR, 2)));
+                EventEntity moved = event("E-1", "M-2", HOUR.plusSeconds(60), 5);
+                assertThat(store.updateIfVersion(List.of(moved))).containsExactly(1);
+
+                // the transaction reads its own writes
+                assertThat(store.findById("E-1").orElseThrow().getMachineId()).isEqualTo("M-2");
+                assertThat(store.findById("E-2")).isPresent();
+                assertThat(store.sumMachineWindow("M-2", HOUR, HOUR.plusSeconds(3600)).getEventsCount()).isEqualTo(1);
+                assertThat(store.sumMachineWindow("M-1", HOUR, HOUR.plusSeconds(3600)).getEventsCount()).isEqualTo(1);
+                return null;
+            });
+
+            assertThat(store.findById("E-2")).isEmpty();
+            EventEntity restored = store.findById("E-1").orElseThrow();
+            assertThat(restored.getMachineId()).isEqualTo("M-1");
+            assertThat(restored.getVersion()).isZero();
+            assertThat(store.sumMachineWindow("M-2", HOUR, HOUR.plusSeconds(3600)).getEventsCount()).isZero();
+            assertThat(store.count()).isEqualTo(1);
+        }
+        try (MappedEventStore store = open()) {
+            assertThat(store.count()).isEqualTo(1);
+            assertThat(store.findById("E-1").orElseThrow().getMachineId()).isEqualTo("M-1");
+        }
+    }
+
+    @Test
+    void rollbackKeepsWhatAnotherTransactionCommittedMeanwhile() throws Exception {
+        try (MappedEventStore store = open()) {
+            store.insertIfAbsent(List.of(event("E-1", "M-1", HOUR, 1)));
+            CountDownLatch firstWrote = new CountDownLatch(1);
+            CountDownLatch rollBack = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<?> first = executor.submit(() -> inTransaction(false, () -> {
+                    assertThat(store.updateIfVersion(List.of(version(event("E-1", "M-2", HOUR, 5), 0))))
+                            .containsExactly(1);
+                    assertThat(store.insertIfAbsent(List.of(event("E-2", "M-2", HOUR, 2)))).containsExactly(1);
+                    firstWrote.countDown();
+                    rollBack.await();
+                    return null;
+                }));
+                firstWrote.await();
+
+                // uncommitted rows are not visible outside their transaction
+                assertThat(store.findById("E-1").orElseThrow().getMachineId()).isEqualTo("M-1");
+                assertThat(store.findById("E-2")).isEmpty();
+                assertThat(store.sumMachineWindow("M-2", HOUR, HOUR.plusSeconds(1)).getEventsCount()).isZero();
+
+                // writes the same two rows, and waits for the first transaction to complete
+                Future<int[][]> second = executor.submit(() -> inTransaction(true, () -> new int[][] {
+                        store.updateIfVersion(List.of(version(event("E-1", "M-3", HOUR, 7), 0))),
+                        store.insertIfAbsent(List.of(event("E-2", "M-3", HOUR, 3)))}));
+                Thread.sleep(200);
+                assertThat(second).isNotDone();
+
+                rollBack.countDown();
+                first.get();
+                int[][] written = second.get();
+                assertThat(written[0]).containsExactly(1);
+                assertThat(written[1]).containsExactly(1);
+            } finally {
+                executor.shutdown();
+            }
+
+            assertThat(store.findById("E-1").orElseThrow().getMachineId()).isEqualTo("M-3");
+            assertThat(store.findById("E-1").orElseThrow().getVersion()).isEqualTo(1);
+            assertThat(store.findById("E-2").orElseThrow().getMachineId()).isEqualTo("M-3");
+            assertThat(store.sumMachineWindow("M-3", HOUR, HOUR.plusSeconds(1)).getEventsCount()).isEqualTo(2);
+            assertThat(store.sumMachineWindow("M-2", HOUR, HOUR.plusSeconds(1)).getEventsCount()).isZero();
+        }
+        try (MappedEventStore store = open()) {
+            assertThat(store.count()).isEqualTo(2);
+            assertThat(store.findById("E-2").orElseThrow().getMachineId()).isEqualTo("M-3");
+        }
+    }
+
+    @Test
+    void mostlySupersededLogIsCompactedOnReopen() throws Exception {
+        List<EventEntity> events = new ArrayList<>();
+        try (MappedEventStore store = open()) {
+            for (int i = 0; i < 50; i++) {
+                events.add(event("E-" + i, "M-" + i % 5, HOUR.plusSeconds(i), 1));
+            }
+            store.insertIfAbsent(events);
+            for (int version = 0; version < 10; version++) {
+                List<EventEntity> updates = new ArrayList<>();
+                for (EventEntity e : events) {
+                    EventEntity updated = event(e.getEventId(), e.getMachineId(), e.getEventTime(), version + 2);
+                    updated.setVersion(version);
+                    updates.add(updated);
+                }
+                assertThat(store.updateIfVersion(updates)).containsOnly(1);
+            }
+            store.deleteAll();
+            store.insertIfAbsent(events.subList(0, 20));
+        }
+        long before = Files.size(dir.resolve("events.log"));
+
+        try (MappedEventStore store = open()) {
+            assertThat(Files.size(dir.resolve("events.log"))).isLessThan(before);
+            assertThat(store.count()).isEqualTo(20);
+            Map<String, Long> perMachine = events.subList(0, 20).stream()
+                    .collect(Collectors.groupingBy(EventEntity::getMachineId, Collectors.counting()));
+            perMachine.forEach((machineId, count) -> assertThat(
+                    store.sumMachineWindow(machineId, HOUR, HOUR.plusSeconds(60)).getEventsCount()).isEqualTo(count));
+        }
+        try (MappedEventStore store = open()) {
+            assertThat(store.findById("E-19").orElseThrow().getDefectCount()).isEqualTo(1);
+            assertThat(store.findById("E-20")).isEmpty();
+        }
+    }
+}
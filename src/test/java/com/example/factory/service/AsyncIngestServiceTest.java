@@ -0,0 +1,89 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// a single writer keeps the two batches in queue order
+@SpringBootTest(properties = {
+        "events.async.capacity-events=50",
+        "events.async.writers=1"
+})
+class AsyncIngestServiceTest {
+
+    @Autowired
+    private AsyncIngestService asyncIngestService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+    }
+
+    private List<EventRequest> batch(String prefix, int size) {
+        return IntStream.range(0, size)
+                .mapToObj(i -> {
+                    EventRequest e = new EventRequest();
+                    e.eventId = prefix + i;
+                    e.factoryId = "F01";
+                    e.lineId = "L01";
+                    e.machineId = "M-ASYNC";
+                    e.eventTime = Instant.parse("2025-01-01T10:00:00Z");
+                    e.durationMs = 1000;
+                    e.defectCount = 0;
+                    return e;
+                })
+                .toList();
+    }
+
+    @Test
+    void queuedBatchesKeepTheirOwnCounters() throws Exception {
+        List<EventRequest> withInvalid = new ArrayList<>(batch("A-", 5));
+        EventRequest bad = batch("A-BAD", 1).get(0);
+        bad.durationMs = -1;
+        withInvalid.add(bad);
+
+        AsyncIngestService.Ticket first = asyncIngestService.submit(withInvalid).orElseThrow();
+        AsyncIngestService.Ticket second = asyncIngestService.submit(batch("A-", 5)).orElseThrow();
+
+        BatchResponse firstResult = first.result.get(10, TimeUnit.SECONDS);
+        BatchResponse secondResult = second.result.get(10, TimeUnit.SECONDS);
+
+        assertThat(firstResult.accepted).isEqualTo(5);
+        assertThat(firstResult.rejected).isEqualTo(1);
+        assertThat(secondResult.deduped).isEqualTo(5);
+        assertThat(asyncIngestService.status(second.token).orElseThrow().status)
+                .isEqualTo("PERSISTED");
+        assertThat(repository.count()).isEqualTo(5);
+    }
+
+    @Test
+    void batchLargerThanFreeCapacityIsRefused() {
+        assertThat(asyncIngestService.submit(batch("B-", 51))).isEmpty();
+        assertThat(asyncIngestService.fitsQueue(51)).isFalse();
+    }
+}
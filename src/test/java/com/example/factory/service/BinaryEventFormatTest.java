@@ -0,0 +1,102 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryEventFormatTest {
+
+    private static EventRequest event(String eventId, Instant eventTime, String machineId) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.eventTime = eventTime;
+        e.machineId = machineId;
+        e.durationMs = 1234;
+        e.defectCount = -1;
+        e.factoryId = "F-01";
+        e.lineId = "L-01";
+        return e;
+    }
+
+    private static byte[] encode(List<EventRequest> events) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEventFormat.write(events, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void eventsRoundTripAndRepeatedIdsAreShared() throws Exception {
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            events.add(event("E-" + i, Instant.parse("2025-01-01T10:00:00.123456Z").plusSeconds(i), "M-" + i % 7));
+        }
+        events.add(event("E-ümlaut-✓", Instant.parse("1969-12-31T23:59:59.999999Z"), null));
+        events.add(event(null, null, "M-1"));
+        // out of range, left for validation to reject
+        events.get(3).durationMs = Integer.MAX_VALUE + 1L;
+        events.get(4).durationMs = Long.MIN_VALUE;
+
+        byte[] bytes = encode(events);
+        List<EventRequest> decoded = BinaryEventFormat.read(new ByteArrayInputStream(bytes));
+
+        assertThat(decoded).usingRecursiveFieldByFieldElementComparator().containsExactlyElementsOf(events);
+        assertThat(decoded.get(7).machineId).isSameAs(decoded.get(0).machineId);
+        assertThat(decoded.get(500).factoryId).isSameAs(decoded.get(0).factoryId);
+
+        // a fraction of the same batch as JSON
+        ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+        assertThat(bytes.length).isLessThan(json.writeValueAsBytes(events).length / 3);
+    }
+
+    @Test
+    void earlierFormatWithIntDurationsIsStillRead() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x46455631);
+        for (String machineId : new String[] {"M-1", "M-1"}) {
+            out.writeShort(3);
+            out.writeBytes("E-1");
+            out.writeLong(1_735_725_600_000_000L);
+            out.writeInt(1234);
+            out.writeInt(2);
+            out.writeShort(4);
+            out.writeBytes("F-01");
+            out.writeShort(4);
+            out.writeBytes("L-01");
+            out.writeShort(3);
+            out.writeBytes(machineId);
+        }
+
+        List<EventRequest> decoded = BinaryEventFormat.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertThat(decoded).hasSize(2).allSatisfy(e -> {
+            assertThat(e.eventTime).isEqualTo(Instant.parse("2025-01-01T10:00:00Z"));
+            assertThat(e.durationMs).isEqualTo(1234);
+            assertThat(e.defectCount).isEqualTo(2);
+            assertThat(e.machineId).isEqualTo("M-1");
+        });
+    }
+
+    @Test
+    void truncatedOrForeignBodiesAreMalformed() throws Exception {
+        byte[] bytes = encode(List.of(event("E-1", Instant.now(), "M-1"), event("E-2", Instant.now(), "M-1")));
+
+        assertThatThrownBy(() -> BinaryEventFormat.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))))
+                .isInstanceOf(BinaryEventFormat.MalformedException.class);
+        assertThatThrownBy(() -> BinaryEventFormat.read(new ByteArrayInputStream("[{}]".getBytes())))
+                .isInstanceOf(BinaryEventFormat.MalformedException.class);
+        assertThat(BinaryEventFormat.read(new ByteArrayInputStream(encode(List.of())))).isEmpty();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.factory.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClusterMembershipTest {
+
+    private static final List<String> NODES = List.of("http://node-a:8080", "http://node-b:8080", "http://node-c:8080");
+
+    @Test
+    void ringSpreadsMachinesEvenlyAndMovesFewWhenANodeJoins() {
+        HashRing three = new HashRing(NODES, 128);
+        HashRing four = new HashRing(List.of(NODES.get(0), NODES.get(1), NODES.get(2), "http://node-d:8080"), 128);
+
+        Map<String, Integer> owned = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 30_000; i++) {
+            String machineId = "M-" + i;
+            String before = three.owner(machineId);
+            String after = four.owner(machineId);
+            owned.merge(before, 1, Integer::sum);
+            if (!before.equals(after)) {
+                // machines only ever move to the new node
+                assertThat(after).isEqualTo("http://node-d:8080");
+                moved++;
+            }
+        }
+
+        assertThat(owned.keySet()).containsExactlyInAnyOrderElementsOf(NODES);
+        assertThat(owned.values()).allSatisfy(n -> assertThat(n).isBetween(8_000, 12_000));
+        assertThat(moved).isBetween(5_000, 10_000);
+    }
+
+    @Test
+    void membersComeFromAFileAndSelfMustBeOne(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("members");
+        Files.writeString(file, """
+                # production cluster
+                http://node-b:8080/
+                http://node-a:8080   # rack 1
+
+                http://node-c:8080
+                """);
+
+        ClusterMembership membership = new ClusterMembership(
+                new SimpleMeterRegistry(), true, "http://node-a:8080", "", file.toString(), 128);
+
+        assertThat(membership.members()).containsExactlyElementsOf(NODES);
+        // the same list in another order gives every node the same owners
+        ClusterMembership other = new ClusterMembership(new SimpleMeterRegistry(), true, "http://node-c:8080",
+                "http://node-c:8080, http://node-b:8080, http://node-a:8080", "", 128);
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(membership.owner("M-" + i)).isEqualTo(other.owner("M-" + i));
+        }
+
+        assertThatThrownBy(() -> new ClusterMembership(
+                new SimpleMeterRegistry(), true, "http://node-x:8080", "", file.toString(), 128))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        ClusterMembership single = new ClusterMembership(
+                new SimpleMeterRegistry(), false, "", "", "", 128);
+        assertThat(single.owns("M-1")).isTrue();
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.factory.service;
+
+import com.example.factory.FactoryEventsApplication;
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Two nodes on localhost ports, sharing the test database as instances behind a load balancer share theirs
+class ClusterRouterTest {
+
+    private static String urlA;
+    private static String urlB;
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+    private static RestClient client;
+
+    @BeforeAll
+    static void startNodes() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        urlA = "http://localhost:" + portA;
+        urlB = "http://localhost:" + portB;
+        nodeA = startNode(portA, urlA);
+        nodeB = startNode(portB, urlB);
+        client = nodeA.getBean(RestClient.Builder.class).build();
+    }
+
+    private static ConfigurableApplicationContext startNode(int port, String self) {
+        return new SpringApplicationBuilder(FactoryEventsApplication.class).run(
+                "--server.port=" + port,
+                "--events.cluster.enabled=true",
+                "--events.cluster.self=" + self,
+                "--events.cluster.members=" + urlA + "," + urlB);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    @AfterEach
+    void cleanDatabase() {
+        nodeA.getBean(EventRepository.class).deleteAllInBatch();
+        nodeA.getBean(MachineHourlyRollupRepository.class).deleteAllInBatch();
+        for (ConfigurableApplicationContext node : List.of(nodeA, nodeB)) {
+            node.getBean(DedupCache.class).invalidateAll();
+            node.getBean(StatsCache.class).invalidateAll();
+            node.getBean(MachineTimeSeries.class).reload();
+        }
+    }
+
+    private EventRequest event(String eventId, String machineId, Instant eventTime) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.eventTime = eventTime;
+        e.machineId = machineId;
+        e.durationMs = 1000;
+        e.defectCount = 1;
+        e.factoryId = "F-01";
+        e.lineId = "L-01";
+        return e;
+    }
+
+    private BatchResponse post(String node, List<EventRequest> events) {
+        return client.post()
+                .uri(node + "/events/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(events)
+                .retrieve()
+                .body(BatchResponse.class);
+    }
+
+    @Test
+    void batchIsSplitByOwnerAndTheResponsesAreMerged() {
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minusSeconds(600);
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            events.add(event("E-" + i, "M-" + i, time));
+        }
+        EventRequest invalid = event("E-bad", "M-0", time);
+        invalid.durationMs = -1;
+        events.add(invalid);
+        double forwardedBefore = forwardedEventsToB();
+
+        BatchResponse response = post(urlA, events);
+
+        assertThat(response.accepted).isEqualTo(40);
+        assertThat(response.rejected).isEqualTo(1);
+        assertThat(nodeA.getBean(EventRepository.class).count()).isEqualTo(40);
+
+        // every machine was written on its owner, whose time series alone holds it
+        ClusterMembership membership = nodeA.getBean(ClusterMembership.class);
+        long ownedByA = events.stream().limit(40).filter(e -> membership.owns(e.machineId)).count();
+        assertThat(ownedByA).isBetween(1L, 39L);
+        assertThat(nodeA.getBean(MachineTimeSeries.class).machineCount()).isEqualTo(ownedByA);
+        assertThat(nodeB.getBean(MachineTimeSeries.class).machineCount()).isEqualTo(40 - ownedByA);
+
+        // the same batch sent to the other node is deduplicated by the same owners
+        BatchResponse resent = post(urlB, events);
+        assertThat(resent.deduped).isEqualTo(40);
+        assertThat(resent.rejected).isEqualTo(1);
+
+        // stats of any machine through either node come from its owner
+        for (String node : List.of(urlA, urlB)) {
+            for (String path : List.of("/stats", "/events/stats")) {
+                for (int i = 0; i < 40; i++) {
+                    MachineStatsResponse stats = client.get()
+                            .uri(node + path + "?machineId={m}&start={s}&end={e}", "M-" + i, time, time.plusSeconds(60))
+                            .retrieve()
+                            .body(MachineStatsResponse.class);
+                    assertThat(stats.eventsCount).as("M-%d via %s%s", i, node, path).isEqualTo(1);
+                }
+            }
+        }
+        // the invalid event was rejected on A, wherever its machine lives
+        assertThat(forwardedEventsToB() - forwardedBefore).isEqualTo(40 - ownedByA);
+    }
+
+    private static double forwardedEventsToB() {
+        return nodeA.getBean(MeterRegistry.class).get("events.cluster.forwarded.events")
+                .tag("node", urlB).counter().count();
+    }
+
+    private static long requestsToB() {
+        return nodeA.getBean(MeterRegistry.class).get("events.cluster.forward")
+                .tag("node", urlB).tag("outcome", "success").timer().count();
+    }
+
+    private MachineStatsResponse stats(String node, String machineId, Instant time) {
+        return client.get()
+                .uri(node + "/stats?machineId={m}&start={s}&end={e}", machineId, time, time.plusSeconds(60))
+                .retrieve()
+                .body(MachineStatsResponse.class);
+    }
+
+    @Test
+    void updateMovingAnEventToAnotherNodesMachineClearsItFromTheOldOwner() {
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minusSeconds(600);
+        long minute = MachineTimeSeries.minute(time);
+        ClusterMembership membership = nodeA.getBean(ClusterMembership.class);
+        List<String> machines = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            machines.add("M-" + i);
+        }
+        String onA = machines.stream().filter(membership::owns).findFirst().orElseThrow();
+        String onB = machines.stream().filter(m -> !membership.owns(m)).findFirst().orElseThrow();
+
+        EventRequest original = event("E-MOVE", onA, time);
+        assertThat(post(urlB, List.of(original)).accepted).isEqualTo(1);
+        // cached on A
+        assertThat(stats(urlB, onA, time).eventsCount).isEqualTo(1);
+        assertThat(nodeA.getBean(DedupCache.class).matches("E-MOVE", PayloadFingerprint.of(original))).isTrue();
+
+        // written on B, which tells A
+        BatchResponse moved = post(urlA, List.of(event("E-MOVE", onB, time)));
+        assertThat(moved.updated).isEqualTo(1);
+        for (String node : List.of(urlA, urlB)) {
+            assertThat(stats(node, onA, time).eventsCount).isZero();
+            assertThat(stats(node, onB, time).eventsCount).isEqualTo(1);
+        }
+        assertThat(nodeA.getBean(MachineTimeSeries.class).eventsInMinute(onA, minute)).isZero();
+        assertThat(nodeB.getBean(MachineTimeSeries.class).eventsInMinute(onA, minute)).isZero();
+        assertThat(nodeB.getBean(MachineTimeSeries.class).eventsInMinute(onB, minute)).isEqualTo(1);
+        assertThat(nodeA.getBean(DedupCache.class).matches("E-MOVE", PayloadFingerprint.of(original))).isFalse();
+
+        // the original payload sent again is a newer update, not a retransmission A still remembers
+        BatchResponse back = post(urlB, List.of(original));
+        assertThat(back.updated).isEqualTo(1);
+        for (String node : List.of(urlA, urlB)) {
+            assertThat(stats(node, onA, time).eventsCount).isEqualTo(1);
+            assertThat(stats(node, onB, time).eventsCount).isZero();
+        }
+        assertThat(nodeA.getBean(MachineTimeSeries.class).eventsInMinute(onA, minute)).isEqualTo(1);
+        assertThat(nodeB.getBean(MachineTimeSeries.class).eventsInMinute(onB, minute)).isZero();
+    }
+
+    @Test
+    void coalescedBatchesAreSentToEachNodeInOneRequest() {
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minusSeconds(600);
+        List<EventRequest> first = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            first.add(event("E-C-" + i, "M-" + i, time));
+        }
+        List<EventRequest> resent = new ArrayList<>(first);
+        EventRequest invalid = event("E-C-bad", "M-1", time);
+        invalid.durationMs = -1;
+        resent.add(invalid);
+        EventRequest changed = event("E-C-0", "M-0", time);
+        changed.defectCount = 3;
+        ClusterRouter router = nodeA.getBean(ClusterRouter.class);
+        long requestsBefore = requestsToB();
+
+        List<BatchResponse> responses = router.processBatches(List.of(first, resent, List.of(changed), List.of()));
+
+        assertThat(requestsToB() - requestsBefore).isEqualTo(1);
+        assertThat(responses).hasSize(4);
+        assertThat(responses.get(0).accepted).isEqualTo(40);
+        assertThat(responses.get(1).deduped).isEqualTo(40);
+        assertThat(responses.get(1).rejected).isEqualTo(1);
+        assertThat(responses.get(2).updated).isEqualTo(1);
+        assertThat(responses.get(3).accepted + responses.get(3).deduped + responses.get(3).rejected).isZero();
+        assertThat(nodeA.getBean(EventRepository.class).count()).isEqualTo(40);
+        assertThat(stats(urlA, "M-0", time).defectsCount).isEqualTo(3);
+    }
+
+    @Test
+    void invalidEventsOfOtherNodesAreRejectedBeforeForwarding() {
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minusSeconds(600);
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            EventRequest tooLong = event("E-long-" + i, "M-" + i, time);
+            // beyond what an i32 holds
+            tooLong.durationMs = 10_000_000_000L;
+            events.add(tooLong);
+            // beyond what BinaryEventFormat can encode
+            events.add(event("E-".repeat(20_000) + i, "M-" + i, time));
+            events.add(event("E-ok-" + i, "M-" + i, time));
+        }
+
+        BatchResponse response = post(urlA, events);
+
+        assertThat(response.accepted).isEqualTo(20);
+        assertThat(response.rejected).isEqualTo(40);
+        assertThat(response.rejections).extracting(r -> r.reason)
+                .containsOnly("INVALID_DURATION", "INVALID_IDENTIFIER")
+                .filteredOn("INVALID_DURATION"::equals).hasSize(20);
+        assertThat(nodeA.getBean(EventRepository.class).count()).isEqualTo(20);
+    }
+
+    @Test
+    void unreachableOwnerFailsTheBatchAfterTheOtherPartsAreStored() throws IOException {
+        String down = "http://localhost:" + freePort();
+        ClusterMembership membership = new ClusterMembership(
+                new SimpleMeterRegistry(), true, urlA, urlA + "," + down, "", 128);
+        ClusterRouter router = new ClusterRouter(nodeA.getBean(EventService.class), membership,
+                new SimpleMeterRegistry(), RestClient.builder(), 2, 2000);
+
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minusSeconds(600);
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            events.add(event("E-" + i, "M-" + i, time));
+        }
+        long local = events.stream().filter(e -> membership.owns(e.machineId)).count();
+
+        assertThatThrownBy(() -> router.processBatch(events))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(local).isBetween(1L, 19L);
+        assertThat(nodeA.getBean(EventRepository.class).count()).isEqualTo(local);
+        router.shutdown();
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.DistributionRepository;
+import com.example.factory.repository.EventExportRepository.Scope;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.IdentifierDictionary;
+import com.example.factory.repository.IdentifierDictionary.Dimension;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+import com.example.factory.repository.MinuteTotalsRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// One permit: while a read of the minute totals holds it, every other path to the database waits for it and gets 503,
+// and the calls nested in the export run under it
+@SpringBootTest(properties = {
+        "events.db-limiter.enabled=true",
+        "events.db-limiter.permits=1",
+        "events.db-limiter.acquire-timeout-ms=200"
+})
+class DbConcurrencyLimiterTest {
+
+    private static final Instant TO = Instant.now();
+    private static final Instant FROM = TO.minusSeconds(3600);
+
+    @Autowired
+    private DbConcurrencyLimiter limiter;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventExportService exportService;
+
+    @Autowired
+    private TopDefectMachinesService topDefectMachinesService;
+
+    @Autowired
+    private DistributionService distributionService;
+
+    @Autowired
+    private IdentifierDictionary dictionary;
+
+    @Autowired
+    private MinuteTotalsRepository minuteTotalsRepository;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DistributionRepository distributionRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        distributionRepository.deleteAllBuckets();
+        dedupCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private static EventRequest event(String eventId) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-LIM";
+        e.lineId = "L-LIM";
+        e.machineId = "M-LIM";
+        e.eventTime = TO.minusSeconds(600);
+        e.durationMs = 1000;
+        e.defectCount = 2;
+        return e;
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    private static Throwable failureOnAnotherThread(Call call) {
+        try {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    call.run();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }).get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    @Test
+    void everyPathToTheDatabaseTakesThePermitOnce() {
+        eventService.processBatch(List.of(event("LIM-1")));
+        assertThat(limiter.availablePermits()).isEqualTo(1);
+
+        List<Call> otherPaths = List.of(
+                () -> topDefectMachinesService.getTopDefectMachines(
+                        "F-LIM", FROM, TO, 5, TopDefectMachinesService.Mode.EXACT),
+                () -> distributionService.getMachineDistribution("M-LIM", FROM, TO),
+                () -> exportService.export(Scope.MACHINE, "M-LIM", FROM, TO, null, null, 10,
+                        EventExportService.Format.NDJSON, new ByteArrayOutputStream()),
+                () -> dictionary.resolve(Map.of(Dimension.MACHINE, List.of("M-LIM-NEW"))),
+                () -> repository.count(),
+                () -> eventService.getStats("M-LIM", FROM, TO));
+        List<Throwable> failures = new ArrayList<>();
+        List<Long> nestedCounts = new ArrayList<>();
+
+        minuteTotalsRepository.forEachMinuteSince(FROM, (machineId, factoryId, lineId, minute, events, defects) -> {
+            assertThat(limiter.availablePermits()).isZero();
+            for (Call path : otherPaths) {
+                failures.add(failureOnAnotherThread(path));
+            }
+            // the thread holding the permit is not held up by it
+            nestedCounts.add(repository.count());
+        });
+
+        assertThat(failures).hasSize(otherPaths.size()).allSatisfy(failure -> assertThat(failure)
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(f -> ((ResponseStatusException) f).getStatusCode())
+                .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(nestedCounts).containsExactly(1L);
+        assertThat(limiter.availablePermits()).isEqualTo(1);
+
+        // with the permit free, the same paths run
+        for (Call path : otherPaths) {
+            assertThat(failureOnAnotherThread(path)).isNull();
+        }
+    }
+}
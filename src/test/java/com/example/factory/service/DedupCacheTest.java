@@ -0,0 +1,109 @@
+package com.example.factory.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DedupCacheTest {
+
+    private static final Instant T0 = Instant.parse("2025-01-01T10:00:00Z");
+
+    private DedupCache cache(int maxEntries, long ttlSeconds) {
+        return new DedupCache(new SimpleMeterRegistry(), true, maxEntries, ttlSeconds);
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        DedupCache cache = cache(1000, 600);
+        cache.put(new DedupCache.Stored("E-1", 1L, T0));
+
+        assertThat(cache.matches("E-1", 1L)).isTrue();
+        assertThat(cache.matches("E-1", 2L)).isFalse();
+        assertThat(cache.matches("E-2", 1L)).isFalse();
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(2);
+    }
+
+    @Test
+    void newestReceivedTimeWinsWhenCommitsArriveOutOfOrder() {
+        DedupCache cache = cache(1000, 600);
+        cache.put(new DedupCache.Stored("E-1", 2L, T0.plusSeconds(5)));
+        cache.put(new DedupCache.Stored("E-1", 1L, T0));
+
+        assertThat(cache.matches("E-1", 2L)).isTrue();
+    }
+
+    @Test
+    void expiredAndOverflowingEntriesAreEvicted() throws Exception {
+        DedupCache expiring = cache(1000, 0);
+        expiring.put(new DedupCache.Stored("E-1", 1L, T0));
+        TimeUnit.MILLISECONDS.sleep(2);
+        assertThat(expiring.matches("E-1", 1L)).isFalse();
+        assertThat(expiring.evictions()).isEqualTo(1);
+
+        DedupCache bounded = cache(16, 600);
+        for (int i = 0; i < 1000; i++) {
+            bounded.put(new DedupCache.Stored("E-" + i, 1L, T0));
+        }
+        assertThat(bounded.size()).isLessThanOrEqualTo(16);
+        assertThat(bounded.evictions()).isGreaterThanOrEqualTo(1000 - 16);
+    }
+
+    @Test
+    void rowsBecomeVisibleOnlyAfterCommit() {
+        DedupCache cache = cache(1000, 600);
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.putAfterCommit(List.of(new DedupCache.Stored("E-1", 1L, T0)));
+        assertThat(cache.matches("E-1", 1L)).isFalse();
+
+        // rollback: synchronizations are dropped without afterCommit
+        TransactionSynchronizationManager.clearSynchronization();
+        assertThat(cache.matches("E-1", 1L)).isFalse();
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.putAfterCommit(List.of(new DedupCache.Stored("E-1", 1L, T0)));
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(TransactionSynchronization::afterCommit);
+        assertThat(cache.matches("E-1", 1L)).isTrue();
+    }
+
+    @Test
+    void concurrentWritersAndReadersStayConsistent() throws Exception {
+        DedupCache cache = cache(100_000, 600);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    String id = "E-" + (i % 2_000);
+                    cache.put(new DedupCache.Stored(id, thread, T0.plusNanos(i)));
+                    cache.matches(id, 0L);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(cache.size()).isEqualTo(2_000);
+        assertThat(cache.hits() + cache.misses()).isEqualTo(40_000);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.DistributionStatsResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.DistributionRepository;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Not @Transactional: the buckets of several committed batches are merged
+@SpringBootTest
+class DistributionServiceTest {
+
+    private static final Instant FROM = Instant.parse("2025-04-01T00:00:00Z");
+    private static final String FACTORY = "F-DS";
+
+    @Autowired
+    private DistributionService distributionService;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DistributionRepository distributionRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        distributionRepository.deleteAllBuckets();
+        dedupCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private static EventRequest event(String eventId, int machine, Instant eventTime, long durationMs, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = FACTORY;
+        e.lineId = "L-DS-" + machine % 2;
+        e.machineId = "M-DS-" + machine;
+        e.eventTime = eventTime;
+        e.durationMs = durationMs;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    // 4 machines on 2 lines over 2 days, long-tailed durations, ~1/10 unknown defects
+    private static List<EventRequest> events(String prefix, long seed) {
+        Random random = new Random(seed);
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 4_000; i++) {
+            events.add(event(prefix + i, random.nextInt(4), FROM.plusSeconds(random.nextInt(2 * 86_400)),
+                    (long) Math.exp(4 + random.nextDouble() * 10), random.nextInt(10) == 0 ? -1 : random.nextInt(6)));
+        }
+        return events;
+    }
+
+    private static void ingest(EventService eventService, List<EventRequest> events) {
+        for (int from = 0; from < events.size(); from += 500) {
+            eventService.processBatch(events.subList(from, Math.min(from + 500, events.size())));
+        }
+    }
+
+    // What a sketch of exactly the stored rows in [start, end) reports
+    private static DistributionStatsResponse fromRawRows(
+            List<EventEntity> rows, Predicate<EventEntity> filter, Instant start, Instant end) {
+        DistributionSketch durations = new DistributionSketch();
+        DistributionSketch defects = new DistributionSketch();
+        for (EventEntity e : rows) {
+            if (filter.test(e) && !e.getEventTime().isBefore(start) && e.getEventTime().isBefore(end)) {
+                durations.add(e.getDurationMs());
+                if (e.getDefectCount() >= 0) {
+                    defects.add(e.getDefectCount());
+                }
+            }
+        }
+        return new DistributionStatsResponse(null, null, null, start, end, durations.count(),
+                percentiles(durations), percentiles(defects));
+    }
+
+    private static DistributionStatsResponse.Percentiles percentiles(DistributionSketch sketch) {
+        return sketch.count() == 0 ? null : new DistributionStatsResponse.Percentiles(sketch.count(), sketch.mean(),
+                sketch.percentile(50), sketch.percentile(95), sketch.percentile(99));
+    }
+
+    private void assertMatchesRawRows() {
+        // unaligned, aligned and shorter than an hour
+        Instant[][] windows = {
+                {FROM.plusSeconds(1234), FROM.plusSeconds(86_400 + 777)},
+                {FROM, FROM.plusSeconds(2 * 86_400)},
+                {FROM.plusSeconds(7200 + 60), FROM.plusSeconds(7200 + 1800)}
+        };
+        List<EventEntity> rows = repository.findAll();
+        for (Instant[] w : windows) {
+            for (int machine = 0; machine < 4; machine++) {
+                String machineId = "M-DS-" + machine;
+                assertSame(distributionService.getMachineDistribution(machineId, w[0], w[1]),
+                        fromRawRows(rows, e -> e.getMachineId().equals(machineId), w[0], w[1]));
+            }
+            for (String lineId : new String[] {"L-DS-0", "L-DS-1"}) {
+                assertSame(distributionService.getLineDistribution(FACTORY, lineId, w[0], w[1]),
+                        fromRawRows(rows, e -> e.getFactoryId().equals(FACTORY) && e.getLineId().equals(lineId), w[0], w[1]));
+            }
+        }
+    }
+
+    private static void assertSame(DistributionStatsResponse actual, DistributionStatsResponse expected) {
+        assertThat(actual.eventsCount).isEqualTo(expected.eventsCount);
+        assertThat(actual.durationMs).usingRecursiveComparison().isEqualTo(expected.durationMs);
+        assertThat(actual.defectCount).usingRecursiveComparison().isEqualTo(expected.defectCount);
+    }
+
+    @Test
+    void bucketsAndEdgesMatchASketchOfTheRawRows() {
+        ingest(eventService, events("DS-", 25));
+        assertMatchesRawRows();
+
+        DistributionStatsResponse machine = distributionService.getMachineDistribution(
+                "M-DS-0", FROM, FROM.plusSeconds(2 * 86_400));
+        assertThat(machine.machineId).isEqualTo("M-DS-0");
+        assertThat(machine.durationMs.p50).isLessThanOrEqualTo(machine.durationMs.p95);
+        assertThat(machine.durationMs.p95).isLessThanOrEqualTo(machine.durationMs.p99);
+        assertThat(machine.defectCount.count).isLessThan(machine.eventsCount);
+    }
+
+    @Test
+    void updatesMoveValuesBetweenBuckets() {
+        List<EventRequest> events = events("DS-", 25);
+        ingest(eventService, events);
+
+        // a quarter of the events change machine, time, duration or defects
+        Random random = new Random(3);
+        List<EventRequest> updates = new ArrayList<>();
+        for (int i = 0; i < events.size(); i += 4) {
+            updates.add(event(events.get(i).eventId, random.nextInt(4), FROM.plusSeconds(random.nextInt(2 * 86_400)),
+                    random.nextInt(100_000), random.nextInt(3)));
+        }
+        ingest(eventService, updates);
+        assertMatchesRawRows();
+    }
+
+    @Test
+    void rebuildRecomputesTheBuckets() {
+        ingest(eventService, events("DS-", 25));
+        distributionRepository.deleteAllBuckets();
+        assertThat(distributionService.getMachineDistribution("M-DS-1", FROM, FROM.plusSeconds(86_400)).durationMs)
+                .isNull();
+
+        assertThat(distributionService.rebuild()).isGreaterThanOrEqualTo(4_000);
+        assertMatchesRawRows();
+    }
+
+    @Test
+    void emptyWindowHasNoPercentiles() {
+        DistributionStatsResponse empty = distributionService.getLineDistribution(
+                FACTORY, "L-DS-9", FROM, FROM.plusSeconds(3 * 3600));
+        assertThat(empty.eventsCount).isZero();
+        assertThat(empty.durationMs).isNull();
+        assertThat(empty.defectCount).isNull();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.factory.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DistributionSketchTest {
+
+    private static long exactPercentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.max(0, Math.ceil(percentile / 100 * sorted.length) - 1)];
+    }
+
+    @Test
+    void percentilesAreWithinTheBinWidthOfExactOnes() {
+        Random random = new Random(25);
+        long[] values = new long[20_000];
+        DistributionSketch sketch = new DistributionSketch();
+        for (int i = 0; i < values.length; i++) {
+            // long-tailed, from 0 up to the 6 h duration limit
+            values[i] = Math.min((long) Math.exp(random.nextDouble() * 17), 6L * 3600 * 1000);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[] {1, 25, 50, 90, 95, 99, 99.9, 100}) {
+            long exact = exactPercentile(values, p);
+            assertThat((double) sketch.percentile(p)).as("p%s", p).isCloseTo(exact, within(exact / 64.0 + 0.5));
+        }
+        assertThat(sketch.count()).isEqualTo(values.length);
+        assertThat(sketch.mean()).isCloseTo(Arrays.stream(values).average().orElseThrow(), within(1e-6));
+    }
+
+    @Test
+    void valuesBelow64AreExact() {
+        DistributionSketch sketch = new DistributionSketch();
+        for (int v = 0; v < 64; v++) {
+            sketch.add(v);
+        }
+        assertThat(sketch.percentile(50)).isEqualTo(31);
+        assertThat(sketch.percentile(100)).isEqualTo(63);
+        assertThat(new DistributionSketch().percentile(50)).isEqualTo(-1);
+    }
+
+    @Test
+    void mergedSketchesEqualOneSketchOfAllValues() {
+        Random random = new Random(7);
+        DistributionSketch all = new DistributionSketch();
+        DistributionSketch merged = new DistributionSketch();
+        for (int part = 0; part < 5; part++) {
+            DistributionSketch sketch = new DistributionSketch();
+            for (int i = 0; i < 1_000; i++) {
+                long value = random.nextInt(1 << (4 * part + 4));
+                sketch.add(value);
+                all.add(value);
+            }
+            merged.merge(sketch);
+        }
+        assertThat(merged.toBytes()).isEqualTo(all.toBytes());
+    }
+
+    @Test
+    void takingValuesAwayUndoesAddingThem() {
+        DistributionSketch sketch = new DistributionSketch();
+        sketch.add(1200);
+        sketch.add(5);
+        DistributionSketch delta = new DistributionSketch();
+        delta.add(1200, -1);
+        delta.add(900_000);
+        sketch.merge(DistributionSketch.fromBytes(delta.toBytes()));
+
+        assertThat(sketch.count()).isEqualTo(2);
+        assertThat(sketch.percentile(50)).isEqualTo(5);
+        assertThat(sketch.mean()).isEqualTo((5 + 900_000) / 2.0);
+
+        sketch.add(900_000, -1);
+        sketch.add(5, -1);
+        assertThat(sketch.isEmpty()).isTrue();
+    }
+
+    @Test
+    void encodingRoundTripsAndIsCompact() {
+        Random random = new Random(3);
+        DistributionSketch sketch = new DistributionSketch();
+        for (int i = 0; i < 3_600; i++) {
+            sketch.add(1000 + random.nextInt(500));
+        }
+        byte[] bytes = sketch.toBytes();
+        DistributionSketch decoded = DistributionSketch.fromBytes(bytes);
+
+        assertThat(decoded.toBytes()).isEqualTo(bytes);
+        assertThat(decoded.count()).isEqualTo(3_600);
+        assertThat(decoded.percentile(95)).isEqualTo(sketch.percentile(95));
+        // 17 bins between 1000 and 1500, 3 bytes each
+        assertThat(bytes.length).isLessThan(64);
+        assertThat(DistributionSketch.fromBytes(new byte[0]).count()).isZero();
+    }
+}
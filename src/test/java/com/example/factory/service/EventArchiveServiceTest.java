@@ -0,0 +1,258 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.DistributionStatsResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.ColdSegmentStore;
+import com.example.factory.repository.DistributionRepository;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.EventWriteRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Not @Transactional: archiving deletes committed rows in its own transactions.
+// Rollup and archive state persist across steps, so the whole lifecycle is one test.
+@SpringBootTest
+class EventArchiveServiceTest {
+
+    private static final Instant FIRST_DAY = Instant.parse("2025-02-01T00:00:00Z");
+    private static final Instant CUTOFF = Instant.parse("2025-02-05T00:00:00Z");
+    private static final String[] MACHINES = {"M-AR-1", "M-AR-2", "M-AR-3", "M-AR-4"};
+
+    @TempDir
+    static Path archiveDir;
+
+    @DynamicPropertySource
+    static void archiveDir(DynamicPropertyRegistry registry) {
+        registry.add("events.archive.dir", () -> archiveDir.toString());
+    }
+
+    @Autowired
+    private EventArchiveService archiveService;
+
+    @Autowired
+    private ColdSegmentStore coldStore;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private RollupService rollupService;
+
+    @Autowired
+    private DistributionService distributionService;
+
+    @Autowired
+    private DistributionRepository distributionRepository;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private EventWriteRepository writeRepository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private StatsCache statsCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        distributionRepository.deleteAllBuckets();
+        dedupCache.invalidateAll();
+        statsCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private EventRequest event(String eventId, int machine, Instant eventTime, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-AR-" + machine % 2;
+        e.lineId = "L-AR-" + machine % 3;
+        e.machineId = MACHINES[machine];
+        e.eventTime = eventTime;
+        e.durationMs = 1000 + Math.floorMod(eventId.hashCode(), 5000);
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    // Windows before, across and after the cutoff, aligned and unaligned to hours
+    private static List<Instant[]> windows() {
+        return List.of(
+                new Instant[]{FIRST_DAY, FIRST_DAY.plusSeconds(8 * 86_400)},
+                new Instant[]{FIRST_DAY.plusSeconds(3 * 86_400 + 1234), FIRST_DAY.plusSeconds(5 * 86_400 + 777)},
+                new Instant[]{FIRST_DAY.plusSeconds(3600 + 59), FIRST_DAY.plusSeconds(2 * 86_400 - 1)},
+                new Instant[]{CUTOFF.minusSeconds(1), CUTOFF.plusSeconds(1)},
+                new Instant[]{CUTOFF, FIRST_DAY.plusSeconds(7 * 86_400 + 30)});
+    }
+
+    private static String percentiles(DistributionStatsResponse d) {
+        return d.eventsCount + " " + (d.durationMs == null ? "-" : d.durationMs.p50 + "/" + d.durationMs.p99)
+                + " " + (d.defectCount == null ? "-" : d.defectCount.p50 + "/" + d.defectCount.p95 + "/" + d.defectCount.mean);
+    }
+
+    // Stats, top lines and distributions of every window, as comparable strings, computed rather than cached
+    private Map<String, String> snapshot() {
+        statsCache.invalidateAll();
+        Map<String, String> results = new LinkedHashMap<>();
+        for (Instant[] w : windows()) {
+            for (String machineId : MACHINES) {
+                MachineStatsResponse stats = eventService.getStats(machineId, w[0], w[1]);
+                results.put(machineId + " " + w[0] + ".." + w[1], stats.eventsCount + "/" + stats.defectsCount);
+                results.put(machineId + " distribution " + w[0] + ".." + w[1],
+                        percentiles(distributionService.getMachineDistribution(machineId, w[0], w[1])));
+            }
+            for (String factoryId : new String[]{"F-AR-0", "F-AR-1"}) {
+                List<TopDefectLineResponse> lines = eventService.getTopDefectLines(factoryId, w[0], w[1], 2);
+                results.put(factoryId + " " + w[0] + ".." + w[1], lines.stream()
+                        .map(l -> l.lineId + "=" + l.totalDefects + "/" + l.eventCount)
+                        .toList().toString());
+                results.put(factoryId + " L-AR-1 distribution " + w[0] + ".." + w[1],
+                        percentiles(distributionService.getLineDistribution(factoryId, "L-AR-1", w[0], w[1])));
+            }
+        }
+        return results;
+    }
+
+    @Test
+    void archivedDaysAreServedFromSegmentsWithTheSameResults() {
+        // 8 days, with events on the window edges and ~1/10 unknown defects
+        Random random = new Random(23);
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            Instant time = FIRST_DAY.plusSeconds(random.nextInt(8 * 86_400));
+            if (i % 50 == 0) {
+                time = windows().get(i / 50 % 5)[i % 100 == 0 ? 0 : 1];
+            }
+            events.add(event("AR-" + i, random.nextInt(MACHINES.length), time,
+                    random.nextInt(10) == 0 ? -1 : random.nextInt(5)));
+        }
+        for (int from = 0; from < events.size(); from += 500) {
+            eventService.processBatch(events.subList(from, from + 500));
+        }
+        long total = repository.count();
+        Map<String, String> before = snapshot();
+        Instant[] window = windows().get(0);
+        eventService.getStats(MACHINES[0], window[0], window[1]);
+        assertThat(statsCache.size()).isPositive();
+
+        long moved = archiveService.archiveBefore(CUTOFF);
+        // the watermark moved, so results cached before are gone
+        assertThat(statsCache.size()).isZero();
+
+        assertThat(moved).isPositive();
+        assertThat(repository.count()).isEqualTo(total - moved);
+        assertThat(repository.findAll()).allMatch(e -> !e.getEventTime().isBefore(CUTOFF));
+        // 4 days x 2 factories
+        assertThat(coldStore.segmentCount()).isEqualTo(8);
+        assertThat(coldStore.archivedBefore()).isEqualTo(CUTOFF);
+        assertThat(snapshot()).isEqualTo(before);
+
+        // late events of archived days go into their segments, with the usual dedup and update rules
+        EventRequest archived = events.stream().filter(e -> e.eventTime.isBefore(CUTOFF)).findFirst().orElseThrow();
+        int machine = List.of(MACHINES).indexOf(archived.machineId);
+        EventRequest update = event(archived.eventId, machine, archived.eventTime, archived.defectCount == 4 ? 3 : 4);
+        long[] archivedBefore = new long[2];
+        coldStore.sum(archived.machineId, FIRST_DAY, CUTOFF, archivedBefore);
+        long[] lateBefore = new long[2];
+        coldStore.sum(MACHINES[0], FIRST_DAY, CUTOFF, lateBefore);
+        MachineStatsResponse statsBefore = eventService.getStats(MACHINES[0], window[0], window[1]);
+
+        BatchResponse late = eventService.processBatch(List.of(event("AR-LATE", 0, CUTOFF.minusSeconds(60), 1), update));
+        assertThat(late.accepted).isEqualTo(1);
+        assertThat(late.updated).isEqualTo(1);
+        assertThat(late.rejected).isZero();
+        assertThat(repository.count()).isEqualTo(total - moved);
+        // the cached stats of the late event's machine are invalidated
+        MachineStatsResponse statsAfter = eventService.getStats(MACHINES[0], window[0], window[1]);
+        assertThat(statsAfter.eventsCount).isEqualTo(statsBefore.eventsCount + 1);
+
+        long[] archivedAfter = new long[2];
+        coldStore.sum(archived.machineId, FIRST_DAY, CUTOFF, archivedAfter);
+        long[] lateAfter = new long[2];
+        coldStore.sum(MACHINES[0], FIRST_DAY, CUTOFF, lateAfter);
+        long defectsChange = update.defectCount - Math.max(archived.defectCount, 0);
+        if (archived.machineId.equals(MACHINES[0])) {
+            assertThat(lateAfter).containsExactly(lateBefore[0] + 1, lateBefore[1] + 1 + defectsChange);
+        } else {
+            assertThat(lateAfter).containsExactly(lateBefore[0] + 1, lateBefore[1] + 1);
+            assertThat(archivedAfter).containsExactly(archivedBefore[0], archivedBefore[1] + defectsChange);
+        }
+        assertThat(coldStore.segmentCount()).isEqualTo(8);
+
+        // decided against the segment's copy: a payload received earlier is ignored, a retransmission deduped
+        dedupCache.invalidateAll();
+        BatchResponse older = eventService.processBatch(
+                List.of(event(archived.eventId, machine, archived.eventTime, 0)), FIRST_DAY);
+        BatchResponse again = eventService.processBatch(List.of(update));
+        assertThat(older.ignored).isEqualTo(1);
+        assertThat(again.deduped).isEqualTo(1);
+        Map<String, String> afterLate = snapshot();
+        assertThat(afterLate).isNotEqualTo(before);
+
+        // the rollup and distribution rebuilds count the archived events again, late ones included
+        eventService.getStats(MACHINES[0], window[0], window[1]);
+        rollupService.rebuild();
+        assertThat(statsCache.size()).isZero();
+        eventService.getStats(MACHINES[0], window[0], window[1]);
+        distributionService.rebuild();
+        assertThat(statsCache.size()).isZero();
+        assertThat(snapshot()).isEqualTo(afterLate);
+
+        // a row left behind in the table (e.g. by an interrupted run) takes its late updates there,
+        // and is merged into its segment by the next run
+        writeRepository.insertIfAbsent(List.of(new EventEntity("AR-LEFTOVER", CUTOFF.minusSeconds(3600),
+                FIRST_DAY, "F-AR-0", "L-AR-0", MACHINES[0], 1000, 3, 1L)));
+        long[] machineTotals = new long[2];
+        coldStore.sum(MACHINES[0], FIRST_DAY, CUTOFF, machineTotals);
+
+        BatchResponse leftover = eventService.processBatch(
+                List.of(event("AR-LEFTOVER", 0, CUTOFF.minusSeconds(3600), 2)));
+        assertThat(leftover.updated).isEqualTo(1);
+        assertThat(repository.findById("AR-LEFTOVER")).get().extracting(EventEntity::getDefectCount).isEqualTo(2);
+        long[] unchanged = new long[2];
+        coldStore.sum(MACHINES[0], FIRST_DAY, CUTOFF, unchanged);
+        assertThat(unchanged).containsExactly(machineTotals);
+
+        eventService.getStats(MACHINES[0], window[0], window[1]);
+
+        assertThat(archiveService.archiveBefore(CUTOFF)).isEqualTo(1);
+        assertThat(statsCache.size()).isZero();
+        long[] merged = new long[2];
+        coldStore.sum(MACHINES[0], FIRST_DAY, CUTOFF, merged);
+        assertThat(merged).containsExactly(machineTotals[0] + 1, machineTotals[1] + 2);
+        assertThat(coldStore.segmentCount()).isEqualTo(8);
+
+        // nothing left to move
+        assertThat(archiveService.archiveBefore(CUTOFF)).isZero();
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.EventExportRepository.Scope;
+import com.example.factory.repository.EventRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// A page size of 7 puts page boundaries inside runs of equal event times
+@SpringBootTest(properties = "events.export.page-size=7")
+@Transactional
+class EventExportServiceTest {
+
+    private static final Instant FROM = Instant.parse("2025-04-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2025-04-01T01:00:00Z");
+
+    @Autowired
+    private EventExportService exportService;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private EventRequest event(String eventId, String machineId, Instant eventTime) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-EXP";
+        e.lineId = "L01";
+        e.machineId = machineId;
+        e.eventTime = eventTime;
+        e.durationMs = 1000;
+        e.defectCount = 1;
+        return e;
+    }
+
+    // 60 events of M-EXP-1 on 6 distinct times in the window (10 per time), others outside it or on M-EXP-2
+    private List<String> ingest() {
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            events.add(event("EXP-" + (i * 37 % 60), "M-EXP-1", FROM.plusSeconds(i % 6 * 600)));
+        }
+        events.add(event("EXP-BEFORE", "M-EXP-1", FROM.minusSeconds(1)));
+        events.add(event("EXP-AT-END", "M-EXP-1", TO));
+        events.add(event("EXP-OTHER", "M-EXP-2", FROM.plusSeconds(5)));
+        eventService.processBatch(events);
+
+        return repository.findAll().stream()
+                .filter(e -> e.getMachineId().equals("M-EXP-1"))
+                .filter(e -> !e.getEventTime().isBefore(FROM) && e.getEventTime().isBefore(TO))
+                .sorted(Comparator.comparing(EventEntity::getEventTime).thenComparing(EventEntity::getEventId))
+                .map(EventEntity::getEventId)
+                .toList();
+    }
+
+    private List<JsonNode> exportNdjson(Scope scope, String id, Instant afterTime, String afterEventId, long limit)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = exportService.export(scope, id, FROM, TO, afterTime, afterEventId, limit,
+                EventExportService.Format.NDJSON, out);
+
+        List<JsonNode> rows = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                rows.add(objectMapper.readTree(line));
+            }
+        }
+        assertThat(rows).hasSize((int) written);
+        return rows;
+    }
+
+    @Test
+    void ndjsonExportPagesThroughTiesInOrder() throws Exception {
+        List<String> expected = ingest();
+
+        List<JsonNode> rows = exportNdjson(Scope.MACHINE, "M-EXP-1", null, null, 0);
+
+        assertThat(rows).extracting(r -> r.get("eventId").asText()).containsExactlyElementsOf(expected);
+        JsonNode first = rows.get(0);
+        assertThat(first.get("eventTime").asText()).isEqualTo(FROM.toString());
+        assertThat(first.get("machineId").asText()).isEqualTo("M-EXP-1");
+        assertThat(first.get("defectCount").asInt()).isEqualTo(1);
+        assertThat(first.has("receivedTime")).isTrue();
+
+        // the factory scope adds M-EXP-2's event
+        assertThat(exportNdjson(Scope.FACTORY, "F-EXP", null, null, 0)).hasSize(expected.size() + 1);
+    }
+
+    @Test
+    void exportResumesAfterTheLastRowReceived() throws Exception {
+        List<String> expected = ingest();
+
+        List<String> exported = new ArrayList<>();
+        Instant afterTime = null;
+        String afterEventId = null;
+        while (true) {
+            List<JsonNode> part = exportNdjson(Scope.MACHINE, "M-EXP-1", afterTime, afterEventId, 11);
+            if (part.isEmpty()) {
+                break;
+            }
+            assertThat(part).hasSizeLessThanOrEqualTo(11);
+            part.forEach(r -> exported.add(r.get("eventId").asText()));
+            JsonNode last = part.get(part.size() - 1);
+            afterTime = Instant.parse(last.get("eventTime").asText());
+            afterEventId = last.get("eventId").asText();
+        }
+
+        assertThat(exported).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void csvQuotesFieldsThatNeedIt() throws Exception {
+        eventService.processBatch(List.of(event("EXP-\"Q\",1", "M-EXP-CSV", FROM.plusSeconds(1))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.export(Scope.MACHINE, "M-EXP-CSV", FROM, TO, null, null, 0,
+                EventExportService.Format.CSV, out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).isEqualTo("eventId,eventTime,receivedTime,factoryId,lineId,machineId,durationMs,defectCount");
+        assertThat(lines[1])
+                .startsWith("\"EXP-\"\"Q\"\",1\",2025-04-01T00:00:01Z,")
+                .endsWith(",F-EXP,L01,M-EXP-CSV,1000,1");
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.EventRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Run with: mvn test -Dtest=EventIngestBenchmarkTest -Dbenchmark=true
+// The dedup cache is off so both modes pay for their DB lookups
+@SpringBootTest(properties = "events.dedup-cache.enabled=false")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class EventIngestBenchmarkTest {
+
+    private static final Instant BASE_TIME = Instant.parse("2025-01-01T00:00:00Z");
+    private static final int[] BATCH_SIZES = {1_000, 10_000, 100_000};
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+    }
+
+    private List<EventRequest> generate(int size, int durationMs) {
+        List<EventRequest> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            EventRequest e = new EventRequest();
+            e.eventId = "E-" + i;
+            e.factoryId = "F0" + (i % 4);
+            e.lineId = "L" + (i % 40);
+            e.machineId = "M-" + (i % 400);
+            e.eventTime = BASE_TIME.plusSeconds(i);
+            // every second event changes payload on the second pass
+            e.durationMs = i % 2 == 0 ? 1000 : durationMs;
+            e.defectCount = i % 5;
+            events.add(e);
+        }
+        return events;
+    }
+
+    private long timeMillis(List<EventRequest> events, EventService.IngestMode mode) {
+        long start = System.nanoTime();
+        eventService.processBatch(events, mode);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    @Test
+    void compareIngestModes() {
+        // warm up JIT, connection pool and Hibernate metadata
+        for (EventService.IngestMode mode : EventService.IngestMode.values()) {
+            eventService.processBatch(generate(1_000, 1000), mode);
+            repository.deleteAllInBatch();
+        }
+
+        System.out.println("| Batch Size | Mode | Insert (ms) | Mixed update (ms) |");
+        System.out.println("| ---------- | ---- | ----------- | ----------------- |");
+
+        for (int size : BATCH_SIZES) {
+            for (EventService.IngestMode mode : EventService.IngestMode.values()) {
+                long insertMs = timeMillis(generate(size, 1000), mode);
+
+                Instant before = Instant.now();
+                while (!Instant.now().isAfter(before)) {
+                    Thread.onSpinWait();
+                }
+                long mixedStart = System.nanoTime();
+                BatchResponse mixed = eventService.processBatch(generate(size, 2000), mode);
+                long mixedMs = (System.nanoTime() - mixedStart) / 1_000_000;
+
+                assertThat(mixed.updated).isEqualTo(size / 2);
+                assertThat(mixed.deduped).isEqualTo(size - size / 2);
+
+                System.out.printf("| %,d | %s | %d | %d |%n", size, mode, insertMs, mixedMs);
+                repository.deleteAllInBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Not @Transactional: outcome counters are published after commit
+@SpringBootTest
+@AutoConfigureObservability
+class EventMetricsTest {
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PrometheusMeterRegistry prometheusRegistry;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private StatsCache statsCache;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+        statsCache.invalidateAll();
+    }
+
+    private EventRequest event(String eventId, String factoryId) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = factoryId;
+        e.lineId = "L01";
+        e.machineId = "M-METRICS";
+        e.eventTime = Instant.parse("2025-01-01T10:00:00Z");
+        e.durationMs = 1000;
+        e.defectCount = 0;
+        return e;
+    }
+
+    private double outcomes(String outcome, String factory, String reason) {
+        var counter = meterRegistry.find("events.ingest.outcomes")
+                .tags("outcome", outcome, "factory", factory, "reason", reason)
+                .counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void countsOutcomesPerFactoryAndReason() {
+        List<EventRequest> batch = new ArrayList<>();
+        batch.add(event("MET-1", "F-MET-A"));
+        batch.add(event("MET-1", "F-MET-A"));
+        batch.add(event("MET-2", "F-MET-B"));
+        EventRequest invalid = event("MET-3", "F-MET-B");
+        invalid.durationMs = -1;
+        batch.add(invalid);
+
+        eventService.processBatch(batch);
+
+        assertThat(outcomes("accepted", "F-MET-A", "none")).isEqualTo(1);
+        assertThat(outcomes("deduped", "F-MET-A", "none")).isEqualTo(1);
+        assertThat(outcomes("accepted", "F-MET-B", "none")).isEqualTo(1);
+        assertThat(outcomes("rejected", "F-MET-B", "INVALID_DURATION")).isEqualTo(1);
+
+        // retransmission answered by the dedup cache
+        eventService.processBatch(List.of(event("MET-2", "F-MET-B")));
+        assertThat(outcomes("deduped", "F-MET-B", "none")).isEqualTo(1);
+    }
+
+    @Test
+    void recordsStageAndQueryTimers() {
+        long before = meterRegistry.get("events.ingest.stage").tag("stage", "lookup").timer().count();
+
+        eventService.processBatch(List.of(event("MET-T1", "F-MET-T")));
+        eventService.getStats("M-METRICS",
+                Instant.parse("2025-01-01T00:00:00Z"), Instant.parse("2025-01-02T00:00:00Z"));
+        eventService.getTopDefectLines("F-MET-T",
+                Instant.parse("2025-01-01T00:00:00Z"), Instant.parse("2025-01-02T00:00:00Z"), 5);
+
+        assertThat(meterRegistry.get("events.ingest.stage").tag("stage", "lookup").timer().count())
+                .isEqualTo(before + 1);
+        assertThat(meterRegistry.get("events.ingest.batch.size").summary().count()).isPositive();
+        assertThat(meterRegistry.get("events.query").tag("query", "machine-stats").timer().count()).isPositive();
+        assertThat(meterRegistry.get("events.query").tag("query", "top-defect-lines").timer().count()).isPositive();
+
+        String scrape = prometheusRegistry.scrape();
+        assertThat(scrape)
+                .contains("events_ingest_stage_seconds_bucket{stage=\"write\"")
+                .contains("events_ingest_batch_seconds_count{mode=\"BULK\"")
+                .contains("events_ingest_outcomes_total{factory=\"F-MET-T\",outcome=\"accepted\",reason=\"none\"")
+                .contains("events_query_seconds_bucket{query=\"top-defect-lines\"");
+    }
+}
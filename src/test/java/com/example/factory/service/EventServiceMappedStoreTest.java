@@ -0,0 +1,24 @@
+package com.example.factory.service;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+
+// The EventServiceTest cases against the memory-mapped store
+@SpringBootTest(properties = {
+        "events.store.engine=mmap",
+        "events.timeseries.enabled=false"
+})
+class EventServiceMappedStoreTest extends EventServiceTest {
+
+    @TempDir
+    static Path storeDir;
+
+    @DynamicPropertySource
+    static void storeDir(DynamicPropertyRegistry registry) {
+        registry.add("events.store.dir", () -> storeDir.toString());
+    }
+}
@@ -3,7 +3,8 @@ package com.example.factory.service;
 import com.example.factory.dto.BatchResponse;
 import com.example.factory.dto.EventRequest;
 import com.example.factory.dto.MachineStatsResponse;
-import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.EventStore;
+import com.example.factory.repository.WindowTotals;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -12,7 +13,9 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
@@ -28,11 +31,18 @@ class EventServiceTest {
     private EventService eventService;
 
     @Autowired
-    private EventRepository repository;
+    private EventStore repository;
+
+    @Autowired
+    private RollupService rollupService;
+
+    @Autowired
+    private DedupCache dedupCache;
 
     @AfterEach
     void cleanDatabase() {
         repository.deleteAll();
+        dedupCache.invalidateAll();
     }
 
     private EventRequest baseEvent(String eventId, int defectCount) {
@@ -146,5 +156,88 @@ class EventServiceTest {
         assertThat(repository.count()).isEqualTo(1);
     }
 
+    @Test
+    void statsFromRollupMatchRawRowsAcrossUpdates() {
+        Instant start = Instant.parse("2025-01-01T08:30:00Z");
+        Instant end = Instant.parse("2025-01-01T12:15:00Z");
+
+        List<EventRequest> events = IntStream.range(0, 24)
+                .mapToObj(i -> {
+                    EventRequest e = baseEvent("R-" + i, i % 3 == 0 ? -1 : i % 4);
+                    e.machineId = "M-ROLLUP";
+                    e.eventTime = start.minusSeconds(600).plusSeconds(i * 600L);
+                    return e;
+                })
+                .toList();
+        eventService.processBatch(events);
+
+        // moves an event to another hour with a new defect count
+        EventRequest moved = baseEvent("R-5", 7);
+        moved.machineId = "M-ROLLUP";
+        moved.eventTime = Instant.parse("2025-01-01T11:05:00Z");
+        eventService.processBatch(List.of(moved));
+
+        WindowTotals raw = repository.sumMachineWindow("M-ROLLUP", start, end);
+        long expectedEvents = raw.getEventsCount();
+        long expectedDefects = raw.getDefectsCount();
+
+        MachineStatsResponse stats = eventService.getStats("M-ROLLUP", start, end);
+        assertThat(stats.eventsCount).isEqualTo(expectedEvents);
+        assertThat(stats.defectsCount).isEqualTo(expectedDefects);
+
+        rollupService.rebuild();
+        MachineStatsResponse rebuilt = eventService.getStats("M-ROLLUP", start, end);
+        assertThat(rebuilt.eventsCount).isEqualTo(expectedEvents);
+        assertThat(rebuilt.defectsCount).isEqualTo(expectedDefects);
+    }
+
+    @Test
+    void uncommittedBatchIsNotVisibleInDedupCache() {
+        EventRequest event = baseEvent("E-UNCOMMITTED");
+        eventService.processBatch(List.of(event));
+
+        // the test transaction is still open (and will be rolled back)
+        assertThat(dedupCache.matches("E-UNCOMMITTED", PayloadFingerprint.of(event))).isFalse();
+    }
+
+    @Test
+    void bulkAndPerEventModesReportSameCounters() {
+        Map<EventService.IngestMode, BatchResponse> responses = new EnumMap<>(EventService.IngestMode.class);
+        for (EventService.IngestMode mode : EventService.IngestMode.values()) {
+            eventService.processBatch(List.of(
+                    baseEvent("E-1"),
+                    baseEvent("E-2")
+            ), mode);
+
+            EventRequest changed = baseEvent("E-2");
+            changed.durationMs = 2000;
+            EventRequest bad = baseEvent("E-4");
+            bad.durationMs = -1;
+
+            BatchResponse response = eventService.processBatch(List.of(
+                    baseEvent("E-1"),
+                    changed,
+                    baseEvent("E-3"),
+                    baseEvent("E-3"),
+                    bad
+            ), mode);
+
+            // E-3 is accepted once and then deduped, like the unchanged E-1; the changed E-2 arrives later
+            assertThat(response.accepted).as(mode.name()).isEqualTo(1);
+            assertThat(response.updated).as(mode.name()).isEqualTo(1);
+            assertThat(response.ignored).as(mode.name()).isZero();
+            assertThat(response.deduped).as(mode.name()).isEqualTo(2);
+            assertThat(response.rejected).as(mode.name()).isEqualTo(1);
+            assertThat(repository.findById("E-2").orElseThrow().getDurationMs()).as(mode.name()).isEqualTo(2000);
+            responses.put(mode, response);
+
+            repository.deleteAll();
+        }
+
+        assertThat(responses.get(EventService.IngestMode.BULK))
+                .usingRecursiveComparison()
+                .isEqualTo(responses.get(EventService.IngestMode.PER_EVENT));
+    }
+
 
 }
@@ -0,0 +1,139 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventSpoolTest {
+
+    private static final Instant RECEIVED = Instant.parse("2025-01-01T10:00:00.123456Z");
+
+    @TempDir
+    Path dir;
+
+    private static List<EventRequest> batch(String eventId) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.eventTime = Instant.parse("2025-01-01T09:59:00Z");
+        e.machineId = "M-SPOOL";
+        e.durationMs = 1000;
+        e.defectCount = 1;
+        e.factoryId = "F01";
+        e.lineId = "L01";
+        return List.of(e);
+    }
+
+    private static List<Long> readAll(EventSpool spool, Map<Long, String> expected) throws Exception {
+        List<Long> sequences = new ArrayList<>();
+        EventSpool.Record record;
+        while ((record = spool.next()) != null) {
+            assertThat(record.events().get(0).eventId).isEqualTo(expected.get(record.sequence()));
+            assertThat(record.receivedTime()).isEqualTo(RECEIVED);
+            sequences.add(record.sequence());
+        }
+        return sequences;
+    }
+
+    private Path lastSegment() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.toString().endsWith(".spool")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    @Test
+    void concurrentAppendsComeBackInOrderAcrossSegmentsAndRestarts() throws Exception {
+        Map<Long, String> appended = new ConcurrentHashMap<>();
+        try (EventSpool spool = new EventSpool(dir, 4096)) {
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<?>> appenders = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    int thread = t;
+                    appenders.add(pool.submit(() -> {
+                        for (int i = 0; i < 50; i++) {
+                            String eventId = "E-" + thread + "-" + i;
+                            appended.put(spool.append(batch(eventId), RECEIVED), eventId);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> appender : appenders) {
+                    appender.get();
+                }
+            } finally {
+                pool.shutdown();
+            }
+
+            assertThat(appended.keySet()).hasSize(400).allMatch(s -> s >= 1 && s <= 400);
+            assertThat(spool.syncs()).isBetween(1L, 400L);
+            assertThat(spool.segmentCount()).isGreaterThan(1);
+            assertThat(readAll(spool, appended)).hasSize(400).isSorted();
+        }
+
+        // nothing was confirmed as replayed, so a restart reads everything again
+        try (EventSpool reopened = new EventSpool(dir, 4096)) {
+            assertThat(reopened.pending()).isEqualTo(400);
+            assertThat(readAll(reopened, appended)).hasSize(400).isSorted();
+        }
+    }
+
+    @Test
+    void recordTornByACrashIsDroppedOnOpen() throws Exception {
+        Map<Long, String> appended = new ConcurrentHashMap<>();
+        try (EventSpool spool = new EventSpool(dir, 1 << 20)) {
+            for (int i = 1; i <= 3; i++) {
+                appended.put(spool.append(batch("E-" + i), RECEIVED), "E-" + i);
+            }
+        }
+        try (FileChannel segment = FileChannel.open(lastSegment(), StandardOpenOption.WRITE)) {
+            segment.truncate(segment.size() - 5);
+        }
+
+        try (EventSpool recovered = new EventSpool(dir, 1 << 20)) {
+            assertThat(recovered.lastSequence()).isEqualTo(2);
+            assertThat(recovered.append(batch("E-new"), RECEIVED)).isEqualTo(3);
+            appended.put(3L, "E-new");
+            assertThat(readAll(recovered, appended)).containsExactly(1L, 2L, 3L);
+        }
+    }
+
+    @Test
+    void replayedSegmentsAreDeletedAndReadingResumesAfterTheCheckpoint() throws Exception {
+        Map<Long, String> appended = new ConcurrentHashMap<>();
+        try (EventSpool spool = new EventSpool(dir, 256)) {
+            for (int i = 1; i <= 20; i++) {
+                appended.put(spool.append(batch("E-" + i), RECEIVED), "E-" + i);
+            }
+            int segments = spool.segmentCount();
+            long size = spool.sizeBytes();
+            for (int i = 1; i <= 12; i++) {
+                spool.markReplayed(spool.next().sequence());
+            }
+            assertThat(spool.segmentCount()).isLessThan(segments);
+            assertThat(spool.sizeBytes()).isLessThan(size);
+            assertThat(spool.pending()).isEqualTo(8);
+        }
+
+        try (EventSpool reopened = new EventSpool(dir, 256)) {
+            assertThat(reopened.replayed()).isEqualTo(12);
+            assertThat(readAll(reopened, appended)).containsExactly(13L, 14L, 15L, 16L, 17L, 18L, 19L, 20L);
+            assertThat(reopened.append(batch("E-21"), RECEIVED)).isEqualTo(21);
+        }
+    }
+}
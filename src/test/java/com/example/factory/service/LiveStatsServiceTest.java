@@ -0,0 +1,176 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Not @Transactional: pushes are triggered by commits
+@SpringBootTest
+class LiveStatsServiceTest {
+
+    @Autowired
+    private LiveStatsService liveStatsService;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private StatsCache statsCache;
+
+    // Collects the JSON payload of every event sent, optionally blocking the first send
+    private static class RecordingEmitter extends SseEmitter {
+
+        final BlockingQueue<Object> sent = new LinkedBlockingQueue<>();
+        final CountDownLatch firstSendStarted = new CountDownLatch(1);
+        final CountDownLatch release;
+        int received;
+
+        RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            firstSendStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            builder.build().stream()
+                    .filter(d -> MediaType.APPLICATION_JSON.equals(d.getMediaType()))
+                    .forEach(d -> sent.add(d.getData()));
+        }
+
+        // The minute tick can push extra states at any time, so tests wait for the one they expect
+        @SuppressWarnings("unchecked")
+        <T> T await(Predicate<T> expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                T payload = (T) sent.poll(100, TimeUnit.MILLISECONDS);
+                if (payload != null) {
+                    received++;
+                    if (expected.test(payload)) {
+                        return payload;
+                    }
+                }
+            }
+            throw new AssertionError("expected state was not pushed");
+        }
+    }
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+        statsCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private EventRequest event(String eventId, String machineId, String lineId, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-LIVE";
+        e.lineId = lineId;
+        e.machineId = machineId;
+        e.eventTime = Instant.now().minusSeconds(120);
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    @Test
+    void everySubscriberOfAMachineGetsTheCommittedState() throws Exception {
+        RecordingEmitter first = new RecordingEmitter(new CountDownLatch(0));
+        RecordingEmitter second = new RecordingEmitter(new CountDownLatch(0));
+        liveStatsService.subscribeMachine("M-LIVE-1", 60, first);
+        liveStatsService.subscribeMachine("M-LIVE-1", 60, second);
+
+        first.<MachineStatsResponse>await(s -> s.eventsCount == 0);
+        second.<MachineStatsResponse>await(s -> s.eventsCount == 0);
+
+        eventService.processBatch(List.of(
+                event("LIVE-1", "M-LIVE-1", "L01", 2),
+                event("LIVE-2", "M-LIVE-1", "L01", -1),
+                event("LIVE-3", "M-LIVE-2", "L01", 5)));
+
+        for (RecordingEmitter emitter : List.of(first, second)) {
+            MachineStatsResponse stats = emitter.await(s -> s.eventsCount == 2);
+            assertThat(stats.defectsCount).isEqualTo(2);
+            assertThat(stats.end).isAfter(Instant.now());
+        }
+    }
+
+    @Test
+    void factoryTopLinesMatchTheDatabaseQuery() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        liveStatsService.subscribeFactory("F-LIVE", 60, 2, emitter);
+        emitter.<List<TopDefectLineResponse>>await(List::isEmpty);
+
+        List<EventRequest> batch = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            batch.add(event("LINE-" + i, "M-LIVE-" + (i % 4), "L0" + (i % 3), i % 5));
+        }
+        eventService.processBatch(batch);
+
+        List<TopDefectLineResponse> pushed = emitter.await(lines -> !lines.isEmpty());
+        Instant now = Instant.now();
+        List<TopDefectLineResponse> queried =
+                eventService.getTopDefectLines("F-LIVE", now.minusSeconds(3600), now, 2);
+
+        assertThat(pushed).hasSize(2);
+        assertThat(pushed).usingRecursiveFieldByFieldElementComparator().isEqualTo(queried);
+    }
+
+    @Test
+    void slowSubscriberGetsTheLatestStateInsteadOfABacklog() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(release);
+        liveStatsService.subscribeMachine("M-LIVE-SLOW", 60, slow);
+        assertThat(slow.firstSendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // the initial send is stuck while 20 batches commit
+        for (int i = 0; i < 20; i++) {
+            eventService.processBatch(List.of(event("SLOW-" + i, "M-LIVE-SLOW", "L01", 1)));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        slow.<MachineStatsResponse>await(s -> s.eventsCount == 20);
+        // the stuck initial state, then the newest one (plus at most a minute tick), not 20 intermediate states
+        assertThat(slow.received).isLessThanOrEqualTo(3);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsBulkResponse;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Not @Transactional: the pool threads must see the committed events
+@SpringBootTest(properties = "events.stats.bulk.threads=2")
+class MachineStatsBulkServiceTest {
+
+    private static final Instant START = Instant.parse("2025-03-01T00:00:00Z");
+    private static final Instant END = START.plusSeconds(6 * 3600);
+
+    @Autowired
+    private MachineStatsBulkService bulkService;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private StatsCache statsCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+        statsCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private EventRequest event(String eventId, String machineId, Instant eventTime, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-BULK";
+        e.lineId = "L-BULK";
+        e.machineId = machineId;
+        e.eventTime = eventTime;
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    @Test
+    void everyMachineMatchesItsSingleStats() {
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            // spread over 8 h so that events fall on both sides of the window
+            events.add(event("BULK-" + i, "M-BULK-" + i % 6, START.plusSeconds(i * 97L - 3600), i % 4 - 1));
+        }
+        eventService.processBatch(events);
+
+        // unaligned window: rollup hours and raw edges
+        Instant start = START.plusSeconds(1234);
+        List<String> ids = List.of("M-BULK-3", "M-BULK-0", "M-BULK-3", "M-BULK-5", "M-BULK-1", "M-NONE",
+                "M-BULK-2", "M-BULK-4");
+        MachineStatsBulkResponse response = bulkService.getStats(ids, start, END, null);
+
+        assertThat(response.complete).isTrue();
+        assertThat(response.timedOut).isEmpty();
+        assertThat(response.failed).isEmpty();
+        // request order, duplicates once
+        assertThat(response.machines.keySet())
+                .containsExactly("M-BULK-3", "M-BULK-0", "M-BULK-5", "M-BULK-1", "M-NONE", "M-BULK-2", "M-BULK-4");
+        response.machines.forEach((machineId, stats) -> {
+            MachineStatsResponse single = eventService.getStats(machineId, start, END);
+            assertThat(stats).usingRecursiveComparison().isEqualTo(single);
+        });
+        assertThat(response.machines.get("M-BULK-0").eventsCount).isPositive();
+        assertThat(response.machines.get("M-NONE").eventsCount).isZero();
+    }
+
+    @Test
+    void slowAndFailingMachinesDoNotHoldBackTheOthers() {
+        CountDownLatch release = new CountDownLatch(1);
+        MachineStatsBulkService.StatsQuery query = (machineId, start, end) -> {
+            if (machineId.equals("M-SLOW")) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (machineId.equals("M-FAIL")) {
+                throw new IllegalStateException("connection lost");
+            }
+            return EventService.machineStats(machineId, start, end, 1, 0);
+        };
+
+        try {
+            long started = System.nanoTime();
+            MachineStatsBulkResponse response = bulkService.getStats(
+                    List.of("M-SLOW", "M-1", "M-FAIL", "M-2", "M-3"), START, END, 300, query);
+
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isLessThan(5_000);
+            assertThat(response.complete).isFalse();
+            assertThat(response.machines.keySet()).containsExactly("M-1", "M-2", "M-3");
+            assertThat(response.timedOut).containsExactly("M-SLOW");
+            assertThat(response.failed).containsExactly("M-FAIL");
+        } finally {
+            release.countDown();
+        }
+
+        // the slow call finishes on its own and the pool serves the next request
+        assertThat(bulkService.getStats(List.of("M-SLOW", "M-1"), START, END, 5_000, query).complete).isTrue();
+    }
+}
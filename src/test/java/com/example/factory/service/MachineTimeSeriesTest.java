@@ -0,0 +1,144 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+import com.example.factory.repository.WindowTotals;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Not @Transactional: the time series is fed after commit.
+// A 2 hour retention lets windows reach past the time series into the database path.
+@SpringBootTest(properties = "events.timeseries.retention-hours=2")
+class MachineTimeSeriesTest {
+
+    private static final String[] MACHINES = {"M-TS-1", "M-TS-2", "M-TS-3"};
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private StatsCache statsCache;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+        statsCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private EventRequest event(String eventId, String machineId, Instant eventTime, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F01";
+        e.lineId = "L01";
+        e.machineId = machineId;
+        e.eventTime = eventTime;
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    private long[] fromRawRows(String machineId, Instant start, Instant end) {
+        WindowTotals totals = repository.sumMachineWindow(machineId, start, end);
+        return new long[]{totals.getEventsCount(), totals.getDefectsCount()};
+    }
+
+    private void assertMatchesRawRows(Instant now) {
+        Instant alignedNow = Instant.ofEpochSecond(MachineTimeSeries.minute(now) * 60);
+        List<Instant[]> windows = List.of(
+                new Instant[]{now.minusSeconds(3600), now},
+                new Instant[]{now.minusSeconds(5400 + 17), now.plusSeconds(600)},
+                new Instant[]{alignedNow.minusSeconds(3600), alignedNow},
+                new Instant[]{now.minusSeconds(90), now.minusSeconds(30)},
+                // starts before the retention window: the older part comes from the database
+                new Instant[]{now.minusSeconds(4 * 3600 + 7), now},
+                new Instant[]{now.minusSeconds(6 * 3600), now.minusSeconds(3 * 3600)}
+        );
+
+        for (String machineId : MACHINES) {
+            for (Instant[] window : windows) {
+                long[] expected = fromRawRows(machineId, window[0], window[1]);
+                MachineStatsResponse stats = eventService.getStats(machineId, window[0], window[1]);
+                assertThat(new long[]{stats.eventsCount, stats.defectsCount})
+                        .as("%s %s..%s", machineId, window[0], window[1])
+                        .containsExactly(expected);
+            }
+        }
+    }
+
+    @Test
+    void recentWindowsMatchTheDatabaseAcrossUpdatesAndReload() {
+        Instant now = Instant.now();
+        Random random = new Random(7);
+
+        // spread over the last 5 hours and up to 10 minutes ahead, ~1/10 with unknown defects
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Instant time = now.minusSeconds(5 * 3600).plusSeconds(random.nextInt(5 * 3600 + 600));
+            int defects = random.nextInt(10) == 0 ? -1 : random.nextInt(4);
+            events.add(event("TS-" + i, MACHINES[i % MACHINES.length], time, defects));
+        }
+        for (int from = 0; from < events.size(); from += 200) {
+            eventService.processBatch(events.subList(from, from + 200));
+        }
+
+        assertThat(timeSeries.coveredFromMinute()).isLessThanOrEqualTo(MachineTimeSeries.minute(now) - 110);
+        assertMatchesRawRows(now);
+
+        // updates move events to other machines and minutes, some from before the retention window
+        List<EventRequest> updates = new ArrayList<>();
+        for (int i = 0; i < 600; i += 7) {
+            Instant time = now.minusSeconds(random.nextInt(3 * 3600));
+            updates.add(event("TS-" + i, MACHINES[(i + 1) % MACHINES.length], time, random.nextInt(5)));
+        }
+        eventService.processBatch(updates);
+        assertMatchesRawRows(now);
+
+        // warming from the events table yields the same rings
+        timeSeries.reload();
+        statsCache.invalidateAll();
+        assertMatchesRawRows(now);
+    }
+
+    @Test
+    void eventsOlderThanTheRetentionAreLeftToTheDatabase() {
+        Instant now = Instant.now();
+        eventService.processBatch(List.of(
+                event("TS-OLD", MACHINES[0], now.minusSeconds(3 * 3600), 1),
+                event("TS-NEW", MACHINES[0], now.minusSeconds(60), 2)));
+
+        long[] totals = new long[2];
+        timeSeries.sum(MACHINES[0], timeSeries.coveredFromMinute(), MachineTimeSeries.minute(now) + 1, totals);
+        assertThat(totals).containsExactly(1, 2);
+
+        MachineStatsResponse stats = eventService.getStats(MACHINES[0], now.minusSeconds(4 * 3600), now);
+        assertThat(stats.eventsCount).isEqualTo(2);
+        assertThat(stats.defectsCount).isEqualTo(3);
+    }
+}
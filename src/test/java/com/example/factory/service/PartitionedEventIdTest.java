@@ -0,0 +1,115 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// event_id stays unique once events is partitioned (db/partitioning/postgresql/V9).
+// Needs an empty PostgreSQL 13+ database that only tests use:
+// mvn test -Dtest=PartitionedEventIdTest -Dpostgres.url=jdbc:postgresql://localhost:5432/factory_events_test
+@SpringBootTest(properties = "events.dedup-cache.enabled=false")
+@ActiveProfiles("partitioned")
+@EnabledIfSystemProperty(named = "postgres.url", matches = ".+")
+class PartitionedEventIdTest {
+
+    // one month apart, so the two payloads of an event land in different partitions
+    private static final Instant THIS_MONTH = Instant.now().minusSeconds(3600);
+    private static final Instant EARLIER_MONTH = THIS_MONTH.minusSeconds(35 * 86_400);
+
+    private final String prefix = "PART-" + UUID.randomUUID() + "-";
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("postgres.url"));
+        registry.add("spring.datasource.username", () -> System.getProperty("postgres.user", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getProperty("postgres.password", "postgres"));
+        registry.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+    }
+
+    @AfterEach
+    void cleanDatabase() {
+        jdbcTemplate.update("DELETE FROM events WHERE event_id LIKE ?", prefix + "%");
+    }
+
+    private static EventRequest event(String eventId, Instant eventTime, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-PART";
+        e.lineId = "L-PART";
+        e.machineId = "M-PART";
+        e.eventTime = eventTime;
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    private int rows(String eventId) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM events WHERE event_id = ?", Integer.class, eventId);
+    }
+
+    @Test
+    void batchesRacingWithDifferentEventTimesStoreOneRow() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 20; round++) {
+                String eventId = prefix + round;
+                CyclicBarrier start = new CyclicBarrier(2);
+                List<Future<BatchResponse>> futures = new ArrayList<>();
+                for (Instant eventTime : new Instant[] {THIS_MONTH, EARLIER_MONTH}) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        return eventService.processBatch(List.of(event(eventId, eventTime, 1)));
+                    }));
+                }
+
+                BatchResponse total = new BatchResponse();
+                for (Future<BatchResponse> future : futures) {
+                    total.merge(future.get());
+                }
+                assertThat(total.accepted).isEqualTo(1);
+                assertThat(total.accepted + total.updated + total.ignored).isEqualTo(2);
+                assertThat(rows(eventId)).isEqualTo(1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void updateMovingAnEventToAnotherMonthKeepsItsId() {
+        String eventId = prefix + "moved";
+        assertThat(eventService.processBatch(List.of(event(eventId, EARLIER_MONTH, 1))).accepted).isEqualTo(1);
+        assertThat(eventService.processBatch(List.of(event(eventId, THIS_MONTH, 2))).updated).isEqualTo(1);
+        assertThat(eventService.processBatch(List.of(event(eventId, EARLIER_MONTH, 3))).updated).isEqualTo(1);
+
+        assertThat(rows(eventId)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM event_ids WHERE event_id = ?", Integer.class, eventId)).isEqualTo(1);
+    }
+}
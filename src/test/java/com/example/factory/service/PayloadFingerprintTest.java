@@ -0,0 +1,104 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PayloadFingerprintTest {
+
+    private static long xxHash64(byte[] input) {
+        PayloadFingerprint.XxHash64 hash = new PayloadFingerprint.XxHash64();
+        for (byte b : input) {
+            hash.putByte(b);
+        }
+        return hash.finish();
+    }
+
+    private static EventRequest event() {
+        EventRequest e = new EventRequest();
+        e.eventId = "E-1";
+        e.eventTime = Instant.parse("2025-01-01T10:00:00Z");
+        e.factoryId = "F01";
+        e.lineId = "L01";
+        e.machineId = "M-001";
+        e.durationMs = 1000;
+        e.defectCount = 1;
+        return e;
+    }
+
+    @Test
+    void matchesReferenceXxHash64Vectors() {
+        assertThat(xxHash64(new byte[0])).isEqualTo(0xEF46DB3751D8E999L);
+        assertThat(xxHash64("abc".getBytes(StandardCharsets.US_ASCII))).isEqualTo(0x44BC2CF5AD770999L);
+        // longer than one 32-byte stripe, with a tail
+        assertThat(xxHash64("Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII)))
+                .isEqualTo(0xFBCEA83C8A378BF1L);
+    }
+
+    @Test
+    void wideWritesHashLikeTheirBytes() {
+        Random random = new Random(42);
+        for (int len = 0; len < 100; len++) {
+            byte[] bytes = new byte[len];
+            random.nextBytes(bytes);
+
+            PayloadFingerprint.XxHash64 mixed = new PayloadFingerprint.XxHash64();
+            int i = 0;
+            while (i < len) {
+                int width = new int[]{1, 4, 8}[random.nextInt(3)];
+                if (len - i < width) {
+                    width = 1;
+                }
+                long value = 0;
+                for (int k = 0; k < width; k++) {
+                    value |= (bytes[i + k] & 0xFFL) << (8 * k);
+                }
+                switch (width) {
+                    case 8 -> mixed.putLong(value);
+                    case 4 -> mixed.putInt((int) value);
+                    default -> mixed.putByte((int) value);
+                }
+                i += width;
+            }
+
+            assertThat(mixed.finish()).isEqualTo(xxHash64(bytes));
+        }
+    }
+
+    @Test
+    void everyPayloadFieldChangesTheFingerprint() {
+        long base = PayloadFingerprint.of(event());
+        assertThat(PayloadFingerprint.of(event())).isEqualTo(base);
+
+        EventRequest e;
+        e = event(); e.eventId = "E-2";
+        assertThat(PayloadFingerprint.of(e)).isNotEqualTo(base);
+        e = event(); e.factoryId = "F02";
+        assertThat(PayloadFingerprint.of(e)).isNotEqualTo(base);
+        e = event(); e.lineId = "L02";
+        assertThat(PayloadFingerprint.of(e)).isNotEqualTo(base);
+        e = event(); e.machineId = "M-002";
+        assertThat(PayloadFingerprint.of(e)).isNotEqualTo(base);
+        e = event(); e.durationMs = 1001;
+        assertThat(PayloadFingerprint.of(e)).isNotEqualTo(base);
+        e = event(); e.defectCount = 2;
+        assertThat(PayloadFingerprint.of(e)).isNotEqualTo(base);
+
+        // eventTime is compared separately and is not part of the payload
+        e = event(); e.eventTime = e.eventTime.plusSeconds(1);
+        assertThat(PayloadFingerprint.of(e)).isEqualTo(base);
+    }
+
+    @Test
+    void fieldBoundariesAndNullsAreDistinct() {
+        assertThat(PayloadFingerprint.of("E-1", "F0", "1L01", "M", 0, 0))
+                .isNotEqualTo(PayloadFingerprint.of("E-1", "F01", "L01", "M", 0, 0));
+        assertThat(PayloadFingerprint.of("E-1", null, "L01", "M", 0, 0))
+                .isNotEqualTo(PayloadFingerprint.of("E-1", "", "L01", "M", 0, 0));
+    }
+}
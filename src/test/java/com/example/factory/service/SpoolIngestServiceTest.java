@@ -0,0 +1,172 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.BatchStatusResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "events.spool.enabled=true",
+        "events.spool.retry-backoff-ms=100",
+        "events.spool.max-attempts=2"
+})
+class SpoolIngestServiceTest {
+
+    // recent enough for the time series
+    private static final Instant EARLY_TIME = Instant.now().truncatedTo(ChronoUnit.MINUTES).minusSeconds(600);
+
+    @TempDir
+    static Path spoolDir;
+
+    // A batch left in the spool by the previous run, sequence 1
+    @DynamicPropertySource
+    static void spoolDir(DynamicPropertyRegistry registry) throws IOException {
+        EventRequest early = event("SP-EARLY", 1);
+        early.machineId = "M-SPOOL-EARLY";
+        early.eventTime = EARLY_TIME;
+        try (EventSpool spool = new EventSpool(spoolDir, 1 << 20)) {
+            spool.append(List.of(early), EARLY_TIME);
+        }
+        registry.add("events.spool.dir", () -> spoolDir.toString());
+    }
+
+    @Autowired
+    private SpoolIngestService spoolIngestService;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+    }
+
+    private static EventRequest event(String eventId, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.eventTime = Instant.parse("2025-01-01T10:00:00Z");
+        e.machineId = "M-SPOOL";
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        e.factoryId = "F01";
+        e.lineId = "L01";
+        return e;
+    }
+
+    private void awaitReplayed() throws InterruptedException {
+        for (int i = 0; i < 200 && spoolIngestService.pendingBatches() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(spoolIngestService.pendingBatches()).isZero();
+    }
+
+    @Test
+    void spooledBatchesAreWrittenInOrder() throws Exception {
+        List<EventRequest> first = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            first.add(event("SP-" + i, 1));
+        }
+        EventRequest invalid = event("SP-BAD", 1);
+        invalid.durationMs = -1;
+        first.add(invalid);
+
+        BatchStatusResponse spooled = spoolIngestService.submit(first).orElseThrow();
+        // the second payload of SP-0 was received later and wins
+        BatchStatusResponse second = spoolIngestService.submit(List.of(event("SP-0", 5))).orElseThrow();
+
+        assertThat(spooled.status).isEqualTo("SPOOLED");
+        assertThat(spooled.result.rejected).isEqualTo(1);
+        awaitReplayed();
+
+        assertThat(spoolIngestService.status(spooled.token).orElseThrow().status).isEqualTo("PERSISTED");
+        assertThat(spoolIngestService.status(second.token).orElseThrow().status).isEqualTo("PERSISTED");
+        assertThat(repository.findAllById(first.stream().map(e -> e.eventId).toList())).hasSize(10);
+        assertThat(repository.findById("SP-0").map(EventEntity::getDefectCount)).contains(5);
+        assertThat(spoolIngestService.lag()).isZero();
+    }
+
+    @Test
+    void batchSpooledBeforeStartupIsCountedOnce() throws Exception {
+        awaitReplayed();
+
+        assertThat(spoolIngestService.status("spool-1").orElseThrow().status).isEqualTo("PERSISTED");
+        // replayed after the time series loaded the stored events, so only its commit counted it
+        assertThat(timeSeries.eventsInMinute("M-SPOOL-EARLY", EARLY_TIME.getEpochSecond() / 60)).isEqualTo(1);
+    }
+
+    @Test
+    void batchThatKeepsFailingGoesToTheDeadLetterDirectory() throws Exception {
+        // passes validation, but cannot be stored
+        EventRequest broken = event("SP-DEAD", 1);
+        broken.machineId = null;
+
+        BatchStatusResponse dead = spoolIngestService.submit(List.of(broken)).orElseThrow();
+        BatchStatusResponse next = spoolIngestService.submit(List.of(event("SP-NEXT", 1))).orElseThrow();
+        awaitReplayed();
+
+        assertThat(spoolIngestService.status(dead.token).orElseThrow().status).isEqualTo("FAILED");
+        assertThat(spoolIngestService.status(next.token).orElseThrow().status).isEqualTo("PERSISTED");
+        assertThat(repository.findById("SP-NEXT")).isPresent();
+        assertThat(meterRegistry.get("events.spool.dead.letter.batches").counter().count()).isEqualTo(1);
+
+        Path file = spoolDir.resolve("dead-letter")
+                .resolve(String.format("%020d.events", Long.parseLong(dead.token.substring("spool-".length()))));
+        try (InputStream in = Files.newInputStream(file)) {
+            assertThat(BinaryEventFormat.read(in)).extracting(e -> e.eventId).containsExactly("SP-DEAD");
+        }
+    }
+
+    @Test
+    void replayingABatchAgainChangesNothing() {
+        Instant received = Instant.now().minusSeconds(60);
+        eventService.processBatch(List.of(event("SP-R", 1)), received);
+        eventService.processBatch(List.of(event("SP-R", 2)), received.plusSeconds(1));
+
+        // after a crash before the checkpoint, both batches are replayed once more, in order
+        BatchResponse older = eventService.processBatch(List.of(event("SP-R", 1)), received);
+        BatchResponse newer = eventService.processBatch(List.of(event("SP-R", 2)), received.plusSeconds(1));
+
+        assertThat(older.ignored).isEqualTo(1);
+        assertThat(newer.deduped).isEqualTo(1);
+        assertThat(repository.findById("SP-R").map(EventEntity::getDefectCount)).contains(2);
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.MachineStatsResponse;
+import com.example.factory.dto.TopDefectLineResponse;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Not @Transactional: the cache is bypassed inside write transactions and invalidated after commit
+@SpringBootTest
+class StatsCacheTest {
+
+    private static final Instant DAY = Instant.parse("2025-04-01T00:00:00Z");
+    private static final Instant START = DAY.plusSeconds(3600 + 600);
+    private static final Instant END = DAY.plusSeconds(5 * 3600 + 1200);
+
+    @Autowired
+    private StatsCache statsCache;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+        statsCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private static StatsCache cache(int maxEntries, long ttlSeconds) {
+        return new StatsCache(new SimpleMeterRegistry(), true, maxEntries, ttlSeconds, false);
+    }
+
+    private static MachineStatsResponse stats(String machineId, long eventsCount) {
+        return EventService.machineStats(machineId, START, END, eventsCount, 0);
+    }
+
+    private EventRequest event(String eventId, String machineId, Instant eventTime, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = "F-CACHE";
+        e.lineId = "L-" + machineId;
+        e.machineId = machineId;
+        e.eventTime = eventTime;
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    // Computed inside a write transaction, which the cache leaves alone
+    private MachineStatsResponse uncachedStats(String machineId) {
+        return transactionTemplate.execute(tx -> eventService.getStats(machineId, START, END));
+    }
+
+    private List<TopDefectLineResponse> uncachedTopLines() {
+        return transactionTemplate.execute(tx -> eventService.getTopDefectLines("F-CACHE", START, END, 5));
+    }
+
+    private void assertCachedEqualsUncached() {
+        for (String machineId : List.of("M-C1", "M-C2")) {
+            assertThat(eventService.getStats(machineId, START, END))
+                    .usingRecursiveComparison().isEqualTo(uncachedStats(machineId));
+        }
+        assertThat(eventService.getTopDefectLines("F-CACHE", START, END, 5))
+                .usingRecursiveComparison().isEqualTo(uncachedTopLines());
+    }
+
+    @Test
+    void writesEvictOnlyTheWindowsThatContainTheirTimes() {
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(event("C-" + i, i % 2 == 0 ? "M-C1" : "M-C2", DAY.plusSeconds(i * 300L), i % 3));
+        }
+        eventService.processBatch(events);
+
+        MachineStatsResponse first = eventService.getStats("M-C1", START, END);
+        long hits = statsCache.hits();
+        assertThat(eventService.getStats("M-C1", START, END)).isSameAs(first);
+        assertThat(statsCache.hits()).isEqualTo(hits + 1);
+        assertCachedEqualsUncached();
+
+        // M-C2 inside the window: M-C1 stays cached, M-C2 and the factory's top lines are recomputed
+        eventService.processBatch(List.of(event("C-NEW-1", "M-C2", START.plusSeconds(60), 4)));
+        assertThat(eventService.getStats("M-C1", START, END)).isSameAs(first);
+        assertCachedEqualsUncached();
+
+        // end is exclusive for /stats and inclusive for top lines; start is inclusive for both
+        long invalidations = statsCache.invalidations();
+        eventService.processBatch(List.of(event("C-END", "M-C1", END, 7)));
+        assertThat(eventService.getStats("M-C1", START, END)).isSameAs(first);
+        assertThat(statsCache.invalidations()).isEqualTo(invalidations + 1);
+        eventService.processBatch(List.of(event("C-START", "M-C1", START, 1)));
+        MachineStatsResponse withStart = eventService.getStats("M-C1", START, END);
+        assertThat(withStart).isNotSameAs(first);
+        assertThat(withStart.eventsCount).isEqualTo(first.eventsCount + 1);
+        assertCachedEqualsUncached();
+
+        // a late event outside the window leaves it cached
+        eventService.processBatch(List.of(event("C-LATE", "M-C1", DAY.plusSeconds(20 * 3600), 2)));
+        assertThat(eventService.getStats("M-C1", START, END)).isSameAs(withStart);
+
+        // an update moving an event out of the window evicts it through the old time
+        // (eventTime is not part of the payload fingerprint, so the defect count changes too)
+        EventRequest moved = event("C-20", "M-C1", DAY.plusSeconds(22 * 3600), 0);
+        eventService.processBatch(List.of(moved));
+        MachineStatsResponse afterMove = eventService.getStats("M-C1", START, END);
+        assertThat(afterMove.eventsCount).isEqualTo(withStart.eventsCount - 1);
+        assertCachedEqualsUncached();
+
+        // a changed duration alone changes no stats and evicts nothing
+        invalidations = statsCache.invalidations();
+        moved.durationMs = 2000;
+        assertThat(eventService.processBatch(List.of(moved)).updated).isEqualTo(1);
+        assertThat(statsCache.invalidations()).isEqualTo(invalidations);
+        assertThat(eventService.getStats("M-C1", START, END)).isSameAs(afterMove);
+    }
+
+    @Test
+    void aResultComputedAcrossACommitIsNotCached() {
+        WrittenTimes written = new WrittenTimes();
+        written.add("M-RACE", "F-RACE", START.plusSeconds(1));
+
+        // the batch commits while the query still computes its (now outdated) result
+        MachineStatsResponse stale = EventService.machineStats("M-RACE", START, END, 1, 0);
+        statsCache.machineStats("M-RACE", START, END, () -> {
+            statsCache.invalidate(written);
+            return stale;
+        });
+
+        MachineStatsResponse fresh = EventService.machineStats("M-RACE", START, END, 2, 0);
+        assertThat(statsCache.machineStats("M-RACE", START, END, () -> fresh)).isSameAs(fresh);
+        assertThat(statsCache.machineStats("M-RACE", START, END, () -> stale)).isSameAs(fresh);
+    }
+
+    @Test
+    void entriesAreBoundedAndEvictedLeastRecentlyUsedFirst() {
+        // 16 stripes of two entries; the windows of one machine share a stripe
+        StatsCache cache = cache(32, 600);
+        MachineStatsResponse first = stats("M-LRU", 1);
+        MachineStatsResponse second = stats("M-LRU", 2);
+        cache.machineStats("M-LRU", START, END, () -> first);
+        cache.machineStats("M-LRU", START, END.plusSeconds(60), () -> second);
+        assertThat(cache.machineStats("M-LRU", START, END, () -> stats("M-LRU", 0))).isSameAs(first);
+
+        cache.machineStats("M-LRU", START, END.plusSeconds(120), () -> stats("M-LRU", 3));
+        assertThat(cache.machineStats("M-LRU", START, END, () -> stats("M-LRU", 0))).isSameAs(first);
+        assertThat(cache.machineStats("M-LRU", START, END.plusSeconds(60), () -> stats("M-LRU", 0)))
+                .isNotSameAs(second);
+
+        for (int i = 0; i < 1000; i++) {
+            String machineId = "M-BOUND-" + i;
+            cache.machineStats(machineId, START, END, () -> stats(machineId, 1));
+        }
+        assertThat(cache.size()).isLessThanOrEqualTo(32);
+    }
+
+    @Test
+    void expiredEntriesAreRecomputed() throws Exception {
+        StatsCache cache = cache(100, 0);
+        MachineStatsResponse first = stats("M-TTL", 1);
+        cache.machineStats("M-TTL", START, END, () -> first);
+        TimeUnit.MILLISECONDS.sleep(2);
+
+        MachineStatsResponse second = stats("M-TTL", 2);
+        assertThat(cache.machineStats("M-TTL", START, END, () -> second)).isSameAs(second);
+        assertThat(cache.misses()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidationCountersLastOnlyWhileTheirIdIsComputed() {
+        StatsCache cache = cache(100, 600);
+        for (int i = 0; i < 10_000; i++) {
+            WrittenTimes written = new WrittenTimes();
+            written.add("M-W-" + i, "F-W", START.plusSeconds(1));
+            cache.invalidate(written);
+        }
+        assertThat(cache.watchedIds()).isZero();
+
+        cache.machineStats("M-W-1", START, END, () -> {
+            assertThat(cache.watchedIds()).isEqualTo(1);
+            return stats("M-W-1", 1);
+        });
+        assertThatThrownBy(() -> cache.machineStats("M-W-2", START, END, () -> {
+            throw new IllegalStateException("query failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.watchedIds()).isZero();
+        assertThat(cache.size()).isEqualTo(1);
+    }
+}
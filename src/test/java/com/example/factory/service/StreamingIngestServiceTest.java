@@ -0,0 +1,164 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.BatchResponse;
+import com.example.factory.dto.EventRequest;
+import com.example.factory.repository.DistributionRepository;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Not @Transactional: every chunk commits on its own, and that is what is tested
+@SpringBootTest(properties = {
+        "events.stream.chunk-size=100",
+        "events.stream.max-rejections=5"
+})
+class StreamingIngestServiceTest {
+
+    @Autowired
+    private StreamingIngestService streamingIngestService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DistributionRepository distributionRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        distributionRepository.deleteAllBuckets();
+        dedupCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private static String line(String eventId, long durationMs) {
+        return "{\"eventId\":\"" + eventId + "\",\"eventTime\":\"2025-01-01T10:00:00Z\","
+                + "\"machineId\":\"M-STREAM\",\"durationMs\":" + durationMs + ","
+                + "\"defectCount\":1,\"factoryId\":\"F01\",\"lineId\":\"L01\"}\n";
+    }
+
+    @Test
+    void ndjsonUploadIsProcessedInChunks() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            body.append(line("S-" + i, 1000));
+        }
+        // duplicates across chunk boundaries and invalid events
+        for (int i = 0; i < 20; i++) {
+            body.append(line("S-" + i, 1000));
+        }
+        for (int i = 0; i < 10; i++) {
+            body.append(line("BAD-" + i, -1));
+        }
+
+        BatchResponse response = streamingIngestService.ingest(
+                new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(response.accepted).isEqualTo(250);
+        assertThat(response.deduped).isEqualTo(20);
+        assertThat(response.rejected).isEqualTo(10);
+        assertThat(response.rejections).hasSize(5);
+        assertThat(repository.count()).isEqualTo(250);
+    }
+
+    @Test
+    void malformedLineKeepsTheChunksCommittedBeforeIt() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            body.append(line("S-" + i, 1000));
+        }
+        body.append("{\"eventId\":\"S-TORN\",\"eventTime\":\n");
+        for (int i = 250; i < 300; i++) {
+            body.append(line("S-" + i, 1000));
+        }
+
+        assertThatThrownBy(() -> streamingIngestService.ingest(
+                new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(JsonProcessingException.class);
+
+        // the two full chunks committed, the 50 events read after them and everything after the bad line did not
+        assertThat(repository.count()).isEqualTo(200);
+        assertThat(repository.findById("S-199")).isPresent();
+        assertThat(repository.findById("S-200")).isEmpty();
+    }
+
+    private static EventRequest event(String eventId, long durationMs) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.eventTime = Instant.parse("2025-01-01T10:00:00Z");
+        e.machineId = "M-STREAM-BIN";
+        e.durationMs = durationMs;
+        e.defectCount = 1;
+        e.factoryId = "F01";
+        e.lineId = "L01";
+        return e;
+    }
+
+    @Test
+    void binaryUploadIsProcessedLikeNdjson() throws Exception {
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            events.add(event("SB-" + i, 1000));
+        }
+        for (int i = 0; i < 20; i++) {
+            events.add(event("SB-" + i, 1000));
+        }
+        for (int i = 0; i < 10; i++) {
+            events.add(event("BAD-B-" + i, -1));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BinaryEventFormat.write(events, body);
+
+        BatchResponse response = streamingIngestService.ingestBinary(new ByteArrayInputStream(body.toByteArray()));
+
+        assertThat(response.accepted).isEqualTo(250);
+        assertThat(response.deduped).isEqualTo(20);
+        assertThat(response.rejected).isEqualTo(10);
+        assertThat(response.rejections).hasSize(5);
+        assertThat(repository.count()).isEqualTo(250);
+    }
+
+    @Test
+    void truncatedBinaryUploadKeepsTheChunksCommittedBeforeIt() throws Exception {
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            events.add(event("SB-" + i, 1000));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BinaryEventFormat.write(events, body);
+        byte[] truncated = Arrays.copyOf(body.toByteArray(), body.size() - 3);
+
+        assertThatThrownBy(() -> streamingIngestService.ingestBinary(new ByteArrayInputStream(truncated)))
+                .isInstanceOf(BinaryEventFormat.MalformedException.class);
+
+        assertThat(repository.count()).isEqualTo(200);
+        assertThat(repository.findById("SB-199")).isPresent();
+        assertThat(repository.findById("SB-200")).isEmpty();
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.factory.service;
+
+import com.example.factory.dto.EventRequest;
+import com.example.factory.dto.TopDefectMachineResponse;
+import com.example.factory.dto.TopDefectMachinesResponse;
+import com.example.factory.entity.EventEntity;
+import com.example.factory.repository.EventRepository;
+import com.example.factory.repository.MachineHourlyRollupRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Few approximate counters, so approximate mode has to evict
+@SpringBootTest(properties = "events.topk.approximate-counters=8")
+class TopDefectMachinesServiceTest {
+
+    private static final Instant FROM = Instant.parse("2025-03-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2025-03-02T00:00:00Z");
+
+    @Autowired
+    private TopDefectMachinesService topDefectMachinesService;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private MachineHourlyRollupRepository rollupRepository;
+
+    @Autowired
+    private DedupCache dedupCache;
+
+    @Autowired
+    private MachineTimeSeries timeSeries;
+
+    @AfterEach
+    void cleanDatabase() {
+        repository.deleteAllInBatch();
+        rollupRepository.deleteAllInBatch();
+        dedupCache.invalidateAll();
+        timeSeries.reload();
+    }
+
+    private EventRequest event(String eventId, String factoryId, String machineId, Instant eventTime, int defectCount) {
+        EventRequest e = new EventRequest();
+        e.eventId = eventId;
+        e.factoryId = factoryId;
+        e.lineId = "L01";
+        e.machineId = machineId;
+        e.eventTime = eventTime;
+        e.durationMs = 1000;
+        e.defectCount = defectCount;
+        return e;
+    }
+
+    // 40 machines in 2 factories; M-TK-0..3 collect most defects, ~1/10 unknown (-1), some outside the window
+    private void ingest() {
+        Random random = new Random(17);
+        List<EventRequest> events = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            int machine = random.nextInt(3) == 0 ? random.nextInt(4) : random.nextInt(40);
+            Instant time = FROM.minusSeconds(3600).plusSeconds(random.nextInt(26 * 3600));
+            int defects = random.nextInt(10) == 0 ? -1 : random.nextInt(machine < 4 ? 8 : 3);
+            events.add(event("TK-" + i, "F-TK-" + (machine % 2), "M-TK-" + machine, time, defects));
+        }
+        for (int from = 0; from < events.size(); from += 500) {
+            eventService.processBatch(events.subList(from, from + 500));
+        }
+    }
+
+    // machineId -> {known defects, events} in [FROM, TO]
+    private Map<String, long[]> fromRawRows(String factoryId) {
+        return repository.findAll().stream()
+                .filter(e -> factoryId == null || e.getFactoryId().equals(factoryId))
+                .filter(e -> !e.getEventTime().isBefore(FROM) && !e.getEventTime().isAfter(TO))
+                .collect(Collectors.toMap(
+                        EventEntity::getMachineId,
+                        e -> new long[]{Math.max(0, e.getDefectCount()), 1},
+                        (a, b) -> new long[]{a[0] + b[0], a[1] + b[1]}));
+    }
+
+    @Test
+    void exactModeMatchesAFullSortOfTheRawRows() {
+        ingest();
+
+        for (String factoryId : new String[]{null, "F-TK-0", "F-TK-1"}) {
+            Map<String, long[]> expected = fromRawRows(factoryId);
+            List<String> expectedOrder = expected.entrySet().stream()
+                    .sorted(Comparator.<Map.Entry<String, long[]>>comparingLong(e -> e.getValue()[0]).reversed()
+                            .thenComparing(Map.Entry::getKey))
+                    .limit(5)
+                    .map(Map.Entry::getKey)
+                    .toList();
+
+            TopDefectMachinesResponse top = topDefectMachinesService.getTopDefectMachines(
+                    factoryId, FROM, TO, 5, TopDefectMachinesService.Mode.EXACT);
+
+            assertThat(top.exact).isTrue();
+            assertThat(top.machines).extracting(m -> m.machineId).containsExactlyElementsOf(expectedOrder);
+            for (TopDefectMachineResponse m : top.machines) {
+                assertThat(m.totalDefects).isEqualTo(expected.get(m.machineId)[0]);
+                assertThat(m.eventCount).isEqualTo(expected.get(m.machineId)[1]);
+                assertThat(m.maxError).isZero();
+            }
+        }
+    }
+
+    @Test
+    void approximateModeBoundsEveryCount() {
+        ingest();
+        Map<String, long[]> expected = fromRawRows(null);
+
+        TopDefectMachinesResponse top = topDefectMachinesService.getTopDefectMachines(
+                null, FROM, TO, 4, TopDefectMachinesService.Mode.APPROXIMATE);
+
+        assertThat(top.exact).isFalse();
+        assertThat(top.mode).isEqualTo("APPROXIMATE");
+        assertThat(top.machines).extracting(m -> m.machineId)
+                .containsExactlyInAnyOrder("M-TK-0", "M-TK-1", "M-TK-2", "M-TK-3");
+        for (TopDefectMachineResponse m : top.machines) {
+            long actual = expected.get(m.machineId)[0];
+            assertThat(m.totalDefects).isGreaterThanOrEqualTo(actual);
+            assertThat(m.totalDefects - m.maxError).isLessThanOrEqualTo(actual);
+            assertThat(m.eventCount).isNull();
+        }
+
+        // one factory with a limit above the counters: enough counters for every machine, so nothing is evicted
+        TopDefectMachinesResponse all = topDefectMachinesService.getTopDefectMachines(
+                "F-TK-1", FROM, TO, 50, TopDefectMachinesService.Mode.APPROXIMATE);
+        assertThat(all.exact).isTrue();
+        assertThat(all.machines).allSatisfy(m -> {
+            assertThat(m.maxError).isZero();
+            assertThat(m.totalDefects).isEqualTo(fromRawRows("F-TK-1").get(m.machineId)[0]);
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.factory.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class TopKTest {
+
+    private record Item(String id, long value) {}
+
+    private static final Comparator<Item> LARGEST_FIRST =
+            Comparator.comparingLong(Item::value).reversed().thenComparing(Item::id);
+
+    @Test
+    void boundedHeapMatchesAFullSort() {
+        Random random = new Random(11);
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            // many ties, so the id tie-break decides
+            items.add(new Item("I-" + i, random.nextInt(50)));
+        }
+
+        for (int k : new int[]{0, 1, 10, 4_999, 5_000, 6_000}) {
+            TopK<Item> top = new TopK<>(k, LARGEST_FIRST);
+            items.forEach(top::offer);
+
+            assertThat(top.result())
+                    .as("k=%d", k)
+                    .containsExactlyElementsOf(items.stream().sorted(LARGEST_FIRST).limit(k).toList());
+        }
+    }
+
+    @Test
+    void spaceSavingFindsHeavyHittersWithinItsErrorBound() {
+        Random random = new Random(13);
+        Map<String, Long> truth = new HashMap<>();
+        SpaceSaving counters = new SpaceSaving(100);
+
+        // 5 heavy keys among 10 000 light ones, in random order
+        for (int i = 0; i < 200_000; i++) {
+            String key = random.nextInt(4) == 0 ? "HEAVY-" + random.nextInt(5) : "K-" + random.nextInt(10_000);
+            long weight = 1 + random.nextInt(3);
+            counters.offer(key, weight);
+            truth.merge(key, weight, Long::sum);
+        }
+
+        long total = truth.values().stream().mapToLong(Long::longValue).sum();
+        assertThat(counters.totalWeight()).isEqualTo(total);
+        assertThat(counters.exact()).isFalse();
+
+        List<SpaceSaving.Counter> top = counters.top(5);
+        assertThat(top).extracting(c -> c.key)
+                .containsExactlyInAnyOrder("HEAVY-0", "HEAVY-1", "HEAVY-2", "HEAVY-3", "HEAVY-4");
+        for (SpaceSaving.Counter c : counters.top(100)) {
+            long actual = truth.get(c.key);
+            assertThat(c.count).isGreaterThanOrEqualTo(actual);
+            assertThat(c.count - c.error).isLessThanOrEqualTo(actual);
+            assertThat(c.error).isLessThanOrEqualTo(total / 100);
+        }
+    }
+
+    @Test
+    void spaceSavingIsExactWhileEveryKeyHasACounter() {
+        SpaceSaving counters = new SpaceSaving(3);
+        counters.offer("A", 2);
+        counters.offer("B", 5);
+        counters.offer("A", 4);
+        counters.offer("C", 6);
+
+        assertThat(counters.exact()).isTrue();
+        assertThat(counters.top(3)).extracting(c -> c.key, c -> c.count, c -> c.error)
+                .containsExactly(
+                        tuple("A", 6L, 0L),
+                        tuple("C", 6L, 0L),
+                        tuple("B", 5L, 0L));
+    }
+}